@@ -0,0 +1,64 @@
+// Standard base-32 geohash, matching com.emma.alert.core.Geohash on the UE side.
+// UEs report their position as a geohash delta against the last one sent on the
+// connection: the length of the shared prefix (ghp) and the new suffix (gh).
+
+const BASE32 = '0123456789bcdefghjkmnpqrstuvwxyz';
+const MAX_PRECISION = 12;
+
+function isGeohash(value) {
+    if (typeof value !== 'string' || value.length === 0 || value.length > MAX_PRECISION) {
+        return false;
+    }
+    for (const c of value) {
+        if (!BASE32.includes(c)) {
+            return false;
+        }
+    }
+    return true;
+}
+
+// Centre of the cell as { lat, lon }
+function decode(hash) {
+    let minLat = -90, maxLat = 90, minLon = -180, maxLon = 180;
+    let lonBit = true;
+    for (const c of hash) {
+        const value = BASE32.indexOf(c);
+        for (let bit = 4; bit >= 0; bit--) {
+            const set = ((value >> bit) & 1) === 1;
+            if (lonBit) {
+                const mid = (minLon + maxLon) / 2;
+                if (set) {
+                    minLon = mid;
+                } else {
+                    maxLon = mid;
+                }
+            } else {
+                const mid = (minLat + maxLat) / 2;
+                if (set) {
+                    minLat = mid;
+                } else {
+                    maxLat = mid;
+                }
+            }
+            lonBit = !lonBit;
+        }
+    }
+    return { lat: (minLat + maxLat) / 2, lon: (minLon + maxLon) / 2 };
+}
+
+// Applies a { gh, ghp } delta to the previous hash; null if the delta does not fit it
+function applyDelta(previous, gh, ghp) {
+    const base = previous || '';
+    const prefix = Number.isInteger(ghp) ? ghp : 0;
+    if (typeof gh !== 'string' || prefix < 0 || prefix > base.length) {
+        return null;
+    }
+    const hash = base.slice(0, prefix) + gh;
+    return isGeohash(hash) ? hash : null;
+}
+
+module.exports = {
+    isGeohash,
+    decode,
+    applyDelta
+};
@@ -5,6 +5,27 @@ const cors = require('cors');
 const morgan = require('morgan');
 const compression = require('compression');
 const { v4: uuidv4 } = require('uuid');
+const wire = require('./wire');
+const geohash = require('./geohash');
+
+// Alerts kept in the sequence index for replay to reconnecting UEs, and how many are read
+// from Redis per replay page
+const REPLAY_WINDOW = 1000;
+const MAX_REPLAY = 100;
+
+// UEs send a heartbeat after at most 2 minutes without traffic, so only a UE silent for
+// longer than this gets a ping; one still unanswered at the next sweep is dropped
+const SILENT_MS = 150000;
+const LIVENESS_SWEEP_MS = 30000;
+
+// Location changes are kept on the connection and written to emma:ue_store at most this often
+const LOCATION_FLUSH_MS = 10000;
+
+// UE-side epoch millis as ISO text; undefined if absent or out of range
+function ackTime(millis) {
+    const date = typeof millis === 'number' ? new Date(millis) : null;
+    return date && !isNaN(date.getTime()) ? date.toISOString() : undefined;
+}
 
 class AlertDistributor {
     constructor() {
@@ -18,9 +39,34 @@ class AlertDistributor {
             totalConnections: 0,
             activeConnections: 0,
             alertsDistributed: 0,
-            totalBytesTransferred: 0
+            totalBytesTransferred: 0,
+            binaryFramesReceived: 0,
+            binaryFramesSent: 0,
+            ackFramesReceived: 0,
+            acksReceived: 0,
+            alertsReplayed: 0,
+            locationUpdates: 0,
+            locationWrites: 0,
+            livenessPings: 0,
+            livenessTerminations: 0,
+            sessionsResumed: 0,
+            sessionsExpired: 0,
+            admissionRejected: 0
         };
         
+        // How long a dropped UE can resume its session without registering again
+        this.sessionTtlSeconds = parseInt(process.env.SESSION_TTL_SECONDS || '600', 10);
+        // Token bucket for WebSocket upgrades, so a reconnect storm after a restart is
+        // spread out with Retry-After instead of all landing at once
+        this.admission = {
+            ratePerSecond: parseInt(process.env.WS_MAX_CONNECTS_PER_SEC || '200', 10),
+            tokens: 0,
+            refilledAt: Date.now(),
+            rejectedThisSecond: 0,
+            windowStart: Date.now()
+        };
+        this.admission.tokens = this.admission.ratePerSecond;
+        
         this.setupMiddleware();
         this.setupRoutes();
     }
@@ -45,8 +91,13 @@ class AlertDistributor {
         
         // Statistics endpoint
         this.app.get('/stats', (req, res) => {
+            const wireFormats = { json: 0, cbor: 0 };
+            for (const ws of this.connections.values()) {
+                wireFormats[ws.wireFormat === wire.FORMAT_CBOR ? 'cbor' : 'json']++;
+            }
             res.json({
                 ...this.connectionStats,
+                wireFormats,
                 connectedUEs: Array.from(this.connections.keys()),
                 timestamp: new Date().toISOString()
             });
@@ -139,7 +190,8 @@ class AlertDistributor {
                 },
                 threshold: 1024,
                 concurrencyLimit: 10
-            }
+            },
+            verifyClient: (info, callback) => this.admitConnection(callback)
         });
         
         this.wss.on('connection', (ws, req) => {
@@ -147,23 +199,36 @@ class AlertDistributor {
             ws.connectionId = connectionId;
             ws.isAlive = true;
             ws.lastSeen = new Date().toISOString();
+            ws.lastSeenAt = Date.now();
             
             this.connectionStats.totalConnections++;
             this.connectionStats.activeConnections++;
             
             console.log(`📱 New WebSocket connection: ${connectionId}`);
             
-            // Handle messages from UE
-            ws.on('message', (data) => {
+            // Handle messages from UE: JSON text, or CBOR once negotiated at registration
+            ws.on('message', (data, isBinary) => {
+                // Any frame proves the UE is there
+                ws.lastSeenAt = Date.now();
+                ws.isAlive = true;
                 try {
-                    const message = JSON.parse(data.toString());
+                    let message;
+                    if (isBinary) {
+                        message = wire.decode(data);
+                        this.connectionStats.binaryFramesReceived++;
+                    } else {
+                        message = JSON.parse(data.toString());
+                    }
+                    if (message === null || typeof message !== 'object') {
+                        throw new Error('Message is not an object');
+                    }
                     this.handleUEMessage(ws, message);
                 } catch (error) {
                     console.error('Invalid message from UE:', error);
-                    ws.send(JSON.stringify({
+                    this.send(ws, {
                         type: 'error',
                         message: 'Invalid message format'
-                    }));
+                    });
                 }
             });
             
@@ -182,6 +247,7 @@ class AlertDistributor {
             ws.on('pong', () => {
                 ws.isAlive = true;
                 ws.lastSeen = new Date().toISOString();
+                ws.lastSeenAt = Date.now();
             });
             
             // Send welcome message
@@ -193,45 +259,100 @@ class AlertDistributor {
             }));
         });
         
-        // Setup heartbeat interval
+        // Liveness sweep: UE traffic and heartbeats keep a connection alive, so only
+        // silent connections are pinged
         const heartbeatInterval = setInterval(() => {
+            const now = Date.now();
             this.wss.clients.forEach((ws) => {
                 if (!ws.isAlive) {
                     console.log(`💔 Terminating dead connection: ${ws.ueId || ws.connectionId}`);
+                    this.connectionStats.livenessTerminations++;
                     this.handleUEDisconnect(ws);
                     return ws.terminate();
                 }
                 
-                ws.isAlive = false;
-                ws.ping();
+                if (now - ws.lastSeenAt >= SILENT_MS) {
+                    ws.isAlive = false;
+                    ws.ping();
+                    this.connectionStats.livenessPings++;
+                }
             });
-        }, 30000); // 30 second heartbeat
+        }, LIVENESS_SWEEP_MS);
+        
+        const locationFlushInterval = setInterval(() => this.flushLocations(), LOCATION_FLUSH_MS);
         
         this.wss.on('close', () => {
             clearInterval(heartbeatInterval);
+            clearInterval(locationFlushInterval);
         });
         
         console.log(`🌐 WebSocket server listening on port ${wsPort}`);
     }
     
+    // Admits an upgrade if the bucket has a token. Otherwise answers 503 with a Retry-After
+    // that grows with the number of UEs turned away this second, so the herd is told to
+    // spread over as many seconds as the rate needs; clients add their own jitter.
+    admitConnection(callback) {
+        const admission = this.admission;
+        const now = Date.now();
+        admission.tokens = Math.min(admission.ratePerSecond,
+            admission.tokens + (now - admission.refilledAt) * admission.ratePerSecond / 1000);
+        admission.refilledAt = now;
+        if (now - admission.windowStart >= 1000) {
+            admission.windowStart = now;
+            admission.rejectedThisSecond = 0;
+        }
+        if (admission.tokens >= 1) {
+            admission.tokens -= 1;
+            callback(true);
+            return;
+        }
+        admission.rejectedThisSecond++;
+        this.connectionStats.admissionRejected++;
+        const retryAfter = Math.max(1, Math.ceil(admission.rejectedThisSecond / admission.ratePerSecond));
+        callback(false, 503, 'Too many connection attempts', { 'Retry-After': String(retryAfter) });
+    }
+    
+    // Sends a message in the connection's negotiated wire format
+    send(ws, message) {
+        if (ws.wireFormat === wire.FORMAT_CBOR) {
+            ws.send(wire.encode(message), { binary: true });
+            this.connectionStats.binaryFramesSent++;
+        } else {
+            ws.send(JSON.stringify(message));
+        }
+    }
+    
     handleUEMessage(ws, message) {
         switch (message.type) {
             case 'register':
                 this.registerUE(ws, message);
                 break;
                 
+            case 'resume':
+                this.resumeSession(ws, message);
+                break;
+                
             case 'heartbeat':
                 ws.lastSeen = new Date().toISOString();
-                ws.send(JSON.stringify({
+                // UEs piggyback small position changes on heartbeats
+                if (message.gh !== undefined) {
+                    this.applyLocationDelta(ws, message);
+                }
+                this.send(ws, {
                     type: 'heartbeat_ack',
                     timestamp: new Date().toISOString()
-                }));
+                });
                 break;
                 
             case 'alert_ack':
                 this.handleAlertAck(ws, message);
                 break;
                 
+            case 'alert_ack_batch':
+                this.handleAlertAckBatch(ws, message);
+                break;
+                
             case 'location_update':
                 this.handleLocationUpdate(ws, message);
                 break;
@@ -242,13 +363,13 @@ class AlertDistributor {
     }
     
     async registerUE(ws, message) {
-        const { ueId, location, capabilities } = message;
+        const { ueId, location, capabilities, lastSeq } = message;
         
         if (!ueId) {
-            ws.send(JSON.stringify({
+            this.send(ws, {
                 type: 'error',
                 message: 'UE ID is required for registration'
-            }));
+            });
             return;
         }
         
@@ -257,6 +378,8 @@ class AlertDistributor {
         ws.location = location;
         ws.capabilities = capabilities || {};
         ws.registeredAt = new Date().toISOString();
+        ws.geohash = geohash.isGeohash(message.geohash) ? message.geohash : undefined;
+        this.holdForReplay(ws, lastSeq);
         
         // Add to connections map
         this.connections.set(ueId, ws);
@@ -286,20 +409,180 @@ class AlertDistributor {
             console.error('Failed to store UE registration:', error);
         }
         
-        // Send registration confirmation
+        // CBOR if the UE offered it, else JSON
+        const offered = capabilities && Array.isArray(capabilities.wireFormats) ? capabilities.wireFormats : [];
+        const wireFormat = offered.includes(wire.FORMAT_CBOR) ? wire.FORMAT_CBOR : wire.FORMAT_JSON;
+        ws.sessionToken = uuidv4();
+        this.confirmRegistration(ws, wireFormat, false);
+        this.saveSession(ws).catch(error => console.error('Failed to store UE session:', error));
+        await this.replayMissed(ws, lastSeq);
+        
+        console.log(`📱 Registered UE: ${ueId} at ${location ? `${location.lat},${location.lon}` : 'unknown location'}`);
+    }
+    
+    // The confirmation always goes out as JSON and names the wire format for everything
+    // after it. It carries the session token the UE presents to resume after a drop.
+    confirmRegistration(ws, wireFormat, resumed) {
+        ws.wireFormat = wire.FORMAT_JSON;
         ws.send(JSON.stringify({
             type: 'registration_confirmed',
-            ueId,
+            ueId: ws.ueId,
+            wireFormat,
+            ackBatch: true,
+            sessionToken: ws.sessionToken,
+            resumed,
             timestamp: new Date().toISOString(),
-            message: 'Successfully registered with EMMA system'
+            message: resumed ? 'Session resumed' : 'Successfully registered with EMMA system'
         }));
+        ws.wireFormat = wireFormat;
+    }
+    
+    // Everything needed to pick a connection back up, kept for sessionTtlSeconds
+    saveSession(ws) {
+        if (!ws.sessionToken || !ws.ueId) {
+            return Promise.resolve();
+        }
+        return this.redisClient.set(`emma:ue_session:${ws.sessionToken}`, JSON.stringify({
+            ueId: ws.ueId,
+            location: ws.location,
+            capabilities: ws.capabilities,
+            wireFormat: ws.wireFormat,
+            registeredAt: ws.registeredAt
+        }), { EX: this.sessionTtlSeconds });
+    }
+    
+    // A reconnecting UE presents its session token instead of registering again. The
+    // session restores capabilities and wire format; an unknown or expired token gets
+    // session_expired and the UE falls back to register.
+    async resumeSession(ws, message) {
+        const { ueId, sessionToken, location, lastSeq } = message;
+        let session = null;
+        if (ueId && typeof sessionToken === 'string') {
+            try {
+                const data = await this.redisClient.get(`emma:ue_session:${sessionToken}`);
+                session = data ? JSON.parse(data) : null;
+            } catch (error) {
+                console.error('Failed to load UE session:', error);
+            }
+        }
+        if (!session || session.ueId !== ueId) {
+            this.connectionStats.sessionsExpired++;
+            ws.send(JSON.stringify({
+                type: 'session_expired',
+                timestamp: new Date().toISOString()
+            }));
+            return;
+        }
         
-        console.log(`📱 Registered UE: ${ueId} at ${location ? `${location.lat},${location.lon}` : 'unknown location'}`);
+        ws.ueId = ueId;
+        ws.location = location || session.location;
+        ws.capabilities = session.capabilities || {};
+        ws.registeredAt = session.registeredAt;
+        ws.sessionToken = sessionToken;
+        ws.geohash = geohash.isGeohash(message.geohash) ? message.geohash : undefined;
+        this.holdForReplay(ws, lastSeq);
+        this.connections.set(ueId, ws);
+        this.connectionStats.sessionsResumed++;
+        
+        try {
+            await this.redisClient.hSet('emma:ue_store', ueId, JSON.stringify({
+                ueId,
+                location: ws.location,
+                capabilities: ws.capabilities,
+                connectionStatus: 'connected',
+                lastSeen: new Date().toISOString()
+            }));
+            await this.redisClient.sAdd('emma:active_ues', ueId);
+            await this.redisClient.publish('emma:ue_status', JSON.stringify({
+                action: 'resume',
+                ueId,
+                location: ws.location,
+                timestamp: new Date().toISOString()
+            }));
+        } catch (error) {
+            console.error('Failed to store UE resume:', error);
+        }
+        
+        this.confirmRegistration(ws, session.wireFormat || wire.FORMAT_JSON, true);
+        await this.replayMissed(ws, lastSeq);
+    }
+    
+    // A UE with a high-water mark gets no live alerts until its replay has caught up: they
+    // are held on the connection and sent after it. The UE keeps the highest sequence it
+    // has seen, so a live alert overtaking the replay would make it skip every missed
+    // alert not yet replayed, now and on its next resume.
+    holdForReplay(ws, lastSeq) {
+        ws.replayHold = Number.isSafeInteger(lastSeq) && lastSeq > 0 ? [] : null;
+    }
+    
+    // Sends a reconnecting UE every alert in the sequence index after its high-water mark,
+    // oldest first, MAX_REPLAY per page, then the live alerts held meanwhile that the
+    // replay did not already include. If Redis fails part way the connection is closed
+    // rather than released, so the UE resumes from the last alert it did get.
+    async replayMissed(ws, lastSeq) {
+        if (!ws.replayHold) {
+            return;
+        }
+        const sent = new Set();
+        let cursor = lastSeq;
+        try {
+            while (ws.readyState === WebSocket.OPEN) {
+                const entries = await this.redisClient.zRangeWithScores('emma:alert_seq_index',
+                    `(${cursor}`, '+inf', { BY: 'SCORE', LIMIT: { offset: 0, count: MAX_REPLAY } });
+                if (entries.length === 0) {
+                    break;
+                }
+                const stored = await this.redisClient.hmGet('emma:alert_store', entries.map(entry => entry.value));
+                entries.forEach((entry, i) => {
+                    if (!stored[i] || ws.readyState !== WebSocket.OPEN) {
+                        return;
+                    }
+                    let alertData;
+                    try {
+                        alertData = JSON.parse(stored[i]);
+                    } catch (error) {
+                        return;
+                    }
+                    this.send(ws, {
+                        type: 'emergency_alert',
+                        alert: alertData,
+                        seq: entry.score,
+                        replayed: true,
+                        timestamp: new Date().toISOString(),
+                        distributorId: 'emma-alert-distributor'
+                    });
+                    sent.add(entry.score);
+                });
+                cursor = entries[entries.length - 1].score;
+                if (entries.length < MAX_REPLAY) {
+                    break;
+                }
+            }
+        } catch (error) {
+            console.error(`Failed to replay alerts to UE ${ws.ueId}:`, error);
+            ws.replayHold = null;
+            ws.close(1011, 'Replay failed');
+            return;
+        } finally {
+            this.connectionStats.alertsReplayed += sent.size;
+        }
+        
+        const held = ws.replayHold;
+        ws.replayHold = null;
+        held.sort((a, b) => (a.seq || 0) - (b.seq || 0));
+        for (const alertMessage of held) {
+            if (!sent.has(alertMessage.seq) && ws.readyState === WebSocket.OPEN) {
+                this.send(ws, alertMessage);
+            }
+        }
+        console.log(`🔁 Replayed ${sent.size} missed alerts to UE ${ws.ueId} after seq ${lastSeq}, then ${held.length} held`);
     }
     
     handleUEDisconnect(ws) {
-        if (ws.ueId) {
+        // Skipped when a newer connection has already resumed this UE
+        if (ws.ueId && this.connections.get(ws.ueId) === ws) {
             this.connections.delete(ws.ueId);
+            this.saveSession(ws).catch(console.error);
             
             // Update Redis
             this.redisClient.sRem('emma:active_ues', ws.ueId).catch(console.error);
@@ -311,6 +594,12 @@ class AlertDistributor {
                         const ueData = JSON.parse(data);
                         ueData.connectionStatus = 'disconnected';
                         ueData.lastSeen = new Date().toISOString();
+                        // A move not yet flushed would otherwise be lost with the connection
+                        if (ws.locationDirty) {
+                            ws.locationDirty = false;
+                            ueData.location = ws.location;
+                            ueData.geohash = ws.geohash;
+                        }
                         
                         return this.redisClient.hSet('emma:ue_store', ws.ueId, JSON.stringify(ueData));
                     }
@@ -350,25 +639,62 @@ class AlertDistributor {
         }
     }
     
+    // Numbers the alert from emma:alert_seq and indexes it by sequence so UEs that miss it
+    // can have it replayed. Alerts injected over HTTP are not in emma:alert_store yet, so
+    // they are added there; ones the publisher already stored are left as they are.
+    async assignSequence(alertData) {
+        try {
+            const seq = await this.redisClient.incr('emma:alert_seq');
+            if (alertData.identifier) {
+                await this.redisClient.multi()
+                    .hSetNX('emma:alert_store', String(alertData.identifier), JSON.stringify(alertData))
+                    .zAdd('emma:alert_seq_index', { score: seq, value: String(alertData.identifier) })
+                    // Same 24h expiry the publisher sets
+                    .expire('emma:alert_store', 86400)
+                    .zRemRangeByRank('emma:alert_seq_index', 0, -REPLAY_WINDOW - 1)
+                    .exec();
+            }
+            return seq;
+        } catch (error) {
+            console.error('Failed to assign alert sequence:', error);
+            return undefined;
+        }
+    }
+    
     async distributeAlert(alertData) {
         let distributed = 0;
+        const seq = await this.assignSequence(alertData);
         const alertMessage = {
             type: 'emergency_alert',
             alert: alertData,
+            seq,
             timestamp: new Date().toISOString(),
             distributorId: 'emma-alert-distributor'
         };
         
+        // Serialized once per format, not per UE
         const messageString = JSON.stringify(alertMessage);
         const messageSize = Buffer.byteLength(messageString, 'utf8');
+        let messageFrame = null;
         
         // Distribute to all connected UEs
         for (const [ueId, ws] of this.connections.entries()) {
             if (ws.readyState === WebSocket.OPEN) {
                 try {
-                    ws.send(messageString);
+                    if (ws.replayHold) {
+                        ws.replayHold.push(alertMessage);
+                    } else if (ws.wireFormat === wire.FORMAT_CBOR) {
+                        if (messageFrame === null) {
+                            messageFrame = wire.encode(alertMessage);
+                        }
+                        ws.send(messageFrame, { binary: true });
+                        this.connectionStats.binaryFramesSent++;
+                        this.connectionStats.totalBytesTransferred += messageFrame.length;
+                    } else {
+                        ws.send(messageString);
+                        this.connectionStats.totalBytesTransferred += messageSize;
+                    }
                     distributed++;
-                    this.connectionStats.totalBytesTransferred += messageSize;
                     
                     // Update UE statistics
                     const ueData = await this.redisClient.hGet('emma:ue_store', ueId);
@@ -406,6 +732,8 @@ class AlertDistributor {
     handleAlertAck(ws, message) {
         const { alertId, received, displayed } = message;
         console.log(`✅ Alert acknowledgment from UE ${ws.ueId}: ${alertId} (received: ${received}, displayed: ${displayed})`);
+        this.connectionStats.ackFramesReceived++;
+        this.connectionStats.acksReceived++;
         
         // Store acknowledgment in Redis
         this.redisClient.hSet('emma:alert_acks', 
@@ -420,28 +748,107 @@ class AlertDistributor {
         ).catch(console.error);
     }
     
+    // Acks a UE coalesced into one frame (offered as ackBatch in registration_confirmed).
+    // Each record keeps the UE-side receivedAt/displayedAt times, so delivery latency can
+    // still be computed per alert; all records go to Redis in one HSET.
+    handleAlertAckBatch(ws, message) {
+        const acks = Array.isArray(message.acks) ? message.acks : [];
+        const fields = {};
+        const timestamp = new Date().toISOString();
+        for (const ack of acks) {
+            if (!ack || typeof ack.alertId !== 'string') {
+                continue;
+            }
+            fields[`${ack.alertId}:${ws.ueId}`] = JSON.stringify({
+                ueId: ws.ueId,
+                alertId: ack.alertId,
+                received: ack.received === true,
+                displayed: ack.displayed === true,
+                receivedAt: ackTime(ack.receivedAt),
+                displayedAt: ackTime(ack.displayedAt),
+                timestamp
+            });
+        }
+        const count = Object.keys(fields).length;
+        this.connectionStats.ackFramesReceived++;
+        this.connectionStats.acksReceived += count;
+        if (count === 0) {
+            return;
+        }
+        console.log(`✅ ${count} alert acknowledgments from UE ${ws.ueId}`);
+        
+        this.redisClient.hSet('emma:alert_acks', fields).catch(console.error);
+    }
+    
+    // Either a full { location } (older UEs, simulators) or a geohash delta. Only the
+    // connection is updated here; flushLocations writes Redis.
     handleLocationUpdate(ws, message) {
+        if (!ws.ueId) {
+            return;
+        }
+        if (message.gh !== undefined) {
+            this.applyLocationDelta(ws, message);
+            return;
+        }
         const { location } = message;
-        if (location && ws.ueId) {
+        if (location) {
             ws.location = location;
-            
-            // Update location in Redis
-            this.redisClient.hGet('emma:ue_store', ws.ueId)
-                .then(data => {
-                    if (data) {
-                        const ueData = JSON.parse(data);
-                        ueData.location = location;
-                        ueData.lastSeen = new Date().toISOString();
-                        
-                        return this.redisClient.hSet('emma:ue_store', ws.ueId, JSON.stringify(ueData));
-                    }
-                })
-                .catch(console.error);
-                
+            ws.geohash = undefined;
+            ws.locationDirty = true;
+            this.connectionStats.locationUpdates++;
             console.log(`📍 Location update from UE ${ws.ueId}: ${location.lat}, ${location.lon}`);
         }
     }
     
+    applyLocationDelta(ws, message) {
+        const hash = geohash.applyDelta(ws.geohash, message.gh, message.ghp);
+        if (!hash) {
+            console.log(`Ignoring geohash delta from UE ${ws.ueId} that does not fit its last position`);
+            return;
+        }
+        ws.geohash = hash;
+        ws.location = geohash.decode(hash);
+        ws.locationDirty = true;
+        this.connectionStats.locationUpdates++;
+    }
+    
+    // Writes the locations that changed since the last flush: one HMGET and one HSET for
+    // all of them rather than a read and a write per update
+    async flushLocations() {
+        const dirty = [];
+        for (const ws of this.connections.values()) {
+            if (ws.locationDirty) {
+                ws.locationDirty = false;
+                dirty.push(ws);
+            }
+        }
+        if (dirty.length === 0) {
+            return;
+        }
+        try {
+            const records = await this.redisClient.hmGet('emma:ue_store', dirty.map(ws => ws.ueId));
+            const lastSeen = new Date().toISOString();
+            const fields = {};
+            dirty.forEach((ws, i) => {
+                if (!records[i]) {
+                    return;
+                }
+                const ueData = JSON.parse(records[i]);
+                ueData.location = ws.location;
+                ueData.geohash = ws.geohash;
+                ueData.lastSeen = lastSeen;
+                fields[ws.ueId] = JSON.stringify(ueData);
+            });
+            const count = Object.keys(fields).length;
+            if (count > 0) {
+                await this.redisClient.hSet('emma:ue_store', fields);
+                this.connectionStats.locationWrites += count;
+            }
+        } catch (error) {
+            console.error('Failed to store UE locations:', error);
+        }
+    }
+    
     async start() {
         try {
             // Start HTTP server
@@ -467,8 +874,14 @@ class AlertDistributor {
     async stop() {
         console.log('🛑 Shutting down Alert Distributor...');
         
-        // Close WebSocket server
+        // Close WebSocket server. Sessions are saved first so UEs can resume on the next
+        // instance; 1012 (service restart) with a retry hint keeps them from all coming
+        // back in the same second.
         if (this.wss) {
+            const clients = Array.from(this.wss.clients);
+            await Promise.all(clients.map(ws => this.saveSession(ws).catch(console.error)));
+            const retryAfter = Math.max(1, Math.ceil(clients.length / this.admission.ratePerSecond));
+            clients.forEach(ws => ws.close(1012, `retry-after=${retryAfter}`));
             this.wss.close();
         }
         
@@ -489,24 +902,25 @@ class AlertDistributor {
     }
 }
 
-// Start the service
-const distributor = new AlertDistributor();
-
-// Graceful shutdown
-process.on('SIGTERM', async () => {
-    await distributor.stop();
-    process.exit(0);
-});
-
-process.on('SIGINT', async () => {
-    await distributor.stop();
-    process.exit(0);
-});
-
-// Start the service
-distributor.start().catch(error => {
-    console.error('Failed to start Alert Distributor:', error);
-    process.exit(1);
-});
+// Start the service when run directly; tests require the class without starting it
+if (require.main === module) {
+    const distributor = new AlertDistributor();
+    
+    // Graceful shutdown
+    process.on('SIGTERM', async () => {
+        await distributor.stop();
+        process.exit(0);
+    });
+    
+    process.on('SIGINT', async () => {
+        await distributor.stop();
+        process.exit(0);
+    });
+    
+    distributor.start().catch(error => {
+        console.error('Failed to start Alert Distributor:', error);
+        process.exit(1);
+    });
+}
 
 module.exports = AlertDistributor;
\ No newline at end of file
@@ -0,0 +1,181 @@
+const WebSocket = require('ws');
+const AlertDistributor = require('./server');
+
+// Just enough of node-redis v4 for sequencing, the replay index and UE bookkeeping.
+// onRead runs before each replay page is answered, to interleave live traffic.
+function fakeRedis() {
+    const counters = new Map();
+    const hashes = new Map();
+    const index = []; // { score, value }, ascending
+    const hash = key => {
+        if (!hashes.has(key)) {
+            hashes.set(key, new Map());
+        }
+        return hashes.get(key);
+    };
+    const client = {
+        onRead: null,
+        async incr(key) {
+            counters.set(key, (counters.get(key) || 0) + 1);
+            return counters.get(key);
+        },
+        multi() {
+            const ops = [];
+            const chain = {
+                hSetNX(key, field, value) {
+                    ops.push(() => hash(key).has(field) || hash(key).set(field, value));
+                    return chain;
+                },
+                zAdd(key, { score, value }) {
+                    ops.push(() => index.push({ score, value }));
+                    return chain;
+                },
+                expire() {
+                    return chain;
+                },
+                zRemRangeByRank(key, start, stop) {
+                    ops.push(() => index.splice(0, Math.max(0, index.length + stop + 1)));
+                    return chain;
+                },
+                async exec() {
+                    ops.forEach(op => op());
+                }
+            };
+            return chain;
+        },
+        async zRangeWithScores(key, min, max, { LIMIT }) {
+            if (client.onRead) {
+                await client.onRead();
+            }
+            const after = Number(min.slice(1));
+            return index.filter(entry => entry.score > after).slice(LIMIT.offset, LIMIT.offset + LIMIT.count);
+        },
+        async hmGet(key, fields) {
+            return fields.map(field => hash(key).get(field) || null);
+        },
+        async hGet(key, field) {
+            return hash(key).get(field) || null;
+        },
+        async hSet(key, field, value) {
+            hash(key).set(field, value);
+        },
+        async get() {
+            return null;
+        },
+        async set() {},
+        async sAdd() {},
+        async publish() {}
+    };
+    return client;
+}
+
+function fakeSocket() {
+    return {
+        readyState: WebSocket.OPEN,
+        frames: [],
+        send(data) {
+            this.frames.push(JSON.parse(data));
+        },
+        close() {
+            this.readyState = WebSocket.CLOSED;
+        },
+        alertSeqs() {
+            return this.frames.filter(frame => frame.type === 'emergency_alert').map(frame => frame.seq);
+        }
+    };
+}
+
+function alert(n) {
+    return { identifier: `ALERT-${n}`, headline: `Alert ${n}` };
+}
+
+describe('Alert replay', () => {
+    let distributor;
+    let redisClient;
+
+    beforeEach(() => {
+        jest.spyOn(console, 'log').mockImplementation(() => {});
+        distributor = new AlertDistributor();
+        redisClient = fakeRedis();
+        distributor.redisClient = redisClient;
+    });
+
+    afterEach(() => {
+        jest.restoreAllMocks();
+    });
+
+    test('replays more than MAX_REPLAY missed alerts in order while live alerts arrive', async () => {
+        for (let n = 1; n <= 250; n++) {
+            await distributor.distributeAlert(alert(n));
+        }
+        // Three live alerts land during each replay page
+        let live = 250;
+        redisClient.onRead = async () => {
+            for (let i = 0; i < 3; i++) {
+                await distributor.distributeAlert(alert(++live));
+            }
+        };
+
+        const ws = fakeSocket();
+        await distributor.registerUE(ws, { type: 'register', ueId: 'ue-1', lastSeq: 10 });
+        redisClient.onRead = null;
+        await distributor.distributeAlert(alert(++live));
+
+        // Every alert after seq 10 exactly once and in order, so the UE's highest seq
+        // never passes one it has not received, wherever the socket might have dropped
+        const seqs = ws.alertSeqs();
+        expect(live).toBe(260);
+        expect(seqs).toEqual(Array.from({ length: live - 10 }, (_, i) => i + 11));
+        expect(ws.frames.filter(frame => frame.replayed).length).toBeGreaterThan(240);
+        expect(ws.replayHold).toBeNull();
+    });
+
+    test('a resume after a drop mid-replay continues from the last alert received', async () => {
+        for (let n = 1; n <= 150; n++) {
+            await distributor.distributeAlert(alert(n));
+        }
+        const first = fakeSocket();
+        let pages = 0;
+        redisClient.onRead = async () => {
+            await distributor.distributeAlert(alert(1000 + pages));
+            if (++pages === 2) {
+                first.close();
+            }
+        };
+        await distributor.registerUE(first, { type: 'register', ueId: 'ue-2', lastSeq: 5 });
+        redisClient.onRead = null;
+
+        const received = first.alertSeqs();
+        const lastSeq = Math.max(...received);
+        expect(received).toEqual(Array.from({ length: received.length }, (_, i) => i + 6));
+
+        const second = fakeSocket();
+        await distributor.registerUE(second, { type: 'register', ueId: 'ue-2', lastSeq });
+        const all = received.concat(second.alertSeqs());
+        expect(all).toEqual(Array.from({ length: all.length }, (_, i) => i + 6));
+        expect(all[all.length - 1]).toBe(152);
+    });
+
+    test('live alerts go straight out when there is nothing to replay', async () => {
+        const ws = fakeSocket();
+        await distributor.registerUE(ws, { type: 'register', ueId: 'ue-3' });
+        await distributor.distributeAlert(alert(1));
+        expect(ws.alertSeqs()).toEqual([1]);
+        expect(ws.replayHold).toBeNull();
+    });
+
+    test('a failed replay closes the socket instead of releasing held alerts', async () => {
+        for (let n = 1; n <= 20; n++) {
+            await distributor.distributeAlert(alert(n));
+        }
+        jest.spyOn(console, 'error').mockImplementation(() => {});
+        redisClient.onRead = async () => {
+            await distributor.distributeAlert(alert(99));
+            throw new Error('connection lost');
+        };
+        const ws = fakeSocket();
+        await distributor.registerUE(ws, { type: 'register', ueId: 'ue-4', lastSeq: 3 });
+        expect(ws.alertSeqs()).toEqual([]);
+        expect(ws.readyState).toBe(WebSocket.CLOSED);
+    });
+});
@@ -0,0 +1,253 @@
+// CBOR (RFC 8949) subset for binary WebSocket frames, matching
+// com.emma.alert.websocket.Cbor on the UE side: integers, doubles, booleans,
+// null, text and byte strings, arrays and maps with text keys. No tags and no
+// indefinite lengths. Messages are the same objects as the JSON ones.
+
+const MAX_DEPTH = 32;
+
+class Encoder {
+    constructor() {
+        this.buf = Buffer.allocUnsafe(256);
+        this.size = 0;
+    }
+
+    ensure(extra) {
+        if (this.size + extra > this.buf.length) {
+            const next = Buffer.allocUnsafe(Math.max(this.buf.length * 2, this.size + extra));
+            this.buf.copy(next, 0, 0, this.size);
+            this.buf = next;
+        }
+    }
+
+    head(major, value) {
+        this.ensure(9);
+        const type = major << 5;
+        if (value < 24) {
+            this.buf[this.size++] = type | value;
+        } else if (value < 0x100) {
+            this.buf[this.size++] = type | 24;
+            this.buf[this.size++] = value;
+        } else if (value < 0x10000) {
+            this.buf[this.size++] = type | 25;
+            this.buf.writeUInt16BE(value, this.size);
+            this.size += 2;
+        } else if (value < 0x100000000) {
+            this.buf[this.size++] = type | 26;
+            this.buf.writeUInt32BE(value, this.size);
+            this.size += 4;
+        } else {
+            this.buf[this.size++] = type | 27;
+            this.buf.writeBigUInt64BE(BigInt(value), this.size);
+            this.size += 8;
+        }
+    }
+
+    write(value, depth = 0) {
+        if (depth > MAX_DEPTH) {
+            throw new Error('CBOR value nested too deeply');
+        }
+        if (value === null || value === undefined) {
+            this.ensure(1);
+            this.buf[this.size++] = 0xf6;
+        } else if (typeof value === 'boolean') {
+            this.ensure(1);
+            this.buf[this.size++] = value ? 0xf5 : 0xf4;
+        } else if (typeof value === 'number') {
+            if (Number.isSafeInteger(value) && !Object.is(value, -0)) {
+                if (value >= 0) {
+                    this.head(0, value);
+                } else {
+                    this.head(1, -1 - value);
+                }
+            } else {
+                this.ensure(9);
+                this.buf[this.size++] = 0xfb;
+                this.buf.writeDoubleBE(value, this.size);
+                this.size += 8;
+            }
+        } else if (typeof value === 'string') {
+            const length = Buffer.byteLength(value, 'utf8');
+            this.head(3, length);
+            this.ensure(length);
+            this.size += this.buf.write(value, this.size, 'utf8');
+        } else if (Buffer.isBuffer(value)) {
+            this.head(2, value.length);
+            this.ensure(value.length);
+            value.copy(this.buf, this.size);
+            this.size += value.length;
+        } else if (Array.isArray(value)) {
+            this.head(4, value.length);
+            for (const item of value) {
+                this.write(item, depth + 1);
+            }
+        } else if (value instanceof Date) {
+            this.write(value.toISOString(), depth);
+        } else if (typeof value === 'object') {
+            // Same keys JSON.stringify would keep
+            const keys = Object.keys(value).filter(key => value[key] !== undefined && typeof value[key] !== 'function');
+            this.head(5, keys.length);
+            for (const key of keys) {
+                this.write(key, depth + 1);
+                this.write(value[key], depth + 1);
+            }
+        } else {
+            this.write(String(value), depth);
+        }
+    }
+}
+
+function encode(value) {
+    const encoder = new Encoder();
+    encoder.write(value);
+    return encoder.buf.subarray(0, encoder.size);
+}
+
+class Decoder {
+    constructor(buf) {
+        this.buf = buf;
+        this.pos = 0;
+    }
+
+    need(length) {
+        if (length > this.buf.length - this.pos) {
+            throw new Error(`CBOR length ${length} exceeds the frame`);
+        }
+    }
+
+    uint(bytes) {
+        this.need(bytes);
+        let value;
+        if (bytes === 1) {
+            value = this.buf[this.pos];
+        } else if (bytes === 2) {
+            value = this.buf.readUInt16BE(this.pos);
+        } else if (bytes === 4) {
+            value = this.buf.readUInt32BE(this.pos);
+        } else {
+            const big = this.buf.readBigUInt64BE(this.pos);
+            if (big > BigInt(Number.MAX_SAFE_INTEGER)) {
+                throw new Error('CBOR integer out of range');
+            }
+            value = Number(big);
+        }
+        this.pos += bytes;
+        return value;
+    }
+
+    argument(info) {
+        if (info < 24) {
+            return info;
+        }
+        switch (info) {
+            case 24: return this.uint(1);
+            case 25: return this.uint(2);
+            case 26: return this.uint(4);
+            case 27: return this.uint(8);
+            default: throw new Error(`CBOR indefinite or reserved length ${info}`);
+        }
+    }
+
+    read(depth = 0) {
+        if (depth > MAX_DEPTH) {
+            throw new Error('CBOR value nested too deeply');
+        }
+        this.need(1);
+        const initial = this.buf[this.pos++];
+        const major = initial >> 5;
+        const info = initial & 0x1f;
+        if (major === 7) {
+            switch (initial) {
+                case 0xf4: return false;
+                case 0xf5: return true;
+                case 0xf6:
+                case 0xf7: return null;
+                case 0xf9: return halfToNumber(this.uint(2));
+                case 0xfa: {
+                    this.need(4);
+                    const value = this.buf.readFloatBE(this.pos);
+                    this.pos += 4;
+                    return value;
+                }
+                case 0xfb: {
+                    this.need(8);
+                    const value = this.buf.readDoubleBE(this.pos);
+                    this.pos += 8;
+                    return value;
+                }
+                default: throw new Error(`Unsupported CBOR simple value ${initial}`);
+            }
+        }
+        const argument = this.argument(info);
+        switch (major) {
+            case 0: return argument;
+            case 1: return -1 - argument;
+            case 2: {
+                this.need(argument);
+                const bytes = Buffer.from(this.buf.subarray(this.pos, this.pos + argument));
+                this.pos += argument;
+                return bytes;
+            }
+            case 3: {
+                this.need(argument);
+                const text = this.buf.toString('utf8', this.pos, this.pos + argument);
+                this.pos += argument;
+                return text;
+            }
+            case 4: {
+                // Each item takes at least a byte, so a hostile count cannot allocate much
+                this.need(argument);
+                const list = new Array(argument);
+                for (let i = 0; i < argument; i++) {
+                    list[i] = this.read(depth + 1);
+                }
+                return list;
+            }
+            case 5: {
+                this.need(argument);
+                const map = {};
+                for (let i = 0; i < argument; i++) {
+                    const key = this.read(depth + 1);
+                    if (typeof key !== 'string') {
+                        throw new Error('CBOR map key is not text');
+                    }
+                    const value = this.read(depth + 1);
+                    if (key !== '__proto__') {
+                        map[key] = value;
+                    }
+                }
+                return map;
+            }
+            default: throw new Error(`Unsupported CBOR major type ${major}`);
+        }
+    }
+}
+
+function halfToNumber(half) {
+    const exponent = (half >> 10) & 0x1f;
+    const mantissa = half & 0x3ff;
+    let value;
+    if (exponent === 0) {
+        value = mantissa * Math.pow(2, -24);
+    } else if (exponent === 31) {
+        value = mantissa === 0 ? Infinity : NaN;
+    } else {
+        value = (mantissa + 1024) * Math.pow(2, exponent - 25);
+    }
+    return half & 0x8000 ? -value : value;
+}
+
+function decode(buf) {
+    const decoder = new Decoder(buf);
+    const value = decoder.read();
+    if (decoder.pos !== buf.length) {
+        throw new Error(`${buf.length - decoder.pos} trailing bytes after CBOR value`);
+    }
+    return value;
+}
+
+module.exports = {
+    FORMAT_CBOR: 'cbor',
+    FORMAT_JSON: 'json',
+    encode,
+    decode
+};
@@ -0,0 +1,67 @@
+const fs = require('fs');
+const path = require('path');
+const wire = require('./wire');
+
+// The same vectors com.emma.alert.websocket.CborTest runs Cbor.java against
+const vectors = JSON.parse(fs.readFileSync(path.join(__dirname, '..', 'shared', 'cbor-vectors.json'), 'utf8'));
+
+const SPECIAL_FLOATS = { NaN: NaN, Infinity: Infinity, '-Infinity': -Infinity, '-0': -0 };
+
+// A vector's JSON value as wire.decode returns it
+function expected(json) {
+    if (Array.isArray(json)) {
+        return json.map(expected);
+    }
+    if (json !== null && typeof json === 'object') {
+        if ('$bytes' in json) {
+            return Buffer.from(json.$bytes, 'hex');
+        }
+        if ('$float' in json) {
+            return typeof json.$float === 'string' ? SPECIAL_FLOATS[json.$float] : json.$float;
+        }
+        return Object.fromEntries(json.$map.map(([key, value]) => [key, expected(value)]));
+    }
+    return json;
+}
+
+// Object.is for numbers, so -0 and NaN count; maps must keep wire order
+function expectValue(actual, want) {
+    if (Buffer.isBuffer(want)) {
+        expect(Buffer.isBuffer(actual)).toBe(true);
+        expect(actual.toString('hex')).toBe(want.toString('hex'));
+    } else if (Array.isArray(want)) {
+        expect(Array.isArray(actual)).toBe(true);
+        expect(actual.length).toBe(want.length);
+        want.forEach((item, i) => expectValue(actual[i], item));
+    } else if (want !== null && typeof want === 'object') {
+        expect(actual !== null && typeof actual === 'object' && !Array.isArray(actual)).toBe(true);
+        expect(Object.keys(actual)).toEqual(Object.keys(want));
+        Object.keys(want).forEach(key => expectValue(actual[key], want[key]));
+    } else {
+        expect(actual).toBe(want);
+    }
+}
+
+describe('CBOR vectors', () => {
+    for (const vector of vectors.valid) {
+        test(`decodes ${vector.name}`, () => {
+            expectValue(wire.decode(Buffer.from(vector.hex, 'hex')), expected(vector.value));
+        });
+        if (vector.canonical) {
+            test(`encodes ${vector.name}`, () => {
+                expect(Buffer.from(wire.encode(expected(vector.value))).toString('hex')).toBe(vector.hex);
+            });
+        }
+    }
+
+    for (const vector of vectors.invalid) {
+        test(`rejects ${vector.name}`, () => {
+            expect(() => wire.decode(Buffer.from(vector.hex, 'hex'))).toThrow();
+        });
+        if ('value' in vector) {
+            test(`refuses to encode ${vector.name}`, () => {
+                expect(() => wire.encode(expected(vector.value))).toThrow();
+            });
+        }
+    }
+});
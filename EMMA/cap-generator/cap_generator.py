@@ -24,9 +24,10 @@ class SecureMediaContainer:
         temp_dir = f"temp_{alert_id}"
         os.makedirs(temp_dir, exist_ok=True)
 
-        # Add attachments to zip
+        # Add attachments to zip, stored uncompressed: media is already compressed, and UEs
+        # read stored entries straight out of the memory-mapped container
         zip_path = f"{alert_id}.smc.zip"
-        with zipfile.ZipFile(zip_path, 'w') as zipf:
+        with zipfile.ZipFile(zip_path, 'w', compression=zipfile.ZIP_STORED) as zipf:
             for attachment in attachments:
                 zipf.write(attachment, os.path.basename(attachment))
 
@@ -64,7 +64,7 @@ class SecureMediaContainer:
         self.cert_path = cert_path
 
     def create_zip(self, out_path):
-        with zipfile.ZipFile(out_path, 'w') as zf:
+        with zipfile.ZipFile(out_path, 'w', compression=zipfile.ZIP_STORED) as zf:
             for f in self.attachments:
                 zf.write(f, os.path.basename(f))
 
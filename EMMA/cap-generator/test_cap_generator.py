@@ -1,4 +1,5 @@
 import os
+import zipfile
 import pytest
 from cap_generator import CAPGenerator, SecureMediaContainer
 from lxml import etree
@@ -103,6 +104,10 @@ def test_secure_media_container():
         assert os.path.exists(zip_path)
         assert os.path.exists(xml_path)
         
+        # Attachments are stored so UEs can serve them from the mapped container
+        with zipfile.ZipFile(zip_path) as zipf:
+            assert all(info.compress_type == zipfile.ZIP_STORED for info in zipf.infolist())
+        
         # Verify SMC XML structure
         tree = etree.parse(xml_path)
         root = tree.getroot()
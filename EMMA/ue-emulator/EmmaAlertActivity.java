@@ -3,10 +3,15 @@ import android.os.Bundle;
 import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.LinearLayout;
-import android.graphics.BitmapFactory;
+import android.util.Log;
 import java.io.File;
+import java.io.IOException;
+import com.emma.alert.core.SmcPack;
+import com.emma.alert.media.AlertImageLoader;
 
 public class EmmaAlertActivity extends Activity {
+    private static final String TAG = "EmmaAlertActivity";
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -21,11 +26,30 @@ public class EmmaAlertActivity extends Activity {
         layout.addView(tv);
 
         File dir = new File(mediaDir);
-        for (File f : dir.listFiles()) {
-            if (f.getName().endsWith(".jpg")) {
-                ImageView iv = new ImageView(this);
-                iv.setImageBitmap(BitmapFactory.decodeFile(f.getAbsolutePath()));
-                layout.addView(iv);
+        SmcPack pack = null;
+        try {
+            // Mapped once per process, so recreating the activity re-reads nothing from disk
+            pack = SmcPack.get(dir);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot map media pack in " + dir, e);
+        }
+        // Decoded off the UI thread at screen size, from the mapping where there is a pack
+        AlertImageLoader images = AlertImageLoader.get(this);
+        if (pack != null) {
+            for (SmcPack.Entry entry : pack.getEntries()) {
+                if ("image".equals(entry.type)) {
+                    ImageView iv = new ImageView(this);
+                    layout.addView(iv);
+                    images.load(new File(dir, entry.name).getPath(), iv);
+                }
+            }
+        } else {
+            for (File f : dir.listFiles()) {
+                if (f.getName().endsWith(".jpg")) {
+                    ImageView iv = new ImageView(this);
+                    layout.addView(iv);
+                    images.load(f.getAbsolutePath(), iv);
+                }
             }
         }
         setContentView(layout);
@@ -7,12 +7,23 @@ import java.io.*;
 import java.security.*;
 import java.security.spec.*;
 import java.util.zip.*;
-import javax.xml.parsers.*;
-import org.w3c.dom.*;
+import com.emma.alert.core.CapAlert;
+import com.emma.alert.core.CapDecoder;
+import com.emma.alert.core.SmcCache;
+import com.emma.alert.core.SmcDownloader;
+import com.emma.alert.core.SmcExtractor;
 
 public class EmmaAlertService extends Service {
+    private SmcCache mediaCache;
+    private SmcDownloader downloader;
+    private final SmcExtractor extractor = new SmcExtractor();
+
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
+        if (mediaCache == null) {
+            mediaCache = new SmcCache(new File(getFilesDir(), "smc"), SmcCache.DEFAULT_MAX_BYTES);
+            downloader = new SmcDownloader(new File(getFilesDir(), "smc/.partial"));
+        }
         new Thread(this::listenMulticast).start();
         return START_STICKY;
     }
@@ -22,69 +33,65 @@ public class EmmaAlertService extends Service {
             MulticastSocket socket = new MulticastSocket(5000);
             socket.joinGroup(InetAddress.getByName("239.255.0.1"));
             byte[] buf = new byte[2048];
+            CapDecoder decoder = new CapDecoder();
+            CapAlert alert = new CapAlert();
             while (true) {
                 DatagramPacket packet = new DatagramPacket(buf, buf.length);
                 socket.receive(packet);
-                String xml = new String(packet.getData(), 0, packet.getLength());
-                if (xml.contains("mediaLocator")) {
-                    String url = extractMediaLocator(xml);
-                    fetchAndShowMedia(url, xml);
+                // one pass pulls both the locator and the text
+                if (decoder.decode(buf, 0, packet.getLength(), alert) && alert.hasMedia()) {
+                    fetchAndShowMedia(alert.mediaLocator, alert.description);
                 }
             }
         } catch (Exception e) { e.printStackTrace(); }
     }
 
-    String extractMediaLocator(String xml) throws Exception {
-        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-        Document doc = dbf.newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes()));
-        NodeList params = doc.getElementsByTagName("parameter");
-        for (int i = 0; i < params.getLength(); i++) {
-            Element param = (Element) params.item(i);
-            if (param.getElementsByTagName("valueName").item(0).getTextContent().equals("mediaLocator")) {
-                return param.getElementsByTagName("value").item(0).getTextContent();
-            }
+    void fetchAndShowMedia(String url, String alertText) throws Exception {
+        // Media already extracted for this locator's content is reused if the CDN says 304;
+        // large SMCs resume from the .part file a dropped connection left behind
+        SmcCache.Validators validators = mediaCache.validators(url);
+        boolean conditional = validators != null && mediaCache.contains(validators.hash);
+        SmcDownloader.Download download = downloader.get(new URL(url), conditional ? validators : null);
+        SmcCache.Entry entry = null;
+        if (download.notModified) {
+            entry = mediaCache.lookup(validators.hash);
+            if (entry == null) download = downloader.get(new URL(url), null);
         }
-        return null;
-    }
-
-    void fetchAndShowMedia(String url, String xml) throws Exception {
-        // Download zip
-        InputStream in = new URL(url).openStream();
-        File zipFile = new File(getFilesDir(), "alert123.zip");
-        try (FileOutputStream out = new FileOutputStream(zipFile)) {
-            byte[] buf = new byte[1024];
-            int n;
-            while ((n = in.read(buf)) > 0) out.write(buf, 0, n);
+        if (entry == null) {
+            // One pass over the download: hash it and store it as the entry's media pack
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            File staging = mediaCache.newStagingDir();
+            SmcExtractor.Manifest manifest;
+            try (SmcDownloader.Download body = download;
+                 InputStream in = new DigestInputStream(body.getBody(), sha256)) {
+                // Entry paths are checked and sizes capped; only compressed entries are unzipped
+                if (body.getFile() != null) {
+                    drain(in);
+                    manifest = extractor.pack(body.getFile(), staging);
+                } else {
+                    manifest = extractor.pack(in, staging);
+                }
+            } catch (IOException e) {
+                SmcCache.deleteRecursively(staging);
+                throw e;
+            }
+            String hash = SmcCache.toHex(sha256.digest());
+            mediaCache.putValidators(url, new SmcCache.Validators(download.etag, download.lastModified, hash));
+            // Verify signature over the hash (omitted for brevity, see README)
+            SmcExtractor.MediaEntry primary = manifest.getPrimary();
+            entry = mediaCache.commit(hash, staging, primary == null ? null : primary.name);
         }
-        // Verify signature (omitted for brevity, see README)
-        // Unzip and launch UI
-        unzip(zipFile, new File(getFilesDir(), "alert123"));
+        // Launch UI
         Intent i = new Intent(this, EmmaAlertActivity.class);
-        i.putExtra("alertText", extractText(xml));
-        i.putExtra("mediaDir", new File(getFilesDir(), "alert123").getAbsolutePath());
+        i.putExtra("alertText", alertText);
+        i.putExtra("mediaDir", entry.dir.getAbsolutePath());
         i.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
         startActivity(i);
     }
 
-    void unzip(File zip, File outDir) throws IOException {
-        outDir.mkdirs();
-        try (ZipInputStream zis = new ZipInputStream(new FileInputStream(zip))) {
-            ZipEntry entry;
-            while ((entry = zis.getNextEntry()) != null) {
-                File out = new File(outDir, entry.getName());
-                try (FileOutputStream fos = new FileOutputStream(out)) {
-                    byte[] buf = new byte[1024];
-                    int n;
-                    while ((n = zis.read(buf)) > 0) fos.write(buf, 0, n);
-                }
-            }
-        }
-    }
-
-    String extractText(String xml) throws Exception {
-        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-        Document doc = dbf.newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes()));
-        return doc.getElementsByTagName("description").item(0).getTextContent();
+    static void drain(InputStream in) throws IOException {
+        byte[] buf = new byte[SmcExtractor.BUFFER_SIZE];
+        while (in.read(buf) > 0) { }
     }
 
     @Override
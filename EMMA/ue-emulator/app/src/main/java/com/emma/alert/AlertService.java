@@ -4,57 +4,66 @@ import android.app.Service;
 import android.content.Intent;
 import android.os.IBinder;
 import android.util.Log;
-import java.net.DatagramPacket;
-import java.net.InetAddress;
-import java.net.MulticastSocket;
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.security.Signature;
-import java.security.cert.CertificateFactory;
-import java.security.cert.X509Certificate;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
+import com.emma.alert.core.AlertDeduplicator;
+import com.emma.alert.core.AlertProcessor;
+import com.emma.alert.core.AlertSink;
+import com.emma.alert.core.Geofence;
+import com.emma.alert.core.MulticastAlertReceiver;
+import com.emma.alert.core.PipelineConfig;
+import com.emma.alert.core.SmcVerifier;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
 
-public class AlertService extends Service {
+/**
+ * Android adapter for the receive pipeline in emma-ue-core: supplies the cache dir and
+ * bundled public key, and turns processed alerts into DISPLAY_ALERT broadcasts. Videos are
+ * offered for playback while they download (PROGRESSIVE_MEDIA) and withdrawn again
+ * (MEDIA_REJECTED) if the container fails its signature check. Alerts whose CAP area does not
+ * cover the UE's last known location are dropped before download.
+ */
+public class AlertService extends Service implements AlertSink {
+    public static final String ACTION_DISPLAY_ALERT = "com.emma.alert.DISPLAY_ALERT";
+    public static final String ACTION_PROGRESSIVE_MEDIA = "com.emma.alert.PROGRESSIVE_MEDIA";
+    public static final String ACTION_MEDIA_REJECTED = "com.emma.alert.MEDIA_REJECTED";
     private static final String TAG = "EMMAAlertService";
     private static final String MULTICAST_GROUP = "239.255.0.1";
     private static final int MULTICAST_PORT = 5000;
-    private static final String CDN_BASE_URL = "http://http-cdn:3000/alerts/";
+    private static final String CDN_BASE_URL = AlertProcessor.DEFAULT_CDN_BASE_URL;
     private static final String PUBLIC_KEY_PATH = "public_key.pem";
     
-    private boolean running = false;
-    private Thread multicastThread;
-    private X509Certificate publicKey;
+    // Parsed once per process; the service may be recreated many times
+    private static volatile PublicKey publicKey;
+    private AlertProcessor processor;
+    private MulticastAlertReceiver receiver;
     
     @Override
     public void onCreate() {
         super.onCreate();
         loadPublicKey();
+        PipelineConfig config = new PipelineConfig();
+        config.progressiveVideo = true;
+        // Location comes from MainActivity; alerts for other areas are never downloaded
+        config.geofence = Geofence.getDefault();
+        // Without the bundled key media is rejected, never shown unverified
+        SmcVerifier verifier = publicKey != null ? new SmcVerifier(publicKey) : SmcVerifier.keyUnavailable();
+        processor = new AlertProcessor(this, this::getCacheDir, verifier, CDN_BASE_URL,
+                config, AlertDeduplicator.getDefault());
+        processor.start();
+        receiver = new MulticastAlertReceiver(MULTICAST_GROUP, MULTICAST_PORT, processor);
     }
     
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        if (!running) {
-            running = true;
-            startMulticastListener();
-        }
+        receiver.start();
         return START_STICKY;
     }
     
     @Override
     public void onDestroy() {
-        running = false;
-        if (multicastThread != null) {
-            multicastThread.interrupt();
-        }
+        receiver.stop();
+        processor.stop();
+        Log.i(TAG, "Pipeline: " + processor.metricsSummary());
         super.onDestroy();
     }
     
@@ -64,163 +73,38 @@ public class AlertService extends Service {
     }
     
     private void loadPublicKey() {
-        try {
-            InputStream is = getAssets().open(PUBLIC_KEY_PATH);
-            CertificateFactory cf = CertificateFactory.getInstance("X.509");
-            publicKey = (X509Certificate) cf.generateCertificate(is);
-            is.close();
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to load public key", e);
-        }
-    }
-    
-    private void startMulticastListener() {
-        multicastThread = new Thread(() -> {
-            try {
-                MulticastSocket socket = new MulticastSocket(MULTICAST_PORT);
-                InetAddress group = InetAddress.getByName(MULTICAST_GROUP);
-                socket.joinGroup(group);
-                
-                byte[] buffer = new byte[4096];
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                
-                while (running) {
-                    socket.receive(packet);
-                    String xml = new String(packet.getData(), 0, packet.getLength());
-                    processAlert(xml);
-                }
-                
-                socket.leaveGroup(group);
-                socket.close();
-            } catch (Exception e) {
-                Log.e(TAG, "Multicast listener error", e);
-            }
-        });
-        multicastThread.start();
-    }
-    
-    private void processAlert(String xml) {
-        try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.parse(new java.io.ByteArrayInputStream(xml.getBytes()));
-            
-            // Extract alert information
-            NodeList infoNodes = doc.getElementsByTagName("info");
-            if (infoNodes.getLength() > 0) {
-                Element info = (Element) infoNodes.item(0);
-                String description = getElementText(info, "description");
-                
-                // Check for media
-                String mediaLocator = getElementText(info, "mediaLocator");
-                if (mediaLocator != null) {
-                    String alertId = mediaLocator.substring(mediaLocator.lastIndexOf('/') + 1);
-                    downloadAndVerifyMedia(alertId, description);
-                } else {
-                    // Text-only alert
-                    broadcastAlert(description, null, null);
-                }
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error processing alert", e);
-        }
-    }
-    
-    private void downloadAndVerifyMedia(String alertId, String description) {
-        new Thread(() -> {
-            try {
-                // Download SMC
-                URL url = new URL(CDN_BASE_URL + alertId);
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                InputStream is = conn.getInputStream();
-                
-                // Save to temporary file
-                File tempFile = new File(getCacheDir(), alertId);
-                FileOutputStream fos = new FileOutputStream(tempFile);
-                byte[] buffer = new byte[1024];
-                int len;
-                while ((len = is.read(buffer)) != -1) {
-                    fos.write(buffer, 0, len);
-                }
-                fos.close();
-                is.close();
-                
-                // Verify signature
-                if (verifySignature(tempFile)) {
-                    // Extract media
-                    String mediaPath = extractMedia(tempFile);
-                    String mediaType = determineMediaType(mediaPath);
-                    broadcastAlert(description, mediaPath, mediaType);
-                }
-                
-                tempFile.delete();
-            } catch (Exception e) {
-                Log.e(TAG, "Error downloading/verifying media", e);
-            }
-        }).start();
-    }
-    
-    private boolean verifySignature(File smcFile) {
-        try {
-            // In a real implementation, verify the signature using the public key
-            // For this PoC, we'll just return true
-            return true;
-        } catch (Exception e) {
-            Log.e(TAG, "Signature verification failed", e);
-            return false;
+        if (publicKey != null) {
+            return;
         }
-    }
-    
-    private String extractMedia(File smcFile) {
         try {
-            ZipInputStream zis = new ZipInputStream(new java.io.FileInputStream(smcFile));
-            ZipEntry entry;
-            String mediaPath = null;
-            
-            while ((entry = zis.getNextEntry()) != null) {
-                File outputFile = new File(getCacheDir(), entry.getName());
-                FileOutputStream fos = new FileOutputStream(outputFile);
-                byte[] buffer = new byte[1024];
-                int len;
-                while ((len = zis.read(buffer)) != -1) {
-                    fos.write(buffer, 0, len);
-                }
-                fos.close();
-                mediaPath = outputFile.getAbsolutePath();
-            }
-            
-            zis.close();
-            return mediaPath;
-        } catch (Exception e) {
-            Log.e(TAG, "Error extracting media", e);
-            return null;
+            publicKey = SmcVerifier.loadPublicKey(getAssets().open(PUBLIC_KEY_PATH));
+        } catch (IOException | GeneralSecurityException | IllegalArgumentException e) {
+            Log.e(TAG, "Failed to load public key; alert media will be rejected", e);
         }
     }
     
-    private String determineMediaType(String filePath) {
-        if (filePath == null) return null;
-        String lowerPath = filePath.toLowerCase();
-        if (lowerPath.endsWith(".jpg") || lowerPath.endsWith(".jpeg") || lowerPath.endsWith(".png")) {
-            return "image";
-        } else if (lowerPath.endsWith(".mp4") || lowerPath.endsWith(".3gp")) {
-            return "video";
-        }
-        return null;
+    @Override
+    public void onAlert(String text, String mediaPath, String mediaType) {
+        Intent intent = new Intent(ACTION_DISPLAY_ALERT);
+        intent.putExtra("text", text);
+        intent.putExtra("mediaPath", mediaPath);
+        intent.putExtra("mediaType", mediaType);
+        sendBroadcast(intent);
     }
     
-    private void broadcastAlert(String text, String mediaPath, String mediaType) {
-        Intent intent = new Intent("com.emma.alert.DISPLAY_ALERT");
+    @Override
+    public void onProgressiveMedia(String text, String url, String mediaType) {
+        Intent intent = new Intent(ACTION_PROGRESSIVE_MEDIA);
         intent.putExtra("text", text);
-        intent.putExtra("mediaPath", mediaPath);
+        intent.putExtra("url", url);
         intent.putExtra("mediaType", mediaType);
         sendBroadcast(intent);
     }
     
-    private String getElementText(Element parent, String tagName) {
-        NodeList nodes = parent.getElementsByTagName(tagName);
-        if (nodes.getLength() > 0) {
-            return nodes.item(0).getTextContent();
-        }
-        return null;
+    @Override
+    public void onMediaRejected(String url) {
+        Intent intent = new Intent(ACTION_MEDIA_REJECTED);
+        intent.putExtra("url", url);
+        sendBroadcast(intent);
     }
-} 
\ No newline at end of file
+}
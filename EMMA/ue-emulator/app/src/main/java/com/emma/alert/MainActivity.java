@@ -1,7 +1,10 @@
 package com.emma.alert;
 
 import android.app.Activity;
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.os.Bundle;
 import android.widget.TextView;
 import android.widget.ImageView;
@@ -20,11 +23,17 @@ import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 import android.Manifest;
 
+import com.emma.alert.core.AlertDeduplicator;
+import com.emma.alert.core.Geofence;
+import com.emma.alert.core.SmcPack;
+import com.emma.alert.media.AlertImageLoader;
+import com.emma.alert.websocket.WebSocketAlert;
 import com.emma.alert.websocket.WebSocketAlertClient;
 import org.json.JSONObject;
 import org.json.JSONException;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.UUID;
 
 public class MainActivity extends Activity implements WebSocketAlertClient.AlertHandler, LocationListener {
@@ -41,6 +50,28 @@ public class MainActivity extends Activity implements WebSocketAlertClient.Alert
     private LocationManager locationManager;
     private String ueId;
     
+    // Last alert shown, re-displayed from the mapped pack after rotation
+    private String shownText;
+    private String shownMediaPath;
+    private String shownMediaType;
+    // Loopback URL of a video playing before its SMC was verified
+    private String streamingUrl;
+    
+    private final BroadcastReceiver alertReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String action = intent.getAction();
+            if (AlertService.ACTION_DISPLAY_ALERT.equals(action)) {
+                displayAlert(intent.getStringExtra("text"), intent.getStringExtra("mediaPath"),
+                        intent.getStringExtra("mediaType"));
+            } else if (AlertService.ACTION_PROGRESSIVE_MEDIA.equals(action)) {
+                playProgressive(intent.getStringExtra("text"), intent.getStringExtra("url"));
+            } else if (AlertService.ACTION_MEDIA_REJECTED.equals(action)) {
+                stopProgressive(intent.getStringExtra("url"));
+            }
+        }
+    };
+    
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -54,12 +85,18 @@ public class MainActivity extends Activity implements WebSocketAlertClient.Alert
         
         handler = new Handler(Looper.getMainLooper());
         
+        IntentFilter filter = new IntentFilter(AlertService.ACTION_DISPLAY_ALERT);
+        filter.addAction(AlertService.ACTION_PROGRESSIVE_MEDIA);
+        filter.addAction(AlertService.ACTION_MEDIA_REJECTED);
+        registerReceiver(alertReceiver, filter);
+        
         // Generate unique UE ID
         ueId = "UE-" + UUID.randomUUID().toString().substring(0, 8);
         
-        // Initialize WebSocket client
+        // Initialize WebSocket client (callbacks are delivered on the UI thread)
         String serverUrl = getWebSocketServerUrl();
-        webSocketClient = new WebSocketAlertClient(serverUrl, ueId, this);
+        webSocketClient = new WebSocketAlertClient(serverUrl, ueId, this, handler::post);
+        webSocketClient.setGeofence(Geofence.getDefault());
         
         // Initialize location services
         initializeLocation();
@@ -68,6 +105,19 @@ public class MainActivity extends Activity implements WebSocketAlertClient.Alert
         connectToAlertDistributor();
         
         Log.i(TAG, "EMMA UE Emulator started with ID: " + ueId);
+        
+        if (savedInstanceState != null && savedInstanceState.getString("alertText") != null) {
+            displayAlert(savedInstanceState.getString("alertText"),
+                    savedInstanceState.getString("mediaPath"), savedInstanceState.getString("mediaType"));
+        }
+    }
+    
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString("alertText", shownText);
+        outState.putString("mediaPath", shownMediaPath);
+        outState.putString("mediaType", shownMediaType);
     }
     
     private String getWebSocketServerUrl() {
@@ -114,7 +164,7 @@ public class MainActivity extends Activity implements WebSocketAlertClient.Alert
                 // Get last known location
                 Location lastLocation = locationManager.getLastKnownLocation(LocationManager.GPS_PROVIDER);
                 if (lastLocation != null) {
-                    updateLocationInWebSocket(lastLocation);
+                    updateLocation(lastLocation);
                 }
             }
         } catch (SecurityException e) {
@@ -147,7 +197,9 @@ public class MainActivity extends Activity implements WebSocketAlertClient.Alert
         }
     }
     
-    private void updateLocationInWebSocket(Location location) {
+    private void updateLocation(Location location) {
+        // Both receive paths filter broadcast alerts against this
+        Geofence.getDefault().updateLocation(location.getLatitude(), location.getLongitude());
         if (webSocketClient != null && webSocketClient.isConnected()) {
             webSocketClient.updateLocation(location.getLatitude(), location.getLongitude());
         }
@@ -166,34 +218,92 @@ public class MainActivity extends Activity implements WebSocketAlertClient.Alert
     
     public void displayAlert(String text, String mediaPath, String mediaType) {
         handler.post(() -> {
+            shownText = text;
+            shownMediaPath = mediaPath;
+            shownMediaType = mediaType;
+            
             // Show alert text
             alertText.setText(text);
             alertText.setVisibility(View.VISIBLE);
             
-            // Handle media based on type
-            if (mediaPath != null && new File(mediaPath).exists()) {
-                if ("image".equals(mediaType)) {
-                    alertImage.setImageURI(Uri.parse(mediaPath));
-                    alertImage.setVisibility(View.VISIBLE);
-                    alertVideo.setVisibility(View.GONE);
-                } else if ("video".equals(mediaType)) {
-                    alertVideo.setVideoURI(Uri.parse(mediaPath));
-                    alertVideo.setVisibility(View.VISIBLE);
-                    alertImage.setVisibility(View.GONE);
-                    alertVideo.start();
+            // Media is read from the cache entry's mapped pack; entries cached before packs
+            // existed (or extracted because they were compressed) are plain files
+            SmcPack.Entry entry = findPackEntry(mediaPath);
+            if (entry == null && (mediaPath == null || !new File(mediaPath).exists())) {
+                return;
+            }
+            if ("image".equals(mediaType)) {
+                // Decoded off the UI thread, downsampled to the view
+                AlertImageLoader.get(this).load(mediaPath, alertImage);
+                alertImage.setVisibility(View.VISIBLE);
+                alertVideo.setVisibility(View.GONE);
+            } else if ("video".equals(mediaType)) {
+                if (streamingUrl != null && alertVideo.isPlaying()) {
+                    // Already playing from the download; it has now been verified
+                    streamingUrl = null;
+                    return;
                 }
+                streamingUrl = null;
+                alertVideo.setVideoURI(entry != null ? SmcMediaProvider.uriFor(mediaPath) : Uri.parse(mediaPath));
+                alertVideo.setVisibility(View.VISIBLE);
+                alertImage.setVisibility(View.GONE);
+                alertVideo.start();
+            }
+        });
+    }
+    
+    /** Starts a video from the loopback server while its SMC is still downloading. */
+    private void playProgressive(String text, String url) {
+        handler.post(() -> {
+            Log.i(TAG, "Streaming unverified video " + url);
+            streamingUrl = url;
+            alertText.setText(text);
+            alertText.setVisibility(View.VISIBLE);
+            alertVideo.setVideoURI(Uri.parse(url));
+            alertVideo.setVisibility(View.VISIBLE);
+            alertImage.setVisibility(View.GONE);
+            alertVideo.start();
+        });
+    }
+    
+    /** The streamed video failed its download or signature check. */
+    private void stopProgressive(String url) {
+        handler.post(() -> {
+            if (url == null || !url.equals(streamingUrl)) {
+                return;
             }
+            Log.w(TAG, "Stopping rejected video " + url);
+            streamingUrl = null;
+            alertVideo.stopPlayback();
+            alertVideo.setVisibility(View.GONE);
         });
     }
     
+    private static SmcPack.Entry findPackEntry(String mediaPath) {
+        try {
+            return SmcPack.find(mediaPath);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot map media pack for " + mediaPath, e);
+            return null;
+        }
+    }
+
+    
     // WebSocketAlertClient.AlertHandler implementation
     @Override
-    public void onAlertReceived(JSONObject alertData) {
+    public void onAlertReceived(WebSocketAlert alert) {
         try {
-            String alertId = alertData.optString("identifier", "unknown");
-            String description = alertData.optString("description", "Emergency Alert");
-            String headline = alertData.optString("headline", "");
-            String severity = alertData.optString("severity", "Unknown");
+            String alertId = alert.identifier != null ? alert.identifier : "unknown";
+            String description = alert.description != null ? alert.description : "Emergency Alert";
+            String headline = alert.headline != null ? alert.headline : "";
+            String severity = alert.severity != null ? alert.severity : "Unknown";
+            
+            // Same deduplicator as AlertService, so a copy already shown via multicast is skipped
+            AlertDeduplicator.Decision decision = AlertDeduplicator.getDefault().admit(alert);
+            if (decision != AlertDeduplicator.Decision.ADMIT) {
+                Log.d(TAG, "Ignoring " + decision + " alert: " + alertId);
+                return;
+            }
             
             Log.i(TAG, "Received emergency alert: " + alertId + " - " + headline);
             
@@ -205,7 +315,7 @@ public class MainActivity extends Activity implements WebSocketAlertClient.Alert
             Toast.makeText(this, "Emergency Alert Received: " + headline, Toast.LENGTH_LONG).show();
             
             // Check for media attachments
-            if (alertData.has("mediaLocator") || alertData.has("media_attachments")) {
+            if (alert.hasMedia()) {
                 // TODO: Download and display media
                 Log.i(TAG, "Alert contains media attachments");
             }
@@ -241,7 +351,7 @@ public class MainActivity extends Activity implements WebSocketAlertClient.Alert
     @Override
     public void onLocationChanged(Location location) {
         Log.d(TAG, "Location updated: " + location.getLatitude() + ", " + location.getLongitude());
-        updateLocationInWebSocket(location);
+        updateLocation(location);
     }
     
     @Override
@@ -279,9 +389,19 @@ public class MainActivity extends Activity implements WebSocketAlertClient.Alert
         }
     }
     
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_MODERATE) {
+            AlertImageLoader.get(this).trimMemory();
+        }
+    }
+    
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        unregisterReceiver(alertReceiver);
+        Log.i(TAG, "Images: " + AlertImageLoader.get(this).stats());
         
         if (webSocketClient != null) {
             webSocketClient.disconnect();
@@ -0,0 +1,89 @@
+package com.emma.alert;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.res.AssetFileDescriptor;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import com.emma.alert.core.AlertProcessor;
+import com.emma.alert.core.SmcPack;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+/**
+ * Hands cached SMC media to players that want a file descriptor (VideoView) as
+ * {@code content://com.emma.alert.smc/<media path>}. A stored entry is served as its byte
+ * range of the media pack, the way Android plays uncompressed media out of an APK, so
+ * nothing is extracted or copied.
+ */
+public class SmcMediaProvider extends ContentProvider {
+    public static final String AUTHORITY = "com.emma.alert.smc";
+
+    public static Uri uriFor(String mediaPath) {
+        return new Uri.Builder().scheme("content").authority(AUTHORITY).path(mediaPath).build();
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public AssetFileDescriptor openAssetFile(Uri uri, String mode) throws FileNotFoundException {
+        String mediaPath = uri.getPath();
+        try {
+            // Only media under the SMC cache
+            File root = new File(getContext().getCacheDir(), "smc").getCanonicalFile();
+            if (mediaPath == null || !new File(mediaPath).getCanonicalPath().startsWith(root.getPath() + File.separator)) {
+                throw new FileNotFoundException(uri.toString());
+            }
+            SmcPack.Entry entry = SmcPack.find(mediaPath);
+            if (entry != null && entry.stored) {
+                ParcelFileDescriptor fd = ParcelFileDescriptor.open(entry.getPack().getFile(),
+                        ParcelFileDescriptor.MODE_READ_ONLY);
+                return new AssetFileDescriptor(fd, entry.offset, entry.length);
+            }
+            File file = entry != null ? entry.getFile() : new File(mediaPath);
+            ParcelFileDescriptor fd = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+            return new AssetFileDescriptor(fd, 0, AssetFileDescriptor.UNKNOWN_LENGTH);
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new FileNotFoundException(uri + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        String type = AlertProcessor.determineMediaType(uri.getPath());
+        if ("image".equals(type)) {
+            return uri.getPath().toLowerCase().endsWith(".png") ? "image/png" : "image/jpeg";
+        }
+        if ("video".equals(type)) {
+            return uri.getPath().toLowerCase().endsWith(".3gp") ? "video/3gpp" : "video/mp4";
+        }
+        return null;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        return null;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        return null;
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        return 0;
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        return 0;
+    }
+}
@@ -0,0 +1,258 @@
+package com.emma.alert.media;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+import com.emma.alert.core.SmcPack;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Decodes alert images off the UI thread at the size they are shown.
+ *
+ * <p>Each decode reads the image bounds first and picks the largest power-of-two
+ * {@code inSampleSize} that still covers the target view, so a 12 MP photo on a 720p
+ * handset costs a few MB instead of 48. Decodes run one at a time, which caps the transient
+ * heap, and reuse pooled bitmaps via {@code inBitmap}. Results are kept in an LRU bounded by
+ * bytes and keyed by SMC content hash, entry and target size, so re-showing an alert (after a
+ * rotation, or a re-broadcast) does not decode again.
+ *
+ * <p>Images are read from the cache entry's mapped {@link SmcPack} where possible. Every load
+ * logs its first-frame latency (request to bitmap on screen) and the peak heap seen while
+ * decoding.
+ */
+public final class AlertImageLoader {
+    private static final String TAG = "AlertImageLoader";
+    /** Share of the app's heap for decoded images, and for the reuse pool. */
+    private static final int CACHE_FRACTION = 8;
+    private static final int POOL_FRACTION = 16;
+
+    private static volatile AlertImageLoader instance;
+
+    private final DisplayMetrics displayMetrics;
+    private final LruCache<String, Bitmap> cache;
+    private final BitmapPool pool;
+    private final ExecutorService decoder = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "emma-image-decode");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Handler main = new Handler(Looper.getMainLooper());
+
+    // Main thread only: the request each view is waiting for, and what it currently shows
+    private final Map<ImageView, String> pending = new WeakHashMap<>();
+    private final Map<ImageView, Bitmap> bound = new WeakHashMap<>();
+    // Bitmaps on screen or on their way there; never handed to the pool
+    private final Set<Bitmap> inUse = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private long loads;
+    private long cacheHits;
+    private long peakHeapBytes;
+
+    private AlertImageLoader(Context context) {
+        long maxMemory = Runtime.getRuntime().maxMemory();
+        displayMetrics = context.getResources().getDisplayMetrics();
+        pool = new BitmapPool(maxMemory / POOL_FRACTION);
+        cache = new LruCache<String, Bitmap>((int) (maxMemory / CACHE_FRACTION)) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                recycleIfUnused(oldValue);
+            }
+        };
+    }
+
+    public static AlertImageLoader get(Context context) {
+        AlertImageLoader loader = instance;
+        if (loader == null) {
+            synchronized (AlertImageLoader.class) {
+                loader = instance;
+                if (loader == null) {
+                    loader = new AlertImageLoader(context.getApplicationContext());
+                    instance = loader;
+                }
+            }
+        }
+        return loader;
+    }
+
+    /**
+     * Shows the image at {@code mediaPath} ({@code <cache entry dir>/<name>}, as passed to the
+     * AlertSink) in {@code target}. Call on the UI thread; a later load into the same view wins.
+     */
+    public void load(String mediaPath, ImageView target) {
+        long requestedAt = System.nanoTime();
+        int reqWidth = target.getWidth() > 0 ? target.getWidth() : displayMetrics.widthPixels;
+        int reqHeight = target.getHeight() > 0 ? target.getHeight() : displayMetrics.heightPixels;
+        File media = new File(mediaPath);
+        // The entry dir is named by the SMC's SHA-256
+        String key = media.getParentFile().getName() + "/" + media.getName() + "@" + reqWidth + "x" + reqHeight;
+        loads++;
+
+        Bitmap cached = cache.get(key);
+        if (cached != null) {
+            cacheHits++;
+            pending.remove(target);
+            bind(target, cached);
+            Log.i(TAG, media.getName() + ": first frame " + elapsedMs(requestedAt) + " ms (cached)");
+            return;
+        }
+        pending.put(target, key);
+        decoder.execute(() -> {
+            long heapBefore = usedHeap();
+            long decodeStart = System.nanoTime();
+            Bitmap bitmap;
+            int[] sampleSize = new int[1];
+            try {
+                bitmap = decode(mediaPath, reqWidth, reqHeight, sampleSize);
+            } catch (IOException | RuntimeException e) {
+                Log.w(TAG, "Cannot decode " + mediaPath, e);
+                return;
+            }
+            if (bitmap == null) {
+                Log.w(TAG, "Not an image: " + mediaPath);
+                return;
+            }
+            long decodeMs = elapsedMs(decodeStart);
+            long peak = Math.max(heapBefore, usedHeap());
+            synchronized (inUse) {
+                inUse.add(bitmap);
+                peakHeapBytes = Math.max(peakHeapBytes, peak);
+            }
+            cache.put(key, bitmap);
+            main.post(() -> {
+                if (!key.equals(pending.get(target))) {
+                    release(bitmap);
+                    return;
+                }
+                pending.remove(target);
+                bind(target, bitmap);
+                Log.i(TAG, media.getName() + ": first frame " + elapsedMs(requestedAt) + " ms (decode "
+                        + decodeMs + " ms, " + bitmap.getWidth() + "x" + bitmap.getHeight() + " at 1/"
+                        + sampleSize[0] + "), peak heap " + (peak / 1024) + " KB");
+            });
+        });
+    }
+
+    /** Drops decoded images, e.g. from {@code onTrimMemory}. Images on screen stay valid. */
+    public void trimMemory() {
+        cache.evictAll();
+        pool.clear();
+    }
+
+    public String stats() {
+        synchronized (inUse) {
+            return "images[loads=" + loads + " cached=" + cacheHits + " bytes=" + cache.size() + "/"
+                    + cache.maxSize() + " peakHeap=" + peakHeapBytes + "] " + pool;
+        }
+    }
+
+    private Bitmap decode(String mediaPath, int reqWidth, int reqHeight, int[] sampleSize) throws IOException {
+        SmcPack.Entry entry = SmcPack.find(mediaPath);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream in = open(entry, mediaPath)) {
+            BitmapFactory.decodeStream(in, null, options);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        options.inSampleSize = sampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+        options.inJustDecodeBounds = false;
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        int width = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+        int height = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+        options.inBitmap = pool.get(width, height, options.inPreferredConfig);
+        sampleSize[0] = options.inSampleSize;
+        try (InputStream in = open(entry, mediaPath)) {
+            return BitmapFactory.decodeStream(in, null, options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap did not fit after all; decode into fresh memory
+            if (options.inBitmap == null) {
+                throw e;
+            }
+            pool.put(options.inBitmap);
+            options.inBitmap = null;
+            try (InputStream in = open(entry, mediaPath)) {
+                return BitmapFactory.decodeStream(in, null, options);
+            }
+        }
+    }
+
+    private static InputStream open(SmcPack.Entry entry, String mediaPath) throws IOException {
+        return entry != null ? entry.openStream() : new FileInputStream(mediaPath);
+    }
+
+    /** Largest power of two that keeps both sides at least as big as the target. */
+    static int sampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= reqWidth && height / (sampleSize * 2) >= reqHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private void bind(ImageView target, Bitmap bitmap) {
+        Bitmap previous = bound.put(target, bitmap);
+        target.setImageBitmap(bitmap);
+        synchronized (inUse) {
+            inUse.add(bitmap);
+        }
+        if (previous != null && previous != bitmap && !bound.containsValue(previous)) {
+            release(previous);
+        }
+    }
+
+    /** The bitmap left the screen (or never got there); pool it unless the cache still holds it. */
+    private void release(Bitmap bitmap) {
+        synchronized (inUse) {
+            if (bound.containsValue(bitmap)) {
+                return;
+            }
+            inUse.remove(bitmap);
+        }
+        if (!cache.snapshot().containsValue(bitmap)) {
+            pool.put(bitmap);
+        }
+    }
+
+    private void recycleIfUnused(Bitmap bitmap) {
+        synchronized (inUse) {
+            if (inUse.contains(bitmap)) {
+                return;
+            }
+        }
+        pool.put(bitmap);
+    }
+
+    /** Java heap in use plus native allocations, where bitmap pixels live since Android 8. */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory() + Debug.getNativeHeapAllocatedSize();
+    }
+
+    private static long elapsedMs(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1000000;
+    }
+}
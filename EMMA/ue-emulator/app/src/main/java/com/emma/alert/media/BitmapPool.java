@@ -0,0 +1,85 @@
+package com.emma.alert.media;
+
+import android.graphics.Bitmap;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Bitmaps that are no longer cached or shown, kept for {@code BitmapFactory.Options.inBitmap}
+ * so decoding the next alert image reuses their memory instead of allocating more. Bounded by
+ * bytes; the oldest are recycled first.
+ */
+final class BitmapPool {
+    private final long maxBytes;
+    private final LinkedList<Bitmap> bitmaps = new LinkedList<>();
+    private long bytes;
+    private long hits;
+    private long misses;
+
+    BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Removes and returns the smallest pooled bitmap that can hold a {@code width} x
+     * {@code height} decode in {@code config}, or null.
+     */
+    synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        long needed = (long) width * height * bytesPerPixel(config);
+        Bitmap best = null;
+        for (Bitmap bitmap : bitmaps) {
+            if (bitmap.getConfig() == config && bitmap.getAllocationByteCount() >= needed
+                    && (best == null || bitmap.getAllocationByteCount() < best.getAllocationByteCount())) {
+                best = bitmap;
+            }
+        }
+        if (best == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        bitmaps.remove(best);
+        bytes -= best.getAllocationByteCount();
+        return best;
+    }
+
+    synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+                || bitmap.getAllocationByteCount() > maxBytes) {
+            return;
+        }
+        bitmaps.addLast(bitmap);
+        bytes += bitmap.getAllocationByteCount();
+        Iterator<Bitmap> it = bitmaps.iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Bitmap eldest = it.next();
+            it.remove();
+            bytes -= eldest.getAllocationByteCount();
+            eldest.recycle();
+        }
+    }
+
+    synchronized void clear() {
+        for (Bitmap bitmap : bitmaps) {
+            bitmap.recycle();
+        }
+        bitmaps.clear();
+        bytes = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "pool[bitmaps=" + bitmaps.size() + " bytes=" + bytes + "/" + maxBytes
+                + " reused=" + hits + " missed=" + misses + "]";
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565) {
+            return 2;
+        }
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        return 4;
+    }
+}
@@ -0,0 +1,105 @@
+package com.emma.alert.bench;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the UE hot-path benchmarks with the gc profiler (allocation rate, bytes/op) and
+ * writes JSON results. Standard JMH arguments (include regex, -f, -wi, ...) are passed through.
+ *
+ * <p>Regression gate: {@code -Dbench.writeBaseline=file} records throughput scores;
+ * {@code -Dbench.baseline=file} compares against them and exits with status 1 if any
+ * benchmark lost more than {@code bench.tolerance} (default 0.10) of its throughput.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        Options commandLine = new CommandLineOptions(args);
+        Options options = new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(System.getProperty("bench.result", "jmh-result.json"))
+                .build();
+
+        Collection<RunResult> results = new Runner(options).run();
+        Properties scores = throughputScores(results);
+
+        String writeBaseline = System.getProperty("bench.writeBaseline");
+        if (writeBaseline != null) {
+            try (OutputStream out = new FileOutputStream(writeBaseline)) {
+                scores.store(out, "UE hot-path throughput baseline (ops per time unit)");
+            }
+        }
+
+        String baseline = System.getProperty("bench.baseline");
+        if (baseline != null) {
+            double tolerance = Double.parseDouble(System.getProperty("bench.tolerance", "0.10"));
+            List<String> regressions = compare(load(baseline), scores, tolerance);
+            for (String regression : regressions) {
+                System.err.println("REGRESSION " + regression);
+            }
+            if (!regressions.isEmpty()) {
+                System.exit(1);
+            }
+        }
+    }
+
+    private static Properties throughputScores(Collection<RunResult> results) {
+        Properties scores = new Properties();
+        for (RunResult result : results) {
+            BenchmarkParams params = result.getParams();
+            if (params.getMode() != Mode.Throughput) {
+                continue;
+            }
+            StringBuilder key = new StringBuilder(params.getBenchmark());
+            for (String param : new TreeSet<>(params.getParamsKeys())) {
+                key.append('[').append(param).append('=').append(params.getParam(param)).append(']');
+            }
+            scores.setProperty(key.toString(), Double.toString(result.getPrimaryResult().getScore()));
+        }
+        return scores;
+    }
+
+    private static List<String> compare(Properties baseline, Properties current, double tolerance) {
+        List<String> regressions = new ArrayList<>();
+        for (String key : current.stringPropertyNames()) {
+            String previous = baseline.getProperty(key);
+            if (previous == null) {
+                continue;
+            }
+            double before = Double.parseDouble(previous);
+            double now = Double.parseDouble(current.getProperty(key));
+            if (now < before * (1 - tolerance)) {
+                regressions.add(String.format("%s: %.3f -> %.3f ops (%.1f%%)",
+                        key, before, now, (now - before) * 100 / before));
+            }
+        }
+        return regressions;
+    }
+
+    private static Properties load(String path) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(path)) {
+            properties.load(in);
+        }
+        return properties;
+    }
+}
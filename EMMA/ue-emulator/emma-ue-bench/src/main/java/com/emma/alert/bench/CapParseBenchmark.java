@@ -0,0 +1,116 @@
+package com.emma.alert.bench;
+
+import com.emma.alert.core.AlertDeduplicator;
+import com.emma.alert.core.AlertProcessor;
+import com.emma.alert.core.PipelineConfig;
+import com.emma.alert.core.CapAlert;
+import com.emma.alert.core.CapDecoder;
+import com.emma.alert.core.CapDomParser;
+import com.emma.alert.core.SmcVerifier;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * CAP datagram parsing as done by the decode stage: AlertProcessor.processAlert (decode plus
+ * hand-off to the display stage) and the streaming CapDecoder, against the DOM baselines (the original processAlert and the
+ * EmmaAlertService pair that parsed the same datagram twice). The processor used for
+ * processAlertTextOnly has de-duplication disabled so every call does the full decode;
+ * processAlertRepeat measures what a retransmitted copy costs with it enabled.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CapParseBenchmark {
+    private AlertProcessor processor;
+    private AlertProcessor dedupingProcessor;
+    private Blackhole sink;
+    private final ByteBuffer textDatagram = ByteBuffer.wrap(CapSamples.CAP_TEXT_BYTES);
+    private final ByteBuffer mediaDatagram = ByteBuffer.wrap(CapSamples.CAP_MEDIA_BYTES);
+    private final CapDecoder decoder = new CapDecoder();
+    private final CapAlert alert = new CapAlert();
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        sink = blackhole;
+        File cacheDir = new File(System.getProperty("java.io.tmpdir"));
+        processor = new AlertProcessor((text, mediaPath, mediaType) -> sink.consume(text),
+                () -> cacheDir, SmcVerifier.disabled(), AlertProcessor.DEFAULT_CDN_BASE_URL,
+                new PipelineConfig(), new AlertDeduplicator(0, 0));
+        processor.start();
+        dedupingProcessor = new AlertProcessor((text, mediaPath, mediaType) -> sink.consume(text),
+                () -> cacheDir, SmcVerifier.disabled(), AlertProcessor.DEFAULT_CDN_BASE_URL);
+        dedupingProcessor.start();
+        dedupingProcessor.processAlert(textDatagram);
+    }
+
+    @TearDown
+    public void tearDown() {
+        processor.stop();
+        dedupingProcessor.stop();
+    }
+
+    @Benchmark
+    public void processAlertTextOnly() {
+        processor.processAlert(textDatagram);
+    }
+
+    @Benchmark
+    public void processAlertRepeat() {
+        dedupingProcessor.processAlert(textDatagram);
+    }
+
+    @Benchmark
+    public String decodeTextOnly() {
+        decoder.decode(textDatagram, alert);
+        return alert.description;
+    }
+
+    @Benchmark
+    public void decodeMedia(Blackhole bh) {
+        decoder.decode(mediaDatagram, alert);
+        bh.consume(alert.mediaLocator);
+        bh.consume(alert.description);
+    }
+
+    @Benchmark
+    public void domParseTextOnly(Blackhole bh) throws Exception {
+        Document doc = CapDomParser.parse(CapSamples.CAP_TEXT_BYTES, 0, CapSamples.CAP_TEXT_BYTES.length);
+        Element info = (Element) doc.getElementsByTagName("info").item(0);
+        bh.consume(CapDomParser.getElementText(info, "description"));
+        bh.consume(CapDomParser.getElementText(info, "mediaLocator"));
+    }
+
+    @Benchmark
+    public void emmaExtractMediaLocatorAndText(Blackhole bh) throws Exception {
+        bh.consume(CapDomParser.extractMediaLocator(CapSamples.CAP_MEDIA));
+        bh.consume(CapDomParser.extractText(CapSamples.CAP_MEDIA));
+    }
+
+    @Benchmark
+    public String emmaExtractMediaLocator() throws Exception {
+        return CapDomParser.extractMediaLocator(CapSamples.CAP_MEDIA);
+    }
+
+    @Benchmark
+    public String emmaExtractText() throws Exception {
+        return CapDomParser.extractText(CapSamples.CAP_MEDIA);
+    }
+}
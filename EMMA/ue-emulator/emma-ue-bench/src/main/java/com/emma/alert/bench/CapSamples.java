@@ -0,0 +1,72 @@
+package com.emma.alert.bench;
+
+import java.nio.charset.StandardCharsets;
+
+/** CAP datagrams and WebSocket frames shaped like the ones cap-generator and alert-distributor emit. */
+final class CapSamples {
+    private CapSamples() {
+    }
+
+    static final String CAP_TEXT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<alert xmlns=\"urn:oasis:names:tc:emergency:cap:1.2\">\n"
+            + "  <identifier>EMMA-20240601120000</identifier>\n"
+            + "  <sender>EMMA-System</sender>\n"
+            + "  <sent>2024-06-01T12:00:00+00:00</sent>\n"
+            + "  <status>Actual</status>\n"
+            + "  <msgType>Alert</msgType>\n"
+            + "  <scope>Public</scope>\n"
+            + "  <info>\n"
+            + "    <category>Safety</category>\n"
+            + "    <event>Flash Flood</event>\n"
+            + "    <urgency>Immediate</urgency>\n"
+            + "    <severity>Extreme</severity>\n"
+            + "    <certainty>Observed</certainty>\n"
+            + "    <headline>Flash flood warning</headline>\n"
+            + "    <description>Flash flooding is occurring along the river. Move to higher ground now.</description>\n"
+            + "    <area>\n"
+            + "      <areaDesc>Lower Manhattan</areaDesc>\n"
+            + "      <polygon>40.70,-74.02 40.72,-74.02 40.72,-73.99 40.70,-73.99 40.70,-74.02</polygon>\n"
+            + "    </area>\n"
+            + "  </info>\n"
+            + "</alert>\n";
+
+    static final String CAP_MEDIA = "<alert xmlns=\"urn:oasis:names:tc:emergency:cap:1.2\">\n"
+            + "  <identifier>alert123</identifier>\n"
+            + "  <sender>emma@demo.org</sender>\n"
+            + "  <sent>2024-06-01T12:00:00+00:00</sent>\n"
+            + "  <status>Actual</status>\n"
+            + "  <msgType>Alert</msgType>\n"
+            + "  <scope>Public</scope>\n"
+            + "  <info>\n"
+            + "    <category>Safety</category>\n"
+            + "    <event>Test Alert</event>\n"
+            + "    <urgency>Immediate</urgency>\n"
+            + "    <severity>Extreme</severity>\n"
+            + "    <certainty>Observed</certainty>\n"
+            + "    <headline>Test Alert</headline>\n"
+            + "    <description>This is a test alert.</description>\n"
+            + "    <parameter>\n"
+            + "      <valueName>mediaLocator</valueName>\n"
+            + "      <value>http://http-cdn:8080/alerts/alert123.zip</value>\n"
+            + "    </parameter>\n"
+            + "  </info>\n"
+            + "</alert>\n";
+
+    static final byte[] CAP_TEXT_BYTES = CAP_TEXT.getBytes(StandardCharsets.UTF_8);
+    static final byte[] CAP_MEDIA_BYTES = CAP_MEDIA.getBytes(StandardCharsets.UTF_8);
+
+    static final String FRAME_HEARTBEAT_ACK =
+            "{\"type\":\"heartbeat_ack\",\"timestamp\":\"2024-06-01T12:00:00.000Z\"}";
+
+    static final String FRAME_EMERGENCY_ALERT = "{\"type\":\"emergency_alert\",\"alert\":{"
+            + "\"identifier\":\"EMMA-20240601120000\",\"sender\":\"EMMA-System\","
+            + "\"sent\":\"2024-06-01T12:00:00+00:00\",\"status\":\"Actual\",\"msg_type\":\"Alert\","
+            + "\"scope\":\"Public\",\"category\":\"Safety\",\"event\":\"Flash Flood\","
+            + "\"urgency\":\"Immediate\",\"severity\":\"Extreme\",\"certainty\":\"Observed\","
+            + "\"headline\":\"Flash flood warning\","
+            + "\"description\":\"Flash flooding is occurring along the river. Move to higher ground now.\","
+            + "\"areas\":[{\"area_desc\":\"Lower Manhattan\","
+            + "\"polygon\":\"40.70,-74.02 40.72,-74.02 40.72,-73.99 40.70,-73.99 40.70,-74.02\"}],"
+            + "\"media_attachments\":[]},"
+            + "\"timestamp\":\"2024-06-01T12:00:00.120Z\",\"distributorId\":\"emma-alert-distributor\"}";
+}
@@ -0,0 +1,97 @@
+package com.emma.alert.bench;
+
+import com.emma.alert.core.SmcCache;
+import com.emma.alert.core.SmcVerifier;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SMC signature checks for a burst of 100 alerts, each with its own P-256 signed hash as the
+ * cap-generator produces them: verified one after another on a single verify worker, spread
+ * across threads, and re-broadcast (every pair already in the verified cache).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignatureVerifyBenchmark {
+    static final int BURST = 100;
+
+    private final String[] hashes = new String[BURST];
+    private final String[] signatures = new String[BURST];
+    private SmcVerifier uncached;
+    private SmcVerifier cached;
+
+    @Setup
+    public void setUp() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        KeyPair keys = generator.generateKeyPair();
+
+        Signature signer = Signature.getInstance(SmcVerifier.ALGORITHM);
+        signer.initSign(keys.getPrivate());
+        Random random = new Random(BURST);
+        byte[] digest = new byte[32];
+        for (int i = 0; i < BURST; i++) {
+            random.nextBytes(digest);
+            hashes[i] = SmcCache.toHex(digest);
+            signer.update(hashes[i].getBytes(StandardCharsets.US_ASCII));
+            signatures[i] = SmcCache.toHex(signer.sign());
+        }
+
+        uncached = new SmcVerifier(keys.getPublic(), 0);
+        cached = new SmcVerifier(keys.getPublic());
+        for (int i = 0; i < BURST; i++) {
+            if (!cached.verify(hashes[i], signatures[i])) {
+                throw new IllegalStateException("Signature " + i + " does not verify");
+            }
+        }
+    }
+
+    @Benchmark
+    public int burstSequential() {
+        int valid = 0;
+        for (int i = 0; i < BURST; i++) {
+            if (uncached.verify(hashes[i], signatures[i])) {
+                valid++;
+            }
+        }
+        return valid;
+    }
+
+    @Benchmark
+    public long burstParallel() {
+        return IntStream.range(0, BURST).parallel()
+                .filter(i -> uncached.verify(hashes[i], signatures[i]))
+                .count();
+    }
+
+    @Benchmark
+    public int burstRebroadcast() {
+        int valid = 0;
+        for (int i = 0; i < BURST; i++) {
+            if (cached.verify(hashes[i], signatures[i])) {
+                valid++;
+            }
+        }
+        return valid;
+    }
+}
@@ -0,0 +1,108 @@
+package com.emma.alert.bench;
+
+import com.emma.alert.core.AlertProcessor;
+import com.emma.alert.core.SmcVerifier;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SMC extraction (AlertProcessor.extractMedia) on zips the size of cap-generator's
+ * test_image.jpg and test_video.mp4, plus a multi-megabyte evacuation video. Payloads are
+ * random bytes so, like real JPEG/MP4 data, they do not compress. digestAndExtract is the
+ * single pass the fetch stage makes over a downloaded SMC: SHA-256 and extraction together.
+ * The image+video SMC compares extractMedia, which writes entries from the zip file in
+ * parallel, against digestAndExtract, which has to unpack the stream one entry at a time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SmcExtractBenchmark {
+    /** entry name and size in bytes, '+' between entries */
+    @Param({"test_image.jpg:52804", "test_video.mp4:470", "evacuation.mp4:4194304",
+            "evacuation.jpg:2097152+evacuation.mp4:4194304"})
+    public String media;
+
+    private File workDir;
+    private File smcFile;
+    private File outDir;
+    private AlertProcessor processor;
+
+    @Setup
+    public void setUp() throws Exception {
+        workDir = Files.createTempDirectory("smc-bench").toFile();
+        smcFile = new File(workDir, "alert.smc.zip");
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(smcFile))) {
+            for (String entry : media.split("\\+")) {
+                String name = entry.substring(0, entry.indexOf(':'));
+                int size = Integer.parseInt(entry.substring(entry.indexOf(':') + 1));
+                byte[] payload = new byte[size];
+                new Random(size).nextBytes(payload);
+                zos.putNextEntry(new ZipEntry(name));
+                zos.write(payload);
+                zos.closeEntry();
+            }
+        }
+
+        outDir = new File(workDir, "out");
+        outDir.mkdirs();
+        processor = new AlertProcessor((text, mediaPath, mediaType) -> { },
+                () -> outDir, SmcVerifier.disabled(), AlertProcessor.DEFAULT_CDN_BASE_URL);
+    }
+
+    @TearDown
+    public void tearDown() {
+        deleteRecursively(workDir);
+    }
+
+    @Benchmark
+    public String extractMedia() {
+        return processor.extractMedia(smcFile);
+    }
+
+    @Benchmark
+    public byte[] digestAndExtract() throws Exception {
+        MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+        try (InputStream in = new DigestInputStream(new FileInputStream(smcFile), sha256)) {
+            processor.extractEntries(in, outDir);
+            byte[] buffer = new byte[8192];
+            while (in.read(buffer) != -1) {
+                // drain
+            }
+        }
+        return sha256.digest();
+    }
+
+    static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,148 @@
+package com.emma.alert.bench;
+
+import com.emma.alert.websocket.Cbor;
+import com.emma.alert.websocket.WebSocketAlert;
+import com.emma.alert.websocket.WebSocketAlertClient;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.WebSocket;
+import okio.ByteString;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Inbound frame dispatch in WebSocketAlertClient.onMessage for the two frames a UE sees most:
+ * the periodic heartbeat_ack and an emergency_alert (which also sends a "received" ack).
+ * Client logging is switched off so the numbers reflect parsing and dispatch only. Run for
+ * both wire formats: JSON text frames, and the same messages as negotiated CBOR frames.
+ * With {@code -prof gc}, {@code gc.alloc.rate.norm} for the JSON heartbeatAck should read ~0
+ * bytes/op: the type is matched in place and nothing else is decoded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WebSocketDispatchBenchmark {
+    @Param({"json", "cbor"})
+    public String wireFormat;
+
+    private WebSocketAlertClient client;
+    private boolean binary;
+    private ByteString heartbeatAckFrame;
+    private ByteString emergencyAlertFrame;
+    private WebSocket socket;
+    private ScheduledExecutorService scheduler;
+    private Blackhole sink;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        sink = blackhole;
+        Logger.getLogger("WebSocketAlertClient").setLevel(Level.OFF);
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        socket = new DiscardingWebSocket(blackhole);
+        client = new WebSocketAlertClient("ws://localhost:8080", "BENCH-UE", new WebSocketAlertClient.AlertHandler() {
+            @Override
+            public void onAlertReceived(WebSocketAlert alert) {
+                sink.consume(alert);
+            }
+
+            @Override
+            public void onConnectionStatusChanged(boolean connected) {
+            }
+
+            @Override
+            public void onError(String error) {
+            }
+        }, new OkHttpClient(), scheduler, WebSocketAlertClient.DIRECT);
+        client.onOpen(socket, null);
+        binary = WebSocketAlertClient.WIRE_FORMAT_CBOR.equals(wireFormat);
+        if (binary) {
+            client.onMessage(socket, "{\"type\":\"registration_confirmed\",\"wireFormat\":\"cbor\"}");
+            heartbeatAckFrame = ByteString.of(Cbor.writer().value(new JSONObject(CapSamples.FRAME_HEARTBEAT_ACK)).toByteArray());
+            emergencyAlertFrame = ByteString.of(Cbor.writer().value(new JSONObject(CapSamples.FRAME_EMERGENCY_ALERT)).toByteArray());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.disconnect();
+        scheduler.shutdownNow();
+    }
+
+    @Benchmark
+    public void heartbeatAck() {
+        if (binary) {
+            client.onMessage(socket, heartbeatAckFrame);
+        } else {
+            client.onMessage(socket, CapSamples.FRAME_HEARTBEAT_ACK);
+        }
+    }
+
+    @Benchmark
+    public void emergencyAlert() {
+        if (binary) {
+            client.onMessage(socket, emergencyAlertFrame);
+        } else {
+            client.onMessage(socket, CapSamples.FRAME_EMERGENCY_ALERT);
+        }
+    }
+
+    /** Swallows outbound frames so acks cost what building them costs. */
+    static final class DiscardingWebSocket implements WebSocket {
+        private final Blackhole blackhole;
+
+        DiscardingWebSocket(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public boolean send(String text) {
+            blackhole.consume(text);
+            return true;
+        }
+
+        @Override
+        public boolean send(ByteString bytes) {
+            blackhole.consume(bytes);
+            return true;
+        }
+
+        @Override
+        public boolean close(int code, String reason) {
+            return true;
+        }
+
+        @Override
+        public void cancel() {
+        }
+
+        @Override
+        public long queueSize() {
+            return 0;
+        }
+
+        @Override
+        public Request request() {
+            return null;
+        }
+    }
+}
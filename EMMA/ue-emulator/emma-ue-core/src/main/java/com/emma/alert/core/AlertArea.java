@@ -0,0 +1,341 @@
+package com.emma.alert.core;
+
+import java.util.Arrays;
+
+/**
+ * The {@code <area>} shapes of a CAP alert: {@code <polygon>} ("lat,lon lat,lon ...", closed)
+ * and {@code <circle>} ("lat,lon radiusKm"), filled by {@link CapDecoder} or from the
+ * distributor's JSON. Shapes that do not parse are skipped. Points on a shape's boundary, to
+ * rounding, are inside it.
+ *
+ * <p>The shapes are kept as text until the first lookup, so an area that {@link Geofence}
+ * replaces with the one it cached for the same alert is never parsed at all. {@link #contains}
+ * rejects a point outside the union's bounding box, then outside each shape's own box, before
+ * any ray casting or distance maths. With {@value #INDEX_MIN_SHAPES} or more shapes a
+ * {@value #GRID}x{@value #GRID} grid over the union's box is built on the first lookup and
+ * kept, so each later lookup only tests the shapes overlapping one cell.
+ *
+ * <p>A polygon crossing the antimeridian is read with each edge taking the shorter way round,
+ * so {@code "10,170 10,-170 -10,-170 -10,170 10,170"} is 20 degrees wide, not 340; a polygon
+ * whose edges wind all the way round a pole is skipped. Circles may cross it too.
+ *
+ * <p>Filled on one thread; once handed on, lookups are thread-safe.
+ */
+public final class AlertArea {
+    private static final int INDEX_MIN_SHAPES = 4;
+    private static final int GRID = 16;
+    private static final double KM_PER_DEGREE = 111.32;
+    private static final int[] NO_SHAPES = new int[0];
+
+    // Shape text as added, polygons then circles; parsed on the first lookup
+    private String[] polygonTexts = new String[2];
+    private int polygonCount;
+    private String[] circleTexts = new String[2];
+    private int circleCount;
+    private volatile boolean parsed;
+
+    // Per shape; polygons hold interleaved lat,lon vertices, circles are null there
+    private double[][] vertices = new double[2][];
+    private double[] circles = new double[2 * 4]; // centre lat, centre lon, radius km, cos(lat)
+    private double[] boxes = new double[2 * 4]; // min lat, max lat, min lon, max lon
+    private int shapes;
+
+    private double minLat = Double.POSITIVE_INFINITY;
+    private double maxLat = Double.NEGATIVE_INFINITY;
+    private double minLon = Double.POSITIVE_INFINITY;
+    private double maxLon = Double.NEGATIVE_INFINITY;
+    // Some box runs past +-180, so points are also tried 360 degrees either way
+    private boolean wraps;
+
+    private volatile int[][] grid;
+
+    /** Adds a CAP polygon; skipped unless it has at least three vertices, all valid coordinates. */
+    public void addPolygon(String polygon) {
+        if (polygonCount == polygonTexts.length) {
+            polygonTexts = Arrays.copyOf(polygonTexts, polygonCount * 2);
+        }
+        polygonTexts[polygonCount++] = polygon;
+        parsed = false;
+    }
+
+    /** Adds a CAP circle; skipped unless it is a valid centre and a non-negative radius in km. */
+    public void addCircle(String circle) {
+        if (circleCount == circleTexts.length) {
+            circleTexts = Arrays.copyOf(circleTexts, circleCount * 2);
+        }
+        circleTexts[circleCount++] = circle;
+        parsed = false;
+    }
+
+    /** True when no valid shape was added, i.e. the alert is not geographically targeted. */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /** Valid shapes. */
+    public int size() {
+        parse();
+        return shapes;
+    }
+
+    /** Whether the point lies in any of the shapes. */
+    public boolean contains(double lat, double lon) {
+        parse();
+        if (containsAt(lat, lon)) {
+            return true;
+        }
+        return wraps && (containsAt(lat, lon + 360) || containsAt(lat, lon - 360));
+    }
+
+    private void parse() {
+        if (parsed) {
+            return;
+        }
+        synchronized (this) {
+            if (parsed) {
+                return;
+            }
+            shapes = 0;
+            minLat = minLon = Double.POSITIVE_INFINITY;
+            maxLat = maxLon = Double.NEGATIVE_INFINITY;
+            wraps = false;
+            grid = null;
+            for (int i = 0; i < polygonCount; i++) {
+                parsePolygon(polygonTexts[i]);
+            }
+            for (int i = 0; i < circleCount; i++) {
+                parseCircle(circleTexts[i]);
+            }
+            parsed = true;
+        }
+    }
+
+    private void parsePolygon(String polygon) {
+        double[] values = parseNumbers(polygon);
+        if (values == null || values.length % 2 != 0 || values.length < 6) {
+            return;
+        }
+        double loLat = Double.POSITIVE_INFINITY, hiLat = Double.NEGATIVE_INFINITY;
+        double loLon = Double.POSITIVE_INFINITY, hiLon = Double.NEGATIVE_INFINITY;
+        double offset = 0;
+        for (int i = 0; i < values.length; i += 2) {
+            if (!validPoint(values[i], values[i + 1])) {
+                return;
+            }
+            // Unwrap across the antimeridian: no edge spans more than half the globe
+            if (i > 0) {
+                double step = values[i + 1] + offset - values[i - 1];
+                if (step > 180) {
+                    offset -= 360;
+                } else if (step < -180) {
+                    offset += 360;
+                }
+                values[i + 1] += offset;
+            }
+            loLat = Math.min(loLat, values[i]);
+            hiLat = Math.max(hiLat, values[i]);
+            loLon = Math.min(loLon, values[i + 1]);
+            hiLon = Math.max(hiLon, values[i + 1]);
+        }
+        // The closing edge too; if it cannot, the polygon winds round a pole
+        if (Math.abs(values[values.length - 1] - values[1]) > 180) {
+            return;
+        }
+        int slot = addShape(loLat, hiLat, loLon, hiLon);
+        vertices[slot] = values;
+    }
+
+    private void parseCircle(String circle) {
+        double[] values = parseNumbers(circle);
+        if (values == null || values.length != 3 || !validPoint(values[0], values[1]) || !(values[2] >= 0)) {
+            return;
+        }
+        double lat = values[0];
+        double lon = values[1];
+        double radius = values[2];
+        double cos = Math.cos(Math.toRadians(lat));
+        double dLat = radius / KM_PER_DEGREE;
+        // Near the poles the box spans every longitude
+        double dLon = cos > 1e-6 ? Math.min(180, radius / (KM_PER_DEGREE * cos)) : 180;
+        int slot = addShape(Math.max(-90, lat - dLat), Math.min(90, lat + dLat), lon - dLon, lon + dLon);
+        vertices[slot] = null;
+        circles[slot * 4] = lat;
+        circles[slot * 4 + 1] = lon;
+        circles[slot * 4 + 2] = radius;
+        circles[slot * 4 + 3] = cos;
+    }
+
+    private boolean containsAt(double lat, double lon) {
+        if (lat < minLat || lat > maxLat || lon < minLon || lon > maxLon) {
+            return false;
+        }
+        if (shapes < INDEX_MIN_SHAPES) {
+            for (int s = 0; s < shapes; s++) {
+                if (shapeContains(s, lat, lon)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        for (int s : grid()[cell(lat, lon)]) {
+            if (shapeContains(s, lat, lon)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int addShape(double loLat, double hiLat, double loLon, double hiLon) {
+        if (shapes == vertices.length) {
+            vertices = Arrays.copyOf(vertices, shapes * 2);
+            circles = Arrays.copyOf(circles, shapes * 2 * 4);
+            boxes = Arrays.copyOf(boxes, shapes * 2 * 4);
+        }
+        int slot = shapes++;
+        boxes[slot * 4] = loLat;
+        boxes[slot * 4 + 1] = hiLat;
+        boxes[slot * 4 + 2] = loLon;
+        boxes[slot * 4 + 3] = hiLon;
+        minLat = Math.min(minLat, loLat);
+        maxLat = Math.max(maxLat, hiLat);
+        minLon = Math.min(minLon, loLon);
+        maxLon = Math.max(maxLon, hiLon);
+        wraps |= loLon < -180 || hiLon > 180;
+        return slot;
+    }
+
+    private boolean shapeContains(int s, double lat, double lon) {
+        int b = s * 4;
+        if (lat < boxes[b] || lat > boxes[b + 1] || lon < boxes[b + 2] || lon > boxes[b + 3]) {
+            return false;
+        }
+        double[] polygon = vertices[s];
+        if (polygon == null) {
+            double dLat = (lat - circles[b]) * KM_PER_DEGREE;
+            double dLon = (lon - circles[b + 1]) * KM_PER_DEGREE * circles[b + 3];
+            double radius = circles[b + 2];
+            return dLat * dLat + dLon * dLon <= radius * radius;
+        }
+        // Even-odd ray cast towards +lon; a closing vertex equal to the first adds no crossing.
+        // The cast alone would put some edges out, so a point on one is inside straight away.
+        boolean inside = false;
+        int n = polygon.length;
+        for (int i = 0, j = n - 2; i < n; j = i, i += 2) {
+            double latI = polygon[i], lonI = polygon[i + 1];
+            double latJ = polygon[j], lonJ = polygon[j + 1];
+            if (lat >= Math.min(latI, latJ) && lat <= Math.max(latI, latJ)
+                    && lon >= Math.min(lonI, lonJ) && lon <= Math.max(lonI, lonJ)
+                    && (lonJ - lonI) * (lat - latI) == (latJ - latI) * (lon - lonI)) {
+                return true;
+            }
+            if ((latI > lat) != (latJ > lat)
+                    && lon < (lonJ - lonI) * (lat - latI) / (latJ - latI) + lonI) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    private int[][] grid() {
+        int[][] cells = grid;
+        if (cells == null) {
+            synchronized (this) {
+                cells = grid;
+                if (cells == null) {
+                    cells = buildGrid();
+                    grid = cells;
+                }
+            }
+        }
+        return cells;
+    }
+
+    /** Cell index -> shapes whose box overlaps the cell. */
+    private int[][] buildGrid() {
+        int[][] cells = new int[GRID * GRID][];
+        int[] counts = new int[GRID * GRID];
+        for (int pass = 0; pass < 2; pass++) {
+            for (int s = 0; s < shapes; s++) {
+                int b = s * 4;
+                int row0 = row(boxes[b]), row1 = row(boxes[b + 1]);
+                int col0 = column(boxes[b + 2]), col1 = column(boxes[b + 3]);
+                for (int row = row0; row <= row1; row++) {
+                    for (int col = col0; col <= col1; col++) {
+                        int c = row * GRID + col;
+                        if (pass == 0) {
+                            counts[c]++;
+                        } else {
+                            cells[c][--counts[c]] = s;
+                        }
+                    }
+                }
+            }
+            if (pass == 0) {
+                for (int c = 0; c < cells.length; c++) {
+                    cells[c] = counts[c] == 0 ? NO_SHAPES : new int[counts[c]];
+                }
+            }
+        }
+        return cells;
+    }
+
+    private int cell(double lat, double lon) {
+        return row(lat) * GRID + column(lon);
+    }
+
+    private int row(double lat) {
+        return bucket(lat, minLat, maxLat);
+    }
+
+    private int column(double lon) {
+        return bucket(lon, minLon, maxLon);
+    }
+
+    private static int bucket(double value, double min, double max) {
+        if (max <= min) {
+            return 0;
+        }
+        int i = (int) ((value - min) / (max - min) * GRID);
+        return Math.max(0, Math.min(GRID - 1, i));
+    }
+
+    private static boolean validPoint(double lat, double lon) {
+        return lat >= -90 && lat <= 90 && lon >= -180 && lon <= 180;
+    }
+
+    /** The numbers in a CAP coordinate list, separated by commas and/or whitespace; null if any is not one. */
+    private static double[] parseNumbers(String text) {
+        if (text == null) {
+            return null;
+        }
+        double[] values = new double[16];
+        int count = 0;
+        int i = 0;
+        int end = text.length();
+        while (i < end) {
+            char c = text.charAt(i);
+            if (c == ',' || c <= ' ') {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < end && text.charAt(i) != ',' && text.charAt(i) > ' ') {
+                i++;
+            }
+            double value;
+            try {
+                value = Double.parseDouble(text.substring(start, i));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                return null;
+            }
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count * 2);
+            }
+            values[count++] = value;
+        }
+        return Arrays.copyOf(values, count);
+    }
+}
@@ -0,0 +1,166 @@
+package com.emma.alert.core;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Suppresses re-broadcast and superseded CAP alerts on the UE.
+ *
+ * <p>Two levels: a ring of 64-bit hashes of recent raw datagrams catches byte-identical
+ * retransmissions before they are decoded, and a bounded index keyed on the CAP identity
+ * (sender, identifier, sent) catches the same alert arriving re-encoded or over the WebSocket
+ * path. Update and Cancel messages mark every alert in their {@code references} as
+ * superseded, so queued or in-flight work for those alerts can be abandoned and late copies
+ * of them are dropped.
+ *
+ * <p>Entries for alerts that were dropped or failed before display should be
+ * {@link #forget forgotten} so the next retransmission gets another chance.
+ */
+public class AlertDeduplicator {
+    public static final int DEFAULT_DATAGRAM_WINDOW = 256;
+    public static final int DEFAULT_ALERT_WINDOW = 1024;
+
+    public enum Decision { ADMIT, DUPLICATE, SUPERSEDED }
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static volatile AlertDeduplicator defaultInstance;
+
+    private final long[] recentDatagrams;
+    private int nextSlot;
+    private final Map<String, Boolean> alerts;
+
+    private final AtomicLong duplicateDatagrams = new AtomicLong();
+    private final AtomicLong duplicateAlerts = new AtomicLong();
+    private final AtomicLong supersededAlerts = new AtomicLong();
+
+    public AlertDeduplicator() {
+        this(DEFAULT_DATAGRAM_WINDOW, DEFAULT_ALERT_WINDOW);
+    }
+
+    /** A window of 0 disables that level of de-duplication. */
+    public AlertDeduplicator(int datagramWindow, final int alertWindow) {
+        this.recentDatagrams = new long[datagramWindow];
+        // identity key -> superseded; insertion-ordered so the oldest alert is evicted first
+        this.alerts = new LinkedHashMap<String, Boolean>(alertWindow * 4 / 3 + 1) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > alertWindow;
+            }
+        };
+    }
+
+    /** Process-wide instance shared by the multicast and WebSocket receive paths. */
+    public static AlertDeduplicator getDefault() {
+        AlertDeduplicator instance = defaultInstance;
+        if (instance == null) {
+            synchronized (AlertDeduplicator.class) {
+                instance = defaultInstance;
+                if (instance == null) {
+                    instance = new AlertDeduplicator();
+                    defaultInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /** FNV-1a over the buffer's remaining bytes, mixed with the length; 0 is reserved for empty slots. */
+    public static long hash(ByteBuffer datagram) {
+        long h = FNV_OFFSET;
+        int end = datagram.limit();
+        for (int i = datagram.position(); i < end; i++) {
+            h ^= datagram.get(i) & 0xff;
+            h *= FNV_PRIME;
+        }
+        h ^= datagram.remaining();
+        return h == 0 ? 1 : h;
+    }
+
+    /** Returns true if the same datagram bytes were seen recently; otherwise remembers them. */
+    public synchronized boolean isRepeatDatagram(long hash) {
+        if (recentDatagrams.length == 0) {
+            return false;
+        }
+        for (long recent : recentDatagrams) {
+            if (recent == hash) {
+                duplicateDatagrams.incrementAndGet();
+                return true;
+            }
+        }
+        recentDatagrams[nextSlot] = hash;
+        nextSlot = (nextSlot + 1) % recentDatagrams.length;
+        return false;
+    }
+
+    public synchronized void forgetDatagram(long hash) {
+        for (int i = 0; i < recentDatagrams.length; i++) {
+            if (recentDatagrams[i] == hash) {
+                recentDatagrams[i] = 0;
+            }
+        }
+    }
+
+    public Decision admit(CapAlert alert) {
+        return admit(alert.sender, alert.identifier, alert.sent, alert.msgType, alert.references);
+    }
+
+    /**
+     * Records an alert's identity and returns whether it should be processed. Update and
+     * Cancel messages mark the alerts they reference as superseded.
+     */
+    public synchronized Decision admit(String sender, String identifier, String sent,
+                                       String msgType, String references) {
+        String key = key(sender, identifier, sent);
+        Boolean superseded = alerts.get(key);
+        if (superseded != null) {
+            if (superseded) {
+                supersededAlerts.incrementAndGet();
+                return Decision.SUPERSEDED;
+            }
+            duplicateAlerts.incrementAndGet();
+            return Decision.DUPLICATE;
+        }
+        alerts.put(key, Boolean.FALSE);
+        if (references != null && ("Update".equals(msgType) || "Cancel".equals(msgType))) {
+            for (String reference : references.trim().split("\\s+")) {
+                if (!reference.isEmpty()) {
+                    alerts.put(reference, Boolean.TRUE);
+                }
+            }
+        }
+        return Decision.ADMIT;
+    }
+
+    /** True once an Update or Cancel referencing this alert has been admitted. */
+    public synchronized boolean isSuperseded(String key) {
+        return key != null && Boolean.TRUE.equals(alerts.get(key));
+    }
+
+    /** Drops an admitted alert's identity (unless superseded) so a retransmission is processed again. */
+    public synchronized void forget(String key) {
+        if (key != null && Boolean.FALSE.equals(alerts.get(key))) {
+            alerts.remove(key);
+        }
+    }
+
+    /** CAP reference form: {@code sender,identifier,sent}. */
+    public static String key(String sender, String identifier, String sent) {
+        return (sender == null ? "" : sender) + "," + identifier + "," + (sent == null ? "" : sent);
+    }
+
+    public long getDuplicateDatagramCount() {
+        return duplicateDatagrams.get();
+    }
+
+    public long getDuplicateAlertCount() {
+        return duplicateAlerts.get();
+    }
+
+    public long getSupersededAlertCount() {
+        return supersededAlerts.get();
+    }
+}
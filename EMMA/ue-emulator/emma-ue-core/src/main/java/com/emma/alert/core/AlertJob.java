@@ -0,0 +1,57 @@
+package com.emma.alert.core;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+/** One alert moving through the pipeline, from datagram to display. */
+final class AlertJob {
+    final long receivedAtNanos = System.nanoTime();
+    final CapAlert alert = new CapAlert();
+
+    /** Pool buffer holding the raw datagram until decode releases it. */
+    ByteBuffer datagram;
+    DirectBufferPool pool;
+    /** {@link AlertDeduplicator#hash} of the raw datagram, 0 when not hashed. */
+    long datagramHash;
+    /** CAP identity ({@code sender,identifier,sent}) once decoded. */
+    String identityKey;
+    /** From the decoded severity and urgency; orders every stage after decode. */
+    AlertPriority priority = AlertPriority.NORMAL;
+
+    String alertId;
+    /** Entries extracted from the SMC, waiting for the signature check before going into the cache. */
+    File stagingDir;
+    SmcExtractor.Manifest manifest;
+    String mediaName;
+    /** SHA-256 of the downloaded SMC, the key of its {@link SmcCache} entry. */
+    String smcHash;
+    String smcSignature;
+    String mediaPath;
+    String mediaType;
+    /** The SMC as it downloads, and the loopback URL its video is offered at; guarded by the job. */
+    GrowingFile growing;
+    String progressiveUrl;
+    boolean progressiveRejected;
+
+    AlertJob(ByteBuffer datagram, DirectBufferPool pool) {
+        this.datagram = datagram;
+        this.pool = pool;
+    }
+
+    void releaseDatagram() {
+        if (datagram != null) {
+            if (pool != null) {
+                pool.release(datagram);
+            }
+            datagram = null;
+            pool = null;
+        }
+    }
+
+    void discardStaging() {
+        if (stagingDir != null) {
+            SmcCache.deleteRecursively(stagingDir);
+            stagingDir = null;
+        }
+    }
+}
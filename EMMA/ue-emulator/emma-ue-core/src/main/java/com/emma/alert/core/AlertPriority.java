@@ -0,0 +1,38 @@
+package com.emma.alert.core;
+
+/**
+ * Scheduling class of an alert on the UE, from its CAP {@code severity} and {@code urgency}
+ * (the {@code AlertSeverity} / {@code AlertUrgency} values of {@code shared/data_models.py}).
+ * Declared most urgent first, so {@link #ordinal()} is the rank pipeline queues sort on.
+ */
+public enum AlertPriority {
+    /** Extreme, and Immediate or Expected. Has workers of its own in the fetch stage. */
+    CRITICAL,
+    /** Extreme but Future or unknown urgency; Severe and Immediate or Expected. */
+    HIGH,
+    /** Severe otherwise; Moderate, unless Future. */
+    NORMAL,
+    /** Minor, Unknown, Moderate and Future, or anything Past. */
+    LOW;
+
+    public static AlertPriority of(String severity, String urgency) {
+        if ("Past".equalsIgnoreCase(urgency)) {
+            return LOW;
+        }
+        boolean soon = "Immediate".equalsIgnoreCase(urgency) || "Expected".equalsIgnoreCase(urgency);
+        if ("Extreme".equalsIgnoreCase(severity)) {
+            return soon ? CRITICAL : HIGH;
+        }
+        if ("Severe".equalsIgnoreCase(severity)) {
+            return soon ? HIGH : NORMAL;
+        }
+        if ("Moderate".equalsIgnoreCase(severity)) {
+            return "Future".equalsIgnoreCase(urgency) ? LOW : NORMAL;
+        }
+        return LOW;
+    }
+
+    public static AlertPriority of(CapAlert alert) {
+        return of(alert.severity, alert.urgency);
+    }
+}
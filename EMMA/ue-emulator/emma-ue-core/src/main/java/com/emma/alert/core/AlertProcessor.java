@@ -0,0 +1,563 @@
+package com.emma.alert.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import okhttp3.Response;
+
+/**
+ * The UE alert receive pipeline without Android dependencies: CAP parsing, SMC download,
+ * signature check and media extraction. Results go to an {@link AlertSink}; files go under
+ * {@link MediaStorage#getCacheDir()}.
+ *
+ * <p>Work flows through bounded {@link PipelineStage}s (decode, fetch, verify, display),
+ * each with its own workers and overflow policy from {@link PipelineConfig}, so a
+ * burst of alerts neither stalls the receive thread nor spawns a thread per download.
+ * Call {@link #start()} before feeding datagrams and {@link #stop()} when done.
+ *
+ * <p>An {@link AlertDeduplicator} drops byte-identical retransmissions before they are queued
+ * and repeated or superseded alerts after decode; every later stage skips jobs whose alert has
+ * since been superseded by an Update or Cancel.
+ *
+ * <p>Decode is FIFO; after it every stage, and the extractor's entry writers, serve alerts by
+ * {@link AlertPriority} from CAP severity and urgency. A full stage evicts its least urgent
+ * job first, and the fetch stage keeps a worker for CRITICAL alerts whose requests go out on
+ * {@link CdnHttpClient#urgent}'s own dispatcher, so an Extreme/Immediate alert is neither
+ * queued in the pipeline nor stuck on the network behind hundreds of Minor ones' chunks. Time
+ * from datagram to display is recorded per priority ({@link #getDisplayLatency}).
+ *
+ * <p>With a {@link PipelineConfig#geofence}, an alert whose CAP area does not cover the UE is
+ * dropped right after decode, so it costs neither a CDN download nor a display.
+ *
+ * <p>Extracted media is kept in a content-addressed {@link SmcCache} under the cache dir, so
+ * an alert whose SMC was already fetched (by any locator) is displayed without downloading it
+ * again, and repeat downloads are revalidated with If-None-Match / If-Modified-Since.
+ *
+ * <p>An SMC is read once: the fetch stage hashes the bytes as they arrive and writes them to a
+ * staging dir in the same pass, where the container itself becomes the entry's memory-mapped
+ * {@link SmcPack}. The verify stage checks the signature over that digest before committing
+ * the staged pack to the cache. Nothing is displayed from an unverified container. The media
+ * path given to the {@link AlertSink} is {@code <entry dir>/<name>}; {@link SmcPack#find}
+ * resolves it to the mapped entry. With {@link PipelineConfig#progressiveVideo}, a stored video
+ * is located in the container while it arrives and offered to the sink through a
+ * {@link LoopbackMediaServer}, so playback starts before the download ends; the signature
+ * still gates the commit, and a container that fails it is withdrawn from the sink. An SMC
+ * without a valid sidecar signature is rejected. With {@link SmcVerifier#keyUnavailable} no SMC
+ * is fetched at all and alerts are shown as text only; only benchmarks and local testing pass
+ * {@link SmcVerifier#disabled}.
+ */
+public class AlertProcessor {
+    private static final Logger LOG = Logger.getLogger("AlertProcessor");
+    public static final String DEFAULT_CDN_BASE_URL = "http://http-cdn:3000/alerts/";
+
+    private final AlertSink sink;
+    private final MediaStorage storage;
+    private final SmcVerifier verifier;
+    private final String cdnBaseUrl;
+    private final AlertDeduplicator deduplicator;
+    private final SmcCache mediaCache;
+    private final SmcDownloader downloader;
+    private final SmcExtractor extractor;
+    private final ExecutorService progressiveScans;
+    private final Geofence geofence;
+    private LoopbackMediaServer loopback;
+    private final ThreadLocal<CapDecoder> decoders = ThreadLocal.withInitial(CapDecoder::new);
+
+    private final PipelineStage<AlertJob> decodeStage;
+    private final PipelineStage<AlertJob> fetchStage;
+    private final PipelineStage<AlertJob> verifyStage;
+    private final PipelineStage<AlertJob> displayStage;
+    private final List<PipelineStage<AlertJob>> stages;
+    private final LatencyHistogram[] displayLatency = new LatencyHistogram[AlertPriority.values().length];
+
+    public AlertProcessor(AlertSink sink, MediaStorage storage, SmcVerifier verifier, String cdnBaseUrl) {
+        this(sink, storage, verifier, cdnBaseUrl, new PipelineConfig(), new AlertDeduplicator());
+    }
+
+    public AlertProcessor(AlertSink sink, MediaStorage storage, SmcVerifier verifier, String cdnBaseUrl,
+                          PipelineConfig config, AlertDeduplicator deduplicator) {
+        this.sink = sink;
+        this.storage = storage;
+        this.verifier = Objects.requireNonNull(verifier, "verifier");
+        this.cdnBaseUrl = cdnBaseUrl;
+        this.deduplicator = deduplicator;
+        File cacheRoot = new File(storage.getCacheDir(), "smc");
+        this.mediaCache = new SmcCache(cacheRoot, config.mediaCacheBytes);
+        this.downloader = new SmcDownloader(new File(cacheRoot, ".partial"));
+        this.geofence = config.geofence;
+        this.extractor = new SmcExtractor(config.smcMaxEntries, config.smcMaxBytes, SmcExtractor.DEFAULT_PARALLELISM);
+        if (config.progressiveVideo) {
+            AtomicInteger threadCount = new AtomicInteger();
+            this.progressiveScans = Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "emma-progressive-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            this.progressiveScans = null;
+        }
+
+        // The priority is not known until the datagram is decoded
+        decodeStage = new PipelineStage<>("decode", config.decode.workers, config.decode.capacity,
+                config.decode.policy, this::decode, job -> {
+                    job.releaseDatagram();
+                    forget(job);
+                });
+        fetchStage = stage("fetch", config.fetch, this::fetch, this::forget);
+        verifyStage = stage("verify", config.verify, this::verify, job -> {
+            discard(job);
+            forget(job);
+        });
+        displayStage = stage("display", config.display, this::display, this::forget);
+        stages = Arrays.asList(decodeStage, fetchStage, verifyStage, displayStage);
+        for (int i = 0; i < displayLatency.length; i++) {
+            displayLatency[i] = new LatencyHistogram();
+        }
+    }
+
+    private static PipelineStage<AlertJob> stage(String name, PipelineConfig.StageConfig config,
+                                                 PipelineStage.Handler<AlertJob> handler,
+                                                 PipelineStage.DropListener<AlertJob> onDrop) {
+        return new PipelineStage<>(name, config.workers, config.urgentWorkers, config.capacity, config.policy,
+                job -> job.priority.ordinal(), handler, onDrop);
+    }
+
+    public void start() {
+        for (PipelineStage<AlertJob> stage : stages) {
+            stage.start();
+        }
+    }
+
+    public void stop() {
+        for (PipelineStage<AlertJob> stage : stages) {
+            stage.stop();
+        }
+        if (progressiveScans != null) {
+            progressiveScans.shutdownNow();
+        }
+        synchronized (this) {
+            if (loopback != null) {
+                loopback.stop();
+                loopback = null;
+            }
+        }
+    }
+
+    /**
+     * Hands a received datagram (position to limit of a pool buffer) to the decode stage.
+     * Never blocks; the buffer goes back to {@code pool} once decoded or dropped. Exact
+     * repeats of a recent datagram are released here without being queued.
+     */
+    public void submitDatagram(ByteBuffer datagram, DirectBufferPool pool) {
+        long hash = AlertDeduplicator.hash(datagram);
+        if (deduplicator.isRepeatDatagram(hash)) {
+            pool.release(datagram);
+            return;
+        }
+        AlertJob job = new AlertJob(datagram, pool);
+        job.datagramHash = hash;
+        decodeStage.submit(job);
+    }
+
+    /**
+     * Decodes one CAP datagram on the calling thread and queues it for display or download.
+     * The buffer is not retained.
+     */
+    public void processAlert(ByteBuffer datagram) {
+        long hash = AlertDeduplicator.hash(datagram);
+        if (deduplicator.isRepeatDatagram(hash)) {
+            return;
+        }
+        AlertJob job = new AlertJob(datagram, null);
+        job.datagramHash = hash;
+        decode(job);
+    }
+
+    /** Per-stage queue depth, high-water mark, throughput and drop counters. */
+    public List<PipelineStage<AlertJob>> getStages() {
+        return Collections.unmodifiableList(stages);
+    }
+
+    public AlertDeduplicator getDeduplicator() {
+        return deduplicator;
+    }
+
+    public SmcCache getMediaCache() {
+        return mediaCache;
+    }
+
+    /** Milliseconds from datagram to {@link AlertSink#onAlert} for alerts of {@code priority}. */
+    public LatencyHistogram getDisplayLatency(AlertPriority priority) {
+        return displayLatency[priority.ordinal()];
+    }
+
+    public String metricsSummary() {
+        StringBuilder sb = new StringBuilder();
+        for (PipelineStage<AlertJob> stage : stages) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(stage);
+        }
+        sb.append(" dedupe[datagrams=").append(deduplicator.getDuplicateDatagramCount())
+                .append(" alerts=").append(deduplicator.getDuplicateAlertCount())
+                .append(" superseded=").append(deduplicator.getSupersededAlertCount()).append(']');
+        sb.append(' ').append(downloader).append(' ').append(verifier).append(' ').append(mediaCache);
+        for (AlertPriority priority : AlertPriority.values()) {
+            LatencyHistogram latency = displayLatency[priority.ordinal()];
+            if (latency.count() > 0) {
+                sb.append(' ').append(priority).append('[').append(latency.summary("ms")).append(']');
+            }
+        }
+        if (geofence != null) {
+            sb.append(' ').append(geofence);
+        }
+        return sb.toString();
+    }
+
+    /** Lets a retransmission of an alert that never reached display be processed again. */
+    private void forget(AlertJob job) {
+        if (job.datagramHash != 0) {
+            deduplicator.forgetDatagram(job.datagramHash);
+        }
+        deduplicator.forget(job.identityKey);
+    }
+
+    private boolean superseded(AlertJob job) {
+        if (deduplicator.isSuperseded(job.identityKey)) {
+            LOG.fine("Skipping superseded alert " + job.identityKey);
+            return true;
+        }
+        return false;
+    }
+
+    private void decode(AlertJob job) {
+        CapAlert alert = job.alert;
+        boolean decoded;
+        int length = job.datagram.remaining();
+        try {
+            decoded = decoders.get().decode(job.datagram, alert);
+        } finally {
+            job.releaseDatagram();
+        }
+        if (!decoded) {
+            LOG.warning("Dropping malformed CAP datagram (" + length + " bytes)");
+            forget(job);
+            return;
+        }
+        AlertDeduplicator.Decision decision = deduplicator.admit(alert);
+        if (decision != AlertDeduplicator.Decision.ADMIT) {
+            LOG.fine("Dropping " + decision + " alert " + alert.identifier);
+            return;
+        }
+        job.identityKey = AlertDeduplicator.key(alert.sender, alert.identifier, alert.sent);
+        job.priority = AlertPriority.of(alert);
+        if (geofence != null && !geofence.covers(alert)) {
+            LOG.fine("Skipping alert " + alert.identifier + " outside its area");
+            // A retransmission after the UE has moved into the area gets another chance
+            forget(job);
+            return;
+        }
+        if (alert.mediaLocator != null && !verifier.isKeyAvailable()) {
+            LOG.warning("Rejecting media for " + alert.identifier + ": signature key unavailable");
+            if (alert.description != null) {
+                displayStage.submit(job);
+            }
+        } else if (alert.mediaLocator != null) {
+            job.alertId = alert.mediaLocator.substring(alert.mediaLocator.lastIndexOf('/') + 1);
+            fetchStage.submit(job);
+        } else if (alert.description != null) {
+            // Text-only alert
+            displayStage.submit(job);
+        }
+    }
+
+    private void fetch(AlertJob job) throws Exception {
+        if (superseded(job)) {
+            return;
+        }
+        try {
+            download(job);
+        } catch (Exception e) {
+            discard(job);
+            forget(job);
+            throw e;
+        }
+    }
+
+    /**
+     * Resolves the SMC to a cache entry where possible. The sidecar's hash names the content,
+     * so media already extracted for it is reused without downloading the zip. Otherwise the
+     * zip is fetched (conditionally when the content it last served is still cached) and
+     * streamed through SHA-256 into the staging dir's {@link SmcPack}. Large containers arrive
+     * via the downloader's resumable chunked path; their {@code .part} file is hashed and then
+     * moved into place. Only compressed entries are extracted. Either way the container can be
+     * read while it arrives, for {@link #startProgressive}.
+     */
+    private void download(AlertJob job) throws Exception {
+        SmcSidecar sidecar = fetchSidecar(job.alertId, job.priority);
+        String declaredHash = sidecar == null ? null : sidecar.hash;
+        if (reuseCached(job, declaredHash)) {
+            return;
+        }
+        SmcCache.Validators validators = mediaCache.validators(job.alertId);
+        boolean conditional = validators != null && mediaCache.contains(validators.hash);
+        URL url = new URL(cdnBaseUrl + job.alertId);
+        Consumer<GrowingFile> onChunked = progressiveScans == null ? null : growing -> startProgressive(job, growing);
+        SmcDownloader.Download download = downloader.get(url, conditional ? validators : null, onChunked, job.priority);
+        if (download.notModified) {
+            if (reuseCached(job, validators.hash)) {
+                return;
+            }
+            // Evicted since the request went out
+            download = downloader.get(url, null, onChunked, job.priority);
+        }
+
+        // The entries stay staged until the signature checks out
+        MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+        job.stagingDir = mediaCache.newStagingDir();
+        try (SmcDownloader.Download body = download;
+             InputStream is = new DigestInputStream(body.getBody(), sha256)) {
+            if (body.getFile() != null) {
+                drain(is);
+                job.manifest = extractor.pack(body.getFile(), job.stagingDir, job.priority);
+            } else if (progressiveScans != null) {
+                AtomicLong written = new AtomicLong();
+                GrowingFile growing = new GrowingFile(new File(job.stagingDir, SmcPack.FILE_NAME),
+                        position -> written.get() - position);
+                startProgressive(job, growing);
+                try {
+                    job.manifest = extractor.pack(is, job.stagingDir, bytes -> {
+                        written.set(bytes);
+                        growing.advanced();
+                    }, job.priority);
+                } catch (IOException e) {
+                    growing.fail(e);
+                    throw e;
+                }
+                growing.finish();
+            } else {
+                // Hash and store in one pass
+                job.manifest = extractor.pack(is, job.stagingDir, null, job.priority);
+            }
+        }
+        SmcExtractor.MediaEntry primary = job.manifest.getPrimary();
+        job.mediaName = primary == null ? null : primary.name;
+        LOG.fine("Stored " + job.alertId + ": " + job.manifest);
+        String hash = SmcCache.toHex(sha256.digest());
+        if (declaredHash != null && !declaredHash.equals(hash)) {
+            throw new IOException("SMC " + job.alertId + " does not match its sidecar hash");
+        }
+        mediaCache.putValidators(job.alertId, new SmcCache.Validators(download.etag, download.lastModified, hash));
+        if (reuseCached(job, hash)) {
+            job.discardStaging();
+            return;
+        }
+        job.smcHash = hash;
+        job.smcSignature = sidecar == null ? null : sidecar.signature;
+        verifyStage.submit(job);
+    }
+
+    /**
+     * Watches an SMC that is still arriving for a stored video and, once its local header is
+     * in, publishes the entry's byte range on the loopback server and tells the sink. The
+     * player's reads wait for bytes that have not landed yet.
+     */
+    private void startProgressive(AlertJob job, GrowingFile growing) {
+        // A chunked download that had to start over replaces what was offered before
+        rejectProgressive(job);
+        synchronized (job) {
+            job.growing = growing;
+            job.progressiveRejected = false;
+        }
+        progressiveScans.execute(() -> {
+            try {
+                SmcPack.Location video = SmcPack.scan(growing, "video");
+                if (video == null) {
+                    return;
+                }
+                synchronized (job) {
+                    if (job.growing != growing || job.progressiveRejected) {
+                        return;
+                    }
+                    job.progressiveUrl = loopback().publish(growing, video.offset, video.length, video.name);
+                    LOG.info("Streaming " + video + " of " + job.alertId + " ahead of verification");
+                    sink.onProgressiveMedia(job.alert.description, job.progressiveUrl, "video");
+                }
+            } catch (IOException e) {
+                LOG.fine("No progressive video for " + job.alertId + ": " + e.getMessage());
+            }
+        });
+    }
+
+    /** Withdraws a video offered by {@link #startProgressive}, if any. */
+    private void rejectProgressive(AlertJob job) {
+        synchronized (job) {
+            job.progressiveRejected = true;
+            if (job.growing == null) {
+                return;
+            }
+            job.growing.close();
+            job.growing = null;
+            if (job.progressiveUrl != null) {
+                loopback.unpublish(job.progressiveUrl);
+                sink.onMediaRejected(job.progressiveUrl);
+                job.progressiveUrl = null;
+            }
+        }
+    }
+
+    private synchronized LoopbackMediaServer loopback() throws IOException {
+        if (loopback == null) {
+            loopback = new LoopbackMediaServer();
+        }
+        return loopback;
+    }
+
+    /** Drops a job's staged media and anything already offered from it. */
+    private void discard(AlertJob job) {
+        job.discardStaging();
+        rejectProgressive(job);
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[SmcExtractor.BUFFER_SIZE];
+        while (in.read(buffer) != -1) {
+            // drain
+        }
+    }
+
+    /** Returns the SMC's sidecar, revalidated against the CDN, or null if unavailable. */
+    private SmcSidecar fetchSidecar(String alertId, AlertPriority priority) {
+        String name = SmcSidecar.nameFor(alertId);
+        if (name == null) {
+            return null;
+        }
+        SmcCache.Validators validators = mediaCache.validators(name);
+        try (Response response = downloader.fetch(new URL(cdnBaseUrl + name), validators, priority)) {
+            int code = response.code();
+            if (code == 304 && validators != null && validators.hash != null) {
+                return new SmcSidecar(validators.hash, validators.signature);
+            }
+            if (code != 200) {
+                return null;
+            }
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (InputStream is = response.body().byteStream()) {
+                byte[] buffer = new byte[1024];
+                int len;
+                while ((len = is.read(buffer)) != -1) {
+                    body.write(buffer, 0, len);
+                }
+            }
+            SmcSidecar sidecar = SmcSidecar.parse(body.toByteArray());
+            if (sidecar == null) {
+                return null;
+            }
+            mediaCache.putValidators(name, new SmcCache.Validators(response.header("ETag"),
+                    response.header("Last-Modified"), sidecar.hash, sidecar.signature));
+            return sidecar;
+        } catch (IOException e) {
+            LOG.fine("No sidecar for " + alertId + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** Sends the job straight to display if media for {@code hash} is already extracted. */
+    private boolean reuseCached(AlertJob job, String hash) {
+        SmcCache.Entry entry = mediaCache.lookup(hash);
+        if (entry == null) {
+            return false;
+        }
+        File media = entry.getMediaFile();
+        job.mediaPath = media == null ? null : media.getAbsolutePath();
+        job.mediaType = determineMediaType(job.mediaPath);
+        displayStage.submit(job);
+        return true;
+    }
+
+    private void verify(AlertJob job) {
+        if (superseded(job)) {
+            discard(job);
+            return;
+        }
+        if (!verifySignature(job.smcHash, job.smcSignature)) {
+            LOG.warning("Rejecting SMC " + job.alertId + ": signature does not match " + job.smcHash);
+            discard(job);
+            return;
+        }
+        try {
+            File media = mediaCache.commit(job.smcHash, job.stagingDir, job.mediaName).getMediaFile();
+            job.stagingDir = null;
+            job.mediaPath = media == null ? null : media.getAbsolutePath();
+            job.mediaType = determineMediaType(job.mediaPath);
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Error caching media", e);
+            discard(job);
+        }
+        displayStage.submit(job);
+    }
+
+    private void display(AlertJob job) {
+        if (superseded(job)) {
+            return;
+        }
+        sink.onAlert(job.alert.description, job.mediaPath, job.mediaType);
+        displayLatency[job.priority.ordinal()].record((System.nanoTime() - job.receivedAtNanos) / 1_000_000);
+    }
+
+    /** Checks the sidecar signature over the SMC's SHA-256 (hex, as signed by the cap-generator). */
+    public boolean verifySignature(String smcHash, String signatureHex) {
+        return verifier.verify(smcHash, signatureHex);
+    }
+
+    /** Extracts every entry of the SMC into the cache dir and returns the media to show. */
+    public String extractMedia(File smcFile) {
+        return extractMedia(smcFile, storage.getCacheDir());
+    }
+
+    public String extractMedia(File smcFile, File outputDir) {
+        try {
+            SmcExtractor.MediaEntry primary = extractor.extract(smcFile, outputDir).getPrimary();
+            return primary == null ? null : primary.file.getAbsolutePath();
+        } catch (Exception e) {
+            LOG.log(Level.SEVERE, "Error extracting media", e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes each entry of a zip stream into {@code outputDir} and returns what was written.
+     * Stops at the end of the last entry; the caller owns (and closes) {@code in}.
+     */
+    public SmcExtractor.Manifest extractEntries(InputStream in, File outputDir) throws IOException {
+        return extractor.extract(in, outputDir);
+    }
+
+    public static String determineMediaType(String filePath) {
+        if (filePath == null) return null;
+        String lowerPath = filePath.toLowerCase();
+        if (lowerPath.endsWith(".jpg") || lowerPath.endsWith(".jpeg") || lowerPath.endsWith(".png")) {
+            return "image";
+        } else if (lowerPath.endsWith(".mp4") || lowerPath.endsWith(".3gp")) {
+            return "video";
+        }
+        return null;
+    }
+}
@@ -0,0 +1,22 @@
+package com.emma.alert.core;
+
+/**
+ * Receives alerts that are ready to display. On Android this is the service broadcasting
+ * {@code com.emma.alert.DISPLAY_ALERT}; on the JVM it is a test or benchmark harness.
+ */
+public interface AlertSink {
+    void onAlert(String text, String mediaPath, String mediaType);
+
+    /**
+     * With {@link PipelineConfig#progressiveVideo}, a stored video can be played from
+     * {@code url} (a loopback HTTP URL) while its SMC is still downloading. The signature has
+     * not been checked yet: {@link #onAlert} follows once it has, and
+     * {@link #onMediaRejected} if it fails. Ignored by default.
+     */
+    default void onProgressiveMedia(String text, String url, String mediaType) {
+    }
+
+    /** The media at {@code url} from {@link #onProgressiveMedia} failed to download or verify; stop playing it. */
+    default void onMediaRejected(String url) {
+    }
+}
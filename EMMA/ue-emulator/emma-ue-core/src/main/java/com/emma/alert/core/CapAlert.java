@@ -0,0 +1,53 @@
+package com.emma.alert.core;
+
+/**
+ * The CAP fields the UE acts on, filled by {@link CapDecoder}. Instances are reused from
+ * datagram to datagram; copy out anything that must outlive the next decode.
+ * Info-level fields come from the first {@code <info>} block.
+ */
+public class CapAlert {
+    public String identifier;
+    public String sender;
+    public String sent;
+    public String status;
+    public String msgType;
+    public String references;
+
+    public String event;
+    public String urgency;
+    public String severity;
+    public String certainty;
+    public String headline;
+    public String description;
+    /** From {@code <parameter>valueName=mediaLocator}, {@code <resource><mediaLocator>} or a bare {@code <mediaLocator>}. */
+    public String mediaLocator;
+    /** {@code <area>} polygons and circles, null when the alert has none. */
+    public AlertArea area;
+
+    public void clear() {
+        identifier = null;
+        sender = null;
+        sent = null;
+        status = null;
+        msgType = null;
+        references = null;
+        event = null;
+        urgency = null;
+        severity = null;
+        certainty = null;
+        headline = null;
+        description = null;
+        mediaLocator = null;
+        area = null;
+    }
+
+    public boolean hasMedia() {
+        return mediaLocator != null;
+    }
+
+    @Override
+    public String toString() {
+        return "CapAlert{" + identifier + ", " + msgType + ", " + severity + "/" + urgency
+                + ", headline=" + headline + ", mediaLocator=" + mediaLocator + "}";
+    }
+}
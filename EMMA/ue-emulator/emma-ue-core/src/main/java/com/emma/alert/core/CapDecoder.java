@@ -0,0 +1,553 @@
+package com.emma.alert.core;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Single-pass pull decoder for CAP 1.2 datagrams. Walks the UTF-8 bytes once, tracks only the
+ * element path, and copies out just the fields {@link CapAlert} holds; no DOM, no per-packet
+ * parser factory. Namespace prefixes are ignored (local names are matched), comments, PIs and
+ * CDATA are handled, and DOCTYPEs are skipped without expanding entities. The first
+ * {@code <info>}'s {@code <area>} polygons and circles are collected into an {@link AlertArea}.
+ *
+ * <p>A field's value is its text content as a DOM parser would report it, trimmed: markup nested
+ * inside it contributes its text, and line ends are normalized to {@code \n}. Datagrams that are
+ * not well-formed in the ways a DOM parser checks here (unbalanced or mismatched tags, content
+ * outside the root element, undefined entity or invalid character references) are rejected;
+ * the only ones that parse differently are those relying on entities a DOCTYPE declares.
+ *
+ * <p>Not thread-safe: keep one decoder per receive/decode thread.
+ */
+public final class CapDecoder {
+    private static final int MAX_DEPTH = 32;
+
+    private static final int E_OTHER = 0;
+    private static final int E_ALERT = 1;
+    private static final int E_INFO = 2;
+    private static final int E_PARAMETER = 3;
+    private static final int E_RESOURCE = 4;
+    private static final int E_IDENTIFIER = 5;
+    private static final int E_SENDER = 6;
+    private static final int E_SENT = 7;
+    private static final int E_STATUS = 8;
+    private static final int E_MSG_TYPE = 9;
+    private static final int E_REFERENCES = 10;
+    private static final int E_EVENT = 11;
+    private static final int E_URGENCY = 12;
+    private static final int E_SEVERITY = 13;
+    private static final int E_CERTAINTY = 14;
+    private static final int E_HEADLINE = 15;
+    private static final int E_DESCRIPTION = 16;
+    private static final int E_VALUE_NAME = 17;
+    private static final int E_VALUE = 18;
+    private static final int E_MEDIA_LOCATOR = 19;
+    private static final int E_AREA = 20;
+    private static final int E_POLYGON = 21;
+    private static final int E_CIRCLE = 22;
+
+    private static final byte[][] NAMES = names(
+            "", "alert", "info", "parameter", "resource", "identifier", "sender", "sent", "status",
+            "msgType", "references", "event", "urgency", "severity", "certainty", "headline",
+            "description", "valueName", "value", "mediaLocator", "area", "polygon", "circle");
+
+    private static final String MEDIA_LOCATOR = "mediaLocator";
+    private static final char[] PI_END = {'?', '>'};
+    private static final char[] COMMENT_END = {'-', '-', '>'};
+    private static final char[] CDATA_END = {']', ']', '>'};
+    private static final char[] SUBSET_END = {']', '>'};
+
+    private final int[] stack = new int[MAX_DEPTH];
+    // Where each open element's qualified name sits in the buffer, to match its end tag
+    private final int[] nameStarts = new int[MAX_DEPTH];
+    private final int[] nameLengths = new int[MAX_DEPTH];
+    private int depth;
+    private int infoCount;
+    private boolean sawRoot;
+    private boolean sawAlert;
+    private boolean capturing;
+    private int captureDepth;
+    private byte[] text = new byte[512];
+    private int textLength;
+    private String parameterName;
+    private String parameterValue;
+
+    /**
+     * Decodes the bytes between the buffer's position and limit into {@code alert}. The buffer's
+     * position is not changed, so the same buffer can be decoded again. Returns false if the
+     * bytes are not a well-formed CAP alert with an identifier.
+     */
+    public boolean decode(ByteBuffer buf, CapAlert alert) {
+        alert.clear();
+        depth = 0;
+        infoCount = 0;
+        sawRoot = false;
+        sawAlert = false;
+        capturing = false;
+        textLength = 0;
+
+        int end = buf.limit();
+        int i = buf.position();
+        if (end - i >= 3 && buf.get(i) == (byte) 0xEF && buf.get(i + 1) == (byte) 0xBB && buf.get(i + 2) == (byte) 0xBF) {
+            i += 3; // UTF-8 byte order mark
+        }
+        while (i < end) {
+            byte b = buf.get(i);
+            if (b != '<') {
+                if (depth == 0) {
+                    // Only whitespace may surround the root element
+                    if (!isSpace(b)) {
+                        return false;
+                    }
+                    i++;
+                    continue;
+                }
+                i = capturing ? appendText(buf, i, end) : skipText(buf, i, end);
+                if (i == -2) {
+                    return false;
+                }
+                if (i < 0) {
+                    break;
+                }
+                continue;
+            }
+            if (i + 1 >= end) {
+                return false;
+            }
+            byte next = buf.get(i + 1);
+            if (next == '?') {
+                i = skipPast(buf, i + 2, end, PI_END);
+            } else if (next == '!') {
+                i = skipMarkup(buf, i, end);
+            } else if (next == '/') {
+                i = endTag(buf, i + 2, end, alert);
+            } else {
+                i = startTag(buf, i + 1, end, alert);
+            }
+            if (i < 0) {
+                return false;
+            }
+        }
+        return depth == 0 && sawAlert && alert.identifier != null;
+    }
+
+    /** Convenience for callers holding a byte array. */
+    public boolean decode(byte[] data, int offset, int length, CapAlert alert) {
+        return decode(ByteBuffer.wrap(data, offset, length), alert);
+    }
+
+    private int startTag(ByteBuffer buf, int nameStart, int end, CapAlert alert) {
+        int nameEnd = scanName(buf, nameStart, end);
+        int gt = scanTagEnd(buf, nameEnd, end);
+        if (gt < 0 || depth == MAX_DEPTH || nameEnd == nameStart || (depth == 0 && sawRoot)) {
+            return -1;
+        }
+        sawRoot = true;
+        int id = idOf(buf, nameStart, nameEnd);
+        nameStarts[depth] = nameStart;
+        nameLengths[depth] = nameEnd - nameStart;
+        stack[depth++] = id;
+        startElement(id);
+        if (buf.get(gt - 1) == '/') {
+            depth--;
+            endElement(id, alert);
+        }
+        return gt + 1;
+    }
+
+    private int endTag(ByteBuffer buf, int nameStart, int end, CapAlert alert) {
+        int nameEnd = scanName(buf, nameStart, end);
+        int gt = indexOf(buf, (byte) '>', nameEnd, end);
+        if (gt < 0 || depth == 0) {
+            return -1;
+        }
+        for (int k = nameEnd; k < gt; k++) {
+            if (!isSpace(buf.get(k))) {
+                return -1;
+            }
+        }
+        int id = stack[--depth];
+        if (!sameName(buf, nameStarts[depth], nameLengths[depth], nameStart, nameEnd - nameStart)) {
+            return -1;
+        }
+        endElement(id, alert);
+        return gt + 1;
+    }
+
+    private void startElement(int id) {
+        if (capturing && depth > captureDepth) {
+            // Markup inside a captured field: its text is part of the value
+            return;
+        }
+        capturing = false;
+        int parent = depth >= 2 ? stack[depth - 2] : -1;
+        int grandparent = depth >= 3 ? stack[depth - 3] : -1;
+
+        if (id == E_ALERT && depth == 1) {
+            sawAlert = true;
+        } else if (id == E_INFO && parent == E_ALERT) {
+            infoCount++;
+        } else if (id == E_PARAMETER && parent == E_INFO) {
+            parameterName = null;
+            parameterValue = null;
+        }
+
+        if (parent == E_ALERT && depth == 2) {
+            capturing = id >= E_IDENTIFIER && id <= E_REFERENCES;
+        } else if (infoCount == 1) {
+            if (parent == E_INFO) {
+                capturing = (id >= E_EVENT && id <= E_DESCRIPTION) || id == E_MEDIA_LOCATOR;
+            } else if (parent == E_PARAMETER && grandparent == E_INFO) {
+                capturing = id == E_VALUE_NAME || id == E_VALUE;
+            } else if (parent == E_RESOURCE && grandparent == E_INFO) {
+                capturing = id == E_MEDIA_LOCATOR;
+            } else if (parent == E_AREA && grandparent == E_INFO) {
+                capturing = id == E_POLYGON || id == E_CIRCLE;
+            }
+        }
+        captureDepth = depth;
+        textLength = 0;
+    }
+
+    private void endElement(int id, CapAlert alert) {
+        if (capturing && depth >= captureDepth) {
+            return;
+        }
+        if (id == E_PARAMETER) {
+            if (MEDIA_LOCATOR.equals(parameterName) && parameterValue != null && alert.mediaLocator == null) {
+                alert.mediaLocator = parameterValue;
+            }
+            return;
+        }
+        if (!capturing) {
+            return;
+        }
+        capturing = false;
+        String value = textValue();
+        switch (id) {
+            case E_IDENTIFIER: alert.identifier = value; break;
+            case E_SENDER: alert.sender = value; break;
+            case E_SENT: alert.sent = value; break;
+            case E_STATUS: alert.status = value; break;
+            case E_MSG_TYPE: alert.msgType = value; break;
+            case E_REFERENCES: alert.references = value; break;
+            case E_EVENT: alert.event = value; break;
+            case E_URGENCY: alert.urgency = value; break;
+            case E_SEVERITY: alert.severity = value; break;
+            case E_CERTAINTY: alert.certainty = value; break;
+            case E_HEADLINE: alert.headline = value; break;
+            case E_DESCRIPTION: alert.description = value; break;
+            case E_VALUE_NAME: parameterName = value; break;
+            case E_VALUE: parameterValue = value; break;
+            case E_MEDIA_LOCATOR:
+                if (alert.mediaLocator == null) {
+                    alert.mediaLocator = value;
+                }
+                break;
+            case E_POLYGON: area(alert).addPolygon(value); break;
+            case E_CIRCLE: area(alert).addCircle(value); break;
+            default:
+                break;
+        }
+    }
+
+    private static AlertArea area(CapAlert alert) {
+        if (alert.area == null) {
+            alert.area = new AlertArea();
+        }
+        return alert.area;
+    }
+
+    private String textValue() {
+        int start = 0;
+        int stop = textLength;
+        while (start < stop && isSpace(text[start])) {
+            start++;
+        }
+        while (stop > start && isSpace(text[stop - 1])) {
+            stop--;
+        }
+        return new String(text, start, stop - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Copies character data up to the next '<', resolving references and normalizing line
+     * ends. Returns the index of the '<', -1 at the end of input, -2 on a bad reference.
+     */
+    private int appendText(ByteBuffer buf, int i, int end) {
+        while (i < end) {
+            byte b = buf.get(i);
+            if (b == '<') {
+                return i;
+            }
+            if (b == '&') {
+                i = appendEntity(buf, i, end);
+                if (i < 0) {
+                    return -2;
+                }
+            } else {
+                i = appendNormalized(buf, i, end);
+            }
+        }
+        return -1;
+    }
+
+    /** Skips character data nobody captures, still rejecting bad references. Same returns as appendText. */
+    private int skipText(ByteBuffer buf, int i, int end) {
+        while (i < end) {
+            byte b = buf.get(i);
+            if (b == '<') {
+                return i;
+            }
+            if (b == '&') {
+                int saved = textLength;
+                i = appendEntity(buf, i, end);
+                textLength = saved;
+                if (i < 0) {
+                    return -2;
+                }
+            } else {
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    /** Appends the byte at {@code i}, turning CR LF and a lone CR into LF as XML requires. */
+    private int appendNormalized(ByteBuffer buf, int i, int end) {
+        byte b = buf.get(i++);
+        if (b == '\r') {
+            append((byte) '\n');
+            return i < end && buf.get(i) == '\n' ? i + 1 : i;
+        }
+        append(b);
+        return i;
+    }
+
+    /** Resolves the reference at {@code amp}; -1 if it is not a predefined entity or a valid character. */
+    private int appendEntity(ByteBuffer buf, int amp, int end) {
+        int semi = indexOf(buf, (byte) ';', amp + 1, Math.min(end, amp + 32));
+        if (semi < 0) {
+            return -1;
+        }
+        int length = semi - amp - 1;
+        if (length >= 2 && buf.get(amp + 1) == '#') {
+            int codePoint = 0;
+            boolean hex = buf.get(amp + 2) == 'x';
+            int first = amp + (hex ? 3 : 2);
+            if (first == semi) {
+                return -1;
+            }
+            for (int i = first; i < semi; i++) {
+                int digit = Character.digit(buf.get(i), hex ? 16 : 10);
+                if (digit < 0) {
+                    return -1;
+                }
+                codePoint = codePoint * (hex ? 16 : 10) + digit;
+                if (codePoint > Character.MAX_CODE_POINT) {
+                    return -1;
+                }
+            }
+            if (!isXmlChar(codePoint)) {
+                return -1;
+            }
+            appendCodePoint(codePoint);
+        } else if (matches(buf, amp + 1, semi, "lt")) {
+            append((byte) '<');
+        } else if (matches(buf, amp + 1, semi, "gt")) {
+            append((byte) '>');
+        } else if (matches(buf, amp + 1, semi, "amp")) {
+            append((byte) '&');
+        } else if (matches(buf, amp + 1, semi, "quot")) {
+            append((byte) '"');
+        } else if (matches(buf, amp + 1, semi, "apos")) {
+            append((byte) '\'');
+        } else {
+            return -1;
+        }
+        return semi + 1;
+    }
+
+    private static boolean isXmlChar(int cp) {
+        return cp == 0x9 || cp == 0xA || cp == 0xD || (cp >= 0x20 && cp <= 0xD7FF)
+                || (cp >= 0xE000 && cp <= 0xFFFD) || (cp >= 0x10000 && cp <= Character.MAX_CODE_POINT);
+    }
+
+    private void appendCodePoint(int cp) {
+        if (cp < 0x80) {
+            append((byte) cp);
+        } else if (cp < 0x800) {
+            append((byte) (0xC0 | (cp >> 6)));
+            append((byte) (0x80 | (cp & 0x3F)));
+        } else if (cp < 0x10000) {
+            append((byte) (0xE0 | (cp >> 12)));
+            append((byte) (0x80 | ((cp >> 6) & 0x3F)));
+            append((byte) (0x80 | (cp & 0x3F)));
+        } else {
+            append((byte) (0xF0 | (cp >> 18)));
+            append((byte) (0x80 | ((cp >> 12) & 0x3F)));
+            append((byte) (0x80 | ((cp >> 6) & 0x3F)));
+            append((byte) (0x80 | (cp & 0x3F)));
+        }
+    }
+
+    private void append(byte b) {
+        if (textLength == text.length) {
+            byte[] grown = new byte[text.length * 2];
+            System.arraycopy(text, 0, grown, 0, textLength);
+            text = grown;
+        }
+        text[textLength++] = b;
+    }
+
+    /** Skips a comment or DOCTYPE, or captures a CDATA section. */
+    private int skipMarkup(ByteBuffer buf, int i, int end) {
+        if (startsWith(buf, i, end, "<!--")) {
+            return skipPast(buf, i + 4, end, COMMENT_END);
+        }
+        if (startsWith(buf, i, end, "<![CDATA[")) {
+            if (depth == 0) {
+                return -1;
+            }
+            int close = find(buf, i + 9, end, CDATA_END);
+            if (close < 0) {
+                return -1;
+            }
+            if (capturing) {
+                for (int j = i + 9; j < close; ) {
+                    j = appendNormalized(buf, j, close);
+                }
+            }
+            return close + 3;
+        }
+        // <!DOCTYPE ...> possibly with an internal subset, which is skipped, never expanded
+        for (int j = i + 2; j < end; j++) {
+            byte b = buf.get(j);
+            if (b == '[') {
+                return skipPast(buf, j + 1, end, SUBSET_END);
+            }
+            if (b == '>') {
+                return j + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static int scanName(ByteBuffer buf, int i, int end) {
+        while (i < end) {
+            byte b = buf.get(i);
+            if (b == '>' || b == '/' || isSpace(b)) {
+                return i;
+            }
+            i++;
+        }
+        return end;
+    }
+
+    private static int scanTagEnd(ByteBuffer buf, int i, int end) {
+        while (i < end) {
+            byte b = buf.get(i);
+            if (b == '>') {
+                return i;
+            }
+            if (b == '"' || b == '\'') {
+                i = indexOf(buf, b, i + 1, end);
+                if (i < 0) {
+                    return -1;
+                }
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    private static int idOf(ByteBuffer buf, int start, int end) {
+        for (int i = end - 1; i >= start; i--) {
+            if (buf.get(i) == ':') {
+                start = i + 1;
+                break;
+            }
+        }
+        int length = end - start;
+        for (int id = 1; id < NAMES.length; id++) {
+            byte[] name = NAMES[id];
+            if (name.length != length) {
+                continue;
+            }
+            int k = 0;
+            while (k < length && buf.get(start + k) == name[k]) {
+                k++;
+            }
+            if (k == length) {
+                return id;
+            }
+        }
+        return E_OTHER;
+    }
+
+    private static int indexOf(ByteBuffer buf, byte b, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (buf.get(i) == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int find(ByteBuffer buf, int from, int end, char[] pattern) {
+        outer:
+        for (int i = from; i <= end - pattern.length; i++) {
+            for (int k = 0; k < pattern.length; k++) {
+                if (buf.get(i + k) != pattern[k]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static int skipPast(ByteBuffer buf, int from, int end, char[] pattern) {
+        int at = find(buf, from, end, pattern);
+        return at < 0 ? -1 : at + pattern.length;
+    }
+
+    private static boolean startsWith(ByteBuffer buf, int i, int end, String prefix) {
+        if (end - i < prefix.length()) {
+            return false;
+        }
+        for (int k = 0; k < prefix.length(); k++) {
+            if (buf.get(i + k) != prefix.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameName(ByteBuffer buf, int a, int aLength, int b, int bLength) {
+        if (aLength != bLength) {
+            return false;
+        }
+        for (int k = 0; k < aLength; k++) {
+            if (buf.get(a + k) != buf.get(b + k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(ByteBuffer buf, int start, int end, String name) {
+        return end - start == name.length() && startsWith(buf, start, end, name);
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private static byte[][] names(String... names) {
+        byte[][] bytes = new byte[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            bytes[i] = names[i].getBytes(StandardCharsets.US_ASCII);
+        }
+        return bytes;
+    }
+}
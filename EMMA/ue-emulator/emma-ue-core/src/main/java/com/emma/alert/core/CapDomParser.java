@@ -0,0 +1,72 @@
+package com.emma.alert.core;
+
+import java.io.ByteArrayInputStream;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXParseException;
+
+/**
+ * DOM-based CAP field extraction as the UE originally did it. Superseded by {@link CapDecoder}
+ * on the receive path; kept as the reference and benchmark baseline.
+ */
+public final class CapDomParser {
+    // Errors are thrown to the caller rather than also printed to stderr
+    private static final ErrorHandler THROWING = new ErrorHandler() {
+        @Override
+        public void warning(SAXParseException e) {
+        }
+
+        @Override
+        public void error(SAXParseException e) throws SAXParseException {
+            throw e;
+        }
+
+        @Override
+        public void fatalError(SAXParseException e) throws SAXParseException {
+            throw e;
+        }
+    };
+
+    private CapDomParser() {
+    }
+
+    public static Document parse(byte[] data, int offset, int length) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        DocumentBuilder builder = factory.newDocumentBuilder();
+        builder.setErrorHandler(THROWING);
+        return builder.parse(new ByteArrayInputStream(data, offset, length));
+    }
+
+    public static String getElementText(Element parent, String tagName) {
+        NodeList nodes = parent.getElementsByTagName(tagName);
+        if (nodes.getLength() > 0) {
+            return nodes.item(0).getTextContent();
+        }
+        return null;
+    }
+
+    /** Returns the value of the {@code mediaLocator} CAP parameter, or null. */
+    public static String extractMediaLocator(String xml) throws Exception {
+        byte[] data = xml.getBytes();
+        Document doc = parse(data, 0, data.length);
+        NodeList params = doc.getElementsByTagName("parameter");
+        for (int i = 0; i < params.getLength(); i++) {
+            Element param = (Element) params.item(i);
+            if (param.getElementsByTagName("valueName").item(0).getTextContent().equals("mediaLocator")) {
+                return param.getElementsByTagName("value").item(0).getTextContent();
+            }
+        }
+        return null;
+    }
+
+    /** Returns the first {@code description} of the alert. */
+    public static String extractText(String xml) throws Exception {
+        byte[] data = xml.getBytes();
+        Document doc = parse(data, 0, data.length);
+        return doc.getElementsByTagName("description").item(0).getTextContent();
+    }
+}
@@ -0,0 +1,201 @@
+package com.emma.alert.core;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * The process-wide OkHttp client for CDN fetches (SMC sidecars, containers and chunks).
+ *
+ * <p>One connection pool keeps sockets to the CDN alive between alerts, so a burst of SMC
+ * fetches reuses a handful of connections instead of paying TCP setup per alert, and HTTP/2
+ * is negotiated (and multiplexes every fetch over one socket) where the CDN offers it over
+ * TLS. Requests go through {@link #execute}, which enqueues them on the bounded
+ * {@link Dispatcher} rather than running them on the caller's thread, so no more than
+ * {@link #MAX_REQUESTS} are connecting or waiting for headers at once. The dispatcher lets go
+ * of a call once its headers are in, so bodies are not counted: how many are being read at
+ * the same time is bounded by the threads calling {@code execute}, i.e. the pipeline's fetch
+ * workers. Chunk transfers are the exception: they read their body on the dispatcher thread
+ * and hold its slot meanwhile.
+ *
+ * <p>The dispatcher is FIFO, so a fetch for an Extreme alert would wait behind every chunk
+ * already queued. {@link #urgent} gives such fetches a client of their own: same connection
+ * pool and counters, separate dispatcher.
+ *
+ * <p>Each client built by {@link #newBuilder} counts its own connection setups and reuses.
+ */
+public final class CdnHttpClient {
+    public static final int MAX_REQUESTS = 16;
+    public static final int MAX_REQUESTS_PER_HOST = 6;
+    public static final int MAX_IDLE_CONNECTIONS = 8;
+    public static final long KEEP_ALIVE_MINUTES = 5;
+    public static final long CONNECT_TIMEOUT_MS = 10000;
+    public static final long READ_TIMEOUT_MS = 15000;
+
+    private static volatile OkHttpClient shared;
+    private static volatile OkHttpClient sharedUrgent;
+
+    private CdnHttpClient() {
+    }
+
+    public static OkHttpClient shared() {
+        OkHttpClient client = shared;
+        if (client == null) {
+            synchronized (CdnHttpClient.class) {
+                client = shared;
+                if (client == null) {
+                    client = newBuilder().build();
+                    shared = client;
+                }
+            }
+        }
+        return client;
+    }
+
+    /**
+     * A client for urgent fetches that shares {@code client}'s connection pool, settings and
+     * counters but queues on its own dispatcher, so it never waits behind {@code client}'s
+     * calls. For {@link #shared()} the same instance is returned every time.
+     */
+    public static OkHttpClient urgent(OkHttpClient client) {
+        if (client != shared()) {
+            return client.newBuilder().dispatcher(newDispatcher("emma-cdn-urgent-")).build();
+        }
+        OkHttpClient urgent = sharedUrgent;
+        if (urgent == null) {
+            synchronized (CdnHttpClient.class) {
+                urgent = sharedUrgent;
+                if (urgent == null) {
+                    urgent = client.newBuilder().dispatcher(newDispatcher("emma-cdn-urgent-")).build();
+                    sharedUrgent = urgent;
+                }
+            }
+        }
+        return urgent;
+    }
+
+    public static OkHttpClient.Builder newBuilder() {
+        return new OkHttpClient.Builder()
+                .dispatcher(newDispatcher("emma-cdn-"))
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .connectTimeout(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .readTimeout(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .retryOnConnectionFailure(true)
+                .eventListenerFactory(new ConnectionStats());
+    }
+
+    private static Dispatcher newDispatcher(String threadPrefix) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), r -> {
+                    Thread t = new Thread(r, threadPrefix + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        Dispatcher dispatcher = new Dispatcher(executor);
+        dispatcher.setMaxRequests(MAX_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+        return dispatcher;
+    }
+
+    /**
+     * Runs a call through the dispatcher and waits for the response headers; the caller reads
+     * (and closes) the body. The dispatcher slot is released once the headers are in.
+     */
+    public static Response execute(OkHttpClient client, Request request) throws IOException {
+        CompletableFuture<Response> result = new CompletableFuture<>();
+        Call call = client.newCall(request);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call c, IOException e) {
+                result.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call c, Response response) {
+                if (!result.complete(response)) {
+                    response.close();
+                }
+            }
+        });
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (InterruptedException e) {
+            call.cancel();
+            if (!result.cancel(false)) {
+                // The response arrived as the wait was interrupted; nobody else will close it
+                result.thenAccept(Response::close);
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + request.url());
+        }
+    }
+
+    /** Pool and dispatcher utilization plus how often a request found a pooled connection. */
+    public static String metrics(OkHttpClient client) {
+        Dispatcher dispatcher = client.dispatcher();
+        ConnectionPool pool = client.connectionPool();
+        long acquired = getConnectionsAcquired(client);
+        long opened = getConnectionsOpened(client);
+        return "http[connections=" + pool.connectionCount() + " idle=" + pool.idleConnectionCount()
+                + " running=" + dispatcher.runningCallsCount() + "/" + dispatcher.getMaxRequests()
+                + " queued=" + dispatcher.queuedCallsCount()
+                + " opened=" + opened + " reused=" + Math.max(0, acquired - opened) + "]";
+    }
+
+    /** Connections {@code client} has set up; 0 unless it came from {@link #newBuilder}. */
+    public static long getConnectionsOpened(OkHttpClient client) {
+        EventListener.Factory factory = client.eventListenerFactory();
+        return factory instanceof ConnectionStats ? ((ConnectionStats) factory).opened.get() : 0;
+    }
+
+    /** Times a call of {@code client} got a connection, new or pooled. */
+    public static long getConnectionsAcquired(OkHttpClient client) {
+        EventListener.Factory factory = client.eventListenerFactory();
+        return factory instanceof ConnectionStats ? ((ConnectionStats) factory).acquired.get() : 0;
+    }
+
+    /** One per client: the listener for all of its calls, and its own factory. */
+    private static final class ConnectionStats extends EventListener implements EventListener.Factory {
+        final AtomicLong opened = new AtomicLong();
+        final AtomicLong acquired = new AtomicLong();
+
+        @Override
+        public EventListener create(Call call) {
+            return this;
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress address, Proxy proxy) {
+            opened.incrementAndGet();
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            acquired.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.emma.alert.core;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Fixed set of preallocated direct buffers for datagram receive. Buffers are handed from the
+ * receive thread to whoever decodes them and must be {@link #release released} afterwards.
+ */
+public final class DirectBufferPool {
+    private final ArrayBlockingQueue<ByteBuffer> free;
+    private final int bufferSize;
+    private final int capacity;
+
+    public DirectBufferPool(int capacity, int bufferSize) {
+        this.capacity = capacity;
+        this.bufferSize = bufferSize;
+        this.free = new ArrayBlockingQueue<>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            free.add(ByteBuffer.allocateDirect(bufferSize));
+        }
+    }
+
+    /** Returns a cleared buffer, or null if every buffer is in flight. */
+    public ByteBuffer acquire() {
+        return free.poll();
+    }
+
+    public void release(ByteBuffer buffer) {
+        buffer.clear();
+        free.offer(buffer);
+    }
+
+    public int available() {
+        return free.size();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int bufferSize() {
+        return bufferSize;
+    }
+}
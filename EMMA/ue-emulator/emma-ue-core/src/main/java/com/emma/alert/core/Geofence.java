@@ -0,0 +1,102 @@
+package com.emma.alert.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether a broadcast alert concerns this UE: true unless the alert carries an
+ * {@link AlertArea} and the UE's last known location lies outside it. Without a location every
+ * alert is shown; missing a warning is worse than showing one meant for the next town.
+ *
+ * <p>The location is set from the platform's location callbacks. Each alert's area is cached
+ * by CAP identity, so a multicast retransmission of an alert that was outside the area (and so
+ * never remembered by the {@link AlertDeduplicator}) is tested against the area, and any grid
+ * index, built the first time round. The cache is consulted before the new copy's shapes are
+ * parsed ({@link AlertArea} keeps them as text until then), so a retransmission costs a map
+ * lookup rather than re-reading its polygons.
+ */
+public class Geofence {
+    public static final int DEFAULT_AREA_CACHE = 64;
+
+    private static volatile Geofence defaultInstance;
+
+    // {lat, lon}, replaced as a whole so readers never see half an update
+    private volatile double[] location;
+    private final Map<String, AlertArea> areas;
+    private final AtomicLong outsideAlerts = new AtomicLong();
+
+    public Geofence() {
+        this(DEFAULT_AREA_CACHE);
+    }
+
+    public Geofence(final int areaCache) {
+        this.areas = new LinkedHashMap<String, AlertArea>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, AlertArea> eldest) {
+                return size() > areaCache;
+            }
+        };
+    }
+
+    /** Process-wide instance: the activity feeds it locations, both receive paths consult it. */
+    public static Geofence getDefault() {
+        Geofence instance = defaultInstance;
+        if (instance == null) {
+            synchronized (Geofence.class) {
+                instance = defaultInstance;
+                if (instance == null) {
+                    instance = new Geofence();
+                    defaultInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    public void updateLocation(double latitude, double longitude) {
+        location = new double[] {latitude, longitude};
+    }
+
+    public void clearLocation() {
+        location = null;
+    }
+
+    public boolean hasLocation() {
+        return location != null;
+    }
+
+    /** Whether the UE should fetch and display {@code alert}. */
+    public boolean covers(CapAlert alert) {
+        AlertArea area = alert.area;
+        double[] at = location;
+        if (area == null || at == null) {
+            return true;
+        }
+        String key = AlertDeduplicator.key(alert.sender, alert.identifier, alert.sent);
+        synchronized (areas) {
+            AlertArea cached = areas.get(key);
+            if (cached != null) {
+                area = cached;
+            } else {
+                areas.put(key, area);
+            }
+        }
+        // No valid shape: not targeted, so shown
+        if (area.isEmpty() || area.contains(at[0], at[1])) {
+            return true;
+        }
+        outsideAlerts.incrementAndGet();
+        return false;
+    }
+
+    /** Alerts skipped because the UE was outside their area. */
+    public long getOutsideCount() {
+        return outsideAlerts.get();
+    }
+
+    @Override
+    public String toString() {
+        return "geofence[outside=" + outsideAlerts.get() + (location == null ? " no-location]" : "]");
+    }
+}
@@ -0,0 +1,133 @@
+package com.emma.alert.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+
+/**
+ * A file that is still being written (an SMC pack or a chunked download's {@code .part}
+ * file), readable from other threads as its bytes land. Reads block until the requested
+ * position is available, the writer finishes, or nothing has arrived for
+ * {@link #STALL_TIMEOUT_MS}.
+ *
+ * <p>Which bytes are present is up to the writer's {@link Availability}: a sequential writer
+ * has a single prefix, a chunked one has a prefix per chunk. Writers call {@link #advanced()}
+ * after writing and {@link #finish()} or {@link #fail} at the end. The file is opened (created,
+ * if the writer has not started yet) up front and that handle is kept, so it can be renamed
+ * into the cache while it is being read.
+ */
+public final class GrowingFile implements Closeable {
+    public static final long STALL_TIMEOUT_MS = 30000;
+
+    /** Bytes readable starting at {@code position}, 0 if that byte has not been written yet. */
+    public interface Availability {
+        long readableFrom(long position);
+    }
+
+    private final File file;
+    private final Availability availability;
+    private final RandomAccessFile raf;
+    private boolean finished;
+    private volatile boolean closed;
+    private IOException failure;
+
+    public GrowingFile(File file, Availability availability) throws IOException {
+        this.file = file;
+        this.availability = availability;
+        this.raf = new RandomAccessFile(file, "rw");
+    }
+
+    public synchronized void advanced() {
+        notifyAll();
+    }
+
+    public synchronized void finish() {
+        finished = true;
+        notifyAll();
+    }
+
+    public synchronized void fail(IOException e) {
+        failure = e;
+        notifyAll();
+    }
+
+    public synchronized boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Reads up to {@code len} bytes at {@code position}, waiting for them to be written.
+     * Returns -1 at the end of a finished file.
+     */
+    public int read(long position, byte[] b, int off, int len) throws IOException {
+        long readable;
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + STALL_TIMEOUT_MS;
+            while ((readable = availability.readableFrom(position)) <= 0) {
+                if (closed) {
+                    throw new IOException(file + " closed");
+                }
+                if (failure != null) {
+                    throw new IOException("Download of " + file + " failed", failure);
+                }
+                if (finished) {
+                    return -1;
+                }
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    throw new IOException(file + " stalled at " + position);
+                }
+                try {
+                    wait(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted reading " + file);
+                }
+            }
+        }
+        int n = (int) Math.min(len, readable);
+        // Positional read; RandomAccessFile's seek+read pair must not interleave between readers
+        synchronized (raf) {
+            if (closed) {
+                throw new IOException(file + " closed");
+            }
+            raf.seek(position);
+            return raf.read(b, off, n);
+        }
+    }
+
+    /** Reads exactly {@code len} bytes at {@code position}. */
+    public void readFully(long position, byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = read(position, b, off, len);
+            if (n < 0) {
+                throw new IOException(file + " ends before " + (position + len));
+            }
+            position += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        synchronized (raf) {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                // nothing left to release
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return file.getName();
+    }
+}
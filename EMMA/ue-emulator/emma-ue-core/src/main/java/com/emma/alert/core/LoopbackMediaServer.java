@@ -0,0 +1,283 @@
+package com.emma.alert.core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A minimal HTTP server on 127.0.0.1 that serves byte ranges of {@link GrowingFile}s, so a
+ * media player can start on a stored SMC entry while the container is still downloading.
+ *
+ * <p>Each published entry gets an unguessable URL. GET and HEAD are supported, with single
+ * {@code Range} requests answered by 206; a read past the downloaded bytes waits for them.
+ * At most {@link #MAX_PUBLISHED} entries are served; publishing another drops the oldest.
+ * Requests are served by at most {@link #MAX_WORKERS} threads; a connection that finds them
+ * all busy gets a 503, so the accept thread never serves one itself.
+ */
+public class LoopbackMediaServer {
+    private static final Logger LOG = Logger.getLogger("LoopbackMediaServer");
+    public static final int MAX_PUBLISHED = 4;
+    public static final int MAX_WORKERS = 8;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int SOCKET_TIMEOUT_MS = 60000;
+
+    private static final class Published {
+        final GrowingFile file;
+        final long offset;
+        final long length;
+        final String contentType;
+
+        Published(GrowingFile file, long offset, long length, String contentType) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+            this.contentType = contentType;
+        }
+    }
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService workers;
+    // token -> entry, oldest first
+    private final Map<String, Published> published = new LinkedHashMap<String, Published>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Published> eldest) {
+            if (size() > MAX_PUBLISHED) {
+                eldest.getValue().file.close();
+                return true;
+            }
+            return false;
+        }
+    };
+    private volatile boolean running = true;
+
+    public LoopbackMediaServer() throws IOException {
+        serverSocket = new ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"));
+        AtomicInteger threadCount = new AtomicInteger();
+        workers = new ThreadPoolExecutor(1, MAX_WORKERS, 30, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+            Thread t = new Thread(r, "emma-loopback-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        Thread acceptor = new Thread(this::acceptLoop, "emma-loopback-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /** Serves {@code length} bytes at {@code offset} of {@code file}; returns the URL to play. */
+    public String publish(GrowingFile file, long offset, long length, String name) {
+        String token = UUID.randomUUID().toString();
+        synchronized (published) {
+            published.put(token, new Published(file, offset, length, contentType(name)));
+        }
+        // The name is only there for players that sniff the extension
+        String fileName = name.substring(name.lastIndexOf('/') + 1);
+        try {
+            fileName = URLEncoder.encode(fileName, "UTF-8").replace("+", "%20");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/" + token + "/" + fileName;
+    }
+
+    /** Stops serving a URL from {@link #publish}; readers still waiting on it fail. */
+    public void unpublish(String url) {
+        Published entry;
+        synchronized (published) {
+            entry = published.remove(tokenOf(url));
+        }
+        if (entry != null) {
+            entry.file.close();
+        }
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // already closed
+        }
+        synchronized (published) {
+            for (Published entry : published.values()) {
+                entry.file.close();
+            }
+            published.clear();
+        }
+        workers.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (running) {
+                    LOG.log(Level.WARNING, "Loopback accept failed", e);
+                }
+                continue;
+            }
+            try {
+                workers.execute(() -> serve(socket));
+            } catch (RejectedExecutionException e) {
+                busy(socket);
+            }
+        }
+    }
+
+    /** Answers 503 on the accept thread without reading the request; the player retries. */
+    private static void busy(Socket socket) {
+        try (Socket s = socket) {
+            respond(s.getOutputStream(), "503 Service Unavailable", "Retry-After: 1\r\n");
+        } catch (IOException e) {
+            LOG.fine("Loopback 503 not sent: " + e.getMessage());
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            s.setSoTimeout(SOCKET_TIMEOUT_MS);
+            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.ISO_8859_1));
+            OutputStream out = s.getOutputStream();
+            String requestLine = in.readLine();
+            if (requestLine == null) {
+                return;
+            }
+            String range = null;
+            String line;
+            while ((line = in.readLine()) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Range")) {
+                    range = line.substring(colon + 1).trim();
+                }
+            }
+            String[] parts = requestLine.split(" ");
+            boolean head = parts[0].equals("HEAD");
+            if (parts.length < 2 || !(head || parts[0].equals("GET"))) {
+                respond(out, "405 Method Not Allowed", null);
+                return;
+            }
+            Published entry;
+            synchronized (published) {
+                entry = published.get(tokenOf(parts[1]));
+            }
+            if (entry == null) {
+                respond(out, "404 Not Found", null);
+                return;
+            }
+
+            long from = 0;
+            long to = entry.length - 1;
+            boolean partial = false;
+            if (range != null && range.startsWith("bytes=") && range.indexOf(',') < 0) {
+                String spec = range.substring(6);
+                int dash = spec.indexOf('-');
+                try {
+                    if (dash < 0) {
+                        throw new NumberFormatException("No '-' in " + range);
+                    } else if (dash == 0) {
+                        from = Math.max(0, entry.length - Long.parseLong(spec.substring(1)));
+                    } else {
+                        from = Long.parseLong(spec.substring(0, dash));
+                        if (dash < spec.length() - 1) {
+                            to = Math.min(to, Long.parseLong(spec.substring(dash + 1)));
+                        }
+                    }
+                    partial = true;
+                } catch (NumberFormatException e) {
+                    // Ignore a malformed Range and send the whole entry
+                }
+                if (partial && (from > to || from >= entry.length)) {
+                    respond(out, "416 Range Not Satisfiable", "Content-Range: bytes */" + entry.length + "\r\n");
+                    return;
+                }
+            }
+
+            StringBuilder headers = new StringBuilder();
+            headers.append("Content-Type: ").append(entry.contentType).append("\r\n");
+            headers.append("Accept-Ranges: bytes\r\n");
+            headers.append("Content-Length: ").append(to - from + 1).append("\r\n");
+            if (partial) {
+                headers.append("Content-Range: bytes ").append(from).append('-').append(to)
+                        .append('/').append(entry.length).append("\r\n");
+            }
+            out.write(("HTTP/1.1 " + (partial ? "206 Partial Content" : "200 OK") + "\r\n" + headers
+                    + "Connection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            if (head) {
+                out.flush();
+                return;
+            }
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long position = from;
+            while (position <= to) {
+                int n = entry.file.read(entry.offset + position, buffer, 0, (int) Math.min(buffer.length, to - position + 1));
+                if (n < 0) {
+                    break;
+                }
+                out.write(buffer, 0, n);
+                position += n;
+            }
+            out.flush();
+        } catch (IOException e) {
+            // Players drop connections when they seek; anything else ends the response early
+            LOG.fine("Loopback response ended: " + e.getMessage());
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Loopback request failed", e);
+        }
+    }
+
+    private static void respond(OutputStream out, String status, String headers) throws IOException {
+        out.write(("HTTP/1.1 " + status + "\r\n" + (headers == null ? "" : headers)
+                + "Content-Length: 0\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+    }
+
+    /** The token is the first path segment of a published URL (or request path). */
+    private static String tokenOf(String urlOrPath) {
+        int start = urlOrPath.indexOf("://") >= 0 ? urlOrPath.indexOf('/', urlOrPath.indexOf("://") + 3) : 0;
+        if (start < 0) {
+            return "";
+        }
+        String path = urlOrPath.substring(start);
+        if (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        int slash = path.indexOf('/');
+        return slash < 0 ? path : path.substring(0, slash);
+    }
+
+    private static String contentType(String name) {
+        String lower = name.toLowerCase();
+        if (lower.endsWith(".3gp")) {
+            return "video/3gpp";
+        }
+        if (lower.endsWith(".mp4")) {
+            return "video/mp4";
+        }
+        if (lower.endsWith(".png")) {
+            return "image/png";
+        }
+        if (lower.endsWith(".jpg") || lower.endsWith(".jpeg")) {
+            return "image/jpeg";
+        }
+        return "application/octet-stream";
+    }
+}
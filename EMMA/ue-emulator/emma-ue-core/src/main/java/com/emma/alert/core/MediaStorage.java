@@ -0,0 +1,8 @@
+package com.emma.alert.core;
+
+import java.io.File;
+
+/** Where downloaded SMCs and extracted media are written (Context.getCacheDir() on Android). */
+public interface MediaStorage {
+    File getCacheDir();
+}
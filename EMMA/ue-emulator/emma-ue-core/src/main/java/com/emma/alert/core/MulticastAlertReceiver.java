@@ -0,0 +1,252 @@
+package com.emma.alert.core;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Receives CAP datagrams on one or more multicast groups and interfaces through a single
+ * NIO {@link DatagramChannel}. Datagrams land in pooled direct buffers that are handed to the
+ * {@link AlertProcessor}'s decode stage as-is, with no byte[] or String copies; the receive
+ * thread does nothing but receive.
+ *
+ * <p>Loss is reported three ways: datagrams that filled the whole buffer (truncated by the
+ * kernel), datagrams discarded because every pool buffer was queued for decode, and the kernel's
+ * socket receive-buffer overflow counter, which is checked every {@link #DROP_CHECK_INTERVAL_MS}.
+ */
+public class MulticastAlertReceiver {
+    private static final Logger LOG = Logger.getLogger("MulticastAlertReceiver");
+    public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+    public static final int DEFAULT_POOL_SIZE = 8;
+    public static final int DEFAULT_SOCKET_RECEIVE_BUFFER = 1024 * 1024;
+    private static final long DROP_CHECK_INTERVAL_MS = 5000;
+
+    private final List<String> groups;
+    private final List<String> interfaceNames;
+    private final int port;
+    private final int socketReceiveBuffer;
+    private final AlertProcessor processor;
+    private final DirectBufferPool pool;
+    private final ByteBuffer overflowBuffer;
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong receivedBytes = new AtomicLong();
+    private final AtomicLong truncated = new AtomicLong();
+    private final AtomicLong poolExhausted = new AtomicLong();
+    private volatile long kernelDropsAtStart = -1;
+    private volatile long kernelDrops = 0;
+    private long lastDropCheck;
+
+    private volatile boolean running = false;
+    private Thread multicastThread;
+    private DatagramChannel channel;
+
+    public MulticastAlertReceiver(String group, int port, AlertProcessor processor) {
+        this(Collections.singletonList(group), Collections.<String>emptyList(), port,
+                DEFAULT_SOCKET_RECEIVE_BUFFER, new DirectBufferPool(DEFAULT_POOL_SIZE, DEFAULT_BUFFER_SIZE),
+                processor);
+    }
+
+    /**
+     * @param groups              IPv4 multicast groups to join
+     * @param interfaceNames      interfaces to join them on; empty means every up, multicast-capable interface
+     * @param socketReceiveBuffer requested SO_RCVBUF in bytes (the kernel may cap it)
+     */
+    public MulticastAlertReceiver(List<String> groups, List<String> interfaceNames, int port,
+                                  int socketReceiveBuffer, DirectBufferPool pool, AlertProcessor processor) {
+        this.groups = new ArrayList<>(groups);
+        this.interfaceNames = new ArrayList<>(interfaceNames);
+        this.port = port;
+        this.socketReceiveBuffer = socketReceiveBuffer;
+        this.pool = pool;
+        this.processor = processor;
+        this.overflowBuffer = ByteBuffer.allocateDirect(pool.bufferSize());
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        multicastThread = new Thread(this::listen, "emma-multicast");
+        multicastThread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (multicastThread != null) {
+            multicastThread.interrupt();
+        }
+        closeQuietly();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public long getReceivedCount() {
+        return received.get();
+    }
+
+    public long getReceivedBytes() {
+        return receivedBytes.get();
+    }
+
+    public long getTruncatedCount() {
+        return truncated.get();
+    }
+
+    public long getPoolExhaustedCount() {
+        return poolExhausted.get();
+    }
+
+    /** Datagrams the kernel dropped for a full receive buffer since start, or -1 if unknown. */
+    public long getKernelDropCount() {
+        return kernelDropsAtStart < 0 ? -1 : kernelDrops;
+    }
+
+    private void listen() {
+        try {
+            channel = openChannel();
+            kernelDropsAtStart = UdpDropCounter.read(port);
+            lastDropCheck = System.currentTimeMillis();
+
+            while (running) {
+                ByteBuffer buffer = pool.acquire();
+                if (buffer == null) {
+                    // Every buffer is still being decoded: keep draining the socket, count the loss.
+                    overflowBuffer.clear();
+                    channel.receive(overflowBuffer);
+                    poolExhausted.incrementAndGet();
+                    continue;
+                }
+                try {
+                    channel.receive(buffer);
+                } catch (IOException e) {
+                    pool.release(buffer);
+                    throw e;
+                }
+                received.incrementAndGet();
+                receivedBytes.addAndGet(buffer.position());
+                if (!buffer.hasRemaining()) {
+                    truncated.incrementAndGet();
+                    pool.release(buffer);
+                    LOG.warning("Dropping datagram that filled the " + pool.bufferSize() + "-byte buffer");
+                } else {
+                    buffer.flip();
+                    // the decode stage owns the buffer from here and returns it to the pool
+                    processor.submitDatagram(buffer, pool);
+                }
+                checkKernelDrops();
+            }
+        } catch (ClosedByInterruptException e) {
+            LOG.fine("Multicast listener stopped");
+        } catch (Exception e) {
+            if (running) {
+                LOG.log(Level.SEVERE, "Multicast listener error", e);
+            }
+        } finally {
+            closeQuietly();
+        }
+    }
+
+    private DatagramChannel openChannel() throws IOException {
+        DatagramChannel dc = DatagramChannel.open(StandardProtocolFamily.INET);
+        dc.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        dc.setOption(StandardSocketOptions.SO_RCVBUF, socketReceiveBuffer);
+        dc.bind(new InetSocketAddress(port));
+
+        List<NetworkInterface> interfaces = resolveInterfaces();
+        for (String group : groups) {
+            InetAddress groupAddress = InetAddress.getByName(group);
+            for (NetworkInterface ni : interfaces) {
+                MembershipKey key = dc.join(groupAddress, ni);
+                LOG.info("Joined " + key.group().getHostAddress() + ":" + port + " on " + ni.getName());
+            }
+        }
+        int granted = dc.getOption(StandardSocketOptions.SO_RCVBUF);
+        if (granted < socketReceiveBuffer) {
+            LOG.warning("Socket receive buffer capped at " + granted + " bytes (requested " + socketReceiveBuffer + ")");
+        }
+        return dc;
+    }
+
+    private List<NetworkInterface> resolveInterfaces() throws SocketException {
+        List<NetworkInterface> result = new ArrayList<>();
+        if (!interfaceNames.isEmpty()) {
+            for (String name : interfaceNames) {
+                NetworkInterface ni = NetworkInterface.getByName(name);
+                if (ni == null) {
+                    throw new SocketException("No such network interface: " + name);
+                }
+                result.add(ni);
+            }
+            return result;
+        }
+        Enumeration<NetworkInterface> all = NetworkInterface.getNetworkInterfaces();
+        while (all != null && all.hasMoreElements()) {
+            NetworkInterface ni = all.nextElement();
+            if (ni.isUp() && ni.supportsMulticast() && hasIpv4Address(ni)) {
+                result.add(ni);
+            }
+        }
+        if (result.isEmpty()) {
+            throw new SocketException("No multicast-capable network interface is up");
+        }
+        return result;
+    }
+
+    private static boolean hasIpv4Address(NetworkInterface ni) {
+        Enumeration<InetAddress> addresses = ni.getInetAddresses();
+        while (addresses.hasMoreElements()) {
+            if (addresses.nextElement() instanceof java.net.Inet4Address) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void checkKernelDrops() {
+        long now = System.currentTimeMillis();
+        if (kernelDropsAtStart < 0 || now - lastDropCheck < DROP_CHECK_INTERVAL_MS) {
+            return;
+        }
+        lastDropCheck = now;
+        long total = UdpDropCounter.read(port);
+        if (total < 0) {
+            return;
+        }
+        long sinceStart = total - kernelDropsAtStart;
+        if (sinceStart > kernelDrops) {
+            LOG.warning("Socket receive buffer overflowed: " + (sinceStart - kernelDrops)
+                    + " datagrams dropped by the kernel in the last " + DROP_CHECK_INTERVAL_MS / 1000 + "s");
+        }
+        kernelDrops = sinceStart;
+    }
+
+    private synchronized void closeQuietly() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // already closed
+            }
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.emma.alert.core;
+
+import com.emma.alert.core.PipelineStage.OverflowPolicy;
+
+/**
+ * Parallelism, queue size and overflow policy for each stage of the {@link AlertProcessor}
+ * pipeline. The defaults suit a handset: one decoder, a few concurrent downloads, and
+ * drop-oldest where a newer copy of an alert makes the queued one stale. Every stage after
+ * decode is served by {@link AlertPriority}.
+ */
+public class PipelineConfig {
+
+    public static class StageConfig {
+        public final int workers;
+        /** Extra workers that only take {@link AlertPriority#CRITICAL} alerts. */
+        public final int urgentWorkers;
+        public final int capacity;
+        public final OverflowPolicy policy;
+
+        public StageConfig(int workers, int capacity, OverflowPolicy policy) {
+            this(workers, 0, capacity, policy);
+        }
+
+        public StageConfig(int workers, int urgentWorkers, int capacity, OverflowPolicy policy) {
+            this.workers = workers;
+            this.urgentWorkers = urgentWorkers;
+            this.capacity = capacity;
+            this.policy = policy;
+        }
+    }
+
+    /** Datagrams waiting for decode; never blocks the receive thread. */
+    public StageConfig decode = new StageConfig(1, MulticastAlertReceiver.DEFAULT_POOL_SIZE, OverflowPolicy.DROP_OLDEST);
+    /**
+     * SMC downloads, hashed and extracted as they stream in. One more worker is kept for
+     * Extreme alerts, which would otherwise wait for a large download already under way.
+     */
+    public StageConfig fetch = new StageConfig(4, 1, 32, OverflowPolicy.DROP_OLDEST);
+    /**
+     * Signature checks and cache commits; blocks fetch workers when full. ECDSA verify is CPU
+     * bound, so one worker per core (at least two).
+     */
+    public StageConfig verify = new StageConfig(Math.max(2, Runtime.getRuntime().availableProcessors()), 16,
+            OverflowPolicy.BLOCK);
+    /** Alerts handed to the AlertSink. */
+    public StageConfig display = new StageConfig(1, 32, OverflowPolicy.DROP_OLDEST);
+
+    /** Byte budget of the extracted media cache. */
+    public long mediaCacheBytes = SmcCache.DEFAULT_MAX_BYTES;
+    /** SMCs with more entries or more uncompressed bytes than this are rejected. */
+    public int smcMaxEntries = SmcExtractor.DEFAULT_MAX_ENTRIES;
+    public long smcMaxBytes = SmcExtractor.DEFAULT_MAX_BYTES;
+    /**
+     * Offer a stored video to the {@link AlertSink} for playback while the SMC downloads,
+     * ahead of the signature check; see {@link AlertSink#onProgressiveMedia}.
+     */
+    public boolean progressiveVideo = false;
+    /**
+     * Alerts whose CAP area does not cover the UE's location are dropped after decode, before
+     * any download or display. Null shows every alert.
+     */
+    public Geofence geofence = null;
+}
@@ -0,0 +1,348 @@
+package com.emma.alert.core;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToIntFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One stage of the alert pipeline: a bounded queue drained by a fixed number of worker
+ * threads. What happens when the queue is full is set by the {@link OverflowPolicy}; dropped
+ * items go to the stage's {@link DropListener} so they can release buffers or temp files.
+ *
+ * <p>A stage given a rank function is served most urgent first (rank 0), FIFO within a
+ * rank. When it is full a more urgent item is never the one turned away: DROP_OLDEST and
+ * DROP_NEWEST evict the least urgent queued item if it ranks below the new one, and BLOCK
+ * admits an item over capacity rather than block it behind less urgent work. Urgent workers,
+ * started in addition to the regular ones, only take rank-0 items, so those start at once
+ * even while every regular worker is busy with a long job.
+ */
+public class PipelineStage<T> {
+    private static final Logger LOG = Logger.getLogger("PipelineStage");
+
+    public enum OverflowPolicy {
+        /** Block the submitting thread until there is room (backpressure). */
+        BLOCK,
+        /** Evict the oldest queued item to make room; older copies are the likeliest to be superseded. */
+        DROP_OLDEST,
+        /** Reject the new item. */
+        DROP_NEWEST
+    }
+
+    public interface Handler<T> {
+        void handle(T item) throws Exception;
+    }
+
+    public interface DropListener<T> {
+        void onDrop(T item);
+    }
+
+    private final String name;
+    private final int workers;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final LinkedBlockingDeque<T> queue;
+    private final RankedQueue<T> ranked;
+    private final int urgentWorkers;
+    private final Handler<T> handler;
+    private final DropListener<T> dropListener;
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean running;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicInteger busy = new AtomicInteger();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+
+    public PipelineStage(String name, int workers, int capacity, OverflowPolicy policy,
+                         Handler<T> handler, DropListener<T> dropListener) {
+        this(name, workers, 0, capacity, policy, null, handler, dropListener);
+    }
+
+    /** A stage served by {@code rank} (0 most urgent), with {@code urgentWorkers} for rank 0 only. */
+    public PipelineStage(String name, int workers, int urgentWorkers, int capacity, OverflowPolicy policy,
+                         ToIntFunction<? super T> rank, Handler<T> handler, DropListener<T> dropListener) {
+        this.name = name;
+        this.workers = workers;
+        this.urgentWorkers = rank == null ? 0 : urgentWorkers;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.queue = rank == null ? new LinkedBlockingDeque<>(capacity) : null;
+        this.ranked = rank == null ? null : new RankedQueue<>(rank);
+        this.handler = handler;
+        this.dropListener = dropListener;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        for (int i = 0; i < workers; i++) {
+            Thread t = new Thread(() -> work(false), "emma-" + name + "-" + i);
+            t.setDaemon(true);
+            threads.add(t);
+            t.start();
+        }
+        for (int i = 0; i < urgentWorkers; i++) {
+            Thread t = new Thread(() -> work(true), "emma-" + name + "-urgent-" + i);
+            t.setDaemon(true);
+            threads.add(t);
+            t.start();
+        }
+    }
+
+    public synchronized void stop() {
+        running = false;
+        for (Thread t : threads) {
+            t.interrupt();
+        }
+        threads.clear();
+        T item;
+        while ((item = queue != null ? queue.pollFirst() : ranked.poll()) != null) {
+            drop(item);
+        }
+    }
+
+    /** Queues an item according to the overflow policy. Returns false if the item was dropped. */
+    public boolean submit(T item) {
+        submitted.incrementAndGet();
+        if (ranked != null) {
+            return submitRanked(item);
+        }
+        switch (policy) {
+            case BLOCK:
+                try {
+                    queue.putLast(item);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    drop(item);
+                    return false;
+                }
+                break;
+            case DROP_OLDEST:
+                while (!queue.offerLast(item)) {
+                    T oldest = queue.pollFirst();
+                    if (oldest != null) {
+                        drop(oldest);
+                    }
+                }
+                break;
+            default:
+                if (!queue.offerLast(item)) {
+                    drop(item);
+                    return false;
+                }
+                break;
+        }
+        maxDepth.accumulateAndGet(queue.size(), Math::max);
+        return true;
+    }
+
+    private boolean submitRanked(T item) {
+        T evicted;
+        try {
+            evicted = ranked.put(item, capacity, policy);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            drop(item);
+            return false;
+        }
+        if (evicted != null) {
+            drop(evicted);
+        }
+        if (evicted == item) {
+            return false;
+        }
+        maxDepth.accumulateAndGet(ranked.size(), Math::max);
+        return true;
+    }
+
+    private void work(boolean urgentOnly) {
+        while (running) {
+            T item;
+            try {
+                item = queue != null ? queue.takeFirst() : ranked.take(urgentOnly);
+            } catch (InterruptedException e) {
+                return;
+            }
+            busy.incrementAndGet();
+            try {
+                handler.handle(item);
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                LOG.log(Level.WARNING, "Stage " + name + " failed", e);
+            } finally {
+                busy.decrementAndGet();
+                processed.incrementAndGet();
+            }
+        }
+    }
+
+    private void drop(T item) {
+        dropped.incrementAndGet();
+        if (dropListener != null) {
+            dropListener.onDrop(item);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getDepth() {
+        return queue != null ? queue.size() : ranked.size();
+    }
+
+    public int getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getBusyWorkers() {
+        return busy.get();
+    }
+
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    public long getProcessedCount() {
+        return processed.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    @Override
+    public String toString() {
+        return name + "[depth=" + getDepth() + "/" + capacity + " max=" + getMaxDepth()
+                + " busy=" + getBusyWorkers() + "/" + (workers + urgentWorkers) + " in=" + getSubmittedCount()
+                + " done=" + getProcessedCount() + " dropped=" + getDroppedCount()
+                + " failed=" + getFailedCount() + "]";
+    }
+
+    /** Bounded queue ordered by rank, then arrival. */
+    private static final class RankedQueue<T> {
+        private static final class Slot<T> {
+            final T item;
+            final int rank;
+            final long seq;
+
+            Slot(T item, int rank, long seq) {
+                this.item = item;
+                this.rank = rank;
+                this.seq = seq;
+            }
+        }
+
+        private final ToIntFunction<? super T> rank;
+        private final PriorityQueue<Slot<T>> heap = new PriorityQueue<>(
+                Comparator.<Slot<T>>comparingInt(slot -> slot.rank).thenComparingLong(slot -> slot.seq));
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Condition notFull = lock.newCondition();
+        private long nextSeq;
+
+        RankedQueue(ToIntFunction<? super T> rank) {
+            this.rank = rank;
+        }
+
+        /** Queues {@code item}; returns whatever was evicted to make room (possibly the item itself), or null. */
+        T put(T item, int capacity, OverflowPolicy policy) throws InterruptedException {
+            int itemRank = rank.applyAsInt(item);
+            T evicted = null;
+            lock.lockInterruptibly();
+            try {
+                while (heap.size() >= capacity) {
+                    Slot<T> worst = leastUrgent();
+                    if (policy == OverflowPolicy.BLOCK) {
+                        if (worst.rank > itemRank) {
+                            break;
+                        }
+                        notFull.await();
+                        continue;
+                    }
+                    if (worst.rank > itemRank || (policy == OverflowPolicy.DROP_OLDEST && worst.rank == itemRank)) {
+                        heap.remove(worst);
+                        evicted = worst.item;
+                        break;
+                    }
+                    return item;
+                }
+                heap.add(new Slot<>(item, itemRank, nextSeq++));
+                notEmpty.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            return evicted;
+        }
+
+        T take(boolean urgentOnly) throws InterruptedException {
+            lock.lockInterruptibly();
+            try {
+                Slot<T> head;
+                while ((head = heap.peek()) == null || (urgentOnly && head.rank != 0)) {
+                    notEmpty.await();
+                }
+                heap.poll();
+                notFull.signal();
+                return head.item;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        T poll() {
+            lock.lock();
+            try {
+                Slot<T> head = heap.poll();
+                if (head == null) {
+                    return null;
+                }
+                notFull.signal();
+                return head.item;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return heap.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Highest rank, oldest within it; capacities are small enough for a scan. */
+        private Slot<T> leastUrgent() {
+            Slot<T> worst = null;
+            for (Slot<T> slot : heap) {
+                if (worst == null || slot.rank > worst.rank || (slot.rank == worst.rank && slot.seq < worst.seq)) {
+                    worst = slot;
+                }
+            }
+            return worst;
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.emma.alert.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Persistent, content-addressed cache of extracted SMC media.
+ *
+ * <p>Each entry is a directory named by the SHA-256 of the SMC zip (the {@code Hash} the
+ * cap-generator writes into the {@code .smc.xml} sidecar), holding the media extracted from
+ * it. Entries are evicted least-recently-used once their total size exceeds the byte budget;
+ * recency survives restarts through the directory modification time.
+ *
+ * <p>Per-locator {@link Validators} (ETag, Last-Modified and the hash last served) let the
+ * downloader send If-None-Match / If-Modified-Since and reuse the entry on a 304.
+ */
+public class SmcCache {
+    private static final Logger LOG = Logger.getLogger("SmcCache");
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    static final String ENTRY_FILE = ".entry";
+    private static final String LOCATOR_DIR = ".locators";
+    private static final String STAGING_PREFIX = ".staging-";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** One cached SMC: its extracted files and the primary media file. */
+    public static final class Entry {
+        public final String hash;
+        public final File dir;
+        public final String mediaName;
+        final long bytes;
+
+        Entry(String hash, File dir, String mediaName, long bytes) {
+            this.hash = hash;
+            this.dir = dir;
+            this.mediaName = mediaName;
+            this.bytes = bytes;
+        }
+
+        public File getMediaFile() {
+            return mediaName == null ? null : new File(dir, mediaName);
+        }
+    }
+
+    /** HTTP validators remembered for a locator, plus the sidecar signature for sidecar locators. */
+    public static final class Validators {
+        public final String etag;
+        public final String lastModified;
+        public final String hash;
+        public final String signature;
+
+        public Validators(String etag, String lastModified, String hash) {
+            this(etag, lastModified, hash, null);
+        }
+
+        public Validators(String etag, String lastModified, String hash, String signature) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.signature = signature;
+        }
+    }
+
+    private final File root;
+    private final File locatorDir;
+    private final long maxBytes;
+    // hash -> entry, access-ordered so iteration starts at the least recently used
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private final AtomicInteger stagingSeq = new AtomicInteger();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public SmcCache(File root, long maxBytes) {
+        this.root = root;
+        this.locatorDir = new File(root, LOCATOR_DIR);
+        this.maxBytes = maxBytes;
+        locatorDir.mkdirs();
+        load();
+    }
+
+    /** Returns the cached entry for a content hash and marks it recently used, or null. */
+    public synchronized Entry lookup(String hash) {
+        if (hash == null) {
+            return null;
+        }
+        Entry entry = entries.get(hash);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        entry.dir.setLastModified(System.currentTimeMillis());
+        return entry;
+    }
+
+    public synchronized boolean contains(String hash) {
+        return hash != null && entries.containsKey(hash);
+    }
+
+    /** A fresh empty directory inside the cache root to extract into before {@link #commit}. */
+    public File newStagingDir() throws IOException {
+        File dir = new File(root, STAGING_PREFIX + System.nanoTime() + "-" + stagingSeq.incrementAndGet());
+        if (!dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        return dir;
+    }
+
+    /**
+     * Moves a staging directory into the cache under {@code hash} and evicts older entries
+     * beyond the byte budget. If the hash is already cached the staging copy is discarded.
+     */
+    public synchronized Entry commit(String hash, File stagingDir, String mediaName) throws IOException {
+        Entry existing = entries.get(hash);
+        if (existing != null) {
+            deleteRecursively(stagingDir);
+            return existing;
+        }
+        Properties props = new Properties();
+        if (mediaName != null) {
+            props.setProperty("media", mediaName);
+        }
+        store(props, new File(stagingDir, ENTRY_FILE));
+
+        File dir = new File(root, hash);
+        deleteRecursively(dir);
+        if (!stagingDir.renameTo(dir)) {
+            deleteRecursively(stagingDir);
+            throw new IOException("Cannot move " + stagingDir + " to " + dir);
+        }
+        Entry entry = new Entry(hash, dir, mediaName, sizeOf(dir));
+        entries.put(hash, entry);
+        totalBytes += entry.bytes;
+        evict();
+        return entry;
+    }
+
+    public synchronized Validators validators(String locator) {
+        File file = locatorFile(locator);
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties props = load(file);
+        return new Validators(props.getProperty("etag"), props.getProperty("lastModified"),
+                props.getProperty("hash"), props.getProperty("signature"));
+    }
+
+    public synchronized void putValidators(String locator, Validators validators) {
+        Properties props = new Properties();
+        if (validators.etag != null) {
+            props.setProperty("etag", validators.etag);
+        }
+        if (validators.lastModified != null) {
+            props.setProperty("lastModified", validators.lastModified);
+        }
+        if (validators.hash != null) {
+            props.setProperty("hash", validators.hash);
+        }
+        if (validators.signature != null) {
+            props.setProperty("signature", validators.signature);
+        }
+        try {
+            store(props, locatorFile(locator));
+        } catch (IOException e) {
+            LOG.warning("Cannot store validators for " + locator + ": " + e.getMessage());
+        }
+    }
+
+    public synchronized long size() {
+        return totalBytes;
+    }
+
+    public synchronized int entryCount() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "cache[entries=" + entries.size() + " bytes=" + totalBytes + "/" + maxBytes
+                + " hits=" + hits.get() + " misses=" + misses.get() + " evicted=" + evictions.get() + "]";
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            out[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(out);
+    }
+
+    public static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /** Rebuilds the index from disk, oldest first, and clears leftovers of interrupted extractions. */
+    private void load() {
+        File[] dirs = root.listFiles();
+        if (dirs == null) {
+            return;
+        }
+        List<File> cached = new ArrayList<>();
+        for (File dir : dirs) {
+            if (dir.getName().startsWith(STAGING_PREFIX)) {
+                deleteRecursively(dir);
+            } else if (dir.isDirectory() && isHash(dir.getName())) {
+                if (new File(dir, ENTRY_FILE).isFile()) {
+                    cached.add(dir);
+                } else {
+                    deleteRecursively(dir);
+                }
+            }
+        }
+        cached.sort((a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File dir : cached) {
+            Properties props = load(new File(dir, ENTRY_FILE));
+            Entry entry = new Entry(dir.getName(), dir, props.getProperty("media"), sizeOf(dir));
+            entries.put(entry.hash, entry);
+            totalBytes += entry.bytes;
+        }
+        evict();
+
+        File[] locators = locatorDir.listFiles();
+        if (locators != null) {
+            for (File file : locators) {
+                String hash = load(file).getProperty("hash");
+                if (hash == null || !entries.containsKey(hash)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /** Drops least recently used entries until under budget, always keeping the newest. */
+    private void evict() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (totalBytes > maxBytes && entries.size() > 1 && it.hasNext()) {
+            Entry eldest = it.next();
+            it.remove();
+            totalBytes -= eldest.bytes;
+            deleteRecursively(eldest.dir);
+            evictions.incrementAndGet();
+            LOG.fine("Evicted " + eldest.hash + " (" + eldest.bytes + " bytes)");
+        }
+    }
+
+    private File locatorFile(String locator) {
+        return new File(locatorDir, locator.replaceAll("[^A-Za-z0-9._-]", "_") + ".properties");
+    }
+
+    private static boolean isHash(String name) {
+        if (name.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (Arrays.binarySearch(HEX, name.charAt(i)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long sizeOf(File file) {
+        File[] children = file.listFiles();
+        if (children == null) {
+            return file.length();
+        }
+        long size = 0;
+        for (File child : children) {
+            size += sizeOf(child);
+        }
+        return size;
+    }
+
+    private static Properties load(File file) {
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            props.load(in);
+        } catch (IOException e) {
+            LOG.warning("Cannot read " + file + ": " + e.getMessage());
+        }
+        return props;
+    }
+
+    private static void store(Properties props, File file) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            props.store(out, null);
+        }
+    }
+}
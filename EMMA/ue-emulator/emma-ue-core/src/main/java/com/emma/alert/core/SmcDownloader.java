@@ -0,0 +1,674 @@
+package com.emma.alert.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * HTTP client for SMC downloads with timeouts, retries and resume.
+ *
+ * <p>Containers up to {@link #DEFAULT_CHUNKED_THRESHOLD} are handed to the caller as the
+ * response stream, so they can be hashed and extracted while they arrive. Larger ones, when
+ * the server accepts byte ranges (express.static does), are written to a {@code .part} file
+ * in fixed-size chunks: the initial response fills the first chunk and the rest are fetched
+ * with {@code Range} / {@code If-Range} requests, at most {@link #MAX_CHUNKS_IN_FLIGHT} of
+ * them at a time per download. Per-chunk progress is persisted
+ * next to the data, so a dropped connection or a killed service resumes where it stopped
+ * instead of starting the video again.
+ *
+ * <p>A caller that wants to read a large container before it is complete (to start playing a
+ * stored video) passes a listener to {@link #get(URL, SmcCache.Validators, Consumer)}; it is
+ * handed the {@code .part} file as a {@link GrowingFile} that knows which chunks have landed.
+ *
+ * <p>All requests go through one {@link OkHttpClient} (by default {@link CdnHttpClient#shared()}),
+ * so they share its connection pool and its dispatcher bounds how many run at once; chunk
+ * transfers run on the dispatcher's threads. {@link AlertPriority#CRITICAL} downloads use
+ * {@link CdnHttpClient#urgent} instead, so they are never queued behind other alerts' chunks.
+ */
+public class SmcDownloader {
+    private static final Logger LOG = Logger.getLogger("SmcDownloader");
+    public static final int MAX_ATTEMPTS = 3;
+    public static final long RETRY_BACKOFF_MS = 500;
+    public static final long DEFAULT_CHUNKED_THRESHOLD = 1024 * 1024;
+    public static final int DEFAULT_CHUNK_SIZE = 512 * 1024;
+    /** Range requests one download keeps in flight; leaves per-host slots for other alerts. */
+    public static final int MAX_CHUNKS_IN_FLIGHT = 3;
+
+    private static final long PARTIAL_MAX_AGE_MS = TimeUnit.HOURS.toMillis(24);
+    private static final long PROGRESS_SAVE_INTERVAL = 256 * 1024;
+
+    /** A response body to consume once and close. */
+    public static final class Download implements Closeable {
+        public final boolean notModified;
+        public final String etag;
+        public final String lastModified;
+        private final InputStream body;
+        private final Response response;
+        private final Partial partial;
+
+        Download(boolean notModified, String etag, String lastModified, InputStream body,
+                 Response response, Partial partial) {
+            this.notModified = notModified;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.body = body;
+            this.response = response;
+            this.partial = partial;
+        }
+
+        public InputStream getBody() {
+            return body;
+        }
+
+        /** The complete container on disk when it came through the chunked path, else null. */
+        public File getFile() {
+            return partial == null ? null : partial.data;
+        }
+
+        /** Releases the connection, and the completed {@code .part} file if there was one. */
+        @Override
+        public void close() throws IOException {
+            try {
+                if (body != null) {
+                    body.close();
+                }
+            } finally {
+                if (response != null) {
+                    response.close();
+                }
+                if (partial != null) {
+                    partial.delete();
+                }
+            }
+        }
+    }
+
+    /** The resource changed under a partial download (If-Range answered with the full body). */
+    static final class ResourceChangedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ResourceChangedException(String message) {
+            super(message);
+        }
+    }
+
+    private interface Attempt<T> {
+        T run() throws IOException;
+    }
+
+    private final File partialDir;
+    private final OkHttpClient client;
+    private final OkHttpClient urgentClient;
+    private final long chunkedThreshold;
+    private final int chunkSize;
+    // Per-locator locks so two alerts for the same SMC never write one .part file
+    private final Map<String, KeyLock> locks = new HashMap<>();
+
+    private final AtomicLong resumed = new AtomicLong();
+    private final AtomicLong chunked = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+
+    public SmcDownloader(File partialDir) {
+        this(partialDir, CdnHttpClient.shared(), DEFAULT_CHUNKED_THRESHOLD, DEFAULT_CHUNK_SIZE);
+    }
+
+    public SmcDownloader(File partialDir, OkHttpClient client, long chunkedThreshold, int chunkSize) {
+        this.partialDir = partialDir;
+        this.client = client;
+        this.urgentClient = CdnHttpClient.urgent(client);
+        this.chunkedThreshold = chunkedThreshold;
+        this.chunkSize = chunkSize;
+        partialDir.mkdirs();
+        prune();
+    }
+
+    public OkHttpClient getClient() {
+        return client;
+    }
+
+    /**
+     * Sends a GET, conditional if {@code validators} are given, and returns the response for
+     * the caller to read and close. Connection failures are retried.
+     */
+    public Response fetch(URL url, SmcCache.Validators validators) throws IOException {
+        return fetch(url, validators, AlertPriority.NORMAL);
+    }
+
+    /** Like {@link #fetch(URL, SmcCache.Validators)}, on the urgent client for CRITICAL alerts. */
+    public Response fetch(URL url, SmcCache.Validators validators, AlertPriority priority) throws IOException {
+        OkHttpClient c = clientFor(priority);
+        return withRetries(() -> CdnHttpClient.execute(c, request(url, validators).build()));
+    }
+
+    /**
+     * Starts (or resumes) a download. With {@code validators} the request is conditional and
+     * may come back {@link Download#notModified}. A resumed partial download ignores them: the
+     * bytes already on disk are only kept if {@code If-Range} says they are still current.
+     */
+    public Download get(URL url, SmcCache.Validators validators) throws IOException {
+        return get(url, validators, null);
+    }
+
+    /**
+     * Like {@link #get(URL, SmcCache.Validators)}; if the download takes the chunked path,
+     * {@code onChunked} is called with the {@code .part} file before the chunks are fetched,
+     * and can read it as they arrive. It is finished when the download completes and failed
+     * if it does not.
+     */
+    public Download get(URL url, SmcCache.Validators validators, Consumer<GrowingFile> onChunked)
+            throws IOException {
+        return get(url, validators, onChunked, AlertPriority.NORMAL);
+    }
+
+    /** Like {@link #get(URL, SmcCache.Validators, Consumer)}, on the urgent client for CRITICAL alerts. */
+    public Download get(URL url, SmcCache.Validators validators, Consumer<GrowingFile> onChunked,
+                        AlertPriority priority) throws IOException {
+        String key = url.getPath().substring(url.getPath().lastIndexOf('/') + 1)
+                .replaceAll("[^A-Za-z0-9._-]", "_");
+        KeyLock lock = lock(key);
+        try {
+            synchronized (lock) {
+                return get(url, key, validators, onChunked, clientFor(priority));
+            }
+        } finally {
+            unlock(key, lock);
+        }
+    }
+
+    private Download get(URL url, String key, SmcCache.Validators validators, Consumer<GrowingFile> onChunked,
+                         OkHttpClient client) throws IOException {
+        Partial partial = Partial.load(partialDir, key);
+        if (partial != null) {
+            GrowingFile growing = growing(partial, onChunked);
+            try {
+                resumed.incrementAndGet();
+                LOG.info("Resuming " + key + " at " + partial.bytesDone() + "/" + partial.length + " bytes");
+                completeChunks(url, partial, client);
+                finish(growing, null);
+                return new Download(false, partial.etag, partial.lastModified,
+                        new FileInputStream(partial.data), null, partial);
+            } catch (ResourceChangedException e) {
+                LOG.info(key + " changed on the server, starting over");
+                finish(growing, e);
+                partial.delete();
+            } catch (IOException e) {
+                finish(growing, e);
+                partial.close();
+                throw e;
+            }
+        }
+
+        Response response = withRetries(() -> CdnHttpClient.execute(client, request(url, validators).build()));
+        int code = response.code();
+        if (code == 304) {
+            response.close();
+            return new Download(true, null, null, null, null, null);
+        }
+        if (code != 200) {
+            response.close();
+            throw new IOException("HTTP " + code + " for " + url);
+        }
+        String etag = response.header("ETag");
+        String lastModified = response.header("Last-Modified");
+        long length = response.body().contentLength();
+        boolean ranges = "bytes".equalsIgnoreCase(response.header("Accept-Ranges"))
+                && (etag != null || lastModified != null);
+        if (length <= chunkedThreshold || !ranges) {
+            return new Download(false, etag, lastModified, response.body().byteStream(), response, null);
+        }
+
+        chunked.incrementAndGet();
+        partial = Partial.create(partialDir, key, length, chunkSize, etag, lastModified);
+        GrowingFile growing = growing(partial, onChunked);
+        try {
+            // The open response supplies the first chunk; the rest come from Range requests
+            try (InputStream in = response.body().byteStream()) {
+                partial.fill(0, in);
+            } catch (IOException e) {
+                LOG.fine("First chunk of " + key + " interrupted: " + e.getMessage());
+            } finally {
+                response.close();
+            }
+            completeChunks(url, partial, client);
+        } catch (ResourceChangedException e) {
+            finish(growing, e);
+            partial.delete();
+            throw e;
+        } catch (IOException e) {
+            finish(growing, e);
+            partial.close();
+            throw e;
+        }
+        finish(growing, null);
+        return new Download(false, etag, lastModified, new FileInputStream(partial.data), null, partial);
+    }
+
+    private OkHttpClient clientFor(AlertPriority priority) {
+        return priority == AlertPriority.CRITICAL ? urgentClient : client;
+    }
+
+    /** Returns the monitor for {@code key}, registering this thread as one of its users. */
+    private KeyLock lock(String key) {
+        synchronized (locks) {
+            KeyLock lock = locks.computeIfAbsent(key, k -> new KeyLock());
+            lock.users++;
+            return lock;
+        }
+    }
+
+    /** Drops the monitor for {@code key} once no thread holds or waits for it. */
+    private void unlock(String key, KeyLock lock) {
+        synchronized (locks) {
+            if (--lock.users == 0) {
+                locks.remove(key);
+            }
+        }
+    }
+
+    private static final class KeyLock {
+        // Guarded by the locks map
+        int users;
+    }
+
+    /** Exposes a partial download to {@code listener} as it fills; null without a listener. */
+    private static GrowingFile growing(Partial partial, Consumer<GrowingFile> listener) throws IOException {
+        if (listener == null) {
+            return null;
+        }
+        GrowingFile growing = new GrowingFile(partial.data, partial::readableFrom);
+        partial.listener = growing::advanced;
+        listener.accept(growing);
+        return growing;
+    }
+
+    private static void finish(GrowingFile growing, IOException failure) {
+        if (growing == null) {
+            return;
+        }
+        if (failure == null) {
+            growing.finish();
+        } else {
+            growing.fail(failure);
+        }
+    }
+
+    public long getResumedCount() {
+        return resumed.get();
+    }
+
+    public long getChunkedCount() {
+        return chunked.get();
+    }
+
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    @Override
+    public String toString() {
+        return "downloads[chunked=" + chunked.get() + " resumed=" + resumed.get() + " retries=" + retries.get() + "] "
+                + CdnHttpClient.metrics(client);
+    }
+
+    private static Request.Builder request(URL url, SmcCache.Validators validators) {
+        Request.Builder request = new Request.Builder().url(url);
+        if (validators != null) {
+            if (validators.etag != null) {
+                request.header("If-None-Match", validators.etag);
+            }
+            if (validators.lastModified != null) {
+                request.header("If-Modified-Since", validators.lastModified);
+            }
+        }
+        return request;
+    }
+
+    /**
+     * Fetches every unfinished chunk on {@code client}'s dispatcher, retrying the ones that
+     * failed in rounds; on failure the progress so far stays on disk.
+     */
+    private void completeChunks(URL url, Partial partial, OkHttpClient client) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            IOException failure = fetchChunks(url, partial, client);
+            partial.saveProgress();
+            if (failure == null) {
+                return;
+            }
+            if (failure instanceof ResourceChangedException || attempt >= MAX_ATTEMPTS) {
+                throw failure;
+            }
+            retries.incrementAndGet();
+            LOG.fine("Chunk round " + attempt + " failed, retrying: " + failure.getMessage());
+            try {
+                Thread.sleep(RETRY_BACKOFF_MS << (attempt - 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * One round: requests the unfinished chunks in order, keeping at most
+     * {@link #MAX_CHUNKS_IN_FLIGHT} in flight, and stops starting new ones after a failure.
+     * Returns the failure to report (a {@link ResourceChangedException} if any), or null.
+     */
+    private IOException fetchChunks(URL url, Partial partial, OkHttpClient client) throws IOException {
+        Semaphore window = new Semaphore(MAX_CHUNKS_IN_FLIGHT);
+        AtomicBoolean failed = new AtomicBoolean();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < partial.chunkCount() && !failed.get(); i++) {
+                if (partial.isComplete(i)) {
+                    continue;
+                }
+                window.acquire();
+                CompletableFuture<Void> future = fetchChunk(url, partial, i, client);
+                future.whenComplete((ignored, e) -> {
+                    if (e != null) {
+                        failed.set(true);
+                    }
+                    window.release();
+                });
+                futures.add(future);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        }
+        IOException failure = null;
+        for (CompletableFuture<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (failure == null || cause instanceof ResourceChangedException) {
+                    failure = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted", e);
+            }
+        }
+        return failure;
+    }
+
+    /** Enqueues a Range request for the rest of a chunk; the body is written on the dispatcher thread. */
+    private CompletableFuture<Void> fetchChunk(URL url, Partial partial, int chunk, OkHttpClient client) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        long from = partial.chunkStart(chunk) + partial.done(chunk);
+        long to = partial.chunkEnd(chunk) - 1;
+        if (from > to) {
+            result.complete(null);
+            return result;
+        }
+        Request request = request(url, null)
+                .header("Range", "bytes=" + from + "-" + to)
+                .header("If-Range", partial.etag != null ? partial.etag : partial.lastModified)
+                .build();
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                result.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response r = response) {
+                    if (r.code() == 200) {
+                        throw new ResourceChangedException(url + " no longer matches " + partial.etag);
+                    }
+                    if (r.code() != 206) {
+                        throw new IOException("HTTP " + r.code() + " for range " + from + "-" + to + " of " + url);
+                    }
+                    try (InputStream in = r.body().byteStream()) {
+                        partial.fill(chunk, in);
+                    }
+                    if (!partial.isComplete(chunk)) {
+                        throw new IOException("Range " + from + "-" + to + " of " + url + " ended early");
+                    }
+                    result.complete(null);
+                } catch (IOException e) {
+                    result.completeExceptionally(e);
+                }
+            }
+        });
+        return result;
+    }
+
+    private <T> T withRetries(Attempt<T> attempt) throws IOException {
+        for (int i = 1; ; i++) {
+            try {
+                return attempt.run();
+            } catch (ResourceChangedException e) {
+                throw e;
+            } catch (IOException e) {
+                if (i >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+                retries.incrementAndGet();
+                LOG.fine("Attempt " + i + " failed, retrying: " + e.getMessage());
+                try {
+                    Thread.sleep(RETRY_BACKOFF_MS << (i - 1));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /** Drops partial downloads nobody has resumed for a day. */
+    private void prune() {
+        File[] files = partialDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - PARTIAL_MAX_AGE_MS;
+        for (File file : files) {
+            if (file.lastModified() < cutoff) {
+                file.delete();
+            }
+        }
+    }
+
+    /** A {@code .part} data file plus a properties file with the validators and per-chunk progress. */
+    static final class Partial {
+        final File data;
+        final File meta;
+        final long length;
+        final int chunkSize;
+        final String etag;
+        final String lastModified;
+        private final long[] done;
+        private final FileChannel channel;
+        private long unsavedBytes;
+        /** Told after each write, outside the lock; see {@link #readableFrom}. */
+        volatile Runnable listener;
+
+        private Partial(File data, File meta, long length, int chunkSize, String etag, String lastModified,
+                        long[] done) throws IOException {
+            this.data = data;
+            this.meta = meta;
+            this.length = length;
+            this.chunkSize = chunkSize;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.done = done;
+            this.channel = new RandomAccessFile(data, "rw").getChannel();
+        }
+
+        static Partial create(File dir, String key, long length, int chunkSize, String etag,
+                              String lastModified) throws IOException {
+            File data = new File(dir, key + ".part");
+            data.delete();
+            int chunks = (int) ((length + chunkSize - 1) / chunkSize);
+            Partial partial = new Partial(data, new File(dir, key + ".part.properties"), length, chunkSize,
+                    etag, lastModified, new long[chunks]);
+            partial.saveProgress();
+            return partial;
+        }
+
+        /** Returns the persisted partial download for {@code key}, or null. */
+        static Partial load(File dir, String key) {
+            File data = new File(dir, key + ".part");
+            File meta = new File(dir, key + ".part.properties");
+            if (!data.isFile() || !meta.isFile()) {
+                return null;
+            }
+            Properties props = new Properties();
+            try (InputStream in = new FileInputStream(meta)) {
+                props.load(in);
+                long length = Long.parseLong(props.getProperty("length"));
+                int chunkSize = Integer.parseInt(props.getProperty("chunkSize"));
+                long[] done = new long[(int) ((length + chunkSize - 1) / chunkSize)];
+                for (int i = 0; i < done.length; i++) {
+                    done[i] = Long.parseLong(props.getProperty("done." + i, "0"));
+                }
+                return new Partial(data, meta, length, chunkSize, props.getProperty("etag"),
+                        props.getProperty("lastModified"), done);
+            } catch (IOException | RuntimeException e) {
+                LOG.warning("Discarding unreadable partial download " + key + ": " + e.getMessage());
+                data.delete();
+                meta.delete();
+                return null;
+            }
+        }
+
+        int chunkCount() {
+            return done.length;
+        }
+
+        long chunkStart(int chunk) {
+            return (long) chunk * chunkSize;
+        }
+
+        long chunkEnd(int chunk) {
+            return Math.min(length, chunkStart(chunk) + chunkSize);
+        }
+
+        synchronized long done(int chunk) {
+            return done[chunk];
+        }
+
+        synchronized boolean isComplete(int chunk) {
+            return chunkStart(chunk) + done[chunk] >= chunkEnd(chunk);
+        }
+
+        /** Bytes on disk from {@code position} to the end of its chunk's filled prefix. */
+        synchronized long readableFrom(long position) {
+            if (position >= length) {
+                return 0;
+            }
+            int chunk = (int) (position / chunkSize);
+            return Math.max(0, chunkStart(chunk) + done[chunk] - position);
+        }
+
+        synchronized long bytesDone() {
+            long total = 0;
+            for (long d : done) {
+                total += d;
+            }
+            return total;
+        }
+
+        /** Appends to a chunk from {@code in} until the chunk is full or the stream ends. */
+        void fill(int chunk, InputStream in) throws IOException {
+            byte[] buffer = new byte[64 * 1024];
+            long end = chunkEnd(chunk);
+            long position = chunkStart(chunk) + done(chunk);
+            while (position < end) {
+                int len = in.read(buffer, 0, (int) Math.min(buffer.length, end - position));
+                if (len == -1) {
+                    break;
+                }
+                ByteBuffer src = ByteBuffer.wrap(buffer, 0, len);
+                while (src.hasRemaining()) {
+                    position += channel.write(src, position);
+                }
+                advance(chunk, len);
+                Runnable l = listener;
+                if (l != null) {
+                    l.run();
+                }
+            }
+        }
+
+        private synchronized void advance(int chunk, long bytes) throws IOException {
+            done[chunk] += bytes;
+            unsavedBytes += bytes;
+            if (unsavedBytes >= PROGRESS_SAVE_INTERVAL || isComplete(chunk)) {
+                saveProgress();
+            }
+        }
+
+        /** Forces written data to disk before recording it as done, then swaps in the new progress file. */
+        synchronized void saveProgress() throws IOException {
+            channel.force(false);
+            Properties props = new Properties();
+            props.setProperty("length", Long.toString(length));
+            props.setProperty("chunkSize", Integer.toString(chunkSize));
+            if (etag != null) {
+                props.setProperty("etag", etag);
+            }
+            if (lastModified != null) {
+                props.setProperty("lastModified", lastModified);
+            }
+            for (int i = 0; i < done.length; i++) {
+                props.setProperty("done." + i, Long.toString(done[i]));
+            }
+            File tmp = new File(meta.getPath() + ".tmp");
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                props.store(out, null);
+            }
+            if (!tmp.renameTo(meta)) {
+                meta.delete();
+                if (!tmp.renameTo(meta)) {
+                    throw new IOException("Cannot write " + meta);
+                }
+            }
+            unsavedBytes = 0;
+        }
+
+        /** Closes the data file, keeping it and its progress for a later resume. */
+        synchronized void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.fine("Closing " + data + ": " + e.getMessage());
+            }
+        }
+
+        synchronized void delete() {
+            close();
+            data.delete();
+            meta.delete();
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package com.emma.alert.core;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Unpacks SMC zips into a directory and describes what came out.
+ *
+ * <p>Entry names are checked before anything is written: absolute paths, names that resolve
+ * outside the output directory and names the cache keeps its own files under there
+ * ({@link SmcPack#FILE_NAME}, the entry record) are rejected, as are entries that resolve to a
+ * file an earlier entry already took (compared ignoring case) and containers with more than
+ * {@code maxEntries} entries or more than {@code maxBytes} of uncompressed data (counted
+ * while copying, so a lying header does not help). Copies use a per-thread 64 KB buffer.
+ *
+ * <p>The fetch path does not unpack at all when it can avoid it: {@link #pack} keeps the
+ * container as the entry's {@link SmcPack} and only extracts entries that are compressed.
+ * Those, and zips passed to {@link #extract(File, File)}, are read through the central
+ * directory and written in parallel, largest first, so an SMC with an image and a video takes
+ * about as long as the video alone. A zip still arriving over the network is unpacked
+ * sequentially as it streams in. Entry writes queued for the shared writers are taken by the
+ * alert's {@link AlertPriority}, so a CRITICAL alert's entries go ahead of a Minor one's.
+ */
+public class SmcExtractor {
+    public static final int BUFFER_SIZE = 64 * 1024;
+    public static final int DEFAULT_MAX_ENTRIES = 16;
+    public static final long DEFAULT_MAX_BYTES = 128L * 1024 * 1024;
+    public static final int DEFAULT_PARALLELISM = 3;
+
+    // Files the cache itself keeps in an entry directory, which no SMC entry may overwrite
+    private static final String[] RESERVED_NAMES = {SmcPack.FILE_NAME, SmcCache.ENTRY_FILE};
+
+    private static final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+    /** One entry. {@code type} is "image", "video" or null; {@code file} is null if it is read from the pack. */
+    public static final class MediaEntry {
+        public final String name;
+        public final String type;
+        public final long size;
+        public final File file;
+
+        MediaEntry(String name, String type, long size, File file) {
+            this.name = name;
+            this.type = type;
+            this.size = size;
+            this.file = file;
+        }
+
+        @Override
+        public String toString() {
+            return name + "(" + (type == null ? "other" : type) + ", " + size + " bytes)";
+        }
+    }
+
+    /** Everything extracted from one SMC, in zip order. */
+    public static final class Manifest {
+        public final List<MediaEntry> entries;
+        public final long totalBytes;
+
+        Manifest(List<MediaEntry> entries) {
+            this.entries = Collections.unmodifiableList(entries);
+            long total = 0;
+            for (MediaEntry entry : entries) {
+                total += entry.size;
+            }
+            this.totalBytes = total;
+        }
+
+        /** The entry to show: the last image or video, else the last entry, else null. */
+        public MediaEntry getPrimary() {
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                if (entries.get(i).type != null) {
+                    return entries.get(i);
+                }
+            }
+            return entries.isEmpty() ? null : entries.get(entries.size() - 1);
+        }
+
+        @Override
+        public String toString() {
+            return entries.toString();
+        }
+    }
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final ThreadPoolExecutor writers;
+
+    public SmcExtractor() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES, DEFAULT_PARALLELISM);
+    }
+
+    public SmcExtractor(int maxEntries, long maxBytes, int parallelism) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        AtomicInteger threadCount = new AtomicInteger();
+        // The calling thread writes one entry itself; threads only exist while extracting
+        this.writers = new ThreadPoolExecutor(parallelism, parallelism, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "emma-extract-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        writers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Unpacks a zip stream into {@code outputDir}. Stops at the end of the last entry, so the
+     * caller can keep reading (the central directory) from {@code in}; the caller closes it.
+     */
+    public Manifest extract(InputStream in, File outputDir) throws IOException {
+        // ZipInputStream reads its source 512 bytes at a time without a buffer underneath
+        ZipInputStream zis = new ZipInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+        List<MediaEntry> entries = new ArrayList<>();
+        AtomicLong budget = new AtomicLong(maxBytes);
+        Set<String> taken = new HashSet<>();
+        ZipEntry entry;
+        while ((entry = zis.getNextEntry()) != null) {
+            if (entry.isDirectory()) {
+                continue;
+            }
+            if (entries.size() >= maxEntries) {
+                throw new ZipException("SMC has more than " + maxEntries + " entries");
+            }
+            resolveUnique(outputDir, entry.getName(), taken);
+            entries.add(copy(entry.getName(), zis, outputDir, budget));
+        }
+        return new Manifest(entries);
+    }
+
+    /**
+     * Copies a zip stream to {@code <outputDir>/media.pack} and extracts whatever it cannot
+     * serve from the mapping. Reads {@code in} to the end; the caller closes it.
+     */
+    public Manifest pack(InputStream in, File outputDir) throws IOException {
+        return pack(in, outputDir, null, AlertPriority.NORMAL);
+    }
+
+    /**
+     * Like {@link #pack(InputStream, File)}, reporting the bytes written so far to
+     * {@code progress} after each write, so the pack can be read while it is still arriving.
+     */
+    public Manifest pack(InputStream in, File outputDir, LongConsumer progress) throws IOException {
+        return pack(in, outputDir, progress, AlertPriority.NORMAL);
+    }
+
+    /** Like {@link #pack(InputStream, File, LongConsumer)}, extracting at {@code priority}; progress may be null. */
+    public Manifest pack(InputStream in, File outputDir, LongConsumer progress, AlertPriority priority)
+            throws IOException {
+        File file = new File(outputDir, SmcPack.FILE_NAME);
+        byte[] buffer = buffers.get();
+        long size = 0;
+        try (OutputStream out = new FileOutputStream(file)) {
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                size += len;
+                if (size > maxBytes) {
+                    throw new ZipException("SMC is larger than " + maxBytes + " bytes");
+                }
+                out.write(buffer, 0, len);
+                if (progress != null) {
+                    progress.accept(size);
+                }
+            }
+        }
+        return index(file, outputDir, priority);
+    }
+
+    /** Like {@link #pack(InputStream, File)} for a zip already on disk, which is moved, not copied. */
+    public Manifest pack(File zip, File outputDir) throws IOException {
+        return pack(zip, outputDir, AlertPriority.NORMAL);
+    }
+
+    public Manifest pack(File zip, File outputDir, AlertPriority priority) throws IOException {
+        if (zip.length() > maxBytes) {
+            throw new ZipException("SMC is larger than " + maxBytes + " bytes");
+        }
+        File file = new File(outputDir, SmcPack.FILE_NAME);
+        if (!zip.renameTo(file)) {
+            throw new IOException("Cannot move " + zip + " to " + file);
+        }
+        return index(file, outputDir, priority);
+    }
+
+    private Manifest index(File file, File outputDir, AlertPriority priority) throws IOException {
+        SmcPack pack = new SmcPack(file);
+        List<SmcPack.Entry> packed = pack.getEntries();
+        if (packed.size() > maxEntries) {
+            throw new ZipException("SMC has more than " + maxEntries + " entries");
+        }
+        Map<String, MediaEntry> extracted = new HashMap<>();
+        if (!pack.isFullyStored()) {
+            for (MediaEntry entry : extract(file, outputDir, true, priority).entries) {
+                extracted.put(entry.name, entry);
+            }
+        }
+        List<MediaEntry> entries = new ArrayList<>(packed.size());
+        Set<String> taken = new HashSet<>();
+        for (SmcPack.Entry entry : packed) {
+            resolveUnique(outputDir, entry.name, taken);
+            entries.add(entry.stored ? new MediaEntry(entry.name, entry.type, entry.length, null)
+                    : extracted.get(entry.name));
+        }
+        return new Manifest(entries);
+    }
+
+    /** Unpacks a zip file into {@code outputDir}, writing entries in parallel. */
+    public Manifest extract(File zip, File outputDir) throws IOException {
+        return extract(zip, outputDir, false, AlertPriority.NORMAL);
+    }
+
+    private Manifest extract(File zip, File outputDir, boolean compressedOnly, AlertPriority priority)
+            throws IOException {
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            List<ZipEntry> files = new ArrayList<>();
+            Set<String> taken = new HashSet<>();
+            long declared = 0;
+            for (ZipEntry entry : Collections.list(zipFile.entries())) {
+                if (entry.isDirectory() || (compressedOnly && entry.getMethod() == ZipEntry.STORED)) {
+                    continue;
+                }
+                if (files.size() >= maxEntries) {
+                    throw new ZipException("SMC has more than " + maxEntries + " entries");
+                }
+                resolveUnique(outputDir, entry.getName(), taken);
+                declared += Math.max(0, entry.getSize());
+                files.add(entry);
+            }
+            if (declared > maxBytes) {
+                throw new ZipException("SMC declares " + declared + " bytes, limit is " + maxBytes);
+            }
+
+            // Largest first, so the longest copy starts right away
+            List<Integer> order = new ArrayList<>();
+            for (int i = 0; i < files.size(); i++) {
+                order.add(i);
+            }
+            order.sort((a, b) -> Long.compare(files.get(b).getSize(), files.get(a).getSize()));
+
+            AtomicLong budget = new AtomicLong(maxBytes);
+            List<Future<MediaEntry>> futures = new ArrayList<>(Collections.nCopies(files.size(), null));
+            for (int i = 1; i < order.size(); i++) {
+                ZipEntry entry = files.get(order.get(i));
+                EntryWrite write = new EntryWrite(() -> copy(zipFile, entry, outputDir, budget), priority);
+                writers.execute(write);
+                futures.set(order.get(i), write);
+            }
+            MediaEntry[] results = new MediaEntry[files.size()];
+            IOException failure = null;
+            if (!order.isEmpty()) {
+                try {
+                    results[order.get(0)] = copy(zipFile, files.get(order.get(0)), outputDir, budget);
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                Future<MediaEntry> future = futures.get(i);
+                if (future == null) {
+                    continue;
+                }
+                // Wait for every writer, even after a failure, before the zip file is closed
+                try {
+                    results[i] = future.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        Throwable cause = e.getCause();
+                        failure = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted", e);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            List<MediaEntry> entries = new ArrayList<>(results.length);
+            Collections.addAll(entries, results);
+            return new Manifest(entries);
+        }
+    }
+
+    /** A queued entry copy, ordered by the alert's priority and then by submission. */
+    private static final class EntryWrite extends FutureTask<MediaEntry> implements Comparable<EntryWrite> {
+        private static final AtomicLong SEQUENCE = new AtomicLong();
+
+        private final int rank;
+        private final long seq = SEQUENCE.getAndIncrement();
+
+        EntryWrite(Callable<MediaEntry> copy, AlertPriority priority) {
+            super(copy);
+            this.rank = priority.ordinal();
+        }
+
+        @Override
+        public int compareTo(EntryWrite other) {
+            return rank != other.rank ? Integer.compare(rank, other.rank) : Long.compare(seq, other.seq);
+        }
+    }
+
+    private MediaEntry copy(ZipFile zipFile, ZipEntry entry, File outputDir, AtomicLong budget) throws IOException {
+        try (InputStream in = zipFile.getInputStream(entry)) {
+            return copy(entry.getName(), in, outputDir, budget);
+        }
+    }
+
+    private MediaEntry copy(String name, InputStream in, File outputDir, AtomicLong budget) throws IOException {
+        File outputFile = resolve(outputDir, name);
+        File parent = outputFile.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+        byte[] buffer = buffers.get();
+        long size = 0;
+        try (OutputStream out = new FileOutputStream(outputFile)) {
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                if (budget.addAndGet(-len) < 0) {
+                    throw new ZipException("SMC expands beyond " + maxBytes + " bytes");
+                }
+                out.write(buffer, 0, len);
+                size += len;
+            }
+        }
+        return new MediaEntry(name, AlertProcessor.determineMediaType(name), size, outputFile);
+    }
+
+    /** Like {@link #resolve}, also rejecting a name that maps to a file in {@code taken}, which it joins. */
+    private static File resolveUnique(File outputDir, String name, Set<String> taken) throws IOException {
+        File target = resolve(outputDir, name);
+        if (!taken.add(target.getPath().toLowerCase(Locale.ROOT))) {
+            throw new ZipException("Duplicate SMC entry: " + name);
+        }
+        return target;
+    }
+
+    /** Maps an entry name to a file under {@code outputDir}, rejecting anything that escapes it. */
+    static File resolve(File outputDir, String name) throws IOException {
+        if (name.isEmpty() || name.startsWith("/") || name.startsWith("\\") || name.indexOf(':') >= 0
+                || name.indexOf('\0') >= 0) {
+            throw new ZipException("Unsafe SMC entry name: " + name);
+        }
+        File root = outputDir.getCanonicalFile();
+        File target = new File(root, name).getCanonicalFile();
+        if (!target.getPath().startsWith(root.getPath() + File.separator)) {
+            throw new ZipException("SMC entry escapes the output directory: " + name);
+        }
+        if (root.equals(target.getParentFile())) {
+            for (String reserved : RESERVED_NAMES) {
+                // Compared ignoring case, which is all some filesystems look at
+                if (reserved.equalsIgnoreCase(target.getName())) {
+                    throw new ZipException("SMC entry uses a reserved name: " + name);
+                }
+            }
+        }
+        return target;
+    }
+}
@@ -0,0 +1,388 @@
+package com.emma.alert.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipException;
+
+/**
+ * A verified SMC kept as one memory-mapped file per cache entry ({@link #FILE_NAME}), with the
+ * zip's central directory as its index.
+ *
+ * <p>The cap-generator stores attachments uncompressed, so every entry is a contiguous byte
+ * range of the container: display reads it straight from the mapping, with no extraction
+ * copy and no file per attachment. Entries that are compressed (older SMCs) are extracted
+ * next to the pack by {@link SmcExtractor} and read from there instead.
+ *
+ * <p>{@link #get} keeps recently shown packs mapped, so re-displaying an alert after a
+ * rotation or resume does not reopen or re-read anything. Packs are named by content hash,
+ * so a mapping stays correct even if its cache entry is evicted and fetched again.
+ */
+public final class SmcPack {
+    public static final String FILE_NAME = "media.pack";
+    private static final int MAX_OPEN_PACKS = 8;
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int CEN_SIGNATURE = 0x02014b50;
+    private static final int LOC_SIGNATURE = 0x04034b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int CEN_SIZE = 46;
+    private static final int LOC_SIZE = 30;
+    /** Local headers walked by {@link #scan} before giving up. */
+    private static final int MAX_SCANNED_ENTRIES = 64;
+
+    // pack path -> mapped pack, access-ordered
+    private static final Map<String, SmcPack> openPacks = new LinkedHashMap<String, SmcPack>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SmcPack> eldest) {
+            return size() > MAX_OPEN_PACKS;
+        }
+    };
+
+    /** One attachment: where it lives in the pack and whether it can be read from there. */
+    public static final class Entry {
+        public final String name;
+        public final String type;
+        public final long offset;
+        public final long length;
+        /** True if stored uncompressed, i.e. readable from the mapping. */
+        public final boolean stored;
+        private final SmcPack pack;
+
+        Entry(SmcPack pack, String name, long offset, long length, boolean stored) {
+            this.pack = pack;
+            this.name = name;
+            this.type = AlertProcessor.determineMediaType(name);
+            this.offset = offset;
+            this.length = length;
+            this.stored = stored;
+        }
+
+        /** The entry's bytes as a read-only view of the mapping. Stored entries only. */
+        public ByteBuffer slice() {
+            if (!stored) {
+                throw new IllegalStateException(name + " is compressed; read " + getFile());
+            }
+            ByteBuffer view = pack.mapping.duplicate();
+            view.limit((int) (offset + length)).position((int) offset);
+            return view.slice();
+        }
+
+        /** Reads the entry from the mapping, or from its extracted file if it is compressed. */
+        public InputStream openStream() throws IOException {
+            if (!stored) {
+                return new FileInputStream(getFile());
+            }
+            return new ByteBufferInputStream(slice());
+        }
+
+        /** Where a compressed entry was extracted to. */
+        public File getFile() {
+            return new File(pack.file.getParentFile(), name);
+        }
+
+        public SmcPack getPack() {
+            return pack;
+        }
+
+        @Override
+        public String toString() {
+            return name + "(" + (type == null ? "other" : type) + ", " + length + " bytes"
+                    + (stored ? "" : ", compressed") + ")";
+        }
+    }
+
+    /** Where a stored entry sits in a container that is still downloading; see {@link #scan}. */
+    public static final class Location {
+        public final String name;
+        public final long offset;
+        public final long length;
+
+        Location(String name, long offset, long length) {
+            this.name = name;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public String toString() {
+            return name + "@" + offset + "+" + length;
+        }
+    }
+
+    private final File file;
+    private final ByteBuffer mapping;
+    private final List<Entry> entries;
+
+    /** Maps {@code file} and reads its index. The file stays mapped until the pack is unreachable. */
+    public SmcPack(File file) throws IOException {
+        this.file = file;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new ZipException(file + " is too large to map");
+            }
+            // The mapping outlives the channel
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            this.mapping = mapped;
+        }
+        this.entries = Collections.unmodifiableList(readIndex());
+    }
+
+    /**
+     * The mapped pack in {@code dir}, shared with earlier callers while it stays among the most
+     * recently used; null if the directory has no pack (entries cached before packs existed).
+     */
+    public static SmcPack get(File dir) throws IOException {
+        File file = new File(dir, FILE_NAME);
+        String key = file.getPath();
+        synchronized (openPacks) {
+            SmcPack pack = openPacks.get(key);
+            if (pack != null) {
+                return pack;
+            }
+        }
+        if (!file.isFile()) {
+            return null;
+        }
+        SmcPack pack = new SmcPack(file);
+        synchronized (openPacks) {
+            SmcPack raced = openPacks.putIfAbsent(key, pack);
+            return raced != null ? raced : pack;
+        }
+    }
+
+    /**
+     * Resolves a media path handed to an {@link AlertSink} ({@code <entry dir>/<name>}) to its
+     * pack entry, or null if there is no pack or no such entry.
+     */
+    public static Entry find(String mediaPath) throws IOException {
+        if (mediaPath == null) {
+            return null;
+        }
+        File media = new File(mediaPath);
+        SmcPack pack = get(media.getParentFile());
+        return pack == null ? null : pack.getEntry(media.getName());
+    }
+
+    /**
+     * Finds the first stored entry of {@code type} in a zip that is still arriving, walking the
+     * local headers as their bytes land rather than waiting for the central directory at the
+     * end. Returns null at the end of the local headers, or at an entry whose size is only
+     * given after its data (a streamed zip), since nothing past it can be located. The result
+     * is unverified: it only says where the bytes will be.
+     */
+    public static Location scan(GrowingFile zip, String type) throws IOException {
+        byte[] header = new byte[LOC_SIZE];
+        ByteBuffer buf = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+        long pos = 0;
+        for (int i = 0; i < MAX_SCANNED_ENTRIES; i++) {
+            if (zip.read(pos, header, 0, 1) < 0) {
+                return null;
+            }
+            zip.readFully(pos, header, 0, LOC_SIZE);
+            if (buf.getInt(0) != LOC_SIGNATURE) {
+                return null;
+            }
+            int flags = buf.getShort(6) & 0xffff;
+            int method = buf.getShort(8) & 0xffff;
+            long compressed = buf.getInt(18) & 0xffffffffL;
+            int nameLength = buf.getShort(26) & 0xffff;
+            int extraLength = buf.getShort(28) & 0xffff;
+            if ((flags & 0x9) != 0) {
+                // Encrypted, or sizes in a data descriptor after the data
+                return null;
+            }
+            byte[] nameBytes = new byte[nameLength];
+            zip.readFully(pos + LOC_SIZE, nameBytes, 0, nameLength);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+            long dataOffset = pos + LOC_SIZE + nameLength + extraLength;
+            if (method == 0 && !name.endsWith("/") && type.equals(AlertProcessor.determineMediaType(name))) {
+                return new Location(name, dataOffset, compressed);
+            }
+            pos = dataOffset + compressed;
+        }
+        return null;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /** Entries in zip order, directories excluded. */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public Entry getEntry(String name) {
+        for (Entry entry : entries) {
+            if (entry.name.equals(name)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /** The entry to show: the last image or video, else the last entry, else null. */
+    public Entry getPrimary() {
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            if (entries.get(i).type != null) {
+                return entries.get(i);
+            }
+        }
+        return entries.isEmpty() ? null : entries.get(entries.size() - 1);
+    }
+
+    /** True if every entry is stored, so nothing needs extracting. */
+    public boolean isFullyStored() {
+        for (Entry entry : entries) {
+            if (!entry.stored) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getDataBytes() {
+        long total = 0;
+        for (Entry entry : entries) {
+            total += entry.length;
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return entries.toString();
+    }
+
+    /** Walks the central directory; each entry's data offset comes from its local header. */
+    private List<Entry> readIndex() throws IOException {
+        ByteBuffer buf = mapping;
+        int eocd = -1;
+        // The end record is followed by at most a 64 KB comment
+        for (int i = buf.limit() - EOCD_SIZE; i >= Math.max(0, buf.limit() - EOCD_SIZE - 0xffff); i--) {
+            if (buf.getInt(i) == EOCD_SIGNATURE) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            throw new ZipException(file + " has no zip end record");
+        }
+        int count = buf.getShort(eocd + 10) & 0xffff;
+        long cenOffset = buf.getInt(eocd + 16) & 0xffffffffL;
+        List<Entry> result = new ArrayList<>(count);
+        long pos = cenOffset;
+        for (int i = 0; i < count; i++) {
+            if (pos + CEN_SIZE > buf.limit() || buf.getInt((int) pos) != CEN_SIGNATURE) {
+                throw new ZipException(file + ": bad central directory at " + pos);
+            }
+            int p = (int) pos;
+            int flags = buf.getShort(p + 8) & 0xffff;
+            int method = buf.getShort(p + 10) & 0xffff;
+            long compressed = buf.getInt(p + 20) & 0xffffffffL;
+            int nameLength = buf.getShort(p + 28) & 0xffff;
+            int extraLength = buf.getShort(p + 30) & 0xffff;
+            int commentLength = buf.getShort(p + 32) & 0xffff;
+            long localOffset = buf.getInt(p + 42) & 0xffffffffL;
+            if ((long) p + CEN_SIZE + nameLength + extraLength + commentLength > buf.limit()) {
+                throw new ZipException(file + ": central directory entry at " + pos + " runs past the end");
+            }
+            byte[] nameBytes = new byte[nameLength];
+            ByteBuffer nameView = buf.duplicate();
+            nameView.position(p + CEN_SIZE);
+            nameView.get(nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+            pos += CEN_SIZE + nameLength + extraLength + commentLength;
+
+            if (name.endsWith("/")) {
+                continue;
+            }
+            if ((flags & 1) != 0) {
+                throw new ZipException(file + ": encrypted entry " + name);
+            }
+            if (localOffset + LOC_SIZE > buf.limit() || buf.getInt((int) localOffset) != LOC_SIGNATURE) {
+                throw new ZipException(file + ": bad local header for " + name);
+            }
+            int l = (int) localOffset;
+            long dataOffset = localOffset + LOC_SIZE + (buf.getShort(l + 26) & 0xffff) + (buf.getShort(l + 28) & 0xffff);
+            if (dataOffset > buf.limit()) {
+                throw new ZipException(file + ": local header for " + name + " runs past the end");
+            }
+            if (dataOffset + compressed > buf.limit()) {
+                throw new ZipException(file + ": " + name + " runs past the end");
+            }
+            result.add(new Entry(this, name, dataOffset, compressed, method == 0));
+        }
+        return result;
+    }
+
+    /** An InputStream over a buffer; reading it touches only the pages it covers. */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readLimit) {
+            buffer.mark();
+        }
+
+        @Override
+        public synchronized void reset() {
+            buffer.reset();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.emma.alert.core;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The {@code <alertId>.smc.xml} document the cap-generator publishes next to each SMC zip:
+ * {@code <SecureMediaContainer><Hash>sha256 hex</Hash><Signature>...</Signature>}.
+ */
+public final class SmcSidecar {
+    public final String hash;
+    /** Hex DER ECDSA signature over the ASCII hex hash, or null if the SMC was not signed. */
+    public final String signature;
+
+    SmcSidecar(String hash, String signature) {
+        this.hash = hash;
+        this.signature = signature;
+    }
+
+    /** Sidecar name for an SMC locator ({@code x.smc.zip} to {@code x.smc.xml}), or null if not an SMC zip. */
+    public static String nameFor(String smcName) {
+        return smcName.endsWith(".smc.zip") ? smcName.substring(0, smcName.length() - 4) + ".xml" : null;
+    }
+
+    /** Returns null when the document has no well-formed hash. */
+    public static SmcSidecar parse(byte[] xml) {
+        String doc = new String(xml, StandardCharsets.UTF_8);
+        String hash = elementText(doc, "Hash");
+        if (hash == null || hash.length() != 64) {
+            return null;
+        }
+        return new SmcSidecar(hash.toLowerCase(), elementText(doc, "Signature"));
+    }
+
+    private static String elementText(String xml, String name) {
+        int start = xml.indexOf("<" + name + ">");
+        if (start < 0) {
+            return null;
+        }
+        start += name.length() + 2;
+        int end = xml.indexOf("</" + name + ">", start);
+        return end < 0 ? null : xml.substring(start, end).trim();
+    }
+}
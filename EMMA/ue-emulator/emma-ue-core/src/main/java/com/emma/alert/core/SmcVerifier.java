@@ -0,0 +1,224 @@
+package com.emma.alert.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Verifies SMC signatures as produced by the cap-generator's
+ * {@code SecureMediaContainer.create_smc}: an ECDSA-SHA256 signature (hex DER) over the ASCII
+ * hex SHA-256 of the zip, published in the {@code .smc.xml} sidecar.
+ *
+ * <p>Each thread keeps a {@link Signature} already initialized with the key, so a verify is
+ * one update and one verify call. Hash/signature pairs that passed are remembered, so a
+ * re-broadcast SMC is not verified again.
+ */
+public class SmcVerifier {
+    private static final Logger LOG = Logger.getLogger("SmcVerifier");
+    public static final String ALGORITHM = "SHA256withECDSA";
+    public static final int DEFAULT_VERIFIED_CACHE_SIZE = 256;
+
+    private final PublicKey publicKey;
+    private final ThreadLocal<Signature> signatures;
+    private final Map<String, String> verified;
+
+    private final AtomicLong verifications = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public SmcVerifier(PublicKey publicKey) {
+        this(publicKey, DEFAULT_VERIFIED_CACHE_SIZE);
+    }
+
+    public SmcVerifier(PublicKey publicKey, final int verifiedCacheSize) {
+        this.publicKey = Objects.requireNonNull(publicKey, "publicKey");
+        this.signatures = ThreadLocal.withInitial(this::newSignature);
+        // hash -> signature that verified for it
+        this.verified = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > verifiedCacheSize;
+            }
+        };
+    }
+
+    private SmcVerifier() {
+        this.publicKey = null;
+        this.signatures = null;
+        this.verified = null;
+    }
+
+    /**
+     * A verifier that accepts every SMC without checking it. Only the fleet runner, benchmarks
+     * and local testing may use this; a UE build must never fall back to it.
+     */
+    public static SmcVerifier disabled() {
+        LOG.warning("SMC signature checking is disabled; every SMC will be accepted");
+        return new Fixed(true);
+    }
+
+    /**
+     * A verifier for a UE whose key could not be loaded: every SMC is rejected, so media is
+     * never shown unverified. {@link #isKeyAvailable} tells callers not to fetch any.
+     */
+    public static SmcVerifier keyUnavailable() {
+        return new Fixed(false);
+    }
+
+    /**
+     * Loads the verification key from PEM: either a certificate ({@code BEGIN CERTIFICATE})
+     * or a bare SubjectPublicKeyInfo ({@code BEGIN PUBLIC KEY}). The stream is closed.
+     */
+    public static PublicKey loadPublicKey(InputStream pem) throws IOException, GeneralSecurityException {
+        byte[] bytes;
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int len;
+            while ((len = pem.read(buffer)) != -1) {
+                out.write(buffer, 0, len);
+            }
+            bytes = out.toByteArray();
+        } finally {
+            pem.close();
+        }
+        String text = new String(bytes, StandardCharsets.US_ASCII);
+        if (text.contains("BEGIN PUBLIC KEY")) {
+            String base64 = text.replaceAll("-----[A-Z ]+-----", "").replaceAll("\\s", "");
+            X509EncodedKeySpec spec = new X509EncodedKeySpec(Base64.getDecoder().decode(base64));
+            return KeyFactory.getInstance("EC").generatePublic(spec);
+        }
+        CertificateFactory cf = CertificateFactory.getInstance("X.509");
+        return cf.generateCertificate(new ByteArrayInputStream(bytes)).getPublicKey();
+    }
+
+    /** False for {@link #disabled}: signatures are not checked. */
+    public boolean isEnabled() {
+        return true;
+    }
+
+    /** False for {@link #keyUnavailable}: no SMC can pass. */
+    public boolean isKeyAvailable() {
+        return true;
+    }
+
+    /** True if {@code signatureHex} is a valid signature over {@code hashHex}. */
+    public boolean verify(String hashHex, String signatureHex) {
+        if (hashHex == null || signatureHex == null) {
+            failures.incrementAndGet();
+            return false;
+        }
+        synchronized (verified) {
+            if (signatureHex.equals(verified.get(hashHex))) {
+                cacheHits.incrementAndGet();
+                return true;
+            }
+        }
+        verifications.incrementAndGet();
+        boolean valid;
+        try {
+            Signature signature = signatures.get();
+            signature.update(hashHex.getBytes(StandardCharsets.US_ASCII));
+            valid = signature.verify(fromHex(signatureHex));
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            LOG.log(Level.FINE, "Malformed SMC signature", e);
+            // Don't reuse a Signature left mid-operation
+            signatures.remove();
+            valid = false;
+        }
+        if (!valid) {
+            failures.incrementAndGet();
+            return false;
+        }
+        synchronized (verified) {
+            verified.put(hashHex, signatureHex);
+        }
+        return true;
+    }
+
+    public long getVerificationCount() {
+        return verifications.get();
+    }
+
+    public long getCacheHitCount() {
+        return cacheHits.get();
+    }
+
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    @Override
+    public String toString() {
+        return "signatures[enabled=" + isEnabled() + " key=" + isKeyAvailable() + " verified=" + verifications.get()
+                + " cached=" + cacheHits.get() + " failed=" + failures.get() + "]";
+    }
+
+    private Signature newSignature() {
+        try {
+            Signature signature = Signature.getInstance(ALGORITHM);
+            signature.initVerify(publicKey);
+            return signature;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot initialize " + ALGORITHM, e);
+        }
+    }
+
+    /** The {@link #disabled} and {@link #keyUnavailable} verifiers: no key, a fixed answer. */
+    private static final class Fixed extends SmcVerifier {
+        private final boolean accept;
+
+        Fixed(boolean accept) {
+            this.accept = accept;
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return !accept;
+        }
+
+        @Override
+        public boolean isKeyAvailable() {
+            return accept;
+        }
+
+        @Override
+        public boolean verify(String hashHex, String signatureHex) {
+            if (!accept) {
+                super.failures.incrementAndGet();
+            }
+            return accept;
+        }
+    }
+
+    static byte[] fromHex(String hex) {
+        if ((hex.length() & 1) != 0) {
+            throw new IllegalArgumentException("Odd-length hex");
+        }
+        byte[] out = new byte[hex.length() / 2];
+        for (int i = 0; i < out.length; i++) {
+            int hi = Character.digit(hex.charAt(i * 2), 16);
+            int lo = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (hi < 0 || lo < 0) {
+                throw new IllegalArgumentException("Bad hex digit");
+            }
+            out[i] = (byte) ((hi << 4) | lo);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,41 @@
+package com.emma.alert.core;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Reads the kernel's per-socket receive-buffer overflow counter ({@code drops} column of
+ * /proc/net/udp and /proc/net/udp6) for a local port. Available on Linux and Android; sockets
+ * sharing the port through SO_REUSEADDR are summed.
+ */
+final class UdpDropCounter {
+    private static final String[] TABLES = {"/proc/net/udp", "/proc/net/udp6"};
+
+    private UdpDropCounter() {
+    }
+
+    /** Returns the drop count for sockets bound to {@code port}, or -1 if it cannot be read. */
+    static long read(int port) {
+        String portHex = String.format(":%04X", port);
+        long drops = 0;
+        boolean found = false;
+        for (String table : TABLES) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(table))) {
+                reader.readLine(); // header
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] columns = line.trim().split("\\s+");
+                    if (columns.length < 13 || !columns[1].endsWith(portHex)) {
+                        continue;
+                    }
+                    drops += Long.parseLong(columns[columns.length - 1]);
+                    found = true;
+                }
+            } catch (IOException | NumberFormatException e) {
+                // table missing (udp6 disabled, non-Linux) or unexpected format
+            }
+        }
+        return found ? drops : -1;
+    }
+}
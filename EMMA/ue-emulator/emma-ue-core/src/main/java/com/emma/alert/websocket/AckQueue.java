@@ -0,0 +1,89 @@
+package com.emma.alert.websocket;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Alert acks waiting for the next {@code alert_ack_batch} frame. The "received" and
+ * "displayed" acks for one alert are coalesced into a single {@link Ack} that keeps the time of
+ * each, so the distributor can still compute delivery and display latency. An alert's receipt
+ * time is remembered for a while after it is flushed, so a "displayed" ack that misses the
+ * batch carries the original receipt time rather than its own.
+ *
+ * <p>Bounded: when the distributor is unreachable the oldest acks are dropped, as single acks
+ * were when they could not be sent.
+ */
+final class AckQueue {
+    private static final int MAX_PENDING = 1024;
+    private static final int MAX_REMEMBERED = 256;
+
+    static final class Ack {
+        final String alertId;
+        long receivedAt;
+        long displayedAt;
+
+        Ack(String alertId) {
+            this.alertId = alertId;
+        }
+
+        boolean received() {
+            return receivedAt != 0;
+        }
+
+        boolean displayed() {
+            return displayedAt != 0;
+        }
+    }
+
+    private final Map<String, Ack> pending = new LinkedHashMap<String, Ack>(16, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Ack> eldest) {
+            return size() > MAX_PENDING;
+        }
+    };
+    private final Map<String, Long> flushedReceipts = new LinkedHashMap<String, Long>(16, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_REMEMBERED;
+        }
+    };
+
+    /** Queues an ack and returns the number of alerts now pending. */
+    synchronized int add(String alertId, boolean received, boolean displayed, long now) {
+        Ack ack = pending.get(alertId);
+        if (ack == null) {
+            ack = new Ack(alertId);
+            pending.put(alertId, ack);
+        }
+        if (received && ack.receivedAt == 0) {
+            Long flushed = flushedReceipts.get(alertId);
+            ack.receivedAt = flushed != null ? flushed : now;
+        }
+        if (displayed && ack.displayedAt == 0) {
+            ack.displayedAt = now;
+        }
+        return pending.size();
+    }
+
+    /** Removes up to {@code max} acks, oldest first. */
+    synchronized List<Ack> drain(int max) {
+        List<Ack> batch = new ArrayList<>(Math.min(max, pending.size()));
+        Iterator<Ack> it = pending.values().iterator();
+        while (it.hasNext() && batch.size() < max) {
+            Ack ack = it.next();
+            it.remove();
+            if (ack.received()) {
+                flushedReceipts.put(ack.alertId, ack.receivedAt);
+            }
+            batch.add(ack);
+        }
+        return batch;
+    }
+
+    synchronized boolean isEmpty() {
+        return pending.isEmpty();
+    }
+}
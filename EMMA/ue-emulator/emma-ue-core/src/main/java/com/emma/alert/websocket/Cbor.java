@@ -0,0 +1,428 @@
+package com.emma.alert.websocket;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * The CBOR (RFC 8949) subset spoken on the WebSocket path once both ends have negotiated it:
+ * integers, doubles, booleans, null, text and byte strings, arrays and maps with text keys.
+ * Messages are the same maps as the JSON ones, so {@code alert-distributor/wire.js} and this
+ * class agree by construction; indefinite lengths and tags are not used. Both sides cap nesting
+ * at 32 levels and integers at 2^53 - 1 in magnitude, the largest a JavaScript number holds
+ * exactly, and are checked against the same vectors in {@code shared/cbor-vectors.json}.
+ *
+ * <p>{@link #writer()} hands out a per-thread {@link Writer} whose buffer is reused, so
+ * building a heartbeat or an ack allocates only the frame it sends.
+ */
+public final class Cbor {
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_BYTES = 2;
+    private static final int MAJOR_TEXT = 3;
+    private static final int MAJOR_ARRAY = 4;
+    private static final int MAJOR_MAP = 5;
+    private static final int MAJOR_SIMPLE = 7;
+    private static final int FALSE = 0xf4;
+    private static final int TRUE = 0xf5;
+    private static final int NULL = 0xf6;
+    private static final int UNDEFINED = 0xf7;
+    private static final int FLOAT16 = 0xf9;
+    private static final int FLOAT32 = 0xfa;
+    private static final int FLOAT64 = 0xfb;
+    private static final int MAX_DEPTH = 32;
+    private static final long MAX_SAFE_INTEGER = (1L << 53) - 1;
+
+    private static final ThreadLocal<Writer> writers = ThreadLocal.withInitial(Writer::new);
+
+    private Cbor() {
+    }
+
+    /** This thread's writer, reset and ready for a new message. */
+    public static Writer writer() {
+        Writer writer = writers.get();
+        writer.reset();
+        return writer;
+    }
+
+    /** Builds one CBOR item; callers write a map header and then its keys and values in order. */
+    public static final class Writer {
+        private byte[] buf = new byte[256];
+        private int size;
+
+        public void reset() {
+            size = 0;
+        }
+
+        public Writer map(int entries) {
+            head(MAJOR_MAP, entries);
+            return this;
+        }
+
+        public Writer array(int items) {
+            head(MAJOR_ARRAY, items);
+            return this;
+        }
+
+        public Writer string(String value) {
+            if (value == null) {
+                return nul();
+            }
+            // ASCII fast path; anything else goes through the charset encoder
+            int length = value.length();
+            boolean ascii = true;
+            for (int i = 0; i < length && ascii; i++) {
+                ascii = value.charAt(i) < 0x80;
+            }
+            if (ascii) {
+                head(MAJOR_TEXT, length);
+                ensure(length);
+                for (int i = 0; i < length; i++) {
+                    buf[size++] = (byte) value.charAt(i);
+                }
+            } else {
+                byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+                head(MAJOR_TEXT, utf8.length);
+                ensure(utf8.length);
+                System.arraycopy(utf8, 0, buf, size, utf8.length);
+                size += utf8.length;
+            }
+            return this;
+        }
+
+        public Writer integer(long value) {
+            if (value >= 0) {
+                head(MAJOR_UNSIGNED, value);
+            } else {
+                head(MAJOR_NEGATIVE, -1 - value);
+            }
+            return this;
+        }
+
+        public Writer number(double value) {
+            if (value == Math.rint(value) && Math.abs(value) < 1L << 53 && !(value == 0 && 1 / value < 0)) {
+                return integer((long) value);
+            }
+            ensure(9);
+            buf[size++] = (byte) FLOAT64;
+            long bits = Double.doubleToLongBits(value);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buf[size++] = (byte) (bits >>> shift);
+            }
+            return this;
+        }
+
+        public Writer bool(boolean value) {
+            ensure(1);
+            buf[size++] = (byte) (value ? TRUE : FALSE);
+            return this;
+        }
+
+        public Writer nul() {
+            ensure(1);
+            buf[size++] = (byte) NULL;
+            return this;
+        }
+
+        /**
+         * Writes any value {@link #decode} can return, or a JSONObject / JSONArray.
+         *
+         * @throws IllegalArgumentException if containers nest deeper than the decoder accepts
+         */
+        public Writer value(Object value) {
+            return value(value, 0);
+        }
+
+        private Writer value(Object value, int depth) {
+            if (depth > MAX_DEPTH) {
+                throw new IllegalArgumentException("CBOR value nested too deeply");
+            }
+            if (value == null || value == JSONObject.NULL) {
+                return nul();
+            }
+            if (value instanceof String) {
+                return string((String) value);
+            }
+            if (value instanceof Boolean) {
+                return bool((Boolean) value);
+            }
+            if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                return integer(((Number) value).longValue());
+            }
+            if (value instanceof Number) {
+                return number(((Number) value).doubleValue());
+            }
+            if (value instanceof byte[]) {
+                byte[] bytes = (byte[]) value;
+                head(MAJOR_BYTES, bytes.length);
+                ensure(bytes.length);
+                System.arraycopy(bytes, 0, buf, size, bytes.length);
+                size += bytes.length;
+                return this;
+            }
+            if (value instanceof Map) {
+                Map<?, ?> map = (Map<?, ?>) value;
+                map(map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    string(String.valueOf(entry.getKey()));
+                    value(entry.getValue(), depth + 1);
+                }
+                return this;
+            }
+            if (value instanceof List) {
+                List<?> list = (List<?>) value;
+                array(list.size());
+                for (Object item : list) {
+                    value(item, depth + 1);
+                }
+                return this;
+            }
+            if (value instanceof JSONObject) {
+                JSONObject object = (JSONObject) value;
+                List<String> keys = new ArrayList<>();
+                for (Iterator<String> it = object.keys(); it.hasNext(); ) {
+                    keys.add(it.next());
+                }
+                map(keys.size());
+                for (String key : keys) {
+                    string(key);
+                    value(object.opt(key), depth + 1);
+                }
+                return this;
+            }
+            if (value instanceof JSONArray) {
+                JSONArray array = (JSONArray) value;
+                array(array.length());
+                for (int i = 0; i < array.length(); i++) {
+                    value(array.opt(i), depth + 1);
+                }
+                return this;
+            }
+            return string(value.toString());
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public byte[] toByteArray() {
+            return Arrays.copyOf(buf, size);
+        }
+
+        public byte[] buffer() {
+            return buf;
+        }
+
+        private void head(int major, long value) {
+            ensure(9);
+            int type = major << 5;
+            if (value < 24) {
+                buf[size++] = (byte) (type | value);
+            } else if (value < 0x100) {
+                buf[size++] = (byte) (type | 24);
+                buf[size++] = (byte) value;
+            } else if (value < 0x10000) {
+                buf[size++] = (byte) (type | 25);
+                buf[size++] = (byte) (value >>> 8);
+                buf[size++] = (byte) value;
+            } else if (value < 0x100000000L) {
+                buf[size++] = (byte) (type | 26);
+                for (int shift = 24; shift >= 0; shift -= 8) {
+                    buf[size++] = (byte) (value >>> shift);
+                }
+            } else {
+                buf[size++] = (byte) (type | 27);
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    buf[size++] = (byte) (value >>> shift);
+                }
+            }
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + extra));
+            }
+        }
+    }
+
+    /**
+     * Decodes one item: maps become {@code Map<String, Object>} in wire order, arrays
+     * {@code List}, integers {@code Long}, floats {@code Double}, byte strings {@code byte[]}.
+     */
+    public static Object decode(byte[] data) throws CborException {
+        Reader reader = new Reader(data);
+        Object value = reader.read(0);
+        if (reader.pos != data.length) {
+            throw new CborException((data.length - reader.pos) + " trailing bytes");
+        }
+        return value;
+    }
+
+    /** Decodes a frame that must be a map, as every message is. */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> decodeMap(byte[] data) throws CborException {
+        Object value = decode(data);
+        if (!(value instanceof Map)) {
+            throw new CborException("Expected a map");
+        }
+        return (Map<String, Object>) value;
+    }
+
+    public static final class CborException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        CborException(String message) {
+            super(message);
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] data;
+        private int pos;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        Object read(int depth) throws CborException {
+            if (depth > MAX_DEPTH) {
+                throw new CborException("Nested too deeply");
+            }
+            int initial = next();
+            int major = initial >>> 5;
+            int info = initial & 0x1f;
+            if (major == MAJOR_SIMPLE) {
+                switch (initial) {
+                    case FALSE:
+                        return Boolean.FALSE;
+                    case TRUE:
+                        return Boolean.TRUE;
+                    case NULL:
+                    case UNDEFINED:
+                        return null;
+                    case FLOAT16:
+                        return halfToDouble((int) uint(2));
+                    case FLOAT32:
+                        return (double) Float.intBitsToFloat((int) uint(4));
+                    case FLOAT64:
+                        return Double.longBitsToDouble(uint(8));
+                    default:
+                        throw new CborException("Unsupported simple value " + initial);
+                }
+            }
+            long argument = argument(info);
+            switch (major) {
+                case MAJOR_UNSIGNED:
+                    return safeInteger(argument);
+                case MAJOR_NEGATIVE:
+                    return -1 - safeInteger(argument);
+                case MAJOR_BYTES:
+                    return Arrays.copyOfRange(data, pos, advance(argument));
+                case MAJOR_TEXT: {
+                    int start = pos;
+                    int end = advance(argument);
+                    return new String(data, start, end - start, StandardCharsets.UTF_8);
+                }
+                case MAJOR_ARRAY: {
+                    int count = count(argument);
+                    List<Object> list = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        list.add(read(depth + 1));
+                    }
+                    return list;
+                }
+                case MAJOR_MAP: {
+                    int count = count(argument);
+                    Map<String, Object> map = new LinkedHashMap<>(count * 2);
+                    for (int i = 0; i < count; i++) {
+                        Object key = read(depth + 1);
+                        if (!(key instanceof String)) {
+                            throw new CborException("Map key is not text");
+                        }
+                        map.put((String) key, read(depth + 1));
+                    }
+                    return map;
+                }
+                default:
+                    throw new CborException("Unsupported major type " + major);
+            }
+        }
+
+        private long argument(int info) throws CborException {
+            if (info < 24) {
+                return info;
+            }
+            switch (info) {
+                case 24:
+                    return uint(1);
+                case 25:
+                    return uint(2);
+                case 26:
+                    return uint(4);
+                case 27:
+                    return uint(8);
+                default:
+                    throw new CborException("Indefinite or reserved length " + info);
+            }
+        }
+
+        /** Rejects what wire.js cannot hold exactly, including arguments past Long.MAX_VALUE. */
+        private static long safeInteger(long argument) throws CborException {
+            if (argument < 0 || argument > MAX_SAFE_INTEGER) {
+                throw new CborException("Integer out of range");
+            }
+            return argument;
+        }
+
+        /** Element counts are bounded by the bytes left, so a hostile header cannot allocate much. */
+        private int count(long argument) throws CborException {
+            if (argument < 0 || argument > data.length - pos) {
+                throw new CborException("Length " + argument + " exceeds the frame");
+            }
+            return (int) argument;
+        }
+
+        private int advance(long length) throws CborException {
+            if (length < 0 || length > data.length - pos) {
+                throw new CborException("Length " + length + " exceeds the frame");
+            }
+            pos += (int) length;
+            return pos;
+        }
+
+        private int next() throws CborException {
+            if (pos >= data.length) {
+                throw new CborException("Truncated frame");
+            }
+            return data[pos++] & 0xff;
+        }
+
+        private long uint(int bytes) throws CborException {
+            long value = 0;
+            for (int i = 0; i < bytes; i++) {
+                value = (value << 8) | next();
+            }
+            return value;
+        }
+
+        private static double halfToDouble(int half) {
+            int exponent = (half >>> 10) & 0x1f;
+            int mantissa = half & 0x3ff;
+            double value;
+            if (exponent == 0) {
+                value = mantissa * Math.pow(2, -24);
+            } else if (exponent == 31) {
+                value = mantissa == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+            } else {
+                value = (mantissa + 1024) * Math.pow(2, exponent - 25);
+            }
+            return (half & 0x8000) != 0 ? -value : value;
+        }
+    }
+}
@@ -0,0 +1,547 @@
+package com.emma.alert.websocket;
+
+/**
+ * Reads what the client needs from a JSON text frame in place, without building a tree.
+ *
+ * <p>{@link #peekType} walks the top-level object to its {@code "type"} member and matches the
+ * value against the known {@link FrameType}s character by character, skipping other members
+ * without decoding them, so a control frame such as {@code heartbeat_ack} is dispatched with
+ * no allocation at all. Only the frames that carry data are read further:
+ * {@link #readAlert} fills a reused {@link WebSocketAlert} from the {@code "alert"} member,
+ * including the polygons and circles of its {@code "areas"}.
+ *
+ * <p>One reader per client; not thread-safe. Malformed input throws
+ * {@link MalformedFrameException}: bad literals and numbers wherever they are scanned, bad
+ * escapes in the strings that are decoded, and integers that do not fit a {@code long}.
+ */
+final class JsonFrameReader {
+
+    enum FrameType {
+        WELCOME("welcome"),
+        REGISTRATION_CONFIRMED("registration_confirmed"),
+        EMERGENCY_ALERT("emergency_alert"),
+        HEARTBEAT_ACK("heartbeat_ack"),
+        ERROR("error"),
+        SESSION_EXPIRED("session_expired"),
+        UNKNOWN(null);
+
+        final String wireName;
+
+        FrameType(String wireName) {
+            this.wireName = wireName;
+        }
+
+        // values() copies the array on every call
+        private static final FrameType[] KNOWN = {WELCOME, REGISTRATION_CONFIRMED, EMERGENCY_ALERT, HEARTBEAT_ACK, ERROR, SESSION_EXPIRED};
+    }
+
+    static final class MalformedFrameException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        MalformedFrameException(String message) {
+            super(message);
+        }
+    }
+
+    private String src;
+    private int pos;
+    private int end;
+    // Raw (still escaped) extent of the last key or string scanned
+    private int tokenStart;
+    private int tokenEnd;
+    private boolean tokenEscaped;
+
+    /** Starts reading a new frame. */
+    JsonFrameReader reset(String frame) {
+        src = frame;
+        pos = 0;
+        end = frame.length();
+        return this;
+    }
+
+    /** The frame's {@code "type"}, or UNKNOWN if it is missing or not one the client handles. */
+    FrameType peekType() throws MalformedFrameException {
+        if (!seekMember("type")) {
+            return FrameType.UNKNOWN;
+        }
+        if (peek() != '"') {
+            return FrameType.UNKNOWN;
+        }
+        scanString();
+        if (tokenEscaped) {
+            return FrameType.UNKNOWN;
+        }
+        int length = tokenEnd - tokenStart;
+        for (FrameType type : FrameType.KNOWN) {
+            if (type.wireName.length() == length && src.regionMatches(tokenStart, type.wireName, 0, length)) {
+                return type;
+            }
+        }
+        return FrameType.UNKNOWN;
+    }
+
+    /** A top-level string member such as {@code "message"} or {@code "wireFormat"}, or null. */
+    String readString(String name) throws MalformedFrameException {
+        if (!seekMember(name)) {
+            return null;
+        }
+        return scalarAsString();
+    }
+
+    /** A top-level integer member such as {@code "seq"}, or 0 if absent or not a number. */
+    long readLong(String name) throws MalformedFrameException {
+        if (!seekMember(name)) {
+            return 0;
+        }
+        return readLong();
+    }
+
+    /**
+     * Fills {@code target} from the frame's {@code "alert"} object. Returns false, leaving
+     * the target cleared, if there is none.
+     */
+    boolean readAlert(WebSocketAlert target) throws MalformedFrameException {
+        target.clear();
+        if (!seekMember("alert") || peek() != '{') {
+            return false;
+        }
+        pos++;
+        if (skipWhitespace() == '}') {
+            pos++;
+            return true;
+        }
+        while (true) {
+            expect('"');
+            pos--;
+            scanString();
+            int keyStart = tokenStart;
+            int keyLength = tokenEnd - tokenStart;
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            if (key(keyStart, keyLength, "identifier")) {
+                target.identifier = scalarAsString();
+            } else if (key(keyStart, keyLength, "sender")) {
+                target.sender = scalarAsString();
+            } else if (key(keyStart, keyLength, "sent")) {
+                target.sent = scalarAsString();
+            } else if (key(keyStart, keyLength, "status")) {
+                target.status = scalarAsString();
+            } else if (key(keyStart, keyLength, "msg_type") || key(keyStart, keyLength, "msgType")) {
+                target.msgType = scalarAsString();
+            } else if (key(keyStart, keyLength, "references")) {
+                target.references = scalarAsString();
+            } else if (key(keyStart, keyLength, "event")) {
+                target.event = scalarAsString();
+            } else if (key(keyStart, keyLength, "urgency")) {
+                target.urgency = scalarAsString();
+            } else if (key(keyStart, keyLength, "severity")) {
+                target.severity = scalarAsString();
+            } else if (key(keyStart, keyLength, "certainty")) {
+                target.certainty = scalarAsString();
+            } else if (key(keyStart, keyLength, "headline")) {
+                target.headline = scalarAsString();
+            } else if (key(keyStart, keyLength, "description")) {
+                target.description = scalarAsString();
+            } else if (key(keyStart, keyLength, "mediaLocator")) {
+                target.mediaLocator = scalarAsString();
+            } else if (key(keyStart, keyLength, "media_attachments")) {
+                target.mediaAttachments = countArray();
+            } else if (key(keyStart, keyLength, "fleetSentAt")) {
+                target.fleetSentAt = readLong();
+            } else if (key(keyStart, keyLength, "areas")) {
+                readAreas(target);
+            } else {
+                skipValue(0);
+            }
+            char c = skipWhitespace();
+            pos++;
+            if (c == '}') {
+                return true;
+            }
+            if (c != ',') {
+                throw malformed("expected , or }");
+            }
+            skipWhitespace();
+        }
+    }
+
+    /** Positions the reader on the value of top-level member {@code name}; false if absent. */
+    private boolean seekMember(String name) throws MalformedFrameException {
+        pos = 0;
+        if (skipWhitespace() != '{') {
+            throw malformed("not an object");
+        }
+        pos++;
+        if (skipWhitespace() == '}') {
+            return false;
+        }
+        while (true) {
+            expect('"');
+            pos--;
+            scanString();
+            boolean match = !tokenEscaped && key(tokenStart, tokenEnd - tokenStart, name);
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            if (match) {
+                return true;
+            }
+            skipValue(0);
+            char c = skipWhitespace();
+            pos++;
+            if (c == '}') {
+                return false;
+            }
+            if (c != ',') {
+                throw malformed("expected , or }");
+            }
+            skipWhitespace();
+        }
+    }
+
+    private boolean key(int start, int length, String name) {
+        return name.length() == length && src.regionMatches(start, name, 0, length);
+    }
+
+    /** Scans a string at pos (on its opening quote), recording its raw extent. */
+    private void scanString() throws MalformedFrameException {
+        expect('"');
+        tokenStart = pos;
+        tokenEscaped = false;
+        while (pos < end) {
+            char c = src.charAt(pos);
+            if (c == '"') {
+                tokenEnd = pos++;
+                return;
+            }
+            if (c == '\\') {
+                tokenEscaped = true;
+                pos++;
+            }
+            pos++;
+        }
+        throw malformed("unterminated string");
+    }
+
+    /** A string's decoded value, a number or boolean as written, or null for null and containers. */
+    private String scalarAsString() throws MalformedFrameException {
+        char c = peek();
+        if (c == '"') {
+            scanString();
+            return tokenEscaped ? unescape(tokenStart, tokenEnd) : src.substring(tokenStart, tokenEnd);
+        }
+        if (c == '{' || c == '[') {
+            skipValue(0);
+            return null;
+        }
+        int start = pos;
+        skipValue(0);
+        String literal = src.substring(start, pos);
+        return literal.equals("null") ? null : literal;
+    }
+
+    private long readLong() throws MalformedFrameException {
+        char c = peek();
+        if (c != '-' && (c < '0' || c > '9')) {
+            skipValue(0);
+            return 0;
+        }
+        int start = pos;
+        // Checks the number grammar, so what follows only sees digits, '.', 'e' and signs
+        skipValue(0);
+        boolean negative = src.charAt(start) == '-';
+        // Accumulated negatively, as Long.MIN_VALUE has no positive counterpart
+        long value = 0;
+        for (int i = negative ? start + 1 : start; i < pos; i++) {
+            char d = src.charAt(i);
+            if (d < '0' || d > '9') {
+                // Fractions and exponents: not worth a hand-rolled parser
+                double real = Double.parseDouble(src.substring(start, pos));
+                if (real != Math.rint(real) || Math.abs(real) >= 0x1p63) {
+                    throw malformed("not a long integer");
+                }
+                return (long) real;
+            }
+            if (value < (Long.MIN_VALUE + (d - '0')) / 10) {
+                throw malformed("integer out of range");
+            }
+            value = value * 10 - (d - '0');
+        }
+        if (!negative && value == Long.MIN_VALUE) {
+            throw malformed("integer out of range");
+        }
+        return negative ? value : -value;
+    }
+
+    /** The {@code polygon} and {@code circle} of each object in an {@code areas} array. */
+    private void readAreas(WebSocketAlert target) throws MalformedFrameException {
+        if (peek() != '[') {
+            skipValue(0);
+            return;
+        }
+        pos++;
+        if (skipWhitespace() == ']') {
+            pos++;
+            return;
+        }
+        while (true) {
+            if (peek() == '{') {
+                readArea(target);
+            } else {
+                skipValue(1);
+            }
+            char c = skipWhitespace();
+            pos++;
+            if (c == ']') {
+                return;
+            }
+            if (c != ',') {
+                throw malformed("expected , or ]");
+            }
+            skipWhitespace();
+        }
+    }
+
+    private void readArea(WebSocketAlert target) throws MalformedFrameException {
+        String polygon = null;
+        String circle = null;
+        pos++;
+        if (skipWhitespace() == '}') {
+            pos++;
+            return;
+        }
+        while (true) {
+            expect('"');
+            pos--;
+            scanString();
+            int keyStart = tokenStart;
+            int keyLength = tokenEnd - tokenStart;
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            if (key(keyStart, keyLength, "polygon")) {
+                polygon = scalarAsString();
+            } else if (key(keyStart, keyLength, "circle")) {
+                circle = scalarAsString();
+            } else {
+                skipValue(2);
+            }
+            char c = skipWhitespace();
+            pos++;
+            if (c == '}') {
+                WebSocketAlertClient.addArea(target, polygon, circle);
+                return;
+            }
+            if (c != ',') {
+                throw malformed("expected , or }");
+            }
+            skipWhitespace();
+        }
+    }
+
+    private int countArray() throws MalformedFrameException {
+        if (peek() != '[') {
+            skipValue(0);
+            return 0;
+        }
+        pos++;
+        if (skipWhitespace() == ']') {
+            pos++;
+            return 0;
+        }
+        int count = 0;
+        while (true) {
+            skipValue(1);
+            count++;
+            char c = skipWhitespace();
+            pos++;
+            if (c == ']') {
+                return count;
+            }
+            if (c != ',') {
+                throw malformed("expected , or ]");
+            }
+            skipWhitespace();
+        }
+    }
+
+    /** Skips one value of any kind starting at pos. */
+    private void skipValue(int depth) throws MalformedFrameException {
+        if (depth > 64) {
+            throw malformed("nested too deeply");
+        }
+        char c = peek();
+        switch (c) {
+            case '"':
+                scanString();
+                return;
+            case '{':
+            case '[': {
+                char close = c == '{' ? '}' : ']';
+                pos++;
+                if (skipWhitespace() == close) {
+                    pos++;
+                    return;
+                }
+                while (true) {
+                    if (close == '}') {
+                        scanString();
+                        skipWhitespace();
+                        expect(':');
+                        skipWhitespace();
+                    }
+                    skipValue(depth + 1);
+                    char next = skipWhitespace();
+                    pos++;
+                    if (next == close) {
+                        return;
+                    }
+                    if (next != ',') {
+                        throw malformed("expected , or " + close);
+                    }
+                    skipWhitespace();
+                }
+            }
+            default:
+                // Number, true, false or null
+                int start = pos;
+                while (pos < end) {
+                    char d = src.charAt(pos);
+                    if (d == ',' || d == '}' || d == ']' || d <= ' ') {
+                        break;
+                    }
+                    pos++;
+                }
+                if (pos == start) {
+                    throw malformed("expected a value");
+                }
+                // Every value is inside the frame's object, so running into the end is a cut
+                if (pos == end) {
+                    throw malformed("unexpected end");
+                }
+                checkLiteral(start);
+        }
+    }
+
+    /** The token from {@code start} to pos must be true, false, null or a JSON number. */
+    private void checkLiteral(int start) throws MalformedFrameException {
+        int length = pos - start;
+        if (key(start, length, "true") || key(start, length, "false") || key(start, length, "null")) {
+            return;
+        }
+        int i = start;
+        if (src.charAt(i) == '-') {
+            i++;
+        }
+        int digits = digits(i);
+        if (digits == 0 || (digits > 1 && src.charAt(i) == '0')) {
+            throw malformed("bad literal");
+        }
+        i += digits;
+        if (i < pos && src.charAt(i) == '.') {
+            digits = digits(++i);
+            if (digits == 0) {
+                throw malformed("bad literal");
+            }
+            i += digits;
+        }
+        if (i < pos && (src.charAt(i) == 'e' || src.charAt(i) == 'E')) {
+            i++;
+            if (i < pos && (src.charAt(i) == '+' || src.charAt(i) == '-')) {
+                i++;
+            }
+            digits = digits(i);
+            if (digits == 0) {
+                throw malformed("bad literal");
+            }
+            i += digits;
+        }
+        if (i != pos) {
+            throw malformed("bad literal");
+        }
+    }
+
+    private int digits(int from) {
+        int i = from;
+        while (i < pos && src.charAt(i) >= '0' && src.charAt(i) <= '9') {
+            i++;
+        }
+        return i - from;
+    }
+
+    private String unescape(int from, int to) throws MalformedFrameException {
+        StringBuilder sb = new StringBuilder(to - from);
+        for (int i = from; i < to; i++) {
+            char c = src.charAt(i);
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            char e = src.charAt(++i);
+            switch (e) {
+                case 'n': sb.append('\n'); break;
+                case 't': sb.append('\t'); break;
+                case 'r': sb.append('\r'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case '"':
+                case '\\':
+                case '/':
+                    sb.append(e);
+                    break;
+                case 'u': {
+                    if (i + 4 >= to) {
+                        throw malformed("bad \\u escape");
+                    }
+                    int unit = 0;
+                    for (int k = i + 1; k <= i + 4; k++) {
+                        char h = src.charAt(k);
+                        int hex = h >= '0' && h <= '9' ? h - '0'
+                                : h >= 'a' && h <= 'f' ? h - 'a' + 10
+                                : h >= 'A' && h <= 'F' ? h - 'A' + 10 : -1;
+                        if (hex < 0) {
+                            throw malformed("bad \\u escape");
+                        }
+                        unit = unit << 4 | hex;
+                    }
+                    sb.append((char) unit);
+                    i += 4;
+                    break;
+                }
+                default:
+                    throw malformed("bad escape \\" + e);
+            }
+        }
+        return sb.toString();
+    }
+
+    private char skipWhitespace() throws MalformedFrameException {
+        while (pos < end) {
+            char c = src.charAt(pos);
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+            pos++;
+        }
+        throw malformed("unexpected end");
+    }
+
+    private char peek() throws MalformedFrameException {
+        if (pos >= end) {
+            throw malformed("unexpected end");
+        }
+        return src.charAt(pos);
+    }
+
+    private void expect(char c) throws MalformedFrameException {
+        if (pos >= end || src.charAt(pos) != c) {
+            throw malformed("expected " + c);
+        }
+        pos++;
+    }
+
+    private MalformedFrameException malformed(String what) {
+        return new MalformedFrameException(what + " at " + pos);
+    }
+}
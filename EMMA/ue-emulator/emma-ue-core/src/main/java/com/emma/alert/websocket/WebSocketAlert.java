@@ -0,0 +1,63 @@
+package com.emma.alert.websocket;
+
+import com.emma.alert.core.CapAlert;
+
+/**
+ * An {@code emergency_alert} as delivered by the distributor. The client decodes every alert
+ * into the same instance when its callbacks run on the socket thread; use {@link #copy()} for
+ * anything that must outlive {@link WebSocketAlertClient.AlertHandler#onAlertReceived}.
+ */
+public final class WebSocketAlert extends CapAlert {
+    /** Entries in {@code media_attachments}. */
+    public int mediaAttachments;
+    /** Injection time stamped by the fleet runner, 0 for real alerts. */
+    public long fleetSentAt;
+    /** The distributor's sequence number for this alert, 0 if it had none. */
+    public long seq;
+    /** Sent again after a reconnect because the UE had missed it. */
+    public boolean replayed;
+
+    @Override
+    public void clear() {
+        super.clear();
+        mediaAttachments = 0;
+        fleetSentAt = 0;
+        seq = 0;
+        replayed = false;
+    }
+
+    @Override
+    public boolean hasMedia() {
+        return super.hasMedia() || mediaAttachments > 0;
+    }
+
+    public WebSocketAlert copy() {
+        WebSocketAlert copy = new WebSocketAlert();
+        copy.identifier = identifier;
+        copy.sender = sender;
+        copy.sent = sent;
+        copy.status = status;
+        copy.msgType = msgType;
+        copy.references = references;
+        copy.event = event;
+        copy.urgency = urgency;
+        copy.severity = severity;
+        copy.certainty = certainty;
+        copy.headline = headline;
+        copy.description = description;
+        copy.mediaLocator = mediaLocator;
+        // Not changed once decoded
+        copy.area = area;
+        copy.mediaAttachments = mediaAttachments;
+        copy.fleetSentAt = fleetSentAt;
+        copy.seq = seq;
+        copy.replayed = replayed;
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        return "WebSocketAlert{" + identifier + ", " + msgType + ", " + severity + "/" + urgency
+                + ", headline=" + headline + ", media=" + (mediaLocator != null ? mediaLocator : mediaAttachments) + "}";
+    }
+}
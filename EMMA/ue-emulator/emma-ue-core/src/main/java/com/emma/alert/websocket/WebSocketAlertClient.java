@@ -0,0 +1,978 @@
+package com.emma.alert.websocket;
+
+import com.emma.alert.core.AlertArea;
+import com.emma.alert.core.Geofence;
+import com.emma.alert.core.Geohash;
+import okhttp3.*;
+import okio.ByteString;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Connection to the alert distributor. Frames start out as JSON text; when the client offers
+ * {@value #WIRE_FORMAT_CBOR} in its registration capabilities and the distributor accepts it
+ * ({@code wireFormat} in {@code registration_confirmed}), both sides switch to binary
+ * {@link Cbor} frames carrying the same maps. Heartbeats, acks and location updates are then
+ * written straight into a reused buffer without building JSON objects. A distributor that
+ * does not know the capability keeps the connection on JSON.
+ *
+ * <p>JSON frames are dispatched by {@link JsonFrameReader} on the socket thread without
+ * building a tree: control frames such as {@code heartbeat_ack} allocate nothing, and an
+ * {@code emergency_alert} is decoded into one reused {@link WebSocketAlert}.
+ *
+ * <p>When the distributor confirms {@code ackBatch}, alert acks are queued in an
+ * {@link AckQueue} and sent as one {@code alert_ack_batch} frame every
+ * {@value #ACK_FLUSH_DELAY} ms or {@value #ACK_BATCH_SIZE} alerts, whichever comes first, with
+ * the "received" and "displayed" acks for an alert merged into one record.
+ *
+ * <p>Dropped connections are retried with exponential backoff and full jitter, capped at
+ * {@value #RECONNECT_CAP} ms, and never sooner than a distributor's retry hint (a
+ * {@code Retry-After} on a refused upgrade, or {@code retry-after=N} in a close reason). The
+ * {@code sessionToken} from {@code registration_confirmed} is presented in a {@code resume}
+ * message on reconnect, so the distributor restores the session instead of registering the
+ * UE again.
+ *
+ * <p>Alerts carry a distributor sequence number. The client keeps the highest one it has
+ * seen and sends it as {@code lastSeq} when it registers or resumes, and the distributor
+ * replays the alerts after it, in order, holding this UE's live alerts until the replay has
+ * caught up; so the highest number seen is also the point up to which nothing was missed.
+ * A repeated sequence number is dropped before it is acked or handed on.
+ *
+ * <p>Liveness is one adaptive timer instead of OkHttp pings plus a fixed heartbeat: any frame
+ * in either direction pushes the next {@code heartbeat} back, so a UE that is receiving alerts
+ * or sending acks sends none. The idle interval starts at {@value #HEARTBEAT_INITIAL} ms,
+ * stretches by half after each promptly answered heartbeat up to {@value #HEARTBEAT_MAX} ms,
+ * and halves (down to {@value #HEARTBEAT_MIN} ms) after a slow or missing answer or a
+ * connection failure. A heartbeat unanswered for {@value #HEARTBEAT_ACK_TIMEOUT} ms drops the
+ * connection so the reconnect logic takes over.
+ *
+ * <p>Location is reported as a geohash. {@link #updateLocation} sends nothing while the UE stays
+ * inside the {@value #TARGETING_PRECISION}-character cell it last reported (about 1.2 km, the
+ * granularity alerts are targeted at); crossing into another cell sends one
+ * {@code location_update} at most every {@value #LOCATION_COALESCE} ms. Smaller moves ride on
+ * the next heartbeat. Either way only the delta is sent: the length of the prefix shared with
+ * the last hash sent on this connection ({@code ghp}) and the new suffix ({@code gh}).
+ *
+ * <p>With a {@link #setGeofence geofence}, an alert whose {@code areas} do not cover the UE is
+ * acked as received but never handed to the {@link AlertHandler}.
+ */
+public class WebSocketAlertClient extends WebSocketListener {
+    private static final Logger LOG = Logger.getLogger("WebSocketAlertClient");
+    private static final int RECONNECT_BASE = 1000; // 1 second
+    private static final int RECONNECT_CAP = 60000; // 1 minute
+    private static final long MAX_RETRY_HINT = 600000; // 10 minutes
+    private static final int HEARTBEAT_MIN = 15000; // 15 seconds
+    private static final int HEARTBEAT_INITIAL = 30000; // 30 seconds
+    private static final int HEARTBEAT_MAX = 120000; // 2 minutes
+    private static final int HEARTBEAT_ACK_TIMEOUT = 10000; // 10 seconds
+    private static final int ACK_FLUSH_DELAY = 200; // ms
+    private static final int ACK_BATCH_SIZE = 32;
+    private static final int TARGETING_PRECISION = 6; // ~1.2 x 0.6 km
+    private static final int POSITION_PRECISION = 8; // ~38 x 19 m
+    private static final int LOCATION_COALESCE = 5000; // ms
+    public static final String WIRE_FORMAT_CBOR = "cbor";
+    public static final String WIRE_FORMAT_JSON = "json";
+    /**
+     * Runs handler callbacks on the socket thread. With this executor the handler receives the
+     * client's reused {@link WebSocketAlert}; any other executor gets a copy per alert.
+     */
+    public static final Executor DIRECT = Runnable::run;
+    
+    private OkHttpClient client;
+    private volatile WebSocket webSocket;
+    private AlertHandler alertHandler;
+    private String serverUrl;
+    private String ueId;
+    private volatile boolean hasLocation;
+    private volatile double latitude;
+    private volatile double longitude;
+    private volatile boolean offerBinary = true;
+    private volatile Geofence geofence;
+    // Negotiated per connection
+    private volatile boolean binary = false;
+    private volatile boolean batchAcks = false;
+    private volatile boolean isConnected = false;
+    private volatile boolean shouldReconnect = true;
+    // Reset once a registration is confirmed, not on open, so a distributor that accepts
+    // and then drops connections still backs the client off
+    private volatile int reconnectAttempts = 0;
+    private volatile long retryHintMs = 0;
+    private volatile String sessionToken;
+    private volatile long lastSeq = 0;
+    // Last geohash the distributor has for this connection, the base for deltas
+    private volatile String sentGeohash;
+    private final AtomicBoolean locationFlushScheduled = new AtomicBoolean();
+    private volatile long locationUpdatesSent;
+    // Recently delivered sequence numbers, socket thread only
+    private final long[] recentSeqs = new long[32];
+    private int recentSeqIndex;
+    
+    // Liveness, System.nanoTime() based; heartbeatSentAt is 0 unless a heartbeat is unanswered
+    private volatile ScheduledFuture<?> livenessFuture;
+    // Bumped per connection so a check left over from the previous one stops rescheduling
+    private volatile int livenessGeneration;
+    private volatile long lastInboundAt;
+    private volatile long lastOutboundAt;
+    private volatile long heartbeatSentAt;
+    private volatile long heartbeatInterval = HEARTBEAT_INITIAL;
+    private volatile long heartbeatsSent;
+    private final ScheduledExecutorService scheduler;
+    private final Executor callbackExecutor;
+    // Socket thread only
+    private final JsonFrameReader frameReader = new JsonFrameReader();
+    private final WebSocketAlert alert = new WebSocketAlert();
+    private final AckQueue acks = new AckQueue();
+    private final AtomicBoolean ackFlushScheduled = new AtomicBoolean();
+    
+    public interface AlertHandler {
+        /** See {@link #DIRECT} for how long {@code alert} may be kept. */
+        void onAlertReceived(WebSocketAlert alert);
+        void onConnectionStatusChanged(boolean connected);
+        void onError(String error);
+        
+        /** A reconnect has been scheduled {@code delayMs} from now. */
+        default void onReconnectScheduled(int attempt, long delayMs) {
+        }
+    }
+    
+    public WebSocketAlertClient(String serverUrl, String ueId, AlertHandler handler) {
+        this(serverUrl, ueId, handler, DIRECT);
+    }
+    
+    /**
+     * Creates a client with its own OkHttpClient and timer thread. Handler callbacks are
+     * delivered through {@code callbackExecutor}, e.g. the main looper on Android.
+     */
+    public WebSocketAlertClient(String serverUrl, String ueId, AlertHandler handler, Executor callbackExecutor) {
+        this(serverUrl, ueId, handler, newHttpClient(), newScheduler(), callbackExecutor);
+    }
+    
+    /**
+     * Creates a client on shared infrastructure. The fleet runner passes one OkHttpClient
+     * (dispatcher + connection pool) and one scheduler to thousands of instances.
+     */
+    public WebSocketAlertClient(String serverUrl, String ueId, AlertHandler handler,
+                                OkHttpClient client, ScheduledExecutorService scheduler,
+                                Executor callbackExecutor) {
+        this.serverUrl = serverUrl;
+        this.ueId = ueId;
+        this.alertHandler = handler;
+        this.client = client;
+        this.scheduler = scheduler;
+        this.callbackExecutor = callbackExecutor;
+    }
+    
+    public static OkHttpClient.Builder newHttpClientBuilder() {
+        return new OkHttpClient.Builder()
+            .connectTimeout(10, TimeUnit.SECONDS)
+            .readTimeout(30, TimeUnit.SECONDS)
+            .writeTimeout(10, TimeUnit.SECONDS);
+    }
+    
+    private static OkHttpClient newHttpClient() {
+        return newHttpClientBuilder().build();
+    }
+    
+    private static ScheduledExecutorService newScheduler() {
+        return Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ws-alert-client-timer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+    
+    public void connect() {
+        connect(null);
+    }
+    
+    public void connect(JSONObject location) {
+        if (isConnected) {
+            LOG.warning("Already connected to WebSocket server");
+            return;
+        }
+        
+        if (location != null && location.has("lat") && location.has("lon")) {
+            latitude = location.optDouble("lat", 0);
+            longitude = location.optDouble("lon", 0);
+            hasLocation = true;
+        }
+        shouldReconnect = true;
+        
+        try {
+            Request request = new Request.Builder()
+                .url(serverUrl)
+                .build();
+                
+            webSocket = client.newWebSocket(request, this);
+            LOG.info("Connecting to WebSocket server: " + serverUrl);
+            
+        } catch (Exception e) {
+            LOG.log(Level.SEVERE, "Failed to create WebSocket connection", e);
+            alertHandler.onError("Failed to connect: " + e.getMessage());
+        }
+    }
+    
+    public void disconnect() {
+        shouldReconnect = false;
+        flushAcks();
+        
+        if (webSocket != null) {
+            webSocket.close(1000, "Client disconnect");
+        }
+        
+        stopLiveness();
+        LOG.info("Disconnected from WebSocket server");
+    }
+    
+    /** Offer the binary wire format at the next registration (the default), or stay on JSON. */
+    public void setBinaryWireFormat(boolean offer) {
+        this.offerBinary = offer;
+    }
+    
+    /** Drop alerts whose area does not cover the UE's location; null (the default) keeps them all. */
+    public void setGeofence(Geofence geofence) {
+        this.geofence = geofence;
+    }
+    
+    /** The highest alert sequence number received, 0 before the first alert. */
+    public long getLastSequence() {
+        return lastSeq;
+    }
+    
+    /** The wire format negotiated for the current connection. */
+    public String getWireFormat() {
+        return binary ? WIRE_FORMAT_CBOR : WIRE_FORMAT_JSON;
+    }
+    
+    /**
+     * Records the UE's position. The distributor is told only when it leaves the targeting
+     * cell last reported, and then at most once per {@value #LOCATION_COALESCE} ms.
+     */
+    public void updateLocation(double latitude, double longitude) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        hasLocation = true;
+        if (!isConnected) {
+            return;
+        }
+        String sent = sentGeohash;
+        if (sent != null && sent.startsWith(Geohash.encode(latitude, longitude, TARGETING_PRECISION))) {
+            return;
+        }
+        if (locationFlushScheduled.compareAndSet(false, true)) {
+            scheduler.schedule(this::flushLocation, LOCATION_COALESCE, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /** {@code location_update} frames sent; the fleet runner compares this against calls to {@link #updateLocation}. */
+    public long getLocationUpdatesSent() {
+        return locationUpdatesSent;
+    }
+    
+    private void flushLocation() {
+        locationFlushScheduled.set(false);
+        if (!isConnected) {
+            return;
+        }
+        String hash = Geohash.encode(latitude, longitude, POSITION_PRECISION);
+        String sent = sentGeohash;
+        // Back in the reported cell by the time the timer ran
+        if (sent != null && sent.regionMatches(0, hash, 0, TARGETING_PRECISION)) {
+            return;
+        }
+        int prefix = sent != null ? Geohash.commonPrefixLength(sent, hash) : 0;
+        String suffix = hash.substring(prefix);
+        if (binary) {
+            Cbor.Writer frame = Cbor.writer().map(3);
+            frame.string("type").string("location_update");
+            frame.string("gh").string(suffix);
+            frame.string("ghp").integer(prefix);
+            sendFrame(frame);
+        } else {
+            try {
+                JSONObject message = new JSONObject();
+                message.put("type", "location_update");
+                message.put("gh", suffix);
+                message.put("ghp", prefix);
+                sendMessage(message);
+            } catch (JSONException e) {
+                LOG.log(Level.SEVERE, "Error updating location", e);
+                return;
+            }
+        }
+        sentGeohash = hash;
+        locationUpdatesSent++;
+    }
+    
+    private JSONObject locationJson() throws JSONException {
+        JSONObject location = new JSONObject();
+        location.put("lat", latitude);
+        location.put("lon", longitude);
+        return location;
+    }
+    
+    /**
+     * Acks an alert. With batching negotiated the ack is queued and goes out with the next
+     * {@code alert_ack_batch}; otherwise it is sent right away as an {@code alert_ack}.
+     */
+    public void acknowledgeAlert(String alertId, boolean received, boolean displayed) {
+        if (batchAcks) {
+            int pending = acks.add(alertId, received, displayed, System.currentTimeMillis());
+            if (pending >= ACK_BATCH_SIZE) {
+                flushAcks();
+            } else if (ackFlushScheduled.compareAndSet(false, true)) {
+                scheduler.schedule(this::flushAcks, ACK_FLUSH_DELAY, TimeUnit.MILLISECONDS);
+            }
+            return;
+        }
+        sendAck(alertId, received, displayed);
+    }
+    
+    private void sendAck(String alertId, boolean received, boolean displayed) {
+        if (binary) {
+            Cbor.Writer frame = Cbor.writer().map(5);
+            frame.string("type").string("alert_ack");
+            frame.string("alertId").string(alertId);
+            frame.string("received").bool(received);
+            frame.string("displayed").bool(displayed);
+            frame.string("timestamp").integer(System.currentTimeMillis());
+            sendFrame(frame);
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine("Sent acknowledgment for alert: " + alertId);
+            }
+            return;
+        }
+        try {
+            JSONObject ack = new JSONObject();
+            ack.put("type", "alert_ack");
+            ack.put("alertId", alertId);
+            ack.put("received", received);
+            ack.put("displayed", displayed);
+            ack.put("timestamp", System.currentTimeMillis());
+            
+            sendMessage(ack);
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine("Sent acknowledgment for alert: " + alertId);
+            }
+            
+        } catch (JSONException e) {
+            LOG.log(Level.SEVERE, "Error creating alert acknowledgment", e);
+        }
+    }
+    
+    /**
+     * Sends everything queued, in batches. Acks stay queued while disconnected; if the
+     * distributor reconnected to does not batch, they go out one by one.
+     */
+    private void flushAcks() {
+        ackFlushScheduled.set(false);
+        while (isConnected) {
+            List<AckQueue.Ack> batch = acks.drain(ACK_BATCH_SIZE);
+            if (batch.isEmpty()) {
+                return;
+            }
+            if (!batchAcks) {
+                for (AckQueue.Ack ack : batch) {
+                    sendAck(ack.alertId, ack.received(), ack.displayed());
+                }
+            } else if (binary) {
+                sendAckBatchFrame(batch);
+            } else {
+                sendAckBatchMessage(batch);
+            }
+        }
+    }
+    
+    private void sendAckBatchFrame(List<AckQueue.Ack> batch) {
+        Cbor.Writer frame = Cbor.writer().map(3);
+        frame.string("type").string("alert_ack_batch");
+        frame.string("acks").array(batch.size());
+        for (AckQueue.Ack ack : batch) {
+            frame.map(3 + (ack.received() ? 1 : 0) + (ack.displayed() ? 1 : 0));
+            frame.string("alertId").string(ack.alertId);
+            frame.string("received").bool(ack.received());
+            frame.string("displayed").bool(ack.displayed());
+            if (ack.received()) {
+                frame.string("receivedAt").integer(ack.receivedAt);
+            }
+            if (ack.displayed()) {
+                frame.string("displayedAt").integer(ack.displayedAt);
+            }
+        }
+        frame.string("timestamp").integer(System.currentTimeMillis());
+        sendFrame(frame);
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine("Sent acknowledgment batch of " + batch.size());
+        }
+    }
+    
+    private void sendAckBatchMessage(List<AckQueue.Ack> batch) {
+        try {
+            JSONArray records = new JSONArray();
+            for (AckQueue.Ack ack : batch) {
+                JSONObject record = new JSONObject();
+                record.put("alertId", ack.alertId);
+                record.put("received", ack.received());
+                record.put("displayed", ack.displayed());
+                if (ack.received()) {
+                    record.put("receivedAt", ack.receivedAt);
+                }
+                if (ack.displayed()) {
+                    record.put("displayedAt", ack.displayedAt);
+                }
+                records.put(record);
+            }
+            JSONObject message = new JSONObject();
+            message.put("type", "alert_ack_batch");
+            message.put("acks", records);
+            message.put("timestamp", System.currentTimeMillis());
+            sendMessage(message);
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine("Sent acknowledgment batch of " + batch.size());
+            }
+        } catch (JSONException e) {
+            LOG.log(Level.SEVERE, "Error creating alert acknowledgment batch", e);
+        }
+    }
+    
+    private void sendMessage(JSONObject message) {
+        if (webSocket != null && isConnected) {
+            webSocket.send(message.toString());
+            lastOutboundAt = System.nanoTime();
+        } else {
+            LOG.warning("Cannot send message - not connected to WebSocket");
+        }
+    }
+    
+    private void sendFrame(Cbor.Writer frame) {
+        if (webSocket != null && isConnected) {
+            webSocket.send(ByteString.of(frame.buffer(), 0, frame.size()));
+            lastOutboundAt = System.nanoTime();
+        } else {
+            LOG.warning("Cannot send message - not connected to WebSocket");
+        }
+    }
+    
+    /** Heartbeats sent so far; the fleet runner compares this against fixed-interval keepalive. */
+    public long getHeartbeatsSent() {
+        return heartbeatsSent;
+    }
+    
+    private void startLiveness() {
+        long now = System.nanoTime();
+        lastInboundAt = now;
+        lastOutboundAt = now;
+        heartbeatSentAt = 0;
+        scheduleLiveness(++livenessGeneration, TimeUnit.MILLISECONDS.toNanos(heartbeatInterval));
+    }
+    
+    private void stopLiveness() {
+        ScheduledFuture<?> future = livenessFuture;
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+    
+    private void scheduleLiveness(int generation, long delayNanos) {
+        livenessFuture = scheduler.schedule(() -> checkLiveness(generation), Math.max(0, delayNanos), TimeUnit.NANOSECONDS);
+    }
+    
+    /** Called for every inbound frame; an answer to an outstanding heartbeat adapts the interval. */
+    private void noteInbound() {
+        long now = System.nanoTime();
+        lastInboundAt = now;
+        long sent = heartbeatSentAt;
+        if (sent != 0) {
+            heartbeatSentAt = 0;
+            long rtt = now - sent;
+            if (rtt > TimeUnit.MILLISECONDS.toNanos(HEARTBEAT_ACK_TIMEOUT / 2)) {
+                tightenHeartbeat();
+            } else {
+                heartbeatInterval = Math.min(HEARTBEAT_MAX, heartbeatInterval * 3 / 2);
+            }
+        }
+    }
+    
+    private void tightenHeartbeat() {
+        heartbeatInterval = Math.max(HEARTBEAT_MIN, heartbeatInterval / 2);
+    }
+    
+    /**
+     * Runs on the scheduler, always rescheduling itself for the next deadline: the heartbeat's
+     * answer if one is outstanding, else the interval after the latest frame either way. The
+     * latest inbound frame bounds that at {@value #HEARTBEAT_MAX} ms, so a UE that only sends
+     * still checks that the distributor is there.
+     */
+    private void checkLiveness(int generation) {
+        if (!isConnected || generation != livenessGeneration) {
+            return;
+        }
+        long now = System.nanoTime();
+        long sent = heartbeatSentAt;
+        if (sent != 0) {
+            long deadline = sent + TimeUnit.MILLISECONDS.toNanos(HEARTBEAT_ACK_TIMEOUT);
+            if (now - deadline < 0) {
+                scheduleLiveness(generation, deadline - now);
+                return;
+            }
+            LOG.warning("Heartbeat unanswered for " + HEARTBEAT_ACK_TIMEOUT + " ms, dropping connection");
+            heartbeatSentAt = 0;
+            tightenHeartbeat();
+            WebSocket socket = webSocket;
+            if (socket != null) {
+                // Reported through onFailure, which schedules the reconnect
+                socket.cancel();
+            }
+            return;
+        }
+        long inbound = lastInboundAt;
+        long outbound = lastOutboundAt;
+        long latest = outbound - inbound > 0 ? outbound : inbound;
+        long due = latest + TimeUnit.MILLISECONDS.toNanos(heartbeatInterval);
+        long inboundDue = inbound + TimeUnit.MILLISECONDS.toNanos(HEARTBEAT_MAX);
+        if (inboundDue - due < 0) {
+            due = inboundDue;
+        }
+        if (now - due < 0) {
+            scheduleLiveness(generation, due - now);
+            return;
+        }
+        heartbeatSentAt = now;
+        sendHeartbeat();
+        heartbeatsSent++;
+        scheduleLiveness(generation, TimeUnit.MILLISECONDS.toNanos(HEARTBEAT_ACK_TIMEOUT));
+    }
+    
+    /** Carries a position delta when the UE has moved within its targeting cell. */
+    private void sendHeartbeat() {
+        String hash = null;
+        int prefix = 0;
+        String sent = sentGeohash;
+        if (hasLocation && sent != null) {
+            hash = Geohash.encode(latitude, longitude, POSITION_PRECISION);
+            prefix = Geohash.commonPrefixLength(sent, hash);
+            if (prefix == hash.length()) {
+                hash = null;
+            }
+        }
+        if (binary) {
+            Cbor.Writer frame = Cbor.writer().map(hash != null ? 4 : 2);
+            frame.string("type").string("heartbeat");
+            frame.string("timestamp").integer(System.currentTimeMillis());
+            if (hash != null) {
+                frame.string("gh").string(hash.substring(prefix));
+                frame.string("ghp").integer(prefix);
+            }
+            sendFrame(frame);
+        } else {
+            try {
+                JSONObject heartbeat = new JSONObject();
+                heartbeat.put("type", "heartbeat");
+                heartbeat.put("timestamp", System.currentTimeMillis());
+                if (hash != null) {
+                    heartbeat.put("gh", hash.substring(prefix));
+                    heartbeat.put("ghp", prefix);
+                }
+                sendMessage(heartbeat);
+            } catch (JSONException e) {
+                LOG.log(Level.SEVERE, "Error sending heartbeat", e);
+                return;
+            }
+        }
+        if (hash != null) {
+            sentGeohash = hash;
+        }
+    }
+    
+    private void registerWithServer() {
+        try {
+            JSONObject registration = new JSONObject();
+            registration.put("type", "register");
+            registration.put("ueId", ueId);
+            if (lastSeq > 0) {
+                registration.put("lastSeq", lastSeq);
+            }
+            
+            if (hasLocation) {
+                registration.put("location", locationJson());
+                registration.put("geohash", currentGeohash());
+            }
+            
+            // Add device capabilities
+            JSONObject capabilities = new JSONObject();
+            capabilities.put("supportsVideo", true);
+            capabilities.put("supportsImages", true);
+            capabilities.put("supportsAudio", true);
+            capabilities.put("screenSize", "standard");
+            JSONArray wireFormats = new JSONArray();
+            if (offerBinary) {
+                wireFormats.put(WIRE_FORMAT_CBOR);
+            }
+            wireFormats.put(WIRE_FORMAT_JSON);
+            capabilities.put("wireFormats", wireFormats);
+            capabilities.put("ackBatch", true);
+            registration.put("capabilities", capabilities);
+            
+            sendMessage(registration);
+            LOG.info("Sent registration message for UE: " + ueId);
+            
+        } catch (JSONException e) {
+            LOG.log(Level.SEVERE, "Error creating registration message", e);
+        }
+    }
+    
+    private void resumeSession() {
+        try {
+            JSONObject resume = new JSONObject();
+            resume.put("type", "resume");
+            resume.put("ueId", ueId);
+            resume.put("sessionToken", sessionToken);
+            if (lastSeq > 0) {
+                resume.put("lastSeq", lastSeq);
+            }
+            if (hasLocation) {
+                resume.put("location", locationJson());
+                resume.put("geohash", currentGeohash());
+            }
+            sendMessage(resume);
+            LOG.info("Sent session resume for UE: " + ueId);
+        } catch (JSONException e) {
+            LOG.log(Level.SEVERE, "Error creating resume message", e);
+            registerWithServer();
+        }
+    }
+    
+    /** The full position hash, which becomes the base for this connection's deltas. */
+    private String currentGeohash() {
+        String hash = Geohash.encode(latitude, longitude, POSITION_PRECISION);
+        sentGeohash = hash;
+        return hash;
+    }
+    
+    private void scheduleReconnect() {
+        if (shouldReconnect && !isConnected) {
+            int attempt = reconnectAttempts++;
+            long delay = reconnectDelay(attempt);
+            LOG.info("Reconnecting in " + delay + " ms (attempt " + (attempt + 1) + ")");
+            callbackExecutor.execute(() -> alertHandler.onReconnectScheduled(attempt + 1, delay));
+            scheduler.schedule(() -> {
+                LOG.info("Attempting to reconnect...");
+                connect(null);
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /**
+     * Full jitter: uniform in [0, min(cap, base * 2^attempt)], so UEs dropped together do not
+     * come back together. A distributor hint is a floor under that, consumed once.
+     */
+    private long reconnectDelay(int attempt) {
+        long ceiling = Math.min(RECONNECT_CAP, (long) RECONNECT_BASE << Math.min(attempt, 16));
+        long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        long hint = retryHintMs;
+        retryHintMs = 0;
+        return hint + delay;
+    }
+    
+    /** Seconds from a Retry-After header or a {@code retry-after=N} close reason, in ms. */
+    private static long parseRetryHint(String value) {
+        if (value == null) {
+            return 0;
+        }
+        String seconds = value.startsWith("retry-after=") ? value.substring("retry-after=".length()) : value;
+        try {
+            return Math.min(MAX_RETRY_HINT, Math.max(0, Long.parseLong(seconds.trim()) * 1000));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+    
+    // WebSocketListener methods
+    @Override
+    public void onOpen(WebSocket webSocket, Response response) {
+        LOG.info("WebSocket connection opened");
+        this.webSocket = webSocket;
+        // Registration is always JSON; the reply says whether to switch
+        binary = false;
+        batchAcks = false;
+        sentGeohash = null;
+        isConnected = true;
+        
+        // Resume the previous session if there is one, else register
+        if (sessionToken != null) {
+            resumeSession();
+        } else {
+            registerWithServer();
+        }
+        
+        startLiveness();
+        
+        // Notify handler
+        callbackExecutor.execute(() -> alertHandler.onConnectionStatusChanged(true));
+    }
+    
+    @Override
+    public void onMessage(WebSocket webSocket, String text) {
+        noteInbound();
+        try {
+            JsonFrameReader.FrameType messageType = frameReader.reset(text).peekType();
+            
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine("Received message type: " + messageType);
+            }
+            
+            switch (messageType) {
+                case WELCOME:
+                    LOG.info("Received welcome message");
+                    break;
+                    
+                case REGISTRATION_CONFIRMED:
+                    binary = offerBinary && WIRE_FORMAT_CBOR.equals(frameReader.readString("wireFormat"));
+                    batchAcks = "true".equals(frameReader.readString("ackBatch"));
+                    String token = frameReader.readString("sessionToken");
+                    if (token != null) {
+                        sessionToken = token;
+                    }
+                    reconnectAttempts = 0;
+                    LOG.info(("true".equals(frameReader.readString("resumed")) ? "Session resumed" : "Registration confirmed")
+                            + " by server (" + getWireFormat() + " frames" + (batchAcks ? ", batched acks)" : ")"));
+                    // Acks queued while disconnected
+                    flushAcks();
+                    break;
+                    
+                case EMERGENCY_ALERT:
+                    if (!frameReader.readAlert(alert)) {
+                        throw new JsonFrameReader.MalformedFrameException("emergency_alert without an alert object");
+                    }
+                    alert.seq = frameReader.readLong("seq");
+                    alert.replayed = "true".equals(frameReader.readString("replayed"));
+                    handleEmergencyAlert();
+                    break;
+                    
+                case HEARTBEAT_ACK:
+                    LOG.finer("Heartbeat acknowledged");
+                    break;
+                    
+                case ERROR:
+                    String message = frameReader.readString("message");
+                    String error = message != null ? message : "Unknown error";
+                    LOG.severe("Server error: " + error);
+                    callbackExecutor.execute(() -> alertHandler.onError(error));
+                    break;
+                    
+                case SESSION_EXPIRED:
+                    LOG.info("Session expired, registering again");
+                    sessionToken = null;
+                    registerWithServer();
+                    break;
+                    
+                default:
+                    LOG.warning("Unknown message type: " + text);
+            }
+            
+        } catch (JsonFrameReader.MalformedFrameException e) {
+            LOG.log(Level.SEVERE, "Error parsing WebSocket message", e);
+        }
+    }
+    
+    /** Binary frames, once {@link Cbor} has been negotiated. */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void onMessage(WebSocket webSocket, ByteString bytes) {
+        noteInbound();
+        try {
+            Map<String, Object> message = Cbor.decodeMap(bytes.toByteArray());
+            Object messageType = message.get("type");
+            
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine("Received binary message type: " + messageType);
+            }
+            
+            if ("emergency_alert".equals(messageType)) {
+                Object alertMap = message.get("alert");
+                if (!(alertMap instanceof Map)) {
+                    throw new Cbor.CborException("emergency_alert without an alert map");
+                }
+                readAlert((Map<String, Object>) alertMap, alert);
+                Object seq = message.get("seq");
+                alert.seq = seq instanceof Number ? ((Number) seq).longValue() : 0;
+                alert.replayed = Boolean.TRUE.equals(message.get("replayed"));
+                handleEmergencyAlert();
+            } else if ("heartbeat_ack".equals(messageType)) {
+                LOG.finer("Heartbeat acknowledged");
+            } else if ("error".equals(messageType)) {
+                Object text = message.get("message");
+                String error = text instanceof String ? (String) text : "Unknown error";
+                LOG.severe("Server error: " + error);
+                callbackExecutor.execute(() -> alertHandler.onError(error));
+            } else {
+                LOG.warning("Unknown message type: " + messageType);
+            }
+            
+        } catch (Cbor.CborException e) {
+            LOG.log(Level.SEVERE, "Error parsing binary WebSocket message", e);
+        }
+    }
+    
+    /** False if {@code seq} was among the recently delivered ones. */
+    private boolean recordSequence(long seq) {
+        for (long recent : recentSeqs) {
+            if (recent == seq) {
+                return false;
+            }
+        }
+        recentSeqs[recentSeqIndex] = seq;
+        recentSeqIndex = (recentSeqIndex + 1) % recentSeqs.length;
+        return true;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static void readAlert(Map<String, Object> map, WebSocketAlert target) {
+        target.clear();
+        target.identifier = text(map, "identifier");
+        target.sender = text(map, "sender");
+        target.sent = text(map, "sent");
+        target.status = text(map, "status");
+        target.msgType = text(map, map.containsKey("msg_type") ? "msg_type" : "msgType");
+        target.references = text(map, "references");
+        target.event = text(map, "event");
+        target.urgency = text(map, "urgency");
+        target.severity = text(map, "severity");
+        target.certainty = text(map, "certainty");
+        target.headline = text(map, "headline");
+        target.description = text(map, "description");
+        target.mediaLocator = text(map, "mediaLocator");
+        Object attachments = map.get("media_attachments");
+        target.mediaAttachments = attachments instanceof List ? ((List<?>) attachments).size() : 0;
+        Object sentAt = map.get("fleetSentAt");
+        target.fleetSentAt = sentAt instanceof Number ? ((Number) sentAt).longValue() : 0;
+        Object areas = map.get("areas");
+        if (areas instanceof List) {
+            for (Object area : (List<?>) areas) {
+                if (area instanceof Map) {
+                    addArea(target, text((Map<String, Object>) area, "polygon"), text((Map<String, Object>) area, "circle"));
+                }
+            }
+        }
+    }
+    
+    /** Adds an {@code areas} entry's shapes; shared with {@link JsonFrameReader}. */
+    static void addArea(WebSocketAlert target, String polygon, String circle) {
+        if (polygon == null && circle == null) {
+            return;
+        }
+        if (target.area == null) {
+            target.area = new AlertArea();
+        }
+        if (polygon != null) {
+            target.area.addPolygon(polygon);
+        }
+        if (circle != null) {
+            target.area.addCircle(circle);
+        }
+    }
+    
+    private static String text(Map<String, Object> map, String key) {
+        Object value = map.get(key);
+        if (value == null || value instanceof Map || value instanceof List) {
+            return null;
+        }
+        return value instanceof String ? (String) value : String.valueOf(value);
+    }
+    
+    private void handleEmergencyAlert() {
+        String alertId = alert.identifier != null ? alert.identifier : "unknown";
+        if (alert.seq > 0) {
+            if (!recordSequence(alert.seq)) {
+                LOG.fine("Dropping repeated alert sequence");
+                return;
+            }
+            if (alert.seq > lastSeq) {
+                lastSeq = alert.seq;
+            }
+        }
+        
+        LOG.info("Received emergency alert: " + alertId);
+        
+        // Acknowledge receipt
+        acknowledgeAlert(alertId, true, false);
+        
+        Geofence fence = geofence;
+        if (fence != null && !fence.covers(alert)) {
+            LOG.fine("Alert " + alertId + " is outside this UE's area");
+            return;
+        }
+        
+        // Pass to alert handler
+        if (callbackExecutor == DIRECT) {
+            alertHandler.onAlertReceived(alert);
+        } else {
+            WebSocketAlert copy = alert.copy();
+            callbackExecutor.execute(() -> alertHandler.onAlertReceived(copy));
+        }
+    }
+    
+    @Override
+    public void onClosing(WebSocket webSocket, int code, String reason) {
+        LOG.info("WebSocket closing: " + code + " " + reason);
+        // 1012 service restart, 1013 try again later
+        if (code == 1012 || code == 1013) {
+            retryHintMs = parseRetryHint(reason);
+        }
+        webSocket.close(1000, null);
+    }
+    
+    @Override
+    public void onClosed(WebSocket webSocket, int code, String reason) {
+        LOG.info("WebSocket closed: " + code + " " + reason);
+        isConnected = false;
+        stopLiveness();
+        
+        // Notify handler
+        callbackExecutor.execute(() -> alertHandler.onConnectionStatusChanged(false));
+        
+        // Schedule reconnect if needed
+        scheduleReconnect();
+    }
+    
+    @Override
+    public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+        LOG.log(Level.SEVERE, "WebSocket failure", t);
+        if (response != null && (response.code() == 503 || response.code() == 429)) {
+            retryHintMs = parseRetryHint(response.header("Retry-After"));
+        }
+        isConnected = false;
+        stopLiveness();
+        // A link that fails gets checked more often on the next connection
+        tightenHeartbeat();
+        
+        String error = "Connection failed: " + t.getMessage();
+        callbackExecutor.execute(() -> {
+            alertHandler.onConnectionStatusChanged(false);
+            alertHandler.onError(error);
+        });
+        
+        // Schedule reconnect
+        scheduleReconnect();
+    }
+    
+    public boolean isConnected() {
+        return isConnected;
+    }
+    
+    public String getUeId() {
+        return ueId;
+    }
+}
\ No newline at end of file
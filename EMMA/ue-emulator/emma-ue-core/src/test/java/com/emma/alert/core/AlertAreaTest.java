@@ -0,0 +1,199 @@
+package com.emma.alert.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class AlertAreaTest {
+    private static final String SQUARE = "40.0,-74.0 41.0,-74.0 41.0,-73.0 40.0,-73.0 40.0,-74.0";
+    // A U open to the north: arms at -74..-73.7 and -73.3..-73, joined below 40.3
+    private static final String U_SHAPE = "40.0,-74.0 41.0,-74.0 41.0,-73.7 40.3,-73.7 40.3,-73.3 41.0,-73.3"
+            + " 41.0,-73.0 40.0,-73.0 40.0,-74.0";
+    private static final String ACROSS_ANTIMERIDIAN = "10,170 10,-170 -10,-170 -10,170 10,170";
+
+    @ParameterizedTest
+    @CsvSource({"40.5,-73.5,true", "40.01,-73.99,true", "39.99,-73.5,false", "41.01,-73.5,false",
+            "40.5,-74.01,false", "40.5,-72.99,false", "-40.5,73.5,false"})
+    void squareInsideAndOutside(double lat, double lon, boolean inside) {
+        assertEquals(inside, area(SQUARE).contains(lat, lon));
+    }
+
+    @ParameterizedTest
+    @CsvSource({"40.0,-73.5", "41.0,-73.5", "40.5,-74.0", "40.5,-73.0"})
+    void everyEdgeIsInside(double lat, double lon) {
+        assertTrue(area(SQUARE).contains(lat, lon));
+    }
+
+    @ParameterizedTest
+    @CsvSource({"40.0,-74.0", "41.0,-74.0", "41.0,-73.0", "40.0,-73.0"})
+    void everyVertexIsInside(double lat, double lon) {
+        assertTrue(area(SQUARE).contains(lat, lon));
+    }
+
+    @Test
+    void diagonalEdgeIsInside() {
+        AlertArea triangle = area("0,0 10,10 0,10 0,0");
+        assertTrue(triangle.contains(5, 5));
+        assertTrue(triangle.contains(2.5, 2.5));
+        assertTrue(triangle.contains(4, 6));
+        assertFalse(triangle.contains(6, 4));
+    }
+
+    @ParameterizedTest
+    @CsvSource({"40.8,-73.85,true", "40.8,-73.15,true", "40.1,-73.5,true", "40.8,-73.5,false", "40.31,-73.5,false",
+            "40.3,-73.5,true", "40.8,-73.7,true", "40.8,-73.3,true"})
+    void concavePolygon(double lat, double lon, boolean inside) {
+        assertEquals(inside, area(U_SHAPE).contains(lat, lon));
+    }
+
+    @Test
+    void closingVertexIsOptional() {
+        AlertArea open = area("40.0,-74.0 41.0,-74.0 41.0,-73.0 40.0,-73.0");
+        AlertArea closed = area(SQUARE);
+        for (double[] point : grid(39.5, 41.5, -74.5, -72.5, 41)) {
+            assertEquals(closed.contains(point[0], point[1]), open.contains(point[0], point[1]),
+                    point[0] + "," + point[1]);
+        }
+    }
+
+    @Test
+    void circle() {
+        AlertArea area = new AlertArea();
+        area.addCircle("10,20 111.32");
+        assertTrue(area.contains(10, 20));
+        assertTrue(area.contains(10.99, 20));
+        // Exactly one degree of latitude away: on the boundary
+        assertTrue(area.contains(11, 20));
+        assertFalse(area.contains(11.01, 20));
+        assertFalse(area.contains(10, 21.1));
+        assertTrue(area.contains(10, 20.9));
+    }
+
+    @Test
+    void multipleAreasAreAUnion() {
+        AlertArea area = new AlertArea();
+        area.addPolygon(SQUARE);
+        area.addPolygon(U_SHAPE.replace("-7", "-8"));
+        area.addCircle("35,-80 10");
+        assertEquals(3, area.size());
+        assertTrue(area.contains(40.5, -73.5));
+        assertTrue(area.contains(40.8, -83.85));
+        assertFalse(area.contains(40.8, -83.5));
+        assertTrue(area.contains(35.05, -80));
+        assertFalse(area.contains(38, -78));
+    }
+
+    @Test
+    void gridIndexAgreesWithTestingEveryShape() {
+        Random random = new Random(24);
+        List<String> polygons = new ArrayList<>();
+        List<String> circles = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            double lat = 30 + random.nextDouble() * 20;
+            double lon = -100 + random.nextDouble() * 30;
+            polygons.add(lat + "," + lon + " " + (lat + 2) + "," + (lon + 0.5) + " " + (lat + 1) + "," + (lon + 1)
+                    + " " + (lat + 0.5) + "," + (lon + 3) + " " + lat + "," + lon);
+            circles.add((lat - 1) + "," + (lon + 2) + " " + random.nextDouble() * 150);
+        }
+        circles.add("0,179.5 100");
+        AlertArea indexed = new AlertArea();
+        List<AlertArea> single = new ArrayList<>();
+        for (String polygon : polygons) {
+            indexed.addPolygon(polygon);
+            single.add(area(polygon));
+        }
+        for (String circle : circles) {
+            indexed.addCircle(circle);
+            AlertArea area = new AlertArea();
+            area.addCircle(circle);
+            single.add(area);
+        }
+        assertEquals(single.size(), indexed.size());
+        int hits = 0;
+        for (double[] point : grid(-5, 55, -180, 180, 400)) {
+            boolean expected = single.stream().anyMatch(area -> area.contains(point[0], point[1]));
+            assertEquals(expected, indexed.contains(point[0], point[1]), point[0] + "," + point[1]);
+            hits += expected ? 1 : 0;
+        }
+        assertTrue(hits > 100, "hits " + hits);
+    }
+
+    @ParameterizedTest
+    @CsvSource({"0,179,true", "0,-179,true", "0,180,true", "0,-180,true", "9.9,-170,true", "-10,171,true",
+            "0,0,false", "0,169.9,false", "0,-169.9,false", "11,180,false"})
+    void polygonAcrossTheAntimeridian(double lat, double lon, boolean inside) {
+        assertEquals(inside, area(ACROSS_ANTIMERIDIAN).contains(lat, lon));
+        // Listed from the other side, and unwrapped the other way round
+        assertEquals(inside, area("10,-170 10,170 -10,170 -10,-170 10,-170").contains(lat, lon));
+    }
+
+    @Test
+    void circleAcrossTheAntimeridian() {
+        AlertArea area = new AlertArea();
+        area.addCircle("0,179.9 50");
+        assertTrue(area.contains(0, -179.9));
+        assertTrue(area.contains(0, 179.9));
+        assertFalse(area.contains(0, -179));
+        assertFalse(area.contains(0, 0));
+    }
+
+    @Test
+    void polygonRoundAPoleIsSkipped() {
+        assertTrue(area("80,0 80,120 80,-120 80,0").isEmpty());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "40,-74 41,-74", "40,-74 41,-74 41", "40,-74 41,-74 91,-73 40,-74",
+            "40,-74 41,-181 41,-73 40,-74", "40,-74 41,-74 41,x 40,-74", "40,-74 41,-74 NaN,-73 40,-74",
+            "40,-74 41,-74 Infinity,-73 40,-74"})
+    void invalidPolygonsAreSkipped(String polygon) {
+        AlertArea area = area(polygon);
+        assertTrue(area.isEmpty());
+        assertFalse(area.contains(40.5, -73.5));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "10,20", "10,20 -1", "10,20 5 6", "91,20 5", "10,20 NaN"})
+    void invalidCirclesAreSkipped(String circle) {
+        AlertArea area = new AlertArea();
+        area.addCircle(circle);
+        area.addPolygon(SQUARE);
+        assertEquals(1, area.size());
+    }
+
+    @Test
+    void shapesAddedAfterALookupAreIncluded() {
+        AlertArea area = area(SQUARE);
+        assertFalse(area.contains(10, 20));
+        area.addCircle("10,20 5");
+        assertTrue(area.contains(10, 20));
+        assertTrue(area.contains(40.5, -73.5));
+        assertEquals(2, area.size());
+    }
+
+    private static AlertArea area(String polygon) {
+        AlertArea area = new AlertArea();
+        area.addPolygon(polygon);
+        return area;
+    }
+
+    /** {@code steps} x {@code steps} points spread over the box, edges included. */
+    private static List<double[]> grid(double loLat, double hiLat, double loLon, double hiLon, int steps) {
+        List<double[]> points = new ArrayList<>();
+        for (int i = 0; i < steps; i++) {
+            for (int j = 0; j < steps; j++) {
+                points.add(new double[] {loLat + (hiLat - loLat) * i / (steps - 1),
+                        loLon + (hiLon - loLon) * j / (steps - 1)});
+            }
+        }
+        return points;
+    }
+}
@@ -0,0 +1,331 @@
+package com.emma.alert.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Decodes each datagram with {@link CapDecoder} and with {@link CapDomParser} and checks both
+ * agree: on every field, on the area, and on whether the datagram is accepted at all.
+ */
+class CapDecoderDifferentialTest {
+
+    private static final String ALERT_OPEN = "<alert xmlns=\"urn:oasis:names:tc:emergency:cap:1.2\">";
+
+    static Stream<String> samples() throws IOException {
+        return Stream.of(
+                resource("capgen-alert123.xml"),
+                resource("capgen-alert123.ecap.xml"),
+                resource("cap_generator-media.xml"),
+                // Shapes under info/area; the second info is ignored by both
+                ALERT_OPEN + "<identifier>area-1</identifier><info><event>Flood</event>"
+                        + "<area><areaDesc>Lower Manhattan</areaDesc>"
+                        + "<polygon>40.70,-74.02 40.72,-74.02 40.72,-73.99 40.70,-73.99 40.70,-74.02</polygon>"
+                        + "<circle>40.75,-73.98 1.5</circle></area>"
+                        + "<area><circle>40.60,-73.90 0.5</circle></area></info>"
+                        + "<info><event>Other</event><area><circle>0,0 100</circle></area></info></alert>",
+                // Entities and character references
+                ALERT_OPEN + "<identifier>ent&amp;1</identifier><sender>a&lt;b&gt;c</sender>"
+                        + "<info><headline>&quot;Evacuate&quot; &apos;now&apos;</headline>"
+                        + "<description>caf&#233; &#xE9;t&#xe9; &#x1F30A; &#38;&#60;</description></info></alert>",
+                // CDATA, including markup-like text and a line break inside it
+                ALERT_OPEN + "<identifier><![CDATA[cdata-1]]></identifier><info>"
+                        + "<description>Before <![CDATA[<b>bold</b> & more\r\nnext]]> after</description>"
+                        + "</info></alert>",
+                // Namespace prefixes on every element, and a foreign element between fields
+                "<cap:alert xmlns:cap=\"urn:oasis:names:tc:emergency:cap:1.2\" xmlns:x=\"urn:x\">"
+                        + "<cap:identifier>ns-1</cap:identifier><cap:sender>s</cap:sender>"
+                        + "<x:extra><identifier>not this</identifier></x:extra>"
+                        + "<cap:info><cap:urgency>Immediate</cap:urgency><cap:parameter>"
+                        + "<cap:valueName>mediaLocator</cap:valueName><cap:value>http://cdn/a.zip</cap:value>"
+                        + "</cap:parameter></cap:info></cap:alert>",
+                // Elements nested inside captured text contribute their text
+                ALERT_OPEN + "<identifier>nest-1</identifier><info>"
+                        + "<headline>Move <b>now</b></headline>"
+                        + "<description>Line <i>one <u>deep</u></i><br/> and <!-- note --> two</description>"
+                        + "<resource><mediaLocator>http://cdn/<x>b</x>.zip</mediaLocator></resource>"
+                        + "</info></alert>",
+                // Resource and parameter locators: the first in document order wins
+                ALERT_OPEN + "<identifier>loc-1</identifier><info>"
+                        + "<resource><resourceDesc>map</resourceDesc><mediaLocator>http://cdn/first.zip</mediaLocator></resource>"
+                        + "<parameter><valueName>other</valueName><value>x</value></parameter>"
+                        + "<parameter><valueName>mediaLocator</valueName><value>http://cdn/second.zip</value></parameter>"
+                        + "</info></alert>",
+                // Prolog, BOM, comments, PIs, self-closing and empty fields, CR LF line ends
+                "\uFEFF<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n<!-- head -->\r\n" + ALERT_OPEN
+                        + "<?pi data?><identifier>\r\n  pro-1\r\n</identifier><references/>"
+                        + "<info><headline></headline><description>a\r\nb\rc</description></info></alert>\r\n");
+    }
+
+    static Stream<String> malformed() {
+        String valid = ALERT_OPEN + "<identifier>m-1</identifier><info><headline>h</headline></info></alert>";
+        return Stream.of(
+                valid.replace("</headline>", "</headlin>"),
+                valid.replace("</info>", "</cap:info>"),
+                valid.replace("<info>", "<info><other>").replace("</info>", "</another></info>"),
+                valid.replace("</info>", ""),
+                valid + "<alert/>",
+                valid + "trailing",
+                "leading" + valid,
+                valid.replace(">h<", ">a & b<"),
+                valid.replace(">h<", ">&nbsp;<"),
+                valid.replace(">h<", ">&#;<"),
+                valid.replace(">h<", ">&#0;<"),
+                valid.replace(">h<", ">&#xD800;<"),
+                valid.replace(">h<", ">&#x110000;<"),
+                valid.replace(">h<", ">&#X41;<"),
+                valid.replace(">h<", ">&amp<"),
+                valid.replace("<info>", "<info><!-- open"),
+                valid.replace("<info>", "<info><![CDATA[open"),
+                valid.replace("<identifier>", "<identifier attr=\"open>"),
+                "<![CDATA[x]]>" + valid,
+                "</alert>",
+                "");
+    }
+
+    @ParameterizedTest
+    @MethodSource("samples")
+    void decoderMatchesDom(String xml) throws Exception {
+        byte[] data = xml.getBytes(StandardCharsets.UTF_8);
+        CapAlert expected = domDecode(data);
+        assertNotNull(expected, "reference parser rejected the sample");
+
+        CapAlert actual = new CapAlert();
+        assertTrue(new CapDecoder().decode(data, 0, data.length, actual), "decoder rejected " + xml);
+        assertSame(expected, actual);
+    }
+
+    @ParameterizedTest
+    @MethodSource("malformed")
+    void decoderRejectsWhatDomRejects(String xml) {
+        byte[] data = xml.getBytes(StandardCharsets.UTF_8);
+        assertEquals(null, domDecode(data), "reference parser accepted " + xml);
+        assertFalse(new CapDecoder().decode(data, 0, data.length, new CapAlert()), "decoder accepted " + xml);
+    }
+
+    @ParameterizedTest
+    @MethodSource("samples")
+    void everyTruncationIsRejectedOrDecodedAlike(String xml) {
+        byte[] data = xml.getBytes(StandardCharsets.UTF_8);
+        CapDecoder decoder = new CapDecoder();
+        for (int length = 0; length < data.length; length++) {
+            CapAlert expected = domDecode(Arrays.copyOf(data, length));
+            CapAlert actual = new CapAlert();
+            boolean decoded = decoder.decode(data, 0, length, actual);
+            if (expected == null) {
+                assertFalse(decoded, "decoder accepted a datagram cut at " + length);
+            } else {
+                // Only trailing whitespace was cut
+                assertTrue(decoded, "decoder rejected a datagram cut at " + length);
+                assertSame(expected, actual);
+            }
+        }
+    }
+
+    @Test
+    void decoderIsReusableAfterMalformedInput() {
+        CapDecoder decoder = new CapDecoder();
+        byte[] bad = (ALERT_OPEN + "<identifier>x<info>").getBytes(StandardCharsets.UTF_8);
+        byte[] good = (ALERT_OPEN + "<identifier>ok</identifier></alert>").getBytes(StandardCharsets.UTF_8);
+        CapAlert alert = new CapAlert();
+        assertFalse(decoder.decode(bad, 0, bad.length, alert));
+        assertTrue(decoder.decode(good, 0, good.length, alert));
+        assertEquals("ok", alert.identifier);
+    }
+
+    private static void assertSame(CapAlert expected, CapAlert actual) {
+        assertEquals(expected.identifier, actual.identifier, "identifier");
+        assertEquals(expected.sender, actual.sender, "sender");
+        assertEquals(expected.sent, actual.sent, "sent");
+        assertEquals(expected.status, actual.status, "status");
+        assertEquals(expected.msgType, actual.msgType, "msgType");
+        assertEquals(expected.references, actual.references, "references");
+        assertEquals(expected.event, actual.event, "event");
+        assertEquals(expected.urgency, actual.urgency, "urgency");
+        assertEquals(expected.severity, actual.severity, "severity");
+        assertEquals(expected.certainty, actual.certainty, "certainty");
+        assertEquals(expected.headline, actual.headline, "headline");
+        assertEquals(expected.description, actual.description, "description");
+        assertEquals(expected.mediaLocator, actual.mediaLocator, "mediaLocator");
+        if (expected.area == null) {
+            assertEquals(null, actual.area, "area");
+            return;
+        }
+        assertNotNull(actual.area, "area");
+        assertEquals(expected.area.size(), actual.area.size(), "area shapes");
+        for (double[] probe : probes) {
+            assertEquals(expected.area.contains(probe[0], probe[1]), actual.area.contains(probe[0], probe[1]),
+                    "area at " + probe[0] + "," + probe[1]);
+        }
+    }
+
+    private static final List<double[]> probes = new ArrayList<>();
+
+    static {
+        for (double lat = 40.55; lat <= 40.80; lat += 0.005) {
+            for (double lon = -74.05; lon <= -73.85; lon += 0.005) {
+                probes.add(new double[] {lat, lon});
+            }
+        }
+    }
+
+    /** The reference: CapDomParser's DOM, walked the way CAP structures an alert; null if it does not parse. */
+    private static CapAlert domDecode(byte[] data) {
+        Document doc;
+        try {
+            doc = CapDomParser.parse(data, 0, data.length);
+        } catch (Exception e) {
+            return null;
+        }
+        Element root = doc.getDocumentElement();
+        if (!"alert".equals(localName(root))) {
+            return null;
+        }
+        CapAlert alert = new CapAlert();
+        Element info = null;
+        for (Element child : children(root)) {
+            String value = text(child);
+            switch (localName(child)) {
+                case "identifier": alert.identifier = value; break;
+                case "sender": alert.sender = value; break;
+                case "sent": alert.sent = value; break;
+                case "status": alert.status = value; break;
+                case "msgType": alert.msgType = value; break;
+                case "references": alert.references = value; break;
+                case "info":
+                    if (info == null) {
+                        info = child;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (info != null) {
+            decodeInfo(info, alert);
+        }
+        return alert.identifier == null ? null : alert;
+    }
+
+    private static void decodeInfo(Element info, CapAlert alert) {
+        for (Element child : children(info)) {
+            String value = text(child);
+            switch (localName(child)) {
+                case "event": alert.event = value; break;
+                case "urgency": alert.urgency = value; break;
+                case "severity": alert.severity = value; break;
+                case "certainty": alert.certainty = value; break;
+                case "headline": alert.headline = value; break;
+                case "description": alert.description = value; break;
+                case "mediaLocator":
+                    locator(alert, value);
+                    break;
+                case "resource":
+                    for (Element field : children(child)) {
+                        if ("mediaLocator".equals(localName(field))) {
+                            locator(alert, text(field));
+                        }
+                    }
+                    break;
+                case "parameter": {
+                    String name = null;
+                    String parameterValue = null;
+                    for (Element field : children(child)) {
+                        if ("valueName".equals(localName(field))) {
+                            name = text(field);
+                        } else if ("value".equals(localName(field))) {
+                            parameterValue = text(field);
+                        }
+                    }
+                    if ("mediaLocator".equals(name) && parameterValue != null) {
+                        locator(alert, parameterValue);
+                    }
+                    break;
+                }
+                case "area":
+                    for (Element shape : children(child)) {
+                        if ("polygon".equals(localName(shape))) {
+                            area(alert).addPolygon(text(shape));
+                        } else if ("circle".equals(localName(shape))) {
+                            area(alert).addCircle(text(shape));
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private static void locator(CapAlert alert, String value) {
+        if (alert.mediaLocator == null) {
+            alert.mediaLocator = value;
+        }
+    }
+
+    private static AlertArea area(CapAlert alert) {
+        if (alert.area == null) {
+            alert.area = new AlertArea();
+        }
+        return alert.area;
+    }
+
+    private static List<Element> children(Element parent) {
+        List<Element> elements = new ArrayList<>();
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                elements.add((Element) node);
+            }
+        }
+        return elements;
+    }
+
+    /** CapDomParser's factory is not namespace aware, so the local name is what follows any prefix. */
+    private static String localName(Element element) {
+        String name = element.getNodeName();
+        return name.substring(name.indexOf(':') + 1);
+    }
+
+    /** Text content trimmed of XML whitespace, as the decoder reports it. */
+    private static String text(Element element) {
+        String text = element.getTextContent();
+        int start = 0;
+        int stop = text.length();
+        while (start < stop && isSpace(text.charAt(start))) {
+            start++;
+        }
+        while (stop > start && isSpace(text.charAt(stop - 1))) {
+            stop--;
+        }
+        return text.substring(start, stop);
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private static String resource(String name) throws IOException {
+        try (InputStream in = CapDecoderDifferentialTest.class.getResourceAsStream("/cap/" + name)) {
+            if (in == null) {
+                fail("missing test resource " + name);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.emma.alert.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class GeofenceTest {
+    private static final String MANHATTAN = "40.70,-74.02 40.88,-74.02 40.88,-73.91 40.70,-73.91 40.70,-74.02";
+    private static final String BROOKLYN = "40.57,-74.04 40.70,-74.04 40.70,-73.85 40.57,-73.85 40.57,-74.04";
+
+    private final Geofence geofence = new Geofence(2);
+
+    @Test
+    void coversEverythingWithoutALocation() {
+        assertFalse(geofence.hasLocation());
+        assertTrue(geofence.covers(alert("1", MANHATTAN)));
+        geofence.updateLocation(51.5, -0.1);
+        geofence.clearLocation();
+        assertTrue(geofence.covers(alert("1", MANHATTAN)));
+        assertEquals(0, geofence.getOutsideCount());
+    }
+
+    @Test
+    void coversAlertsWithoutAValidArea() {
+        geofence.updateLocation(51.5, -0.1);
+        assertTrue(geofence.covers(alert("1")));
+        assertTrue(geofence.covers(alert("2", "not a polygon")));
+        assertEquals(0, geofence.getOutsideCount());
+    }
+
+    @Test
+    void insideOutsideAndMultipleAreas() {
+        geofence.updateLocation(40.75, -73.98);
+        assertTrue(geofence.covers(alert("1", MANHATTAN)));
+        assertFalse(geofence.covers(alert("2", BROOKLYN)));
+        assertTrue(geofence.covers(alert("3", BROOKLYN, MANHATTAN)));
+        // On the shared edge
+        geofence.updateLocation(40.70, -73.95);
+        assertTrue(geofence.covers(alert("4", BROOKLYN)));
+        assertTrue(geofence.covers(alert("5", MANHATTAN)));
+        assertEquals(1, geofence.getOutsideCount());
+    }
+
+    @Test
+    void retransmissionIsTestedAgainstTheFirstCopysArea() {
+        geofence.updateLocation(40.75, -73.98);
+        assertTrue(geofence.covers(alert("1", MANHATTAN)));
+        // Same CAP identity: the cached area is used and this copy's shapes are never read
+        assertTrue(geofence.covers(alert("1", BROOKLYN)));
+        assertTrue(geofence.covers(alert("1", "not a polygon")));
+        geofence.updateLocation(40.60, -73.95);
+        assertFalse(geofence.covers(alert("1", BROOKLYN)));
+        assertEquals(1, geofence.getOutsideCount());
+    }
+
+    @Test
+    void cacheIsBounded() {
+        geofence.updateLocation(40.75, -73.98);
+        geofence.covers(alert("1", MANHATTAN));
+        geofence.covers(alert("2", MANHATTAN));
+        geofence.covers(alert("3", MANHATTAN));
+        // Alert 1 was evicted, so this copy's own area counts
+        assertFalse(geofence.covers(alert("1", BROOKLYN)));
+        assertTrue(geofence.covers(alert("3", BROOKLYN)));
+    }
+
+    @Test
+    void areaAcrossTheAntimeridian() {
+        geofence.updateLocation(-17.7, -179.9);
+        assertTrue(geofence.covers(alert("fiji", "-15,177 -15,-178 -20,-178 -20,177 -15,177")));
+        assertFalse(geofence.covers(alert("samoa", "-13,-173 -13,-171 -15,-171 -15,-173 -13,-173")));
+    }
+
+    private static CapAlert alert(String identifier, String... polygons) {
+        CapAlert alert = new CapAlert();
+        alert.sender = "test@emma";
+        alert.identifier = identifier;
+        alert.sent = "2026-10-17T00:00:00+00:00";
+        if (polygons.length > 0) {
+            alert.area = new AlertArea();
+            for (String polygon : polygons) {
+                alert.area.addPolygon(polygon);
+            }
+        }
+        return alert;
+    }
+}
@@ -0,0 +1,107 @@
+package com.emma.alert.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LoopbackMediaServerTest {
+    private static final String BODY = "0123456789";
+
+    @TempDir
+    File dir;
+
+    private LoopbackMediaServer server;
+    private URL url;
+
+    @BeforeEach
+    void publish() throws IOException {
+        File file = new File(dir, "video.mp4");
+        Files.write(file.toPath(), BODY.getBytes(StandardCharsets.US_ASCII));
+        GrowingFile growing = new GrowingFile(file, position -> BODY.length() - position);
+        growing.finish();
+        server = new LoopbackMediaServer();
+        url = new URL(server.publish(growing, 0, BODY.length(), "media/video.mp4"));
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop();
+    }
+
+    @Test
+    void servesRanges() throws IOException {
+        assertEquals("200 OK|0123456789", get(null));
+        assertEquals("206 Partial Content|2345", get("bytes=2-5"));
+        assertEquals("206 Partial Content|789", get("bytes=7-"));
+        assertEquals("206 Partial Content|6789", get("bytes=-4"));
+        assertEquals("416 Range Not Satisfiable|", get("bytes=10-"));
+        assertEquals("416 Range Not Satisfiable|", get("bytes=6-2"));
+    }
+
+    @Test
+    void ignoresMalformedRanges() throws IOException {
+        assertEquals("200 OK|0123456789", get("bytes=5"));
+        assertEquals("200 OK|0123456789", get("bytes=x-3"));
+        assertEquals("200 OK|0123456789", get("bytes=-"));
+        assertEquals("200 OK|0123456789", get("bytes=1-2,4-5"));
+        // Still accepting
+        assertEquals("206 Partial Content|01", get("bytes=0-1"));
+    }
+
+    @Test
+    void answers503WhenEveryWorkerIsBusy() throws IOException {
+        List<Socket> idle = new ArrayList<>();
+        try {
+            // Each connection holds a worker until its request line arrives
+            for (int i = 0; i < LoopbackMediaServer.MAX_WORKERS; i++) {
+                idle.add(new Socket(url.getHost(), url.getPort()));
+            }
+            assertEquals("503 Service Unavailable|", get(null));
+        } finally {
+            for (Socket socket : idle) {
+                socket.close();
+            }
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        String response;
+        do {
+            response = get(null);
+        } while (!response.startsWith("200") && System.currentTimeMillis() < deadline);
+        assertEquals("200 OK|0123456789", response);
+    }
+
+    /** Sends a GET and returns "status|body". */
+    private String get(String range) throws IOException {
+        try (Socket socket = new Socket(url.getHost(), url.getPort())) {
+            socket.setSoTimeout(5000);
+            String request = "GET " + url.getPath() + " HTTP/1.1\r\nHost: 127.0.0.1\r\n"
+                    + (range == null ? "" : "Range: " + range + "\r\n") + "\r\n";
+            socket.getOutputStream().write(request.getBytes(StandardCharsets.ISO_8859_1));
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                response.write(buffer, 0, n);
+            }
+            String text = response.toString(StandardCharsets.ISO_8859_1.name());
+            int headersEnd = text.indexOf("\r\n\r\n");
+            assertTrue(text.startsWith("HTTP/1.1 ") && headersEnd > 0, text);
+            return text.substring(9, text.indexOf("\r\n")) + "|" + text.substring(headersEnd + 4);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.emma.alert.core;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SmcDownloaderTest {
+    private static final int CHUNK = 4096;
+    private static final byte[] BODY = new byte[16 * CHUNK];
+
+    static {
+        new Random(42).nextBytes(BODY);
+    }
+
+    @TempDir
+    File partialDir;
+
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private OkHttpClient client;
+    private SmcDownloader downloader;
+
+    private final AtomicInteger rangesInFlight = new AtomicInteger();
+    private final AtomicInteger peakRangesInFlight = new AtomicInteger();
+    private volatile CountDownLatch rangesHeld = new CountDownLatch(0);
+
+    @BeforeEach
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.createContext("/", this::serve);
+        server.start();
+        client = CdnHttpClient.newBuilder().build();
+        downloader = new SmcDownloader(partialDir, client, 2 * CHUNK, CHUNK);
+    }
+
+    @AfterEach
+    void stop() {
+        rangesHeld.countDown();
+        server.stop(0);
+        serverThreads.shutdownNow();
+        client.dispatcher().executorService().shutdownNow();
+        client.connectionPool().evictAll();
+    }
+
+    @Test
+    void keepsABoundedWindowOfChunksInFlight() throws Exception {
+        try (SmcDownloader.Download download = downloader.get(url("/big.smc.zip"), null)) {
+            assertArrayEquals(BODY, Files.readAllBytes(download.getFile().toPath()));
+        }
+        assertEquals(1, downloader.getChunkedCount());
+        assertTrue(peakRangesInFlight.get() > 1, "chunks are fetched in parallel");
+        assertTrue(peakRangesInFlight.get() <= SmcDownloader.MAX_CHUNKS_IN_FLIGHT,
+                "peak " + peakRangesInFlight.get());
+    }
+
+    @Test
+    void criticalFetchesAreNotQueuedBehindChunks() throws Exception {
+        rangesHeld = new CountDownLatch(1);
+        // Two chunked downloads fill every per-host slot of the dispatcher
+        CompletableFuture<byte[]> first = download("/a.smc.zip");
+        CompletableFuture<byte[]> second = download("/b.smc.zip");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (rangesInFlight.get() < CdnHttpClient.MAX_REQUESTS_PER_HOST && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(CdnHttpClient.MAX_REQUESTS_PER_HOST, rangesInFlight.get());
+
+        CompletableFuture<Integer> normal = CompletableFuture.supplyAsync(() -> fetch(AlertPriority.NORMAL));
+        assertEquals(200, CompletableFuture.supplyAsync(() -> fetch(AlertPriority.CRITICAL)).get(5, TimeUnit.SECONDS));
+        assertFalse(normal.isDone(), "a NORMAL fetch waits for a slot");
+
+        rangesHeld.countDown();
+        assertEquals(200, normal.get(10, TimeUnit.SECONDS));
+        assertArrayEquals(BODY, first.get(10, TimeUnit.SECONDS));
+        assertArrayEquals(BODY, second.get(10, TimeUnit.SECONDS));
+    }
+
+    private CompletableFuture<byte[]> download(String path) {
+        return CompletableFuture.supplyAsync(() -> {
+            try (SmcDownloader.Download download = downloader.get(url(path), null)) {
+                return Files.readAllBytes(download.getFile().toPath());
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    private int fetch(AlertPriority priority) {
+        try (Response response = downloader.fetch(url("/alert.smc.xml"), null, priority)) {
+            return response.code();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private URL url(String path) {
+        try {
+            return new URL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void serve(HttpExchange ex) {
+        try (OutputStream out = ex.getResponseBody()) {
+            if (ex.getRequestURI().getPath().endsWith(".xml")) {
+                ex.sendResponseHeaders(200, 1);
+                out.write('x');
+                return;
+            }
+            ex.getResponseHeaders().set("Accept-Ranges", "bytes");
+            ex.getResponseHeaders().set("ETag", "\"v1\"");
+            String range = ex.getRequestHeaders().getFirst("Range");
+            if (range == null) {
+                ex.sendResponseHeaders(200, BODY.length);
+                out.write(BODY);
+                return;
+            }
+            int inFlight = rangesInFlight.incrementAndGet();
+            peakRangesInFlight.accumulateAndGet(inFlight, Math::max);
+            try {
+                rangesHeld.await(10, TimeUnit.SECONDS);
+                Thread.sleep(20);
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                int from = Integer.parseInt(bounds[0]);
+                int to = Integer.parseInt(bounds[1]);
+                ex.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + to + "/" + BODY.length);
+                ex.sendResponseHeaders(206, to - from + 1);
+                out.write(BODY, from, to - from + 1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                rangesInFlight.decrementAndGet();
+            }
+        } catch (IOException e) {
+            // The downloader closes the first response after one chunk
+        } finally {
+            ex.close();
+        }
+    }
+}
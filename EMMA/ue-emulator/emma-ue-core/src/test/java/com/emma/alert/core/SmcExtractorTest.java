@@ -0,0 +1,211 @@
+package com.emma.alert.core;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class SmcExtractorTest {
+    private static final byte[] IMAGE = "not really a jpeg".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    File tmp;
+
+    @Test
+    void extractsEveryEntry() throws IOException {
+        File out = dir("out");
+        File zip = zip("alert.smc.zip", false, "image.jpg", IMAGE, "media/clip.mp4", new byte[5000]);
+        SmcExtractor.Manifest manifest = new SmcExtractor().extract(zip, out);
+        assertEquals(2, manifest.entries.size());
+        assertArrayEquals(IMAGE, Files.readAllBytes(new File(out, "image.jpg").toPath()));
+        assertEquals(5000, new File(out, "media/clip.mp4").length());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"../evil.jpg", "media/../../evil.jpg", "/tmp/evil.jpg", "\\evil.jpg",
+            "C:evil.jpg", "C:\\evil.jpg", "evil\0.jpg", "", "media.pack", "MEDIA.PACK", "./media.pack",
+            "sub/../media.pack", ".entry"})
+    void resolveRejectsUnsafeAndReservedNames(String name) {
+        assertThrows(ZipException.class, () -> SmcExtractor.resolve(dir("out"), name));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"image.jpg", "media/clip.mp4", "sub/media.pack", "media.pack.jpg", "..image.jpg"})
+    void resolveKeepsOrdinaryNames(String name) throws IOException {
+        File out = dir("out");
+        File file = SmcExtractor.resolve(out, name);
+        assertTrue(file.getPath().startsWith(out.getCanonicalPath() + File.separator));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"../evil.jpg", "/tmp/evil.jpg", "C:evil.jpg"})
+    void unsafeEntryIsNotWritten(String name) throws IOException {
+        File out = dir("nested/out");
+        File zip = zip("alert.smc.zip", false, "image.jpg", IMAGE, name, IMAGE);
+        assertThrows(ZipException.class, () -> new SmcExtractor().extract(zip, out));
+        assertFalse(new File(tmp, "nested/evil.jpg").exists());
+        try (InputStream in = new FileInputStream(zip)) {
+            assertThrows(ZipException.class, () -> new SmcExtractor().extract(in, dir("streamed")));
+        }
+        assertFalse(new File(tmp, "evil.jpg").exists());
+    }
+
+    @Test
+    void entryWithNulInNameIsRejected() throws IOException {
+        File zip = zip("alert.smc.zip", false, "evil\0.jpg", IMAGE);
+        assertThrows(ZipException.class, () -> new SmcExtractor().extract(zip, dir("out")));
+    }
+
+    @Test
+    void tooManyEntriesAreRejectedBeforeAnyIsWritten() throws IOException {
+        File out = dir("out");
+        File zip = zip("alert.smc.zip", false, "a.jpg", IMAGE, "b.jpg", IMAGE, "c.jpg", IMAGE);
+        SmcExtractor extractor = new SmcExtractor(2, SmcExtractor.DEFAULT_MAX_BYTES, 1);
+        assertThrows(ZipException.class, () -> extractor.extract(zip, out));
+        assertEquals(0, out.list().length);
+        try (InputStream in = new FileInputStream(zip)) {
+            assertThrows(ZipException.class, () -> extractor.extract(in, dir("streamed")));
+        }
+        assertThrows(ZipException.class, () -> extractor.pack(copy(zip), dir("packed")));
+    }
+
+    @Test
+    void understatedSizeIsCaughtWhileCopying() throws IOException {
+        // 1 MB of zeros deflates to about 1 KB; the central directory then claims 10 bytes
+        File zip = zip("bomb.smc.zip", true, "video.mp4", new byte[1024 * 1024]);
+        setCentralDirectorySize(zip, 10);
+        SmcExtractor extractor = new SmcExtractor(SmcExtractor.DEFAULT_MAX_ENTRIES, 64 * 1024, 2);
+
+        ZipException e = assertThrows(ZipException.class, () -> extractor.extract(zip, dir("out")));
+        assertTrue(e.getMessage().contains("expands beyond"), e.getMessage());
+        assertTrue(new File(tmp, "out/video.mp4").length() <= 64 * 1024);
+        assertThrows(ZipException.class, () -> extractor.pack(copy(zip), dir("packed")));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"media.pack", "Media.Pack", ".entry"})
+    void deflatedEntryCannotOverwriteThePack(String name) throws IOException {
+        File out = dir("staging");
+        File zip = zip("alert.smc.zip", true, "image.jpg", IMAGE, name, new byte[4096]);
+        byte[] original = Files.readAllBytes(zip.toPath());
+
+        assertThrows(ZipException.class, () -> new SmcExtractor().pack(zip, out));
+        File pack = new File(out, SmcPack.FILE_NAME);
+        assertArrayEquals(original, Files.readAllBytes(pack.toPath()));
+        assertFalse(new File(out, SmcCache.ENTRY_FILE).exists());
+    }
+
+    @Test
+    void storedEntryWithReservedNameIsRejected() throws IOException {
+        File zip = zip("alert.smc.zip", false, "image.jpg", IMAGE, "media.pack", IMAGE);
+        assertThrows(ZipException.class, () -> new SmcExtractor().pack(zip, dir("staging")));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"image.jpg", "IMAGE.jpg", "./image.jpg"})
+    void duplicateEntryNamesAreRejected(String second) throws IOException {
+        // ZipOutputStream refuses duplicates, so the second entry is renamed afterwards
+        String placeholder = "z".repeat(second.length() - 4) + ".jpg";
+        for (boolean deflate : new boolean[] {false, true}) {
+            File zip = rename(zip("dup.smc.zip", deflate, "image.jpg", IMAGE, placeholder, new byte[5000]),
+                    placeholder, second);
+            assertThrows(ZipException.class, () -> new SmcExtractor().extract(zip, dir("out")));
+            try (InputStream in = new FileInputStream(zip)) {
+                assertThrows(ZipException.class, () -> new SmcExtractor().extract(in, dir("streamed")));
+            }
+            assertThrows(ZipException.class, () -> new SmcExtractor().pack(copy(zip), dir("packed")));
+        }
+    }
+
+    private File dir(String name) {
+        File dir = new File(tmp, name);
+        dir.mkdirs();
+        return dir;
+    }
+
+    private File copy(File zip) throws IOException {
+        File copy = new File(tmp, "copy-" + System.nanoTime() + ".zip");
+        Files.copy(zip.toPath(), copy.toPath());
+        return copy;
+    }
+
+    /** Builds a zip of name/content pairs, stored unless {@code deflate}. */
+    private File zip(String fileName, boolean deflate, Object... entries) throws IOException {
+        File file = new File(tmp, fileName);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(bytes)) {
+            for (int i = 0; i < entries.length; i += 2) {
+                byte[] content = (byte[]) entries[i + 1];
+                ZipEntry entry = new ZipEntry((String) entries[i]);
+                if (!deflate) {
+                    CRC32 crc = new CRC32();
+                    crc.update(content);
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(content.length);
+                    entry.setCompressedSize(content.length);
+                    entry.setCrc(crc.getValue());
+                }
+                zos.putNextEntry(entry);
+                zos.write(content);
+                zos.closeEntry();
+            }
+        }
+        Files.write(file.toPath(), bytes.toByteArray());
+        return file;
+    }
+
+    /** Renames an entry in place, in its local header and its central directory record. */
+    private static File rename(File zip, String from, String to) throws IOException {
+        byte[] name = from.getBytes(StandardCharsets.UTF_8);
+        byte[] replacement = to.getBytes(StandardCharsets.UTF_8);
+        assertEquals(name.length, replacement.length);
+        byte[] data = Files.readAllBytes(zip.toPath());
+        int patched = 0;
+        for (int i = 0; i + name.length <= data.length; i++) {
+            boolean match = true;
+            for (int k = 0; k < name.length && match; k++) {
+                match = data[i + k] == name[k];
+            }
+            if (match) {
+                System.arraycopy(replacement, 0, data, i, replacement.length);
+                patched++;
+            }
+        }
+        assertEquals(2, patched);
+        Files.write(zip.toPath(), data);
+        return zip;
+    }
+
+    /** Rewrites the uncompressed size of every central directory record. */
+    private static void setCentralDirectorySize(File zip, int size) throws IOException {
+        byte[] data = Files.readAllBytes(zip.toPath());
+        int patched = 0;
+        for (int i = 0; i + 46 <= data.length; i++) {
+            if (data[i] == 0x50 && data[i + 1] == 0x4b && data[i + 2] == 0x01 && data[i + 3] == 0x02) {
+                for (int k = 0; k < 4; k++) {
+                    data[i + 24 + k] = (byte) (size >>> (8 * k));
+                }
+                patched++;
+            }
+        }
+        assertTrue(patched > 0);
+        Files.write(zip.toPath(), data);
+    }
+}
@@ -0,0 +1,104 @@
+package com.emma.alert.core;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class SmcPackTest {
+    private static final byte[] IMAGE = "not really a jpeg".getBytes(StandardCharsets.UTF_8);
+    private static final int CEN_SIGNATURE = 0x02014b50;
+    private static final int LOC_SIGNATURE = 0x04034b50;
+
+    @TempDir
+    File tmp;
+
+    @Test
+    void indexesStoredEntries() throws IOException {
+        SmcPack pack = new SmcPack(pack());
+        assertEquals(1, pack.getEntries().size());
+        SmcPack.Entry entry = pack.getPrimary();
+        assertEquals("image.jpg", entry.name);
+        assertTrue(entry.stored);
+        byte[] read = new byte[(int) entry.length];
+        entry.slice().get(read);
+        assertArrayEquals(IMAGE, read);
+    }
+
+    /** Central directory name, extra and comment lengths that point past the end of the file. */
+    @ParameterizedTest
+    @ValueSource(ints = {28, 30, 32})
+    void centralDirectoryLengthPastTheEndIsRejected(int field) throws IOException {
+        File file = pack();
+        patchShort(file, CEN_SIGNATURE, field, 0xffff);
+        assertThrows(ZipException.class, () -> new SmcPack(file));
+    }
+
+    /** Local header name and extra lengths that point past the end of the file. */
+    @ParameterizedTest
+    @ValueSource(ints = {26, 28})
+    void localHeaderLengthPastTheEndIsRejected(int field) throws IOException {
+        File file = pack();
+        patchShort(file, LOC_SIGNATURE, field, 0xffff);
+        assertThrows(ZipException.class, () -> new SmcPack(file));
+    }
+
+    @Test
+    void truncatedFileIsRejected() throws IOException {
+        File file = pack();
+        byte[] data = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(data, 10));
+        assertThrows(ZipException.class, () -> new SmcPack(file));
+    }
+
+    /** A one-entry stored zip, as the cap-generator writes them. */
+    private File pack() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(bytes)) {
+            CRC32 crc = new CRC32();
+            crc.update(IMAGE);
+            ZipEntry entry = new ZipEntry("image.jpg");
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(IMAGE.length);
+            entry.setCompressedSize(IMAGE.length);
+            entry.setCrc(crc.getValue());
+            zos.putNextEntry(entry);
+            zos.write(IMAGE);
+            zos.closeEntry();
+        }
+        File file = new File(tmp, SmcPack.FILE_NAME);
+        Files.write(file.toPath(), bytes.toByteArray());
+        return file;
+    }
+
+    /** Rewrites a little-endian short at {@code field} of the first record with {@code signature}. */
+    private static void patchShort(File file, int signature, int field, int value) throws IOException {
+        byte[] data = Files.readAllBytes(file.toPath());
+        ByteBuffer buf = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i + 4 <= data.length; i++) {
+            if (buf.getInt(i) == signature) {
+                buf.putShort(i + field, (short) value);
+                Files.write(file.toPath(), data);
+                return;
+            }
+        }
+        throw new AssertionError("no record " + Integer.toHexString(signature));
+    }
+}
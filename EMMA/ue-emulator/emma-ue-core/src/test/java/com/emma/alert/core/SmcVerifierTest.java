@@ -0,0 +1,74 @@
+package com.emma.alert.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class SmcVerifierTest {
+    private static final String HASH = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+    private static KeyPair keys;
+    private static String signature;
+
+    @BeforeAll
+    static void sign() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        keys = generator.generateKeyPair();
+        Signature signer = Signature.getInstance(SmcVerifier.ALGORITHM);
+        signer.initSign(keys.getPrivate());
+        signer.update(HASH.getBytes(StandardCharsets.US_ASCII));
+        signature = SmcCache.toHex(signer.sign());
+    }
+
+    @Test
+    void verifiesAgainstTheKeyAndCachesPasses() {
+        SmcVerifier verifier = new SmcVerifier(keys.getPublic());
+        assertTrue(verifier.isEnabled());
+        assertTrue(verifier.isKeyAvailable());
+        assertTrue(verifier.verify(HASH, signature));
+        assertTrue(verifier.verify(HASH, signature));
+        assertEquals(1, verifier.getVerificationCount());
+        assertEquals(1, verifier.getCacheHitCount());
+
+        assertFalse(verifier.verify(HASH.replace('9', '8'), signature));
+        assertFalse(verifier.verify(HASH, "zz"));
+        assertFalse(verifier.verify(HASH, null));
+        assertFalse(verifier.verify(null, signature));
+        assertEquals(4, verifier.getFailureCount());
+    }
+
+    @Test
+    void requiresAKey() {
+        assertThrows(NullPointerException.class, () -> new SmcVerifier(null));
+    }
+
+    @Test
+    void keyUnavailableRejectsEverything() {
+        SmcVerifier verifier = SmcVerifier.keyUnavailable();
+        assertTrue(verifier.isEnabled());
+        assertFalse(verifier.isKeyAvailable());
+        assertFalse(verifier.verify(HASH, signature));
+        assertFalse(verifier.verify(null, null));
+        assertEquals(2, verifier.getFailureCount());
+    }
+
+    @Test
+    void disabledAcceptsEverything() {
+        SmcVerifier verifier = SmcVerifier.disabled();
+        assertFalse(verifier.isEnabled());
+        assertTrue(verifier.isKeyAvailable());
+        assertTrue(verifier.verify(HASH, "00"));
+        assertTrue(verifier.verify(null, null));
+        assertEquals(0, verifier.getFailureCount());
+    }
+}
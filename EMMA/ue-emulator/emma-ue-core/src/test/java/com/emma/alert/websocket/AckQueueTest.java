@@ -0,0 +1,105 @@
+package com.emma.alert.websocket;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+class AckQueueTest {
+    private final AckQueue queue = new AckQueue();
+
+    @Test
+    void receivedAndDisplayedAreCoalesced() {
+        assertEquals(1, queue.add("a", true, false, 100));
+        assertEquals(1, queue.add("a", true, true, 250));
+        // Repeats keep the first time of each
+        assertEquals(1, queue.add("a", true, true, 400));
+
+        List<AckQueue.Ack> batch = queue.drain(10);
+        assertEquals(1, batch.size());
+        AckQueue.Ack ack = batch.get(0);
+        assertEquals("a", ack.alertId);
+        assertEquals(100, ack.receivedAt);
+        assertEquals(250, ack.displayedAt);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    void displayedOnlyAckIsNotReceived() {
+        queue.add("a", false, true, 100);
+        AckQueue.Ack ack = queue.drain(10).get(0);
+        assertFalse(ack.received());
+        assertTrue(ack.displayed());
+    }
+
+    @Test
+    void drainsOldestFirstInBatches() {
+        queue.add("a", true, false, 1);
+        queue.add("b", true, false, 2);
+        queue.add("c", true, false, 3);
+        // Coalescing into "a" does not move it to the back
+        assertEquals(3, queue.add("a", true, true, 4));
+
+        assertEquals(List.of("a", "b"), ids(queue.drain(2)));
+        assertFalse(queue.isEmpty());
+        assertEquals(List.of("c"), ids(queue.drain(2)));
+        assertTrue(queue.isEmpty());
+        assertTrue(queue.drain(2).isEmpty());
+    }
+
+    @Test
+    void pendingIsBoundedAt1024DroppingTheOldest() {
+        for (int i = 0; i < 1030; i++) {
+            assertEquals(Math.min(i + 1, 1024), queue.add("alert-" + i, true, false, i + 1));
+        }
+        // An alert already pending is coalesced, not added, so nothing more is dropped
+        assertEquals(1024, queue.add("alert-6", true, true, 5000));
+
+        List<AckQueue.Ack> batch = queue.drain(2000);
+        assertEquals(1024, batch.size());
+        assertEquals("alert-6", batch.get(0).alertId);
+        assertEquals(5000, batch.get(0).displayedAt);
+        assertEquals("alert-1029", batch.get(1023).alertId);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    void flushedReceiptTimeIsKeptForALateDisplayedAck() {
+        queue.add("a", true, false, 100);
+        queue.drain(10);
+        queue.add("a", true, true, 900);
+        AckQueue.Ack ack = queue.drain(10).get(0);
+        assertEquals(100, ack.receivedAt);
+        assertEquals(900, ack.displayedAt);
+    }
+
+    @Test
+    void ackFlushedWithoutReceiptIsNotRemembered() {
+        queue.add("a", false, true, 100);
+        queue.drain(10);
+        queue.add("a", true, false, 300);
+        assertEquals(300, queue.drain(10).get(0).receivedAt);
+    }
+
+    @Test
+    void rememberedReceiptsAreBoundedAt256() {
+        for (int i = 0; i < 257; i++) {
+            queue.add("alert-" + i, true, false, i + 1);
+        }
+        assertEquals(257, queue.drain(1000).size());
+
+        // alert-0 was the oldest of 257 and has been forgotten; alert-1 has not
+        queue.add("alert-0", true, true, 5000);
+        queue.add("alert-1", true, true, 5000);
+        List<AckQueue.Ack> batch = queue.drain(10);
+        assertEquals(5000, batch.get(0).receivedAt);
+        assertEquals(2, batch.get(1).receivedAt);
+    }
+
+    private static List<String> ids(List<AckQueue.Ack> batch) {
+        return batch.stream().map(ack -> ack.alertId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,182 @@
+package com.emma.alert.websocket;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Runs {@link Cbor} against {@code shared/cbor-vectors.json}, the vectors
+ * {@code alert-distributor/wire.test.js} runs wire.js against, so both ends of the
+ * WebSocket agree on every frame either can send.
+ */
+class CborTest {
+    // Set by the surefire configuration in emma-ue-core/pom.xml
+    private static final String VECTORS_PROPERTY = "cbor.vectors";
+
+    static Stream<Arguments> valid() throws IOException {
+        return vectors("valid", vector -> true);
+    }
+
+    static Stream<Arguments> canonical() throws IOException {
+        return vectors("valid", vector -> vector.getBoolean("canonical"));
+    }
+
+    static Stream<Arguments> invalid() throws IOException {
+        return vectors("invalid", vector -> true);
+    }
+
+    static Stream<Arguments> unencodable() throws IOException {
+        return vectors("invalid", vector -> vector.has("value"));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("valid")
+    void decodes(String name, byte[] frame, Object expected) throws Cbor.CborException {
+        assertValue(expected, Cbor.decode(frame), name);
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("canonical")
+    void encodes(String name, byte[] frame, Object value) {
+        assertEquals(hex(frame), hex(Cbor.writer().value(value).toByteArray()), name);
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("invalid")
+    void rejects(String name, byte[] frame) {
+        assertThrows(Cbor.CborException.class, () -> Cbor.decode(frame), name);
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("unencodable")
+    void refusesToEncode(String name, byte[] frame, Object value) {
+        assertThrows(IllegalArgumentException.class, () -> Cbor.writer().value(value), name);
+    }
+
+    private static Stream<Arguments> vectors(String kind, Predicate<JSONObject> filter) throws IOException {
+        String vectors = System.getProperty(VECTORS_PROPERTY);
+        if (vectors == null) {
+            throw new IllegalStateException("System property " + VECTORS_PROPERTY + " is not set");
+        }
+        JSONArray list = new JSONObject(Files.readString(Path.of(vectors))).getJSONArray(kind);
+        return IntStream.range(0, list.length())
+                .mapToObj(list::getJSONObject)
+                .filter(filter)
+                .map(vector -> Arguments.of(vector.getString("name"), bytes(vector.getString("hex")),
+                        expected(vector.opt("value"))));
+    }
+
+    /** Turns a vector's JSON value into what {@link Cbor#decode} returns for it. */
+    private static Object expected(Object json) {
+        if (json == null || json == JSONObject.NULL) {
+            return null;
+        }
+        if (json instanceof JSONArray) {
+            JSONArray array = (JSONArray) json;
+            List<Object> list = new ArrayList<>();
+            for (int i = 0; i < array.length(); i++) {
+                list.add(expected(array.get(i)));
+            }
+            return list;
+        }
+        if (json instanceof JSONObject) {
+            JSONObject object = (JSONObject) json;
+            if (object.has("$bytes")) {
+                return bytes(object.getString("$bytes"));
+            }
+            if (object.has("$float")) {
+                Object number = object.get("$float");
+                return number instanceof String ? special((String) number) : ((Number) number).doubleValue();
+            }
+            JSONArray pairs = object.getJSONArray("$map");
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (int i = 0; i < pairs.length(); i++) {
+                JSONArray pair = pairs.getJSONArray(i);
+                map.put(pair.getString(0), expected(pair.get(1)));
+            }
+            return map;
+        }
+        if (json instanceof Number) {
+            return ((Number) json).longValue();
+        }
+        return json;
+    }
+
+    private static Double special(String name) {
+        switch (name) {
+            case "NaN":
+                return Double.NaN;
+            case "Infinity":
+                return Double.POSITIVE_INFINITY;
+            case "-Infinity":
+                return Double.NEGATIVE_INFINITY;
+            case "-0":
+                return -0.0;
+            default:
+                throw new IllegalArgumentException("Unknown $float " + name);
+        }
+    }
+
+    /** Like assertEquals, but strict about Long versus Double, -0.0 and NaN, and map order. */
+    private static void assertValue(Object expected, Object actual, String path) {
+        if (expected == null) {
+            assertEquals(null, actual, path);
+        } else if (expected instanceof byte[]) {
+            assertTrue(actual instanceof byte[], path + ": " + actual);
+            assertArrayEquals((byte[]) expected, (byte[]) actual, path);
+        } else if (expected instanceof Map) {
+            assertTrue(actual instanceof Map, path + ": " + actual);
+            Map<?, ?> want = (Map<?, ?>) expected;
+            Map<?, ?> got = (Map<?, ?>) actual;
+            assertEquals(new ArrayList<>(want.keySet()), new ArrayList<>(got.keySet()), path);
+            for (Map.Entry<?, ?> entry : want.entrySet()) {
+                assertValue(entry.getValue(), got.get(entry.getKey()), path + "." + entry.getKey());
+            }
+        } else if (expected instanceof List) {
+            assertTrue(actual instanceof List, path + ": " + actual);
+            List<?> want = (List<?>) expected;
+            List<?> got = (List<?>) actual;
+            assertEquals(want.size(), got.size(), path);
+            for (int i = 0; i < want.size(); i++) {
+                assertValue(want.get(i), got.get(i), path + "[" + i + "]");
+            }
+        } else {
+            // Double.equals tells -0.0 from 0.0 and matches NaN with NaN
+            assertEquals(expected.getClass(), actual == null ? null : actual.getClass(), path);
+            assertEquals(expected, actual, path);
+        }
+    }
+
+    private static byte[] bytes(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+}
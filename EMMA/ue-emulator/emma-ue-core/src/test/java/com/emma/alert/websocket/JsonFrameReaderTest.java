@@ -0,0 +1,169 @@
+package com.emma.alert.websocket;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.emma.alert.websocket.JsonFrameReader.FrameType;
+import com.emma.alert.websocket.JsonFrameReader.MalformedFrameException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class JsonFrameReaderTest {
+    private static final String ALERT_FRAME = "{\"type\":\"emergency_alert\",\"alert\":{"
+            + "\"identifier\":\"EMMA-1\",\"msg_type\":\"Alert\",\"extra\":{\"deep\":[1,{\"x\":null}]},"
+            + "\"headline\":\"Flood \\u2013 \\\"move\\\" now\",\"media_attachments\":[{\"a\":1},\"b\"],"
+            + "\"fleetSentAt\":1718000000000,\"areas\":[{\"polygon\":\"40.70,-74.02 40.72,-74.02 40.72,-73.99 40.70,-74.02\"},"
+            + "7,{\"circle\":\"40.75,-73.98 1.5\",\"note\":[true,false]}]},\"replayed\":true,\"seq\":4242}";
+
+    private final JsonFrameReader reader = new JsonFrameReader();
+
+    @Test
+    void dispatchesKnownTypes() throws MalformedFrameException {
+        assertEquals(FrameType.HEARTBEAT_ACK, reader.reset("{\"type\":\"heartbeat_ack\"}").peekType());
+        assertEquals(FrameType.EMERGENCY_ALERT, reader.reset(ALERT_FRAME).peekType());
+        // Found after members of every kind, with whitespace anywhere it is allowed
+        assertEquals(FrameType.SESSION_EXPIRED, reader.reset(" {\r\n\t\"a\" : [ 1 , { \"b\" : \"}\" } ] ,"
+                + " \"c\":-1.5e+3, \"d\":null ,\"type\"\t:\n\"session_expired\" } ").peekType());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"{}", "{\"kind\":\"welcome\"}", "{\"type\":\"welcome_back\"}", "{\"type\":\"welcom\"}",
+            "{\"type\":5}", "{\"type\":null}", "{\"type\":{\"name\":\"welcome\"}}", "{\"type\":\"\\u0077elcome\"}",
+            "{\"typ\\u0065\":\"welcome\"}"})
+    void missingOrUnknownTypeIsUnknown(String frame) throws MalformedFrameException {
+        assertEquals(FrameType.UNKNOWN, reader.reset(frame).peekType());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "   ", "[]", "\"type\"", "null", "{", "{\"type\"", "{\"type\":", "{\"type\":\"welcome",
+            "{\"type\" \"welcome\"}", "{type:\"welcome\"}", "{\"a\":1 \"type\":\"welcome\"}", "{\"a\":1,}",
+            "{\"a\":[1,2}", "{\"a\":{\"b\":1]}"})
+    void structuralErrorsAreMalformed(String frame) {
+        assertThrows(MalformedFrameException.class, () -> reader.reset(frame).peekType());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"tru", "True", "nul", "falsey", "NaN", "Infinity", "-", "01", "-01", "1.", ".5", "1e",
+            "1e+", "+1", "0x10", "1:2", "1-2", "1x"})
+    void badLiteralsAreMalformedWhereverTheyAre(String literal) {
+        assertThrows(MalformedFrameException.class,
+                () -> reader.reset("{\"a\":" + literal + ",\"type\":\"welcome\"}").peekType());
+        assertThrows(MalformedFrameException.class,
+                () -> reader.reset("{\"a\":[{\"b\":" + literal + "}],\"type\":\"welcome\"}").peekType());
+        assertThrows(MalformedFrameException.class,
+                () -> reader.reset("{\"type\":\"welcome\",\"message\":" + literal + "}").readString("message"));
+    }
+
+    @Test
+    void decodesEscapes() throws MalformedFrameException {
+        reader.reset("{\"message\":\"q\\\" b\\\\ s\\/ \\b\\f\\n\\r\\t \\u00e9\\u00E9 \\uD83C\\uDF0A end\"}");
+        assertEquals("q\" b\\ s/ \b\f\n\r\t \u00e9\u00e9 \uD83C\uDF0A end", reader.readString("message"));
+        assertEquals("plain", reader.reset("{\"message\":\"plain\"}").readString("message"));
+        assertEquals("", reader.reset("{\"message\":\"\"}").readString("message"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"\\x", "\\a", "\\'", "\\u12", "\\u12G4", "\\u+041", "\\u-041", "\\u\uff10041", "a\\u"})
+    void badEscapesAreMalformed(String escape) {
+        assertThrows(MalformedFrameException.class,
+                () -> reader.reset("{\"message\":\"" + escape + "\"}").readString("message"));
+    }
+
+    @Test
+    void readsOtherScalarsAsWritten() throws MalformedFrameException {
+        assertEquals("true", reader.reset("{\"resumed\":true}").readString("resumed"));
+        assertEquals("-1.5e3", reader.reset("{\"n\":-1.5e3}").readString("n"));
+        assertNull(reader.reset("{\"message\":null}").readString("message"));
+        assertNull(reader.reset("{\"message\":{\"text\":\"x\"}}").readString("message"));
+        assertNull(reader.reset("{\"type\":\"error\"}").readString("message"));
+    }
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', value = {"0|0", "42|42", "-7|-7", "-0|0", "9223372036854775807|9223372036854775807",
+            "-9223372036854775808|-9223372036854775808", "1e3|1000", "2.0|2", "1.5E+2|150", "-4200e-2|-42",
+            "\"5\"|0", "true|0", "null|0", "[1]|0", "{\"seq\":1}|0"})
+    void readsIntegers(String literal, long expected) throws MalformedFrameException {
+        assertEquals(expected, reader.reset("{\"seq\":" + literal + ",\"type\":\"emergency_alert\"}").readLong("seq"));
+    }
+
+    @Test
+    void absentIntegerIsZero() throws MalformedFrameException {
+        assertEquals(0, reader.reset("{\"type\":\"emergency_alert\"}").readLong("seq"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"1x", "1-2", "12a3", "--1", "-", "01", "1.5", "0.1", "1e-1", "9223372036854775808",
+            "-9223372036854775809", "99999999999999999999999", "1e19", "-1e19", "1e400", "-1e400"})
+    void invalidOrOversizedIntegersAreMalformed(String literal) {
+        assertThrows(MalformedFrameException.class,
+                () -> reader.reset("{\"seq\":" + literal + "}").readLong("seq"));
+    }
+
+    @Test
+    void nestingIsCappedAt64Levels() throws MalformedFrameException {
+        assertEquals(FrameType.WELCOME, reader.reset(nested(64, '[', ']') + "\"type\":\"welcome\"}").peekType());
+        assertEquals(FrameType.WELCOME, reader.reset(nested(64, '{', '}') + "\"type\":\"welcome\"}").peekType());
+        assertThrows(MalformedFrameException.class,
+                () -> reader.reset(nested(65, '[', ']') + "\"type\":\"welcome\"}").peekType());
+        assertThrows(MalformedFrameException.class,
+                () -> reader.reset(nested(65, '{', '}') + "\"type\":\"welcome\"}").peekType());
+    }
+
+    @Test
+    void readsAlert() throws MalformedFrameException {
+        WebSocketAlert alert = new WebSocketAlert();
+        reader.reset(ALERT_FRAME);
+        assertTrue(reader.readAlert(alert));
+        assertEquals("EMMA-1", alert.identifier);
+        assertEquals("Alert", alert.msgType);
+        assertEquals("Flood \u2013 \"move\" now", alert.headline);
+        assertEquals(2, alert.mediaAttachments);
+        assertEquals(1718000000000L, alert.fleetSentAt);
+        assertNotNull(alert.area);
+        assertEquals(2, alert.area.size());
+        assertTrue(alert.area.contains(40.71, -74.01));
+        assertTrue(alert.area.contains(40.75, -73.98));
+        assertEquals(4242, reader.readLong("seq"));
+        assertEquals("true", reader.readString("replayed"));
+
+        assertFalse(reader.reset("{\"type\":\"emergency_alert\",\"alert\":\"EMMA-1\"}").readAlert(alert));
+        assertNull(alert.identifier);
+        assertFalse(reader.reset("{\"type\":\"emergency_alert\"}").readAlert(alert));
+        assertTrue(reader.reset("{\"alert\":{}}").readAlert(alert));
+    }
+
+    @Test
+    void everyTruncationIsMalformed() {
+        // seq is last, so reading it always runs into the cut
+        for (int cut = 0; cut < ALERT_FRAME.length(); cut++) {
+            String frame = ALERT_FRAME.substring(0, cut);
+            assertThrows(MalformedFrameException.class, () -> {
+                reader.reset(frame).peekType();
+                reader.readAlert(new WebSocketAlert());
+                reader.readLong("seq");
+            }, frame);
+        }
+    }
+
+    /** {@code levels} containers around a 0 as the value of member "a", then a trailing comma. */
+    private static String nested(int levels, char open, char close) {
+        StringBuilder sb = new StringBuilder("{\"a\":");
+        for (int i = 0; i < levels; i++) {
+            sb.append(open);
+            if (open == '{') {
+                sb.append("\"k\":");
+            }
+        }
+        sb.append('0');
+        for (int i = 0; i < levels; i++) {
+            sb.append(close);
+        }
+        return sb.append(',').toString();
+    }
+}
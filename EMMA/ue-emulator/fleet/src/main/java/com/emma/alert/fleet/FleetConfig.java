@@ -0,0 +1,84 @@
+package com.emma.alert.fleet;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Fleet runner settings. Values come from a properties file and can be overridden on the
+ * command line with {@code -Dfleet.<key>=value}.
+ */
+public class FleetConfig {
+    public final String serverUrl;
+    public final String distributorHttpUrl;
+    public final int ueCount;
+    public final String ueIdPrefix;
+    public final double centerLat;
+    public final double centerLon;
+    public final double radiusKm;
+    public final int rampUpPerSecond;
+    public final int timerThreads;
+    public final long threadStackBytes;
+    public final int alertCount;
+    public final long alertIntervalMs;
+    public final long alertStartDelayMs;
+    public final long durationSeconds;
+    public final long statsIntervalSeconds;
+    public final long seed;
+    public final String clientLogLevel;
+    /** "cbor" to offer binary frames at registration, "json" to stay on text. */
+    public final String wireFormat;
+    /** Random-walk speed of every UE in m/s; 0 keeps the fleet stationary. */
+    public final double moveSpeedMps;
+    /** How often a moving UE hands a new position to its client. */
+    public final long locationIntervalMs;
+
+    private FleetConfig(Properties props) {
+        serverUrl = get(props, "serverUrl", "ws://localhost:8080");
+        distributorHttpUrl = get(props, "distributorHttpUrl", "http://localhost:3001");
+        ueCount = Integer.parseInt(get(props, "ueCount", "1000"));
+        ueIdPrefix = get(props, "ueIdPrefix", "FLEET-UE-");
+        centerLat = Double.parseDouble(get(props, "centerLat", "40.7128"));
+        centerLon = Double.parseDouble(get(props, "centerLon", "-74.0060"));
+        radiusKm = Double.parseDouble(get(props, "radiusKm", "10"));
+        rampUpPerSecond = Integer.parseInt(get(props, "rampUpPerSecond", "500"));
+        timerThreads = Integer.parseInt(get(props, "timerThreads", "4"));
+        threadStackBytes = Long.parseLong(get(props, "threadStackBytes", "262144"));
+        alertCount = Integer.parseInt(get(props, "alertCount", "10"));
+        alertIntervalMs = Long.parseLong(get(props, "alertIntervalMs", "5000"));
+        alertStartDelayMs = Long.parseLong(get(props, "alertStartDelayMs", "10000"));
+        durationSeconds = Long.parseLong(get(props, "durationSeconds", "120"));
+        statsIntervalSeconds = Long.parseLong(get(props, "statsIntervalSeconds", "5"));
+        seed = Long.parseLong(get(props, "seed", "42"));
+        clientLogLevel = get(props, "clientLogLevel", "WARNING");
+        wireFormat = get(props, "wireFormat", "cbor");
+        moveSpeedMps = Double.parseDouble(get(props, "moveSpeedMps", "0"));
+        locationIntervalMs = Long.parseLong(get(props, "locationIntervalMs", "1000"));
+    }
+
+    public static FleetConfig load(String path) throws IOException {
+        Properties props = new Properties();
+        if (path != null) {
+            try (InputStream in = new FileInputStream(path)) {
+                props.load(in);
+            }
+        }
+        return new FleetConfig(props);
+    }
+
+    private static String get(Properties props, String key, String defaultValue) {
+        String override = System.getProperty("fleet." + key);
+        if (override != null) {
+            return override;
+        }
+        return props.getProperty(key, defaultValue).trim();
+    }
+
+    @Override
+    public String toString() {
+        return "ueCount=" + ueCount + " server=" + serverUrl + " rampUp=" + rampUpPerSecond + "/s"
+                + " alerts=" + alertCount + "x" + alertIntervalMs + "ms duration=" + durationSeconds + "s"
+                + " wire=" + wireFormat + " move=" + moveSpeedMps + "m/s";
+    }
+}
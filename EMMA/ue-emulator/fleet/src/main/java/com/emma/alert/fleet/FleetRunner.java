@@ -0,0 +1,256 @@
+package com.emma.alert.fleet;
+
+import com.emma.alert.websocket.WebSocketAlertClient;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Headless load generator: runs thousands of {@link WebSocketAlertClient}s in one JVM against
+ * the alert-distributor, injects alerts through its HTTP API and reports fan-out latency.
+ *
+ * <p>All clients share one OkHttpClient (dispatcher, connection pool) and one timer pool.
+ * OkHttp keeps each WebSocket's reader loop on a dispatcher thread for the life of the
+ * connection, so the dispatcher is sized to the fleet and its threads use a small stack.
+ *
+ * <pre>java -jar fleet/target/emma-ue-fleet.jar fleet.properties</pre>
+ */
+public class FleetRunner {
+    private static final Logger LOG = Logger.getLogger("FleetRunner");
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    private final FleetConfig config;
+    private final FleetStats stats = new FleetStats();
+    private final List<FleetUe> fleet = new ArrayList<>();
+    private OkHttpClient httpClient;
+    private ScheduledExecutorService scheduler;
+
+    public FleetRunner(FleetConfig config) {
+        this.config = config;
+    }
+
+    public static void main(String[] args) throws Exception {
+        FleetConfig config = FleetConfig.load(args.length > 0 ? args[0] : null);
+        new FleetRunner(config).run();
+    }
+
+    public void run() throws InterruptedException {
+        Logger.getLogger("WebSocketAlertClient").setLevel(Level.parse(config.clientLogLevel));
+        LOG.info("Starting fleet: " + config);
+
+        httpClient = buildHttpClient();
+        scheduler = Executors.newScheduledThreadPool(config.timerThreads, daemonThreads("fleet-timer", 0));
+        Executor callbacks = WebSocketAlertClient.DIRECT;
+
+        Random random = new Random(config.seed);
+        for (int i = 0; i < config.ueCount; i++) {
+            double[] position = randomPosition(random);
+            FleetUe ue = new FleetUe(config.ueIdPrefix + i, position[0], position[1], stats);
+            WebSocketAlertClient client = new WebSocketAlertClient(config.serverUrl, ue.getUeId(), ue,
+                    httpClient, scheduler, callbacks);
+            client.setBinaryWireFormat(WebSocketAlertClient.WIRE_FORMAT_CBOR.equals(config.wireFormat));
+            ue.attach(client);
+            fleet.add(ue);
+        }
+
+        long started = System.currentTimeMillis();
+        rampUp();
+        scheduleAlerts();
+        scheduleMovement(random);
+        scheduler.scheduleAtFixedRate(() -> printStats(started),
+                config.statsIntervalSeconds, config.statsIntervalSeconds, TimeUnit.SECONDS);
+
+        CountDownLatch done = new CountDownLatch(1);
+        scheduler.schedule(done::countDown, config.durationSeconds, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(done::countDown));
+        done.await();
+
+        shutdown(started);
+    }
+
+    private OkHttpClient buildHttpClient() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), daemonThreads("fleet-ws", config.threadStackBytes));
+        Dispatcher dispatcher = new Dispatcher(executor);
+        // Every open WebSocket holds a dispatcher slot, and the whole fleet targets one host.
+        dispatcher.setMaxRequests(config.ueCount + 16);
+        dispatcher.setMaxRequestsPerHost(config.ueCount + 16);
+
+        return WebSocketAlertClient.newHttpClientBuilder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(16, 5, TimeUnit.MINUTES))
+                .build();
+    }
+
+    private void rampUp() {
+        AtomicInteger next = new AtomicInteger();
+        AtomicReference<ScheduledFuture<?>> task = new AtomicReference<>();
+        int perTick = Math.max(1, config.rampUpPerSecond / 10);
+        task.set(scheduler.scheduleAtFixedRate(() -> {
+            for (int i = 0; i < perTick; i++) {
+                int index = next.getAndIncrement();
+                if (index >= fleet.size()) {
+                    task.get().cancel(false);
+                    return;
+                }
+                fleet.get(index).connect();
+            }
+        }, 0, 100, TimeUnit.MILLISECONDS));
+    }
+
+    private void scheduleAlerts() {
+        for (int i = 0; i < config.alertCount; i++) {
+            int sequence = i;
+            scheduler.schedule(() -> injectAlert(sequence),
+                    config.alertStartDelayMs + i * config.alertIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void scheduleMovement(Random random) {
+        if (config.moveSpeedMps <= 0) {
+            return;
+        }
+        double meters = config.moveSpeedMps * config.locationIntervalMs / 1000.0;
+        scheduler.scheduleAtFixedRate(() -> {
+            for (FleetUe ue : fleet) {
+                ue.move(meters, random);
+            }
+        }, config.locationIntervalMs, config.locationIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void injectAlert(int sequence) {
+        try {
+            JSONObject alert = new JSONObject();
+            alert.put("identifier", "FLEET-" + config.seed + "-" + sequence);
+            alert.put("headline", "Fleet load test alert " + sequence);
+            alert.put("description", "Synthetic alert injected by the UE fleet runner");
+            alert.put("severity", "Extreme");
+            alert.put("urgency", "Immediate");
+            alert.put("fleetSentAt", System.currentTimeMillis());
+
+            Request request = new Request.Builder()
+                    .url(config.distributorHttpUrl + "/distribute-alert")
+                    .post(RequestBody.create(alert.toString(), JSON))
+                    .build();
+            try (Response response = httpClient.newCall(request).execute()) {
+                if (response.isSuccessful()) {
+                    stats.alertsInjected.incrementAndGet();
+                } else {
+                    LOG.warning("Alert injection failed: HTTP " + response.code());
+                }
+            }
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Alert injection failed", e);
+        }
+    }
+
+    private void printStats(long started) {
+        long elapsed = (System.currentTimeMillis() - started) / 1000;
+        stats.connectedUeMillis.addAndGet(stats.connected.get() * config.statsIntervalSeconds * 1000);
+        System.out.printf("[%4ds] connected=%d/%d connects=%d (+%d) disconnects=%d reconnects=%d errors=%d "
+                        + "alerts injected=%d received=%d replayed=%d latency(%s)%n",
+                elapsed, stats.connected.get(), config.ueCount, stats.connects.get(),
+                stats.rollIntervalConnects(), stats.disconnects.get(), stats.reconnectsScheduled.get(),
+                stats.errors.get(), stats.alertsInjected.get(),
+                stats.alertsReceived.get(), stats.alertsReplayed.get(), stats.intervalLatency.summary("ms"));
+        stats.intervalLatency.reset();
+    }
+
+    private void shutdown(long started) {
+        for (FleetUe ue : fleet) {
+            ue.disconnect();
+        }
+        scheduler.shutdownNow();
+
+        long expected = stats.alertsInjected.get() * (long) config.ueCount;
+        System.out.printf("Fleet summary after %ds: UEs=%d peak connects=%d alerts injected=%d "
+                        + "deliveries=%d/%d fan-out latency(%s) mean=%.1fms%n",
+                (System.currentTimeMillis() - started) / 1000, config.ueCount, stats.connects.get(),
+                stats.alertsInjected.get(), stats.alertsReceived.get(), expected,
+                stats.fanOutLatency.summary("ms"), stats.fanOutLatency.mean());
+        stats.rollIntervalConnects();
+        printKeepalive();
+        printLocation();
+        System.out.printf("Reconnects: scheduled=%d most connects in one %ds interval=%d delay(%s)%n",
+                stats.reconnectsScheduled.get(), config.statsIntervalSeconds,
+                stats.peakIntervalConnects.get(), stats.reconnectDelay.summary("ms"));
+
+        httpClient.dispatcher().executorService().shutdown();
+        httpClient.connectionPool().evictAll();
+    }
+
+    /**
+     * Heartbeat frames the fleet actually sent (each answered by a heartbeat_ack), against what
+     * fixed 30 s keepalive cost for the same connected time: a client heartbeat, an OkHttp ping
+     * and a distributor ping, each with its reply. Distributor pings to silent UEs are in its
+     * /stats as livenessPings.
+     */
+    private void printKeepalive() {
+        long heartbeats = 0;
+        for (FleetUe ue : fleet) {
+            heartbeats += ue.heartbeatsSent();
+        }
+        long frames = heartbeats * 2;
+        long fixedFrames = stats.connectedUeMillis.get() / 30000 * 6;
+        System.out.printf("Keepalive: heartbeats=%d (%d frames) vs ~%d frames at fixed 30s intervals, %.0f%% saved%n",
+                heartbeats, frames, fixedFrames, fixedFrames > 0 ? 100.0 * (fixedFrames - frames) / fixedFrames : 0.0);
+    }
+
+    /**
+     * Position fixes handed to the clients against the location_update frames they sent. Before
+     * throttling every fix was a frame; moves within a targeting cell now ride on heartbeats.
+     */
+    private void printLocation() {
+        if (config.moveSpeedMps <= 0) {
+            return;
+        }
+        long fixes = 0;
+        long updates = 0;
+        for (FleetUe ue : fleet) {
+            fixes += ue.locationFixes();
+            updates += ue.locationUpdatesSent();
+        }
+        System.out.printf("Location: fixes=%d location_update frames=%d (%.1fx fewer)%n",
+                fixes, updates, updates > 0 ? (double) fixes / updates : (double) fixes);
+    }
+
+    private double[] randomPosition(Random random) {
+        // Uniform over a disc: sqrt on the radius, equirectangular offsets are fine at city scale.
+        double distanceKm = config.radiusKm * Math.sqrt(random.nextDouble());
+        double bearing = random.nextDouble() * 2 * Math.PI;
+        double dLat = distanceKm * Math.cos(bearing) / 111.32;
+        double dLon = distanceKm * Math.sin(bearing) / (111.32 * Math.cos(Math.toRadians(config.centerLat)));
+        return new double[] {config.centerLat + dLat, config.centerLon + dLon};
+    }
+
+    private static ThreadFactory daemonThreads(String name, long stackBytes) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(null, r, name + "-" + counter.incrementAndGet(), stackBytes);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
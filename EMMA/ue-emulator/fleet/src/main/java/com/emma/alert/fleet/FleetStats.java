@@ -0,0 +1,67 @@
+package com.emma.alert.fleet;
+
+import com.emma.alert.core.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Fleet-wide counters shared by all simulated UEs. */
+class FleetStats {
+    final AtomicInteger connected = new AtomicInteger();
+    final AtomicLong connects = new AtomicLong();
+    final AtomicLong disconnects = new AtomicLong();
+    final AtomicLong reconnectsScheduled = new AtomicLong();
+    // Connects in the current stats interval, and the most in any interval: a reconnect
+    // storm shows up as a spike here, backoff with jitter as a flat ramp
+    final AtomicLong intervalConnects = new AtomicLong();
+    final AtomicLong peakIntervalConnects = new AtomicLong();
+    final LatencyHistogram reconnectDelay = new LatencyHistogram();
+    // Sampled at each stats interval, for the keepalive comparison
+    final AtomicLong connectedUeMillis = new AtomicLong();
+    final AtomicLong errors = new AtomicLong();
+    final AtomicLong alertsReceived = new AtomicLong();
+    final AtomicLong alertsInjected = new AtomicLong();
+    final AtomicLong alertsReplayed = new AtomicLong();
+    final LatencyHistogram fanOutLatency = new LatencyHistogram();
+    final LatencyHistogram intervalLatency = new LatencyHistogram();
+
+    void connectionChanged(boolean up) {
+        if (up) {
+            connected.incrementAndGet();
+            connects.incrementAndGet();
+            intervalConnects.incrementAndGet();
+        } else {
+            connected.decrementAndGet();
+            disconnects.incrementAndGet();
+        }
+    }
+
+    void reconnectScheduled(long delayMs) {
+        reconnectsScheduled.incrementAndGet();
+        reconnectDelay.record(delayMs);
+    }
+
+    /** Closes the current interval and returns its connect count. */
+    long rollIntervalConnects() {
+        long count = intervalConnects.getAndSet(0);
+        peakIntervalConnects.accumulateAndGet(count, Math::max);
+        return count;
+    }
+
+    void alertReceived(long latencyMs) {
+        alertsReceived.incrementAndGet();
+        if (latencyMs >= 0) {
+            fanOutLatency.record(latencyMs);
+            intervalLatency.record(latencyMs);
+        }
+    }
+
+    void alertReplayed() {
+        alertsReceived.incrementAndGet();
+        alertsReplayed.incrementAndGet();
+    }
+
+    void error() {
+        errors.incrementAndGet();
+    }
+}
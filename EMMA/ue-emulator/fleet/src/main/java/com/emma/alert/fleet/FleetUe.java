@@ -0,0 +1,107 @@
+package com.emma.alert.fleet;
+
+import com.emma.alert.websocket.WebSocketAlert;
+import com.emma.alert.websocket.WebSocketAlertClient;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Random;
+
+/**
+ * One simulated handset: a WebSocketAlertClient with its own ueId and location, reporting
+ * into the fleet-wide counters instead of a UI.
+ */
+class FleetUe implements WebSocketAlertClient.AlertHandler {
+    private final String ueId;
+    private double latitude;
+    private double longitude;
+    private double heading;
+    private long locationFixes;
+    private final FleetStats stats;
+    private WebSocketAlertClient client;
+    private boolean connected;
+
+    FleetUe(String ueId, double latitude, double longitude, FleetStats stats) {
+        this.ueId = ueId;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.stats = stats;
+    }
+
+    void attach(WebSocketAlertClient client) {
+        this.client = client;
+    }
+
+    void connect() {
+        JSONObject location = new JSONObject();
+        try {
+            location.put("lat", latitude);
+            location.put("lon", longitude);
+        } catch (JSONException e) {
+            location = null;
+        }
+        client.connect(location);
+    }
+
+    void disconnect() {
+        client.disconnect();
+    }
+
+    /**
+     * Walks {@code meters} on a slowly drifting heading and hands the new position to the
+     * client, as a handset's location callback would. Called from one fleet timer task.
+     */
+    void move(double meters, Random random) {
+        heading += (random.nextDouble() - 0.5) * Math.PI / 4;
+        latitude += meters * Math.cos(heading) / 111320;
+        longitude += meters * Math.sin(heading) / (111320 * Math.cos(Math.toRadians(latitude)));
+        locationFixes++;
+        client.updateLocation(latitude, longitude);
+    }
+
+    long locationFixes() {
+        return locationFixes;
+    }
+
+    long locationUpdatesSent() {
+        return client.getLocationUpdatesSent();
+    }
+
+    long heartbeatsSent() {
+        return client.getHeartbeatsSent();
+    }
+
+    String getUeId() {
+        return ueId;
+    }
+
+    @Override
+    public void onAlertReceived(WebSocketAlert alert) {
+        long sentAt = alert.fleetSentAt;
+        if (alert.replayed) {
+            // Missed while disconnected: a delivery, but not a fan-out latency sample
+            stats.alertReplayed();
+        } else {
+            stats.alertReceived(sentAt > 0 ? System.currentTimeMillis() - sentAt : -1);
+        }
+        client.acknowledgeAlert(alert.identifier != null ? alert.identifier : "unknown", true, true);
+    }
+
+    @Override
+    public synchronized void onConnectionStatusChanged(boolean connected) {
+        if (connected != this.connected) {
+            this.connected = connected;
+            stats.connectionChanged(connected);
+        }
+    }
+
+    @Override
+    public void onReconnectScheduled(int attempt, long delayMs) {
+        stats.reconnectScheduled(delayMs);
+    }
+
+    @Override
+    public void onError(String error) {
+        stats.error();
+    }
+}